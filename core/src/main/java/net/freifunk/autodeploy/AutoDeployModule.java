@@ -22,18 +22,64 @@
 package net.freifunk.autodeploy;
 
 import static com.google.inject.Scopes.SINGLETON;
+
+import java.io.File;
+
 import net.freifunk.autodeploy.device.DeviceDeployerModule;
 import net.freifunk.autodeploy.device.DeviceService;
 import net.freifunk.autodeploy.device.DeviceServiceImpl;
+import net.freifunk.autodeploy.device.DeviceStateProbe;
+import net.freifunk.autodeploy.device.HttpDeviceStateProbeImpl;
+import net.freifunk.autodeploy.device.profile.DeviceProfileService;
+import net.freifunk.autodeploy.device.profile.DeviceProfileServiceImpl;
 import net.freifunk.autodeploy.firmware.FirmwareConfiguratorModule;
 import net.freifunk.autodeploy.firmware.FirmwareService;
 import net.freifunk.autodeploy.firmware.FirmwareServiceImpl;
+import net.freifunk.autodeploy.firmware.community.CommunityIndex;
+import net.freifunk.autodeploy.firmware.image.FirmwareImageCache;
+import net.freifunk.autodeploy.firmware.image.FirmwareImageCacheImpl;
+import net.freifunk.autodeploy.firmware.image.FirmwareImageCatalog;
+import net.freifunk.autodeploy.firmware.image.FirmwareImageHashIndex;
+import net.freifunk.autodeploy.firmware.image.SidecarFirmwareImageHashIndexImpl;
+import net.freifunk.autodeploy.firmware.image.WatchingFirmwareImageCatalogImpl;
+import net.freifunk.autodeploy.firmware.mirror.FirmwareMirror;
+import net.freifunk.autodeploy.firmware.mirror.FirmwareMirrorImpl;
+import net.freifunk.autodeploy.http.BoundedKeepAliveStrategy;
+import net.freifunk.autodeploy.http.HttpClientMetrics;
+import net.freifunk.autodeploy.http.HttpClientMetricsImpl;
+import net.freifunk.autodeploy.http.InstrumentedConnectionManager;
+import net.freifunk.autodeploy.http.InstrumentedRequestExecutor;
+import net.freifunk.autodeploy.journal.DeploymentJournal;
+import net.freifunk.autodeploy.journal.FileDeploymentJournalImpl;
+import net.freifunk.autodeploy.journal.JournalDirectory;
+import net.freifunk.autodeploy.lifecycle.BootVerifier;
+import net.freifunk.autodeploy.lifecycle.BootVerifierImpl;
+import net.freifunk.autodeploy.lifecycle.RebootTracker;
+import net.freifunk.autodeploy.lifecycle.RebootTrackerImpl;
+import net.freifunk.autodeploy.network.LinkAwareReadinessDetectorImpl;
+import net.freifunk.autodeploy.network.LinkMonitor;
+import net.freifunk.autodeploy.network.ReadinessDetector;
+import net.freifunk.autodeploy.network.RewiringDetector;
+import net.freifunk.autodeploy.network.RewiringDetectorImpl;
+import net.freifunk.autodeploy.network.SysfsLinkMonitorImpl;
+import net.freifunk.autodeploy.phase.DeploymentPhases;
+import net.freifunk.autodeploy.phase.DeploymentPhasesImpl;
+import net.freifunk.autodeploy.phase.PhaseScheduler;
+import net.freifunk.autodeploy.phase.PhaseSchedulerImpl;
+import net.freifunk.autodeploy.registration.FileNodeRegistrationQueueImpl;
+import net.freifunk.autodeploy.registration.NodeRegistrationClient;
+import net.freifunk.autodeploy.registration.NodeRegistrationQueue;
+import net.freifunk.autodeploy.registration.ParallelNodeRegistrationClientImpl;
+import net.freifunk.autodeploy.registry.FileNodeRegistryImpl;
+import net.freifunk.autodeploy.registry.NodeRegistry;
 import net.freifunk.autodeploy.selenium.Actor;
 import net.freifunk.autodeploy.selenium.ActorImpl;
 import net.freifunk.autodeploy.selenium.HeadlessDriver;
 
 import org.apache.http.client.HttpClient;
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.codehaus.jackson.map.ObjectMapper;
 import org.openqa.selenium.WebDriver;
 import org.openqa.selenium.htmlunit.HtmlUnitDriver;
@@ -55,6 +101,17 @@ public class AutoDeployModule extends AbstractModule {
 
     private static final Logger LOG = LoggerFactory.getLogger(AutoDeployModule.class);
 
+    // a dead server must not hang the station, e.g. while registering nodes
+    private static final String JOURNAL_DIRECTORY_PROPERTY = "journal.directory";
+    private static final String DEFAULT_JOURNAL_DIRECTORY = ".autodeploy";
+
+    private static final int CONNECT_TIMEOUT_MS = 10000;
+    private static final int SOCKET_TIMEOUT_MS = 30000;
+    private static final int CONNECTION_REQUEST_TIMEOUT_MS = 30000;
+
+    private static final int MAX_CONNECTIONS = 20;
+    private static final long MAX_IDLE_MS = 30000;
+
     @Override
     protected void configure() {
         install(new DeviceDeployerModule());
@@ -62,7 +119,24 @@ public class AutoDeployModule extends AbstractModule {
 
         bind(Actor.class).to(ActorImpl.class).in(SINGLETON);
         bind(DeviceService.class).to(DeviceServiceImpl.class).in(SINGLETON);
+        bind(DeviceStateProbe.class).to(HttpDeviceStateProbeImpl.class).in(SINGLETON);
+        bind(DeviceProfileService.class).to(DeviceProfileServiceImpl.class).in(SINGLETON);
         bind(FirmwareService.class).to(FirmwareServiceImpl.class).in(SINGLETON);
+        bind(FirmwareImageCatalog.class).to(WatchingFirmwareImageCatalogImpl.class).in(SINGLETON);
+        bind(FirmwareImageCache.class).to(FirmwareImageCacheImpl.class).in(SINGLETON);
+        bind(FirmwareImageHashIndex.class).to(SidecarFirmwareImageHashIndexImpl.class).in(SINGLETON);
+        bind(FirmwareMirror.class).to(FirmwareMirrorImpl.class).in(SINGLETON);
+        bind(DeploymentJournal.class).to(FileDeploymentJournalImpl.class).in(SINGLETON);
+        bind(LinkMonitor.class).to(SysfsLinkMonitorImpl.class).in(SINGLETON);
+        bind(RewiringDetector.class).to(RewiringDetectorImpl.class).in(SINGLETON);
+        bind(BootVerifier.class).to(BootVerifierImpl.class).in(SINGLETON);
+        bind(ReadinessDetector.class).to(LinkAwareReadinessDetectorImpl.class).in(SINGLETON);
+        bind(RebootTracker.class).to(RebootTrackerImpl.class).in(SINGLETON);
+        bind(NodeRegistrationQueue.class).to(FileNodeRegistrationQueueImpl.class).in(SINGLETON);
+        bind(NodeRegistrationClient.class).to(ParallelNodeRegistrationClientImpl.class).in(SINGLETON);
+        bind(NodeRegistry.class).to(FileNodeRegistryImpl.class).in(SINGLETON);
+        bind(PhaseScheduler.class).to(PhaseSchedulerImpl.class).in(SINGLETON);
+        bind(DeploymentPhases.class).to(DeploymentPhasesImpl.class).in(SINGLETON);
     }
 
     @Provides
@@ -100,8 +174,47 @@ public class AutoDeployModule extends AbstractModule {
 
     @Provides
     @Singleton
-    private HttpClient provideHttpClient() {
-        return HttpClientBuilder.create().build();
+    private PoolingHttpClientConnectionManager provideConnectionPool() {
+        final PoolingHttpClientConnectionManager pool = new PoolingHttpClientConnectionManager();
+        pool.setMaxTotal(MAX_CONNECTIONS);
+        // the mirror downloads several images from the same host at once, node registrations are sent in parallel
+        pool.setDefaultMaxPerRoute(Math.max(FirmwareMirrorImpl.DEFAULT_THREADS, ParallelNodeRegistrationClientImpl.DEFAULT_THREADS));
+        return pool;
+    }
+
+    @Provides
+    @Singleton
+    private HttpClientMetricsImpl provideHttpClientMetricsImpl(final PoolingHttpClientConnectionManager pool) {
+        return new HttpClientMetricsImpl(pool);
+    }
+
+    @Provides
+    private HttpClientMetrics provideHttpClientMetrics(final HttpClientMetricsImpl metrics) {
+        return metrics;
+    }
+
+    @Provides
+    @Singleton
+    private HttpClient provideHttpClient(final PoolingHttpClientConnectionManager pool, final HttpClientMetricsImpl metrics) {
+        return HttpClientBuilder.create()
+            .setConnectionManager(new InstrumentedConnectionManager(pool, metrics, MAX_IDLE_MS))
+            .setRequestExecutor(new InstrumentedRequestExecutor(metrics))
+            .setKeepAliveStrategy(new BoundedKeepAliveStrategy(MAX_IDLE_MS))
+            .setDefaultRequestConfig(
+                RequestConfig.custom()
+                    .setConnectTimeout(CONNECT_TIMEOUT_MS)
+                    .setSocketTimeout(SOCKET_TIMEOUT_MS)
+                    .setConnectionRequestTimeout(CONNECTION_REQUEST_TIMEOUT_MS)
+                .build()
+            )
+        .build();
+    }
+
+    @Provides
+    @Singleton
+    @JournalDirectory
+    private File provideJournalDirectory() {
+        return new File(System.getProperty(JOURNAL_DIRECTORY_PROPERTY, new File(System.getProperty("user.home"), DEFAULT_JOURNAL_DIRECTORY).getPath()));
     }
 
     @Provides
@@ -109,4 +222,10 @@ public class AutoDeployModule extends AbstractModule {
     private ObjectMapper provideObjectMapper() {
         return new ObjectMapper();
     }
+
+    @Provides
+    private CommunityIndex provideCommunityIndex() {
+        // shared with the configurator plugin, which reads it before the injector exists
+        return CommunityIndex.getDefault();
+    }
 }
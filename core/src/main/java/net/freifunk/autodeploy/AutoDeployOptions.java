@@ -25,7 +25,10 @@ import static net.freifunk.autodeploy.AutoDeployOptions.Command.RUN_PHASES;
 import static net.freifunk.autodeploy.AutoDeployOptions.Command.SHOW_FIRMWARE_LIST;
 import static net.freifunk.autodeploy.AutoDeployOptions.Command.SHOW_HELP;
 import static net.freifunk.autodeploy.AutoDeployOptions.Command.SHOW_MODEL_LIST;
+import static net.freifunk.autodeploy.AutoDeployOptions.Command.SYNC_MIRROR;
 
+import java.io.File;
+import java.net.URI;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -45,6 +48,8 @@ public class AutoDeployOptions {
 
     private final List<Command> _commands;
     private final Map<Phase, PhaseOptions> _phases;
+    private final List<URI> _mirrorSources;
+    private final File _mirrorDirectory;
 
     /**
      * Command to perform.
@@ -57,6 +62,7 @@ public class AutoDeployOptions {
         SHOW_FIRMWARE_LIST,
         SHOW_MODEL_LIST,
         RUN_PHASES,
+        SYNC_MIRROR,
         ;
     }
 
@@ -90,6 +96,18 @@ public class AutoDeployOptions {
         } else {
             _phases = Maps.uniqueIndex(phases, PhaseOptions.GET_PHASE);
         }
+        _mirrorSources = ImmutableList.of();
+        _mirrorDirectory = null;
+    }
+
+    private AutoDeployOptions(
+        final List<URI> mirrorSources,
+        final File mirrorDirectory
+    ) {
+        _commands = ImmutableList.of(SYNC_MIRROR);
+        _phases = ImmutableMap.of();
+        _mirrorSources = ImmutableList.copyOf(mirrorSources);
+        _mirrorDirectory = mirrorDirectory;
     }
 
     /**
@@ -125,6 +143,18 @@ public class AutoDeployOptions {
         return new AutoDeployOptions(RUN_PHASES, phases);
     }
 
+    /**
+     * Synchronize the given directory with the given sources.
+     */
+    public static AutoDeployOptions forMirrorSync(
+        final List<URI> sources,
+        final File directory
+    ) {
+        Preconditions.checkArgument(!sources.isEmpty(), "Sources may not be empty.");
+        Preconditions.checkArgument(directory != null, "Directory may not be null.");
+        return new AutoDeployOptions(sources, directory);
+    }
+
     public boolean shallPerform(final Command command) {
         return _commands.contains(command);
     }
@@ -145,4 +175,18 @@ public class AutoDeployOptions {
         );
         return options;
     }
+
+    /**
+     * @return the manifests or directory indexes to synchronize the mirror with.
+     */
+    public List<URI> getMirrorSources() {
+        return _mirrorSources;
+    }
+
+    /**
+     * @return the directory to synchronize, <code>null</code> if no synchronization is requested.
+     */
+    public File getMirrorDirectory() {
+        return _mirrorDirectory;
+    }
 }
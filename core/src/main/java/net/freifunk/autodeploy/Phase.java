@@ -21,21 +21,98 @@
  */
 package net.freifunk.autodeploy;
 
+import static net.freifunk.autodeploy.phase.Resource.NIC;
+import static net.freifunk.autodeploy.phase.Resource.PRINTER;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+import net.freifunk.autodeploy.phase.Resource;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+
 /**
- * Phase during the auto deployment.
+ * Phase during the auto deployment. The phases form a graph, each phase only starting once the phases it depends on
+ * are done or skipped. Phases of different deployments not competing for a {@link Resource} run concurrently. Each
+ * phase is declared after the phases it depends on.
  *
  * @author Andreas Baldeau <andreas@baldeau.net>
  */
 public enum Phase {
 
+    /**
+     * Detect the connected device.
+     */
+    DETECT(1, EnumSet.of(NIC)),
+
+    /**
+     * Pick the firmware image for the device and check it is intact.
+     */
+    VALIDATE(2, EnumSet.noneOf(Resource.class), DETECT),
+
     /**
      * Deploy the firmware to the device.
      */
-    DEPLOY,
+    DEPLOY(1, EnumSet.of(NIC), VALIDATE),
+
+    /**
+     * Wait for the device to come up with the deployed firmware, rewiring it if needed.
+     */
+    AWAIT_REBOOT(1, EnumSet.of(NIC), DEPLOY),
 
     /**
      * Configure the deployed firmware on the device.
      */
-    CONFIGURE,
+    CONFIGURE(1, EnumSet.of(NIC), AWAIT_REBOOT),
+
+    /**
+     * Register the configured node with the community. The phase only hands the node to the registration queue and
+     * waits for it being sent, so it neither needs a resource nor limits the registrations in flight.
+     */
+    REGISTER(Integer.MAX_VALUE, EnumSet.noneOf(Resource.class), CONFIGURE),
+
+    /**
+     * Verify the configured node boots into regular mode. The verification itself runs in the background, as the
+     * device gets disconnected meanwhile.
+     */
+    VERIFY(4, EnumSet.noneOf(Resource.class), CONFIGURE),
+
+    /**
+     * Print the label for the configured (and possibly registered) node.
+     */
+    PRINT(1, EnumSet.of(PRINTER), REGISTER),
     ;
+
+    private final int _concurrencyLimit;
+    private final Set<Resource> _resources;
+    private final Set<Phase> _dependencies;
+
+    private Phase(final int concurrencyLimit, final EnumSet<Resource> resources, final Phase... dependencies) {
+        _concurrencyLimit = concurrencyLimit;
+        _resources = Sets.immutableEnumSet(resources);
+        // no enum set, as the phases are still being created
+        _dependencies = ImmutableSet.copyOf(dependencies);
+    }
+
+    /**
+     * @return how many deployments may be in this phase at once.
+     */
+    public int getConcurrencyLimit() {
+        return _concurrencyLimit;
+    }
+
+    /**
+     * @return the resources needed exclusively while being in this phase.
+     */
+    public Set<Resource> getResources() {
+        return _resources;
+    }
+
+    /**
+     * @return the phases to be done or skipped before this phase may start.
+     */
+    public Set<Phase> getDependencies() {
+        return _dependencies;
+    }
 }
@@ -26,6 +26,7 @@ import static net.freifunk.autodeploy.Phase.DEPLOY;
 
 import java.io.File;
 
+import net.freifunk.autodeploy.device.DeploymentMode;
 import net.freifunk.autodeploy.device.Device;
 import net.freifunk.autodeploy.firmware.Firmware;
 
@@ -49,16 +50,22 @@ public abstract class PhaseOptions {
         private final Device _device;
         private final File _firmwareImage;
         private final boolean _autodetectDevice;
+        private final DeploymentMode _mode;
+        private final Firmware _firmware;
 
         private DeployPhaseOptions(
             final Device device,
             final boolean autodetectDevice,
-            final File firmwareImage
+            final DeploymentMode mode,
+            final File firmwareImage,
+            final Firmware firmware
         ) {
             super(DEPLOY);
             _device = device;
             _autodetectDevice = autodetectDevice;
+            _mode = mode;
             _firmwareImage = firmwareImage;
+            _firmware = firmware;
         }
 
         public Device getDevice() {
@@ -69,9 +76,26 @@ public abstract class PhaseOptions {
             return _autodetectDevice;
         }
 
+        /**
+         * The mode the device is in.
+         */
+        public DeploymentMode getMode() {
+            return _mode;
+        }
+
+        /**
+         * The firmware image or a directory to pick the newest release of {@link #getFirmware()} from.
+         */
         public File getFirmwareImage() {
             return _firmwareImage;
         }
+
+        /**
+         * The firmware to pick from the directory, <code>null</code> if a firmware image is given directly.
+         */
+        public Firmware getFirmware() {
+            return _firmware;
+        }
     }
 
     /**
@@ -142,14 +166,31 @@ public abstract class PhaseOptions {
     /**
      * Options for deploying the firmware to the device.
      * @param autodetectDevice
+     * @param mode the mode the device is in.
      */
     public static PhaseOptions forDeployPhase(
         final Device device,
         final boolean autodetectDevice,
+        final DeploymentMode mode,
         final File firmwareImage
+    ) {
+        return forDeployPhase(device, autodetectDevice, mode, firmwareImage, null);
+    }
+
+    /**
+     * Options for deploying the newest release of the given firmware found in the given directory.
+     * @param mode the mode the device is in.
+     */
+    public static PhaseOptions forDeployPhase(
+        final Device device,
+        final boolean autodetectDevice,
+        final DeploymentMode mode,
+        final File firmwareImageDirectory,
+        final Firmware firmware
     ) {
         Preconditions.checkArgument((device == null) == autodetectDevice, "Either autodetection must be set or a device be given.");
-        return new DeployPhaseOptions(device, autodetectDevice, firmwareImage);
+        Preconditions.checkArgument(mode != null, "Mode may not be null.");
+        return new DeployPhaseOptions(device, autodetectDevice, mode, firmwareImageDirectory, firmware);
     }
 
     /**
@@ -31,10 +31,16 @@ public class DetailedDevice {
 
     private final Device _device;
     private final String _mac;
+    private final boolean _configurationKept;
 
     public DetailedDevice(final Device device, final String mac) {
+        this(device, mac, false);
+    }
+
+    public DetailedDevice(final Device device, final String mac, final boolean configurationKept) {
         _device = device;
         _mac = mac;
+        _configurationKept = configurationKept;
     }
 
     public Device getDevice() {
@@ -44,4 +50,11 @@ public class DetailedDevice {
     public String getMac() {
         return _mac;
     }
+
+    /**
+     * Whether the device kept its previous Freifunk configuration, so there is no need to configure it again.
+     */
+    public boolean isConfigurationKept() {
+        return _configurationKept;
+    }
 }
@@ -41,6 +41,9 @@ public interface DeviceDeployer {
 
     /**
      * Deploys the specified firmware image.
+     *
+     * @throws InvalidFirmwareImageException if the image is not suitable for the connected device. The image will
+     *         not be uploaded in this case.
      */
-    DetailedDevice deploy(File firmwareImage) throws FileNotFoundException;
+    DetailedDevice deploy(File firmwareImage) throws FileNotFoundException, InvalidFirmwareImageException;
 }
@@ -22,42 +22,74 @@
 package net.freifunk.autodeploy.device;
 
 import static com.google.inject.Scopes.SINGLETON;
+import static net.freifunk.autodeploy.device.DeploymentMode.FACTORY;
+import static net.freifunk.autodeploy.device.DeploymentMode.RECOVERY;
+import static net.freifunk.autodeploy.device.DeploymentMode.SYSUPGRADE;
 
+import java.util.EnumMap;
+import java.util.IdentityHashMap;
 import java.util.Map;
-import java.util.Set;
+import java.util.ServiceLoader;
 
-import net.freifunk.autodeploy.device.tplink.TPLinkDeployer;
+import net.freifunk.autodeploy.device.tplink.TPLinkFirmwareImageValidator;
+import net.freifunk.autodeploy.plugin.DeviceDeployerPlugin;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.inject.Key;
 import com.google.inject.Module;
 import com.google.inject.PrivateModule;
+import com.google.inject.Provider;
 import com.google.inject.TypeLiteral;
 import com.google.inject.multibindings.MapBinder;
+import com.google.inject.name.Names;
 
 /**
- * {@link Module} to bind a {@link DeviceDeployer}.
+ * {@link Module} to bind the {@link DeviceDeployer}s of all {@link DeviceDeployerPlugin}s found on the classpath.
  *
  * @author Andreas Baldeau <andreas@baldeau.net>
  */
 public class DeviceDeployerModule extends PrivateModule {
 
+    private static final Logger LOG = LoggerFactory.getLogger(DeviceDeployerModule.class);
+
     @Override
     protected final void configure() {
-        bindDeployer(TPLinkDeployer.class);
+        final Map<DeploymentMode, MapBinder<Device, DeviceDeployer>> deployerByDeviceBinders = new EnumMap<>(DeploymentMode.class);
+        deployerByDeviceBinders.put(FACTORY, MapBinder.newMapBinder(binder(), Device.class, DeviceDeployer.class));
+        deployerByDeviceBinders.put(SYSUPGRADE, MapBinder.newMapBinder(binder(), Device.class, DeviceDeployer.class, Sysupgrade.class));
+        deployerByDeviceBinders.put(RECOVERY, MapBinder.newMapBinder(binder(), Device.class, DeviceDeployer.class, Recovery.class));
+
+        for (final DeviceDeployerPlugin plugin: ServiceLoader.load(DeviceDeployerPlugin.class)) {
+            LOG.debug("Binding deployers of plugin: {}", plugin.getClass().getSimpleName());
+            bindPlugin(plugin, deployerByDeviceBinders.get(plugin.getMode()));
+        }
+
+        // shared by the deployers to cache parsed image headers
+        bind(TPLinkFirmwareImageValidator.class).in(SINGLETON);
 
-        expose(new TypeLiteral<Map<Device, DeviceDeployer>>() {});
+        expose(new TypeLiteral<Map<Device, Provider<DeviceDeployer>>>() {});
+        expose(Key.get(new TypeLiteral<Map<Device, Provider<DeviceDeployer>>>() {}, Sysupgrade.class));
+        expose(Key.get(new TypeLiteral<Map<Device, Provider<DeviceDeployer>>>() {}, Recovery.class));
     }
 
-    @SuppressWarnings("unchecked")
-    private void bindDeployer(final Class<? extends DeviceDeployer> cls) {
-        bind(cls).in(SINGLETON);
+    private void bindPlugin(
+        final DeviceDeployerPlugin plugin,
+        final MapBinder<Device, DeviceDeployer> deployerByDeviceBinder
+    ) {
+        // each provider gets its own singleton key, so devices sharing a provider share the deployer instance
+        final Map<Provider<? extends DeviceDeployer>, Key<DeviceDeployer>> keysByProvider = new IdentityHashMap<>();
 
-        final MapBinder<Device, DeviceDeployer> deployerByDeviceBinder = MapBinder.newMapBinder(binder(), Device.class, DeviceDeployer.class);
-        try {
-            for (final Device device: (Set<Device>) cls.getField("SUPPORTED_DEVICES").get(null)) {
-                deployerByDeviceBinder.addBinding(device).to(cls);
+        for (final Device device: plugin.getSupportedDevices()) {
+            final Provider<? extends DeviceDeployer> provider = plugin.getDeployerProvider(device);
+            Key<DeviceDeployer> key = keysByProvider.get(provider);
+            if (key == null) {
+                key = Key.get(DeviceDeployer.class, Names.named(plugin.getClass().getName() + "#" + keysByProvider.size()));
+                bind(key).toProvider(provider).in(SINGLETON);
+                keysByProvider.put(provider, key);
             }
-        } catch (IllegalArgumentException | IllegalAccessException | NoSuchFieldException | SecurityException e) {
-            throw new IllegalStateException("Could not bind deployer: " + cls, e);
+            deployerByDeviceBinder.addBinding(device).to(key);
         }
     }
 }
@@ -37,6 +37,13 @@ public interface DeviceService {
      */
     Device autodetectDevice();
 
+    /**
+     * Attempts to detect a connected device being in the given mode.
+     *
+     * @return <code>null</code> iff no device in the given mode could be detected.
+     */
+    Device autodetectDevice(DeploymentMode mode);
+
     /**
      * @return the supported {@link Device} or <code>null</code> if the device is not supported.
      */
@@ -47,6 +54,11 @@ public interface DeviceService {
      */
     DeviceDeployer getDeployer(Device device);
 
+    /**
+     * @return the {@link DeviceDeployer} for the given {@link Device} being in the given mode.
+     */
+    DeviceDeployer getDeployer(Device device, DeploymentMode mode);
+
     /**
      * @return the supported {@link Device}s.
      */
@@ -28,9 +28,12 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Predicate;
-import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.google.inject.Inject;
+import com.google.inject.Provider;
 
 /**
  * Default implementation of {@link DeviceService}.
@@ -41,20 +44,36 @@ public class DeviceServiceImpl implements DeviceService {
 
     private static final Logger LOG = LoggerFactory.getLogger(DeviceServiceImpl.class);
 
-    private final Map<Device, DeviceDeployer> _deployersByDevice;
-    private final Set<DeviceDeployer> _deployers;
+    // deployers are created on first use, so only the ones actually needed get instantiated
+    private final Map<DeploymentMode, Map<Device, Provider<DeviceDeployer>>> _deployersByModeAndDevice;
 
     @Inject
     public DeviceServiceImpl(
-        final Map<Device, DeviceDeployer> deployersByDevice
+        final Map<Device, Provider<DeviceDeployer>> deployersByDevice,
+        @Sysupgrade final Map<Device, Provider<DeviceDeployer>> sysupgradeDeployersByDevice,
+        @Recovery final Map<Device, Provider<DeviceDeployer>> recoveryDeployersByDevice
     ) {
-        _deployersByDevice = deployersByDevice;
-        _deployers = ImmutableSet.copyOf(deployersByDevice.values());
+        _deployersByModeAndDevice = Maps.immutableEnumMap(ImmutableMap.of(
+            DeploymentMode.FACTORY, deployersByDevice,
+            DeploymentMode.SYSUPGRADE, sysupgradeDeployersByDevice,
+            DeploymentMode.RECOVERY, recoveryDeployersByDevice
+        ));
     }
 
     @Override
     public Device autodetectDevice() {
-        for (final DeviceDeployer deployer: _deployers) {
+        return autodetectDevice(DeploymentMode.FACTORY);
+    }
+
+    @Override
+    public Device autodetectDevice(final DeploymentMode mode) {
+        // deployers supporting several devices are singletons, so each one is only tried once
+        final Set<DeviceDeployer> deployers = Sets.newLinkedHashSet();
+        for (final Provider<DeviceDeployer> provider: _deployersByModeAndDevice.get(mode).values()) {
+            deployers.add(provider.get());
+        }
+
+        for (final DeviceDeployer deployer: deployers) {
             try {
                 LOG.debug("Trying to dectect device with: {}", deployer.getClass().getSimpleName());
                 final Device device = deployer.autodetect();
@@ -73,7 +92,7 @@ public class DeviceServiceImpl implements DeviceService {
 
     @Override
     public Device findSupportedDevice(final String deviceString) {
-        final Iterable<Device> matches = Iterables.filter(_deployersByDevice.keySet(), new Predicate<Device>() {
+        final Iterable<Device> matches = Iterables.filter(_deployersByModeAndDevice.get(DeploymentMode.FACTORY).keySet(), new Predicate<Device>() {
 
             @Override
             public boolean apply(final Device device) {
@@ -89,15 +108,20 @@ public class DeviceServiceImpl implements DeviceService {
 
     @Override
     public DeviceDeployer getDeployer(final Device device) {
-        final DeviceDeployer deployer = _deployersByDevice.get(device);
+        return getDeployer(device, DeploymentMode.FACTORY);
+    }
+
+    @Override
+    public DeviceDeployer getDeployer(final Device device, final DeploymentMode mode) {
+        final Provider<DeviceDeployer> deployer = _deployersByModeAndDevice.get(mode).get(device);
         if (deployer == null) {
-            throw new IllegalArgumentException("No deployer found for device: " + device);
+            throw new IllegalArgumentException("No deployer found for device: " + device + ", mode = " + mode);
         }
-        return deployer;
+        return deployer.get();
     }
 
     @Override
     public Set<Device> getSupportedDevices() {
-        return _deployersByDevice.keySet();
+        return _deployersByModeAndDevice.get(DeploymentMode.FACTORY).keySet();
     }
 }
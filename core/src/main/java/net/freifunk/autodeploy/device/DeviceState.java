@@ -0,0 +1,66 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.device;
+
+/**
+ * What a connected device is currently running, as found by the {@link DeviceStateProbe}.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public enum DeviceState {
+
+    /**
+     * The device runs the vendor's firmware.
+     */
+    VENDOR_FIRMWARE(DeploymentMode.FACTORY),
+
+    /**
+     * The device runs a Gluon based firmware in config mode. It is usually configured right away, the deployment mode
+     * only applies if it gets flashed again.
+     */
+    GLUON_CONFIG_MODE(DeploymentMode.SYSUPGRADE),
+
+    /**
+     * The device runs a Gluon based firmware in regular mode, so there is nothing to deploy until it is booted into
+     * config mode.
+     */
+    GLUON_REGULAR_MODE(null),
+
+    /**
+     * No web interface answered, e.g. because the device is still booting or in bootloader recovery mode.
+     */
+    UNKNOWN(null),
+    ;
+
+    private final DeploymentMode _deploymentMode;
+
+    private DeviceState(final DeploymentMode deploymentMode) {
+        _deploymentMode = deploymentMode;
+    }
+
+    /**
+     * @return the mode to deploy a device in this state with or <code>null</code> if it cannot be told.
+     */
+    public DeploymentMode getDeploymentMode() {
+        return _deploymentMode;
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.device;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import net.freifunk.autodeploy.device.profile.DeviceProfile;
+import net.freifunk.autodeploy.device.profile.DeviceProfileService;
+import net.freifunk.autodeploy.firmware.community.Community;
+import net.freifunk.autodeploy.firmware.community.CommunityIndex;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Inject;
+
+/**
+ * {@link DeviceStateProbe} requesting the vendors' web interfaces, the Gluon config mode and the next node addresses of
+ * the communities concurrently, each with a short timeout.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public class HttpDeviceStateProbeImpl implements DeviceStateProbe {
+
+    private static final Logger LOG = LoggerFactory.getLogger(HttpDeviceStateProbeImpl.class);
+
+    private static final URI CONFIG_MODE_URI = URI.create("http://192.168.1.1:80/");
+    // the start page of the config mode redirects to LuCI
+    private static final String CONFIG_MODE_MARKER = "luci";
+
+    private static final int PROBE_TIMEOUT_MS = 1000;
+
+    // vendor interfaces on the config mode address must not hide the config mode
+    private static final List<DeviceState> PRIORITIES = ImmutableList.of(
+        DeviceState.GLUON_CONFIG_MODE,
+        DeviceState.VENDOR_FIRMWARE,
+        DeviceState.GLUON_REGULAR_MODE
+    );
+
+    private static final RequestConfig PROBE_CONFIG = RequestConfig.custom()
+        .setConnectTimeout(PROBE_TIMEOUT_MS)
+        .setSocketTimeout(PROBE_TIMEOUT_MS)
+        .setConnectionRequestTimeout(PROBE_TIMEOUT_MS)
+        .setRedirectsEnabled(false)
+        .build();
+
+    /**
+     * A web interface to request and the state its answer indicates.
+     *
+     * @author Andreas Baldeau <andreas@baldeau.net>
+     */
+    private final class Probe implements Callable<Boolean> {
+
+        private final URI _uri;
+        private final DeviceState _state;
+        private final String _marker;
+
+        private Probe(final URI uri, final DeviceState state, final String marker) {
+            _uri = uri;
+            _state = state;
+            _marker = marker;
+        }
+
+        @Override
+        public Boolean call() {
+            final HttpGet request = new HttpGet(_uri);
+            request.setConfig(PROBE_CONFIG);
+            try {
+                final HttpResponse response = _httpClient.execute(request);
+                final String body = response.getEntity() == null ? "" : EntityUtils.toString(response.getEntity());
+                // any answer will do, e.g. vendor interfaces asking for authentication
+                return _marker == null || body.toLowerCase(Locale.ENGLISH).contains(_marker);
+            } catch (final IOException e) {
+                LOG.trace("Probing {} failed: {}", _uri, e.getClass().getSimpleName());
+                request.abort();
+                return false;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return Objects.toStringHelper(this)
+                .add("uri", _uri)
+                .add("state", _state)
+            .toString();
+        }
+    }
+
+    private final DeviceProfileService _profileService;
+    private final CommunityIndex _communityIndex;
+    private final HttpClient _httpClient;
+    private final ExecutorService _executor;
+
+    // built on first use, as it loads the device profiles
+    private List<Probe> _probes;
+
+    @Inject
+    public HttpDeviceStateProbeImpl(
+        final DeviceProfileService profileService,
+        final CommunityIndex communityIndex,
+        final HttpClient httpClient
+    ) {
+        _profileService = profileService;
+        _communityIndex = communityIndex;
+        _httpClient = httpClient;
+        _executor = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setNameFormat("device-state-probe-%d").setDaemon(true).build()
+        );
+    }
+
+    @Override
+    public DeviceState probe() {
+        final long start = System.nanoTime();
+        final List<Probe> probes = getProbes();
+
+        final List<Future<Boolean>> futures;
+        try {
+            // the probes time out on their own, this only guards against hanging name lookups and the like
+            futures = _executor.invokeAll(probes, 2 * PROBE_TIMEOUT_MS, MILLISECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while probing device state.", e);
+        }
+
+        final Map<DeviceState, Probe> answered = Maps.newEnumMap(DeviceState.class);
+        for (int i = 0; i < probes.size(); i++) {
+            final Probe probe = probes.get(i);
+            if (isAnswered(futures.get(i)) && !answered.containsKey(probe._state)) {
+                answered.put(probe._state, probe);
+            }
+        }
+
+        DeviceState state = DeviceState.UNKNOWN;
+        for (final DeviceState candidate: PRIORITIES) {
+            if (answered.containsKey(candidate)) {
+                state = candidate;
+                break;
+            }
+        }
+        LOG.debug(
+            "Device state {} probed in {} ms: answered = {}",
+            state,
+            NANOSECONDS.toMillis(System.nanoTime() - start),
+            answered.values()
+        );
+        return state;
+    }
+
+    private static boolean isAnswered(final Future<Boolean> future) {
+        try {
+            return future.get();
+        } catch (final CancellationException | ExecutionException | InterruptedException e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            return false;
+        }
+    }
+
+    private synchronized List<Probe> getProbes() {
+        if (_probes == null) {
+            final List<Probe> probes = Lists.newArrayList();
+            probes.add(new Probe(CONFIG_MODE_URI, DeviceState.GLUON_CONFIG_MODE, CONFIG_MODE_MARKER));
+            for (final String vendor: _profileService.getVendors()) {
+                final DeviceProfile profile = _profileService.getProfile(vendor);
+                final URI uri = URI.create("http://" + profile.getHost() + ":" + profile.getPort() + "/");
+                probes.add(new Probe(uri, DeviceState.VENDOR_FIRMWARE, null));
+            }
+            for (final Community community: _communityIndex.getCommunities()) {
+                if (community.getNextNodeUri() != null) {
+                    probes.add(new Probe(community.getNextNodeUri(), DeviceState.GLUON_REGULAR_MODE, null));
+                }
+            }
+            _probes = ImmutableList.copyOf(probes);
+            LOG.debug("Device state probes: {}", _probes);
+        }
+        return _probes;
+    }
+}
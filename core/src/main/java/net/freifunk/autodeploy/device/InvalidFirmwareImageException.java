@@ -19,31 +19,20 @@
  * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
  * See http://logback.qos.ch/license.html for details.
  */
-package net.freifunk.autodeploy.firmware;
-
-import java.net.URI;
-import java.util.Set;
-
-import net.freifunk.autodeploy.selenium.Actor;
-
-import com.google.common.collect.ImmutableSet;
-import com.google.inject.Inject;
+package net.freifunk.autodeploy.device;
 
 /**
- * Configures the Freifunk Lübeck firmware.
+ * Exception in case a firmware image is not suitable for the device it shall be deployed to.
  *
  * @author Andreas Baldeau <andreas@baldeau.net>
  */
-public class FreifunkLuebeckConfigurator extends AbstractFreifunkNordConfigurator {
+public class InvalidFirmwareImageException extends Exception {
 
-    public static final Set<Firmware> SUPPORTED_FIRMWARES = ImmutableSet.of(
-        new Firmware("ffhl", "Freifunk Lübeck", URI.create("http://freifunk.metameute.de/mitmachen.html"))
-    );
+    public InvalidFirmwareImageException(final String message) {
+        super(message);
+    }
 
-    @Inject
-    public FreifunkLuebeckConfigurator(
-        final Actor actor
-    ) {
-        super(actor);
+    public InvalidFirmwareImageException(final String message, final Throwable cause) {
+        super(message, cause);
     }
 }
@@ -0,0 +1,214 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.device.gluon;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import net.freifunk.autodeploy.device.DetailedDevice;
+import net.freifunk.autodeploy.device.Device;
+import net.freifunk.autodeploy.device.InspectingDeviceDeployer;
+import net.freifunk.autodeploy.device.InvalidFirmwareImageException;
+import net.freifunk.autodeploy.device.profile.DeviceProfileService;
+import net.freifunk.autodeploy.device.tplink.TPLinkFirmwareImageValidator;
+import net.freifunk.autodeploy.lifecycle.RebootTracker;
+import net.freifunk.autodeploy.selenium.Actor;
+import net.freifunk.autodeploy.selenium.ErrorPageException;
+import net.freifunk.autodeploy.selenium.ErrorSignature;
+
+import org.openqa.selenium.By;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.ImmutableList;
+import com.google.inject.Inject;
+
+/**
+ * Deploys the Freifunk firmware to devices already running a Gluon based firmware in config mode, by uploading a
+ * sysupgrade image through the expert mode of the config mode. Optionally the existing configuration is kept, so the
+ * device does not need to be configured again.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public class GluonSysupgradeDeployer implements InspectingDeviceDeployer {
+
+    /**
+     * Vendor of the {@link net.freifunk.autodeploy.device.profile.DeviceProfile} listing the supported devices.
+     */
+    public static final String VENDOR = "tplink";
+
+    private static final Logger LOG = LoggerFactory.getLogger(GluonSysupgradeDeployer.class);
+
+    private static final String KEEP_CONFIGURATION_PROPERTY = "sysupgrade.keepconfig";
+
+    private static final String CONFIG_MODE_IP = "192.168.1.1";
+    private static final int CONFIG_MODE_PORT = 80;
+    private static final String CONFIG_MODE_URL = "http://" + CONFIG_MODE_IP + ":" + CONFIG_MODE_PORT;
+    private static final String INFO_PAGE_URL = CONFIG_MODE_URL + "/cgi-bin/luci/admin/index";
+    private static final String UPGRADE_PAGE_URL = CONFIG_MODE_URL + "/cgi-bin/luci/admin/upgrade";
+
+    private static final int AUTODETECT_TIMEOUT_SECONDS = 30;
+    private static final int DEPLOY_TIMEOUT_SECONDS = 60;
+
+    // info page
+    private static final By GLUON_VERSION = By.xpath("//*[contains(text(),'Gluon version')]/following-sibling::*[1]");
+    private static final By HARDWARE_MODEL = By.xpath("//*[contains(text(),'Hardware model')]/following-sibling::*[1]");
+    private static final By MAC_ADDRESS = By.xpath("//*[contains(text(),'MAC address')]/following-sibling::*[1]");
+
+    // e.g. "TP-Link TL-WR841N/ND v8"
+    private static final Pattern HARDWARE_MODEL_PATTERN = Pattern.compile("TL-([A-Z0-9]+)(?:/[A-Z]+)?\\s+(v\\d+)");
+
+    // upgrade page
+    private static final By KEEP_CONFIGURATION_CHECKBOX = By.name("keepcfg");
+    private static final By FIRMWARE_FILE_CHOOSER = By.name("image");
+    private static final By UPLOAD_BUTTON = By.cssSelector("input[type=submit]");
+    private static final By CONTINUE_BUTTON = By.xpath("//input[@type='submit' and @value='Continue']");
+
+    // e.g. an image in an unsupported format, shown instead of the checksum
+    private static final List<ErrorSignature> ERROR_SIGNATURES = ImmutableList.of(
+        new ErrorSignature("imageRejected", By.cssSelector(".error"), Pattern.compile("\\S"))
+    );
+
+    private final Actor _actor;
+    private final DeviceProfileService _profileService;
+    private final TPLinkFirmwareImageValidator _firmwareImageValidator;
+    private final RebootTracker _rebootTracker;
+    private final boolean _keepConfiguration;
+
+    @Inject
+    public GluonSysupgradeDeployer(
+        final Actor actor,
+        final DeviceProfileService profileService,
+        final TPLinkFirmwareImageValidator firmwareImageValidator,
+        final RebootTracker rebootTracker
+    ) {
+        this(actor, profileService, firmwareImageValidator, rebootTracker, Boolean.getBoolean(KEEP_CONFIGURATION_PROPERTY));
+    }
+
+    /**
+     * @param keepConfiguration whether the device shall keep its existing Freifunk configuration.
+     */
+    public GluonSysupgradeDeployer(
+        final Actor actor,
+        final DeviceProfileService profileService,
+        final TPLinkFirmwareImageValidator firmwareImageValidator,
+        final RebootTracker rebootTracker,
+        final boolean keepConfiguration
+    ) {
+        _actor = actor;
+        _profileService = profileService;
+        _firmwareImageValidator = firmwareImageValidator;
+        _rebootTracker = rebootTracker;
+        _keepConfiguration = keepConfiguration;
+    }
+
+    @Override
+    public Device autodetect() {
+        LOG.debug("Trying to detect a device running Gluon.");
+        try {
+            _actor.setErrorSignatures(ERROR_SIGNATURES);
+            _actor.waitForWebserverBeingAvailable(CONFIG_MODE_IP, CONFIG_MODE_PORT, AUTODETECT_TIMEOUT_SECONDS, SECONDS);
+            final Device device = getDetailedDevice().getDevice();
+            LOG.debug("Detected device {}. Checking if it's supported.", device);
+            if (isSupported(device)) {
+                LOG.debug("Device {} is supported.", device);
+                return device;
+            } else {
+                LOG.debug("Device {} is not supported.", device);
+                return null;
+            }
+        } catch (final Throwable t) {
+            LOG.warn("Auto detection failed.", t);
+            return null;
+        }
+    }
+
+    @Override
+    public DetailedDevice inspect() {
+        _actor.setErrorSignatures(ERROR_SIGNATURES);
+        _actor.waitForWebserverBeingAvailable(CONFIG_MODE_IP, CONFIG_MODE_PORT, DEPLOY_TIMEOUT_SECONDS, SECONDS);
+        return getDetailedDevice();
+    }
+
+    @Override
+    public DetailedDevice deploy(final File firmwareImage) throws FileNotFoundException, InvalidFirmwareImageException {
+        LOG.debug("Starting sysupgrade: firmware = {}, keep configuration = {}", firmwareImage, _keepConfiguration);
+        // fail before waiting for the device if the image is broken anyways
+        _firmwareImageValidator.readHeader(firmwareImage);
+        _actor.setErrorSignatures(ERROR_SIGNATURES);
+        _actor.waitForWebserverBeingAvailable(CONFIG_MODE_IP, CONFIG_MODE_PORT, DEPLOY_TIMEOUT_SECONDS, SECONDS);
+
+        final DetailedDevice detailedDevice = getDetailedDevice();
+        final Device device = detailedDevice.getDevice();
+        if (!isSupported(device)) {
+            throw new IllegalStateException("Unsupported device: " + device);
+        }
+
+        LOG.debug("Checking firmware image matches device {}.", device);
+        // sysupgrade images for TP-Link devices carry the same header as the factory images
+        _firmwareImageValidator.validate(firmwareImage, _profileService.getHardwareId(device));
+
+        startSysupgrade(firmwareImage);
+        _rebootTracker.uploadAccepted(device, CONFIG_MODE_IP, CONFIG_MODE_PORT);
+        return new DetailedDevice(device, detailedDevice.getMac(), _keepConfiguration);
+    }
+
+    private DetailedDevice getDetailedDevice() {
+        _actor.navigateTo(INFO_PAGE_URL);
+        LOG.debug("Gluon version: {}", _actor.getTextOfElement(GLUON_VERSION));
+
+        final String hardwareModel = _actor.getTextOfElement(HARDWARE_MODEL);
+        final Matcher matcher = HARDWARE_MODEL_PATTERN.matcher(hardwareModel);
+        if (!matcher.find()) {
+            throw new IllegalStateException("Could not parse hardware model: " + hardwareModel);
+        }
+        final Device device = new Device(matcher.group(1), matcher.group(2));
+
+        final String mac = _actor.getTextOfElement(MAC_ADDRESS).trim().toLowerCase(Locale.ENGLISH);
+        return new DetailedDevice(device, mac);
+    }
+
+    private boolean isSupported(final Device device) {
+        return _profileService.getDevices(VENDOR).contains(device);
+    }
+
+    private void startSysupgrade(final File firmwareImage) throws InvalidFirmwareImageException {
+        LOG.debug("Starting sysupgrade.");
+        _actor.navigateTo(UPGRADE_PAGE_URL);
+        _actor.updateCheckbox(KEEP_CONFIGURATION_CHECKBOX, _keepConfiguration);
+        _actor.chooseFile(FIRMWARE_FILE_CHOOSER, firmwareImage);
+        _actor.clickElement(UPLOAD_BUTTON);
+
+        try {
+            // Gluon shows the checksum of the uploaded image and asks for confirmation
+            _actor.clickElement(CONTINUE_BUTTON);
+        } catch (final ErrorPageException e) {
+            throw new InvalidFirmwareImageException("Gluon rejected the sysupgrade image: " + firmwareImage, e);
+        }
+    }
+}
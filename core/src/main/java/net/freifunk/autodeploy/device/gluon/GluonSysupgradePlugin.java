@@ -0,0 +1,66 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.device.gluon;
+
+import java.util.Set;
+
+import net.freifunk.autodeploy.device.DeploymentMode;
+import net.freifunk.autodeploy.device.Device;
+import net.freifunk.autodeploy.device.DeviceDeployer;
+import net.freifunk.autodeploy.device.profile.DeviceProfileIndex;
+import net.freifunk.autodeploy.plugin.DeviceDeployerPlugin;
+import net.freifunk.autodeploy.plugin.InjectingProvider;
+
+import com.google.common.base.Preconditions;
+import com.google.inject.Provider;
+
+/**
+ * Plugin providing the {@link GluonSysupgradeDeployer}.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public class GluonSysupgradePlugin implements DeviceDeployerPlugin {
+
+    private final Set<Device> _supportedDevices;
+    private final Provider<GluonSysupgradeDeployer> _provider;
+
+    public GluonSysupgradePlugin() {
+        _supportedDevices = DeviceProfileIndex.getDefault().getDevices(GluonSysupgradeDeployer.VENDOR);
+        _provider = new InjectingProvider<>(GluonSysupgradeDeployer.class);
+    }
+
+    @Override
+    public Set<Device> getSupportedDevices() {
+        return _supportedDevices;
+    }
+
+    @Override
+    public DeploymentMode getMode() {
+        return DeploymentMode.SYSUPGRADE;
+    }
+
+    @Override
+    public Provider<? extends DeviceDeployer> getDeployerProvider(final Device device) {
+        Preconditions.checkArgument(_supportedDevices.contains(device), "Unsupported device: " + device);
+        return _provider;
+    }
+}
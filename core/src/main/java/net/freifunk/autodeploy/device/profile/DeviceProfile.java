@@ -0,0 +1,205 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.device.profile;
+
+import java.util.List;
+import java.util.regex.Pattern;
+
+import net.freifunk.autodeploy.selenium.ErrorSignature;
+
+import org.codehaus.jackson.annotate.JsonCreator;
+import org.codehaus.jackson.annotate.JsonProperty;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Describes how to deploy firmware through the web interface of a vendor's devices. The profiles are read from
+ * <code>device-profiles/&lt;vendor&gt;.json</code>.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public class DeviceProfile {
+
+    /**
+     * Format of the factory images of the vendor.
+     *
+     * @author Andreas Baldeau <andreas@baldeau.net>
+     */
+    public static enum ImageFormat {
+
+        /**
+         * No validation of the image is performed.
+         */
+        UNKNOWN,
+
+        /**
+         * TP-Link image with header version 1.
+         */
+        TPLINK,
+        ;
+    }
+
+    /**
+     * Variable the identify flow must read the hardware version into.
+     */
+    public static final String HARDWARE_VERSION_VARIABLE = "hardwareVersion";
+
+    /**
+     * Variable the identify flow must read the MAC address into.
+     */
+    public static final String MAC_VARIABLE = "mac";
+
+    private final String _host;
+    private final int _port;
+    private final String _user;
+    private final String _password;
+    private final ImageFormat _imageFormat;
+    private final int _detectTimeoutSeconds;
+    private final int _deployTimeoutSeconds;
+    private final Pattern _hardwareVersionPattern;
+    private final List<DeviceProfileStep> _identifySteps;
+    private final List<DeviceProfileStep> _uploadSteps;
+    private final List<ErrorSignature> _errorSignatures;
+
+    @JsonCreator
+    public DeviceProfile(
+        @JsonProperty("host") final String host,
+        @JsonProperty("port") final int port,
+        @JsonProperty("user") final String user,
+        @JsonProperty("password") final String password,
+        @JsonProperty("imageFormat") final ImageFormat imageFormat,
+        @JsonProperty("detectTimeoutSeconds") final int detectTimeoutSeconds,
+        @JsonProperty("deployTimeoutSeconds") final int deployTimeoutSeconds,
+        @JsonProperty("hardwareVersionPattern") final String hardwareVersionPattern,
+        @JsonProperty("identify") final List<DeviceProfileStep> identifySteps,
+        @JsonProperty("upload") final List<DeviceProfileStep> uploadSteps,
+        @JsonProperty("errors") final List<DeviceProfileError> errors
+    ) {
+        Preconditions.checkArgument(host != null, "Host must be set.");
+        Preconditions.checkArgument(port > 0, "Port must be set.");
+        Preconditions.checkArgument(detectTimeoutSeconds > 0, "Detection timeout must be set.");
+        Preconditions.checkArgument(deployTimeoutSeconds > 0, "Deployment timeout must be set.");
+        Preconditions.checkArgument(hardwareVersionPattern != null, "Hardware version pattern must be set.");
+        Preconditions.checkArgument(identifySteps != null && !identifySteps.isEmpty(), "Identify steps must be set.");
+        Preconditions.checkArgument(uploadSteps != null && !uploadSteps.isEmpty(), "Upload steps must be set.");
+
+        _host = host;
+        _port = port;
+        _user = user;
+        _password = password;
+        _imageFormat = imageFormat == null ? ImageFormat.UNKNOWN : imageFormat;
+        _detectTimeoutSeconds = detectTimeoutSeconds;
+        _deployTimeoutSeconds = deployTimeoutSeconds;
+        _hardwareVersionPattern = Pattern.compile(hardwareVersionPattern);
+        _identifySteps = ImmutableList.copyOf(identifySteps);
+        _uploadSteps = ImmutableList.copyOf(uploadSteps);
+
+        final ImmutableList.Builder<ErrorSignature> errorSignatures = ImmutableList.builder();
+        if (errors != null) {
+            for (final DeviceProfileError error: errors) {
+                errorSignatures.add(error.toSignature());
+            }
+        }
+        _errorSignatures = errorSignatures.build();
+
+        Preconditions.checkArgument(
+            _hardwareVersionPattern.matcher("").groupCount() == 2,
+            "Hardware version pattern must have two groups (model and version): " + hardwareVersionPattern
+        );
+    }
+
+    public String getHost() {
+        return _host;
+    }
+
+    public int getPort() {
+        return _port;
+    }
+
+    /**
+     * @return the URL of the web interface including the credentials if any.
+     */
+    public String getWebInterfaceUrl() {
+        final StringBuilder builder = new StringBuilder("http://");
+        if (_user != null) {
+            builder.append(_user);
+            builder.append(':');
+            builder.append(_password);
+            builder.append('@');
+        }
+        builder.append(_host);
+        builder.append(':');
+        builder.append(_port);
+        return builder.toString();
+    }
+
+    public ImageFormat getImageFormat() {
+        return _imageFormat;
+    }
+
+    public int getDetectTimeoutSeconds() {
+        return _detectTimeoutSeconds;
+    }
+
+    public int getDeployTimeoutSeconds() {
+        return _deployTimeoutSeconds;
+    }
+
+    /**
+     * @return the pattern to extract model (first group) and version (second group) from the hardware version.
+     */
+    public Pattern getHardwareVersionPattern() {
+        return _hardwareVersionPattern;
+    }
+
+    /**
+     * @return the steps to read {@link #HARDWARE_VERSION_VARIABLE} and {@link #MAC_VARIABLE}.
+     */
+    public List<DeviceProfileStep> getIdentifySteps() {
+        return _identifySteps;
+    }
+
+    /**
+     * @return the steps to upload the firmware image.
+     */
+    public List<DeviceProfileStep> getUploadSteps() {
+        return _uploadSteps;
+    }
+
+    /**
+     * @return the error pages failing the flows immediately instead of waiting for their timeout.
+     */
+    public List<ErrorSignature> getErrorSignatures() {
+        return _errorSignatures;
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+            .add("host", _host)
+            .add("port", _port)
+            .add("imageFormat", _imageFormat)
+        .toString();
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.device.profile;
+
+import java.util.regex.Pattern;
+
+import net.freifunk.autodeploy.selenium.ErrorSignature;
+
+import org.codehaus.jackson.annotate.JsonCreator;
+import org.codehaus.jackson.annotate.JsonProperty;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+
+/**
+ * An error page of the vendor's web interface, e.g. rejecting the uploaded firmware image.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public class DeviceProfileError {
+
+    private final ErrorSignature _signature;
+
+    @JsonCreator
+    public DeviceProfileError(
+        @JsonProperty("name") final String name,
+        @JsonProperty("selector") final String selector,
+        @JsonProperty("text") final String text
+    ) {
+        Preconditions.checkArgument(name != null, "Name must be set.");
+        Preconditions.checkArgument(selector != null, "Selector must be set for: " + name);
+
+        _signature = new ErrorSignature(
+            name,
+            DeviceProfileStep.toBy(selector),
+            text == null ? null : Pattern.compile(text)
+        );
+    }
+
+    public ErrorSignature toSignature() {
+        return _signature;
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+            .add("signature", _signature)
+        .toString();
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.device.profile;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.freifunk.autodeploy.device.Device;
+
+import org.codehaus.jackson.annotate.JsonCreator;
+import org.codehaus.jackson.annotate.JsonProperty;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.type.TypeReference;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.SetMultimap;
+import com.google.common.io.Resources;
+
+/**
+ * Index of the devices supported by the {@link DeviceProfile}s, read from <code>device-profiles/index.json</code>.
+ * The index is small and read once on startup, the profiles themselves are only loaded when needed.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public class DeviceProfileIndex {
+
+    private static final String INDEX_RESOURCE = "device-profiles/index.json";
+
+    private static final class DefaultHolder {
+        private static final DeviceProfileIndex INSTANCE = load(new ObjectMapper());
+    }
+
+    static final class Entry {
+        private final String _model;
+        private final String _version;
+        private final long _hardwareId;
+        private final String _gluonImage;
+
+        @JsonCreator
+        Entry(
+            @JsonProperty("model") final String model,
+            @JsonProperty("version") final String version,
+            @JsonProperty("hardwareId") final String hardwareId,
+            @JsonProperty("gluonImage") final String gluonImage
+        ) {
+            Preconditions.checkArgument(model != null && version != null, "Model and version must be set.");
+            _model = model;
+            _version = version;
+            _hardwareId = hardwareId == null ? 0 : Long.decode(hardwareId);
+            _gluonImage = gluonImage;
+        }
+    }
+
+    private final SetMultimap<String, Device> _devicesByVendor;
+    private final Map<Device, String> _vendorByDevice;
+    private final Map<Device, Long> _hardwareIdByDevice;
+    private final SetMultimap<String, Device> _devicesByGluonImage;
+
+    private DeviceProfileIndex(final Map<String, List<Entry>> entriesByVendor) {
+        final ImmutableSetMultimap.Builder<String, Device> devicesByVendor = ImmutableSetMultimap.builder();
+        final ImmutableMap.Builder<Device, String> vendorByDevice = ImmutableMap.builder();
+        final ImmutableMap.Builder<Device, Long> hardwareIdByDevice = ImmutableMap.builder();
+        final ImmutableSetMultimap.Builder<String, Device> devicesByGluonImage = ImmutableSetMultimap.builder();
+
+        for (final Map.Entry<String, List<Entry>> vendorEntries: entriesByVendor.entrySet()) {
+            final String vendor = vendorEntries.getKey();
+            for (final Entry entry: vendorEntries.getValue()) {
+                final Device device = new Device(entry._model, entry._version);
+                devicesByVendor.put(vendor, device);
+                vendorByDevice.put(device, vendor);
+                hardwareIdByDevice.put(device, entry._hardwareId);
+                if (entry._gluonImage != null) {
+                    devicesByGluonImage.put(entry._gluonImage, device);
+                }
+            }
+        }
+
+        _devicesByVendor = devicesByVendor.build();
+        _vendorByDevice = vendorByDevice.build();
+        _hardwareIdByDevice = hardwareIdByDevice.build();
+        _devicesByGluonImage = devicesByGluonImage.build();
+    }
+
+    /**
+     * @return the index read from <code>device-profiles/index.json</code>. It is only read once, so plugins and
+     *         services can share it.
+     */
+    public static DeviceProfileIndex getDefault() {
+        return DefaultHolder.INSTANCE;
+    }
+
+    /**
+     * Reads the index from <code>device-profiles/index.json</code>.
+     */
+    public static DeviceProfileIndex load(final ObjectMapper objectMapper) {
+        return load(objectMapper, Resources.getResource(INDEX_RESOURCE));
+    }
+
+    /**
+     * Reads the index from the given resource.
+     */
+    public static DeviceProfileIndex load(final ObjectMapper objectMapper, final URL resource) {
+        try {
+            final Map<String, List<Entry>> entriesByVendor = objectMapper.readValue(
+                resource,
+                new TypeReference<Map<String, List<Entry>>>() {}
+            );
+            return new DeviceProfileIndex(entriesByVendor);
+        } catch (final IOException e) {
+            throw new IllegalStateException("Could not read device profile index: " + resource, e);
+        }
+    }
+
+    public Set<String> getVendors() {
+        return _devicesByVendor.keySet();
+    }
+
+    public Set<Device> getDevices() {
+        return _vendorByDevice.keySet();
+    }
+
+    public Set<Device> getDevices(final String vendor) {
+        return _devicesByVendor.get(vendor);
+    }
+
+    /**
+     * @return the vendor of the given device or <code>null</code> if the device is unknown.
+     */
+    public String getVendor(final Device device) {
+        return _vendorByDevice.get(device);
+    }
+
+    /**
+     * @return the hardware ID found in image headers for the given device or <code>null</code> if the device is
+     *         unknown.
+     */
+    public Long getHardwareId(final Device device) {
+        return _hardwareIdByDevice.get(device);
+    }
+
+    /**
+     * @return the devices by the name Gluon uses for them in image file names, e.g.
+     *         <code>tp-link-tl-wr841n-nd-v8</code>. One image name may cover several devices.
+     */
+    public SetMultimap<String, Device> getDevicesByGluonImage() {
+        return _devicesByGluonImage;
+    }
+}
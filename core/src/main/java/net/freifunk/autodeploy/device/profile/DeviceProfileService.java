@@ -0,0 +1,61 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.device.profile;
+
+import java.util.Set;
+
+import net.freifunk.autodeploy.device.Device;
+
+import com.google.common.collect.SetMultimap;
+
+/**
+ * Service for accessing {@link DeviceProfile}s.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public interface DeviceProfileService {
+
+    /**
+     * @return the vendors having a {@link DeviceProfile}.
+     */
+    Set<String> getVendors();
+
+    /**
+     * @return the {@link Device}s supported by the profile of the given vendor.
+     */
+    Set<Device> getDevices(String vendor);
+
+    /**
+     * @return the hardware ID found in the headers of factory images for the given device.
+     */
+    long getHardwareId(Device device);
+
+    /**
+     * @return the {@link Device}s by the name Gluon uses for them in its image file names.
+     */
+    SetMultimap<String, Device> getDevicesByGluonImage();
+
+    /**
+     * @return the {@link DeviceProfile} of the given vendor. The profile gets loaded on first access.
+     */
+    DeviceProfile getProfile(String vendor);
+}
@@ -0,0 +1,114 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.device.profile;
+
+import java.io.IOException;
+import java.util.Set;
+
+import net.freifunk.autodeploy.device.Device;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.SetMultimap;
+import com.google.common.io.Resources;
+import com.google.inject.Inject;
+
+/**
+ * Default implementation of {@link DeviceProfileService}.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public class DeviceProfileServiceImpl implements DeviceProfileService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DeviceProfileServiceImpl.class);
+
+    private static final String PROFILE_RESOURCE_PATTERN = "device-profiles/%s.json";
+
+    private final DeviceProfileIndex _index;
+    private final LoadingCache<String, DeviceProfile> _profiles;
+
+    @Inject
+    public DeviceProfileServiceImpl(
+        final ObjectMapper objectMapper
+    ) {
+        this(DeviceProfileIndex.getDefault(), objectMapper);
+    }
+
+    /**
+     * Uses the given index, e.g. to run against profiles not on the classpath.
+     */
+    public DeviceProfileServiceImpl(
+        final DeviceProfileIndex index,
+        final ObjectMapper objectMapper
+    ) {
+        _index = index;
+        _profiles = CacheBuilder.newBuilder().build(new CacheLoader<String, DeviceProfile>() {
+
+            @Override
+            public DeviceProfile load(final String vendor) throws IOException {
+                if (!_index.getVendors().contains(vendor)) {
+                    throw new IllegalArgumentException("Unknown vendor: " + vendor);
+                }
+
+                LOG.debug("Loading device profile: {}", vendor);
+                return objectMapper.readValue(
+                    Resources.getResource(String.format(PROFILE_RESOURCE_PATTERN, vendor)),
+                    DeviceProfile.class
+                );
+            }
+        });
+    }
+
+    @Override
+    public Set<String> getVendors() {
+        return _index.getVendors();
+    }
+
+    @Override
+    public Set<Device> getDevices(final String vendor) {
+        return _index.getDevices(vendor);
+    }
+
+    @Override
+    public long getHardwareId(final Device device) {
+        final Long hardwareId = _index.getHardwareId(device);
+        if (hardwareId == null) {
+            throw new IllegalArgumentException("Unknown device: " + device);
+        }
+        return hardwareId;
+    }
+
+    @Override
+    public SetMultimap<String, Device> getDevicesByGluonImage() {
+        return _index.getDevicesByGluonImage();
+    }
+
+    @Override
+    public DeviceProfile getProfile(final String vendor) {
+        return _profiles.getUnchecked(vendor);
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.device.profile;
+
+import org.codehaus.jackson.annotate.JsonCreator;
+import org.codehaus.jackson.annotate.JsonProperty;
+import org.openqa.selenium.By;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+
+/**
+ * A single step of a flow in a {@link DeviceProfile}.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public class DeviceProfileStep {
+
+    /**
+     * Action to perform in a step.
+     *
+     * @author Andreas Baldeau <andreas@baldeau.net>
+     */
+    public static enum Action {
+
+        /**
+         * Navigate to the given path of the web interface.
+         */
+        NAVIGATE,
+
+        /**
+         * Select the given frame.
+         */
+        SELECT_FRAME,
+
+        /**
+         * Click the element specified by the selector.
+         */
+        CLICK,
+
+        /**
+         * Read the text of the element specified by the selector into the given variable.
+         */
+        READ_TEXT,
+
+        /**
+         * Choose the firmware image in the file input specified by the selector.
+         */
+        CHOOSE_FIRMWARE_IMAGE,
+
+        /**
+         * Execute the given Javascript.
+         */
+        EXECUTE_JAVASCRIPT,
+
+        /**
+         * Confirm a prompt.
+         */
+        CONFIRM_PROMPT,
+        ;
+    }
+
+    /**
+     * The kind of driver a step should be performed with.
+     *
+     * @author Andreas Baldeau <andreas@baldeau.net>
+     */
+    public static enum Driver {
+        ANY,
+        HTMLUNIT,
+        BROWSER,
+        ;
+    }
+
+    private final Action _action;
+    private final Driver _driver;
+    private final String _path;
+    private final String _frame;
+    private final By _selector;
+    private final String _variable;
+    private final String _script;
+
+    @JsonCreator
+    public DeviceProfileStep(
+        @JsonProperty("action") final Action action,
+        @JsonProperty("driver") final Driver driver,
+        @JsonProperty("path") final String path,
+        @JsonProperty("frame") final String frame,
+        @JsonProperty("selector") final String selector,
+        @JsonProperty("variable") final String variable,
+        @JsonProperty("script") final String script
+    ) {
+        Preconditions.checkArgument(action != null, "Action must be set.");
+        Preconditions.checkArgument(action != Action.NAVIGATE || path != null, "Path must be set for: " + action);
+        Preconditions.checkArgument(action != Action.SELECT_FRAME || frame != null, "Frame must be set for: " + action);
+        Preconditions.checkArgument(
+            selector != null || (action != Action.CLICK && action != Action.READ_TEXT && action != Action.CHOOSE_FIRMWARE_IMAGE),
+            "Selector must be set for: " + action
+        );
+        Preconditions.checkArgument(action != Action.READ_TEXT || variable != null, "Variable must be set for: " + action);
+        Preconditions.checkArgument(action != Action.EXECUTE_JAVASCRIPT || script != null, "Script must be set for: " + action);
+
+        _action = action;
+        _driver = driver == null ? Driver.ANY : driver;
+        _path = path;
+        _frame = frame;
+        _selector = selector == null ? null : toBy(selector);
+        _variable = variable;
+        _script = script;
+    }
+
+    /**
+     * Parses selectors of the form <code>type:expression</code> with type being one of <code>id</code>,
+     * <code>name</code>, <code>css</code> or <code>xpath</code>.
+     */
+    static By toBy(final String selector) {
+        final int colon = selector.indexOf(':');
+        Preconditions.checkArgument(colon > 0, "Invalid selector: " + selector);
+
+        final String type = selector.substring(0, colon);
+        final String expression = selector.substring(colon + 1);
+        switch (type) {
+            case "id":
+                return By.id(expression);
+            case "name":
+                return By.name(expression);
+            case "css":
+                return By.cssSelector(expression);
+            case "xpath":
+                return By.xpath(expression);
+            default:
+                throw new IllegalArgumentException("Unknown selector type: " + selector);
+        }
+    }
+
+    public Action getAction() {
+        return _action;
+    }
+
+    public Driver getDriver() {
+        return _driver;
+    }
+
+    public String getPath() {
+        return _path;
+    }
+
+    public String getFrame() {
+        return _frame;
+    }
+
+    public By getSelector() {
+        return _selector;
+    }
+
+    public String getVariable() {
+        return _variable;
+    }
+
+    public String getScript() {
+        return _script;
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+            .omitNullValues()
+            .add("action", _action)
+            .add("driver", _driver)
+            .add("path", _path)
+            .add("frame", _frame)
+            .add("selector", _selector)
+            .add("variable", _variable)
+        .toString();
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.device.profile;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+
+import net.freifunk.autodeploy.device.DetailedDevice;
+import net.freifunk.autodeploy.device.Device;
+import net.freifunk.autodeploy.device.DeviceDeployer;
+import net.freifunk.autodeploy.device.InvalidFirmwareImageException;
+import net.freifunk.autodeploy.device.profile.DeviceProfile.ImageFormat;
+import net.freifunk.autodeploy.device.profile.DeviceProfileStep.Driver;
+import net.freifunk.autodeploy.device.tplink.TPLinkFirmwareImageValidator;
+import net.freifunk.autodeploy.lifecycle.RebootTracker;
+import net.freifunk.autodeploy.selenium.Actor;
+import net.freifunk.autodeploy.selenium.ErrorPageException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Deploys the Freifunk firmware through the web interface as described by a vendor's {@link DeviceProfile}.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public class ProfileDeployer implements DeviceDeployer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ProfileDeployer.class);
+
+    private final String _vendor;
+    private final DeviceProfileService _profileService;
+    private final Actor _actor;
+    private final TPLinkFirmwareImageValidator _tpLinkFirmwareImageValidator;
+    private final RebootTracker _rebootTracker;
+
+    public ProfileDeployer(
+        final String vendor,
+        final DeviceProfileService profileService,
+        final Actor actor,
+        final TPLinkFirmwareImageValidator tpLinkFirmwareImageValidator,
+        final RebootTracker rebootTracker
+    ) {
+        _vendor = vendor;
+        _profileService = profileService;
+        _actor = actor;
+        _tpLinkFirmwareImageValidator = tpLinkFirmwareImageValidator;
+        _rebootTracker = rebootTracker;
+    }
+
+    @Override
+    public Device autodetect() {
+        LOG.debug("Trying to detect the device: vendor = {}", _vendor);
+        try {
+            final DeviceProfile profile = getProfile();
+            _actor.setErrorSignatures(profile.getErrorSignatures());
+            _actor.waitForWebserverBeingAvailable(profile.getHost(), profile.getPort(), profile.getDetectTimeoutSeconds(), SECONDS);
+            goToWebInterface(profile);
+
+            final Device device = identify(profile).getDevice();
+            LOG.debug("Detected device {}. Checking if it's supported.", device);
+            if (isSupported(device)) {
+                LOG.debug("Device {} is supported.", device);
+                return device;
+            } else {
+                LOG.debug("Device {} is not supported.", device);
+                return null;
+            }
+        } catch (final Throwable t) {
+            LOG.warn("Auto detection failed.", t);
+            return null;
+        }
+    }
+
+    @Override
+    public DetailedDevice deploy(final File firmwareImage) throws FileNotFoundException, InvalidFirmwareImageException {
+        LOG.debug("Starting deployment: vendor = {}, firmware = {}", _vendor, firmwareImage);
+        final DeviceProfile profile = getProfile();
+        // fail before waiting for the device if the image is broken anyways
+        checkFirmwareImage(profile, firmwareImage);
+        _actor.setErrorSignatures(profile.getErrorSignatures());
+        _actor.waitForWebserverBeingAvailable(profile.getHost(), profile.getPort(), profile.getDeployTimeoutSeconds(), SECONDS);
+        goToWebInterface(profile);
+        final DetailedDevice detailedDevice = checkSupportedDevice(profile);
+        checkFirmwareImage(profile, firmwareImage, detailedDevice.getDevice());
+        startFirmwareUpgrade(profile, firmwareImage);
+        _rebootTracker.uploadAccepted(detailedDevice.getDevice(), profile.getHost(), profile.getPort());
+        return detailedDevice;
+    }
+
+    private DeviceProfile getProfile() {
+        return _profileService.getProfile(_vendor);
+    }
+
+    private void checkFirmwareImage(final DeviceProfile profile, final File firmwareImage) throws FileNotFoundException, InvalidFirmwareImageException {
+        if (!firmwareImage.exists()) {
+            throw new FileNotFoundException("The given firmware image file does not exist: " + firmwareImage);
+        }
+
+        if (!firmwareImage.isFile()) {
+            throw new FileNotFoundException("The given firmware image file is a directory: " + firmwareImage);
+        }
+
+        if (profile.getImageFormat() == ImageFormat.TPLINK) {
+            _tpLinkFirmwareImageValidator.readHeader(firmwareImage);
+        }
+    }
+
+    private void checkFirmwareImage(
+        final DeviceProfile profile,
+        final File firmwareImage,
+        final Device device
+    ) throws FileNotFoundException, InvalidFirmwareImageException {
+        LOG.debug("Checking firmware image matches device {}.", device);
+        if (profile.getImageFormat() == ImageFormat.TPLINK) {
+            _tpLinkFirmwareImageValidator.validate(firmwareImage, _profileService.getHardwareId(device));
+        }
+    }
+
+    private void goToWebInterface(final DeviceProfile profile) {
+        _actor.navigateTo(profile.getWebInterfaceUrl());
+    }
+
+    private DetailedDevice checkSupportedDevice(final DeviceProfile profile) {
+        LOG.debug("Checking device is supported.");
+        final DetailedDevice detailedDevice = identify(profile);
+
+        if (!isSupported(detailedDevice.getDevice())) {
+            throw new IllegalStateException("Unsupported device: " + detailedDevice.getDevice());
+        }
+
+        return detailedDevice;
+    }
+
+    private DetailedDevice identify(final DeviceProfile profile) {
+        final Map<String, String> variables = runSteps(profile, profile.getIdentifySteps(), null);
+
+        final String hardwareVersion = variables.get(DeviceProfile.HARDWARE_VERSION_VARIABLE);
+        final Matcher matcher = profile.getHardwareVersionPattern().matcher(hardwareVersion);
+        if (!matcher.find()) {
+            throw new IllegalStateException("Could not parse hardware version: " + hardwareVersion);
+        }
+        final Device device = new Device(matcher.group(1), matcher.group(2));
+
+        final String mac = variables.get(DeviceProfile.MAC_VARIABLE);
+        return new DetailedDevice(device, mac == null ? null : mac.trim().toLowerCase(Locale.ENGLISH).replace('-', ':'));
+    }
+
+    private boolean isSupported(final Device device) {
+        return _profileService.getDevices(_vendor).contains(device);
+    }
+
+    private void startFirmwareUpgrade(
+        final DeviceProfile profile,
+        final File firmwareImage
+    ) throws InvalidFirmwareImageException {
+        LOG.debug("Starting firmware upgrade.");
+        try {
+            runSteps(profile, profile.getUploadSteps(), firmwareImage);
+            _actor.checkForErrorPage();
+        } catch (final ErrorPageException e) {
+            throw new InvalidFirmwareImageException("The device rejected the firmware image: " + firmwareImage, e);
+        }
+    }
+
+    private Map<String, String> runSteps(
+        final DeviceProfile profile,
+        final List<DeviceProfileStep> steps,
+        final File firmwareImage
+    ) {
+        final Map<String, String> variables = Maps.newHashMap();
+
+        for (final DeviceProfileStep step: steps) {
+            if (!shallRun(step)) {
+                LOG.trace("Skipping step: {}", step);
+                continue;
+            }
+
+            LOG.trace("Running step: {}", step);
+            switch (step.getAction()) {
+                case NAVIGATE:
+                    _actor.navigateTo(profile.getWebInterfaceUrl() + step.getPath());
+                    break;
+                case SELECT_FRAME:
+                    _actor.selectFrame(step.getFrame());
+                    break;
+                case CLICK:
+                    _actor.clickElement(step.getSelector());
+                    break;
+                case READ_TEXT:
+                    variables.put(step.getVariable(), _actor.getTextOfElement(step.getSelector()));
+                    break;
+                case CHOOSE_FIRMWARE_IMAGE:
+                    _actor.chooseFile(step.getSelector(), firmwareImage);
+                    break;
+                case EXECUTE_JAVASCRIPT:
+                    _actor.executeJavascript(step.getScript());
+                    break;
+                case CONFIRM_PROMPT:
+                    _actor.confirmPrompt();
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown action: " + step.getAction());
+            }
+        }
+
+        return variables;
+    }
+
+    private boolean shallRun(final DeviceProfileStep step) {
+        switch (step.getDriver()) {
+            case HTMLUNIT:
+                return _actor.usesHtmlUnitDriver();
+            case BROWSER:
+                return !_actor.usesHtmlUnitDriver();
+            default:
+                return true;
+        }
+    }
+}
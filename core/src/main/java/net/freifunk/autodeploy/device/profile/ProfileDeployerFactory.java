@@ -0,0 +1,62 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.device.profile;
+
+import net.freifunk.autodeploy.device.DeviceDeployer;
+import net.freifunk.autodeploy.device.tplink.TPLinkFirmwareImageValidator;
+import net.freifunk.autodeploy.lifecycle.RebootTracker;
+import net.freifunk.autodeploy.selenium.Actor;
+
+import com.google.inject.Inject;
+
+/**
+ * Creates {@link ProfileDeployer}s for the vendors having a {@link DeviceProfile}.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public class ProfileDeployerFactory {
+
+    private final DeviceProfileService _profileService;
+    private final Actor _actor;
+    private final TPLinkFirmwareImageValidator _tpLinkFirmwareImageValidator;
+    private final RebootTracker _rebootTracker;
+
+    @Inject
+    public ProfileDeployerFactory(
+        final DeviceProfileService profileService,
+        final Actor actor,
+        final TPLinkFirmwareImageValidator tpLinkFirmwareImageValidator,
+        final RebootTracker rebootTracker
+    ) {
+        _profileService = profileService;
+        _actor = actor;
+        _tpLinkFirmwareImageValidator = tpLinkFirmwareImageValidator;
+        _rebootTracker = rebootTracker;
+    }
+
+    /**
+     * Creates the deployer for the given vendor.
+     */
+    public DeviceDeployer create(final String vendor) {
+        return new ProfileDeployer(vendor, _profileService, _actor, _tpLinkFirmwareImageValidator, _rebootTracker);
+    }
+}
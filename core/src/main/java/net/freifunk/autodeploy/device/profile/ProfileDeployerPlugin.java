@@ -0,0 +1,97 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.device.profile;
+
+import java.util.Map;
+import java.util.Set;
+
+import net.freifunk.autodeploy.device.DeploymentMode;
+import net.freifunk.autodeploy.device.Device;
+import net.freifunk.autodeploy.device.DeviceDeployer;
+import net.freifunk.autodeploy.plugin.DeviceDeployerPlugin;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+
+/**
+ * Plugin providing a {@link ProfileDeployer} for every vendor in the {@link DeviceProfileIndex}.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public class ProfileDeployerPlugin implements DeviceDeployerPlugin {
+
+    /**
+     * Creates the deployer of a vendor on first use.
+     *
+     * @author Andreas Baldeau <andreas@baldeau.net>
+     */
+    private static final class ProfileDeployerProvider implements Provider<DeviceDeployer> {
+
+        private final String _vendor;
+
+        @Inject
+        private ProfileDeployerFactory _factory;
+
+        private ProfileDeployerProvider(final String vendor) {
+            _vendor = vendor;
+        }
+
+        @Override
+        public DeviceDeployer get() {
+            return _factory.create(_vendor);
+        }
+    }
+
+    private final DeviceProfileIndex _index;
+    private final Map<String, ProfileDeployerProvider> _providersByVendor;
+
+    public ProfileDeployerPlugin() {
+        // only the index is read here, the profiles themselves are loaded when used
+        _index = DeviceProfileIndex.getDefault();
+        _providersByVendor = Maps.newHashMap();
+    }
+
+    @Override
+    public Set<Device> getSupportedDevices() {
+        return _index.getDevices();
+    }
+
+    @Override
+    public DeploymentMode getMode() {
+        return DeploymentMode.FACTORY;
+    }
+
+    @Override
+    public Provider<? extends DeviceDeployer> getDeployerProvider(final Device device) {
+        final String vendor = _index.getVendor(device);
+        Preconditions.checkArgument(vendor != null, "Unsupported device: " + device);
+
+        ProfileDeployerProvider provider = _providersByVendor.get(vendor);
+        if (provider == null) {
+            provider = new ProfileDeployerProvider(vendor);
+            _providersByVendor.put(vendor, provider);
+        }
+        return provider;
+    }
+}
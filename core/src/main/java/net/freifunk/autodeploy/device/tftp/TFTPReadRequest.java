@@ -0,0 +1,81 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.device.tftp;
+
+import java.net.InetSocketAddress;
+import java.util.Map;
+
+import com.google.common.base.Objects;
+
+/**
+ * A read request received by the {@link TFTPServer}.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public class TFTPReadRequest {
+
+    private final InetSocketAddress _client;
+    private final String _fileName;
+    private final String _mode;
+    private final Map<String, String> _options;
+
+    public TFTPReadRequest(
+        final InetSocketAddress client,
+        final String fileName,
+        final String mode,
+        final Map<String, String> options
+    ) {
+        _client = client;
+        _fileName = fileName;
+        _mode = mode;
+        _options = options;
+    }
+
+    public InetSocketAddress getClient() {
+        return _client;
+    }
+
+    public String getFileName() {
+        return _fileName;
+    }
+
+    public String getMode() {
+        return _mode;
+    }
+
+    /**
+     * @return the options requested by the client (RFC 2347). Names are lower case.
+     */
+    public Map<String, String> getOptions() {
+        return _options;
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+            .add("client", _client)
+            .add("fileName", _fileName)
+            .add("mode", _mode)
+            .add("options", _options)
+        .toString();
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.device.tftp;
+
+import static com.google.common.base.Charsets.US_ASCII;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import net.freifunk.autodeploy.device.DetailedDevice;
+import net.freifunk.autodeploy.device.Device;
+import net.freifunk.autodeploy.device.DeviceDeployer;
+import net.freifunk.autodeploy.device.InvalidFirmwareImageException;
+import net.freifunk.autodeploy.device.profile.DeviceProfileService;
+import net.freifunk.autodeploy.device.tplink.TPLinkFirmwareImageValidator;
+import net.freifunk.autodeploy.firmware.image.FirmwareImageCache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+import com.google.common.io.Files;
+import com.google.inject.Inject;
+
+/**
+ * Deploys the Freifunk firmware to TP-Link devices in bootloader recovery mode. The bootloader requests the image
+ * via TFTP, thus an embedded TFTP server is run on the recovery IP the station must have configured.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public class TFTPRecoveryDeployer implements DeviceDeployer {
+
+    /**
+     * Vendor of the {@link net.freifunk.autodeploy.device.profile.DeviceProfile} listing the supported devices.
+     */
+    public static final String VENDOR = "tplink";
+
+    private static final Logger LOG = LoggerFactory.getLogger(TFTPRecoveryDeployer.class);
+
+    private static final String RECOVERY_SERVER_IP = "192.168.0.66";
+    private static final int TFTP_PORT = 69;
+    private static final File ARP_TABLE = new File("/proc/net/arp");
+    private static final String ARP_INCOMPLETE_FLAGS = "0x0";
+
+    private static final int AUTODETECT_TIMEOUT_SECONDS = 10;
+    private static final int DEPLOY_TIMEOUT_SECONDS = 60;
+
+    private final InetSocketAddress _serverAddress;
+    private final DeviceProfileService _profileService;
+    private final TPLinkFirmwareImageValidator _firmwareImageValidator;
+    private final FirmwareImageCache _imageCache;
+    private final Map<String, Device> _devicesByRecoveryFileName;
+
+    @Inject
+    public TFTPRecoveryDeployer(
+        final DeviceProfileService profileService,
+        final TPLinkFirmwareImageValidator firmwareImageValidator,
+        final FirmwareImageCache imageCache
+    ) {
+        this(new InetSocketAddress(RECOVERY_SERVER_IP, TFTP_PORT), profileService, firmwareImageValidator, imageCache);
+    }
+
+    /**
+     * Uses the given address for the TFTP server, e.g. to run against a local TFTP client.
+     */
+    public TFTPRecoveryDeployer(
+        final InetSocketAddress serverAddress,
+        final DeviceProfileService profileService,
+        final TPLinkFirmwareImageValidator firmwareImageValidator,
+        final FirmwareImageCache imageCache
+    ) {
+        _serverAddress = serverAddress;
+        _profileService = profileService;
+        _firmwareImageValidator = firmwareImageValidator;
+        _imageCache = imageCache;
+
+        final ImmutableMap.Builder<String, Device> builder = ImmutableMap.builder();
+        for (final Device device: profileService.getDevices(VENDOR)) {
+            builder.put(toRecoveryFileName(device), device);
+        }
+        _devicesByRecoveryFileName = builder.build();
+    }
+
+    private static String toRecoveryFileName(final Device device) {
+        return (device.getModel() + device.getVersion() + "_tp_recovery.bin").toLowerCase(Locale.ENGLISH);
+    }
+
+    @Override
+    public Device autodetect() {
+        LOG.debug("Waiting for a device in recovery mode.");
+        try (final TFTPServer server = new TFTPServer(_serverAddress)) {
+            final TFTPReadRequest request = server.awaitReadRequest(AUTODETECT_TIMEOUT_SECONDS, SECONDS);
+            if (request == null) {
+                LOG.debug("No device in recovery mode found.");
+                return null;
+            }
+
+            // the request stays unanswered, the bootloader will retry until the image gets deployed
+            final Device device = _devicesByRecoveryFileName.get(request.getFileName());
+            LOG.debug("Device requested {}: {}", request.getFileName(), device);
+            return device;
+        } catch (final Throwable t) {
+            LOG.warn("Auto detection failed.", t);
+            return null;
+        }
+    }
+
+    @Override
+    public DetailedDevice deploy(final File firmwareImage) throws FileNotFoundException, InvalidFirmwareImageException {
+        LOG.debug("Starting recovery: firmware = {}", firmwareImage);
+        _firmwareImageValidator.readHeader(firmwareImage);
+
+        try (final TFTPServer server = new TFTPServer(_serverAddress)) {
+            final TFTPReadRequest request = awaitRecoveryRequest(server);
+            final Device device = _devicesByRecoveryFileName.get(request.getFileName());
+            LOG.debug("Checking firmware image matches device {}.", device);
+            _firmwareImageValidator.validate(firmwareImage, _profileService.getHardwareId(device));
+
+            final TFTPTransfer transfer = server.send(request, _imageCache.get(firmwareImage));
+            LOG.info(
+                "Transferred {} bytes in {} ms ({} KiB/s).",
+                transfer.getBytes(),
+                transfer.getDuration(MILLISECONDS),
+                transfer.getThroughput() / 1024
+            );
+
+            // the MAC identifies the node in the journal and the registration, there is no sensible stand-in for it
+            final String ip = request.getClient().getAddress().getHostAddress();
+            final String mac = getMac(ip);
+            if (mac == null) {
+                throw new IllegalStateException(
+                    "Could not determine MAC address of " + ip + ". The image was transferred though, configure the "
+                    + "device once it is in config mode."
+                );
+            }
+            return new DetailedDevice(device, mac);
+        } catch (final IOException e) {
+            throw new IllegalStateException("Recovery via TFTP failed.", e);
+        }
+    }
+
+    private TFTPReadRequest awaitRecoveryRequest(final TFTPServer server) throws IOException {
+        final long deadline = System.nanoTime() + SECONDS.toNanos(DEPLOY_TIMEOUT_SECONDS);
+        while (System.nanoTime() < deadline) {
+            final TFTPReadRequest request = server.awaitReadRequest(1, SECONDS);
+            if (request == null) {
+                continue;
+            }
+
+            if (_devicesByRecoveryFileName.containsKey(request.getFileName())) {
+                return request;
+            }
+
+            LOG.debug("Unsupported file requested: {}", request.getFileName());
+            server.sendError(request, "File not found.");
+        }
+        throw new IllegalStateException("No device requested a recovery image.");
+    }
+
+    /**
+     * @return the MAC address of the given IP from the ARP table or <code>null</code> if it is not listed.
+     */
+    private String getMac(final String ip) {
+        try {
+            final List<String> lines = Files.readLines(ARP_TABLE, US_ASCII);
+            for (final String line: Iterables.skip(lines, 1)) {
+                final List<String> columns = ImmutableList.copyOf(Splitter.on(' ').omitEmptyStrings().split(line));
+                // incomplete entries are listed with flags 0x0 and a MAC address of all zeros
+                if (columns.size() >= 4 && ip.equals(columns.get(0)) && !ARP_INCOMPLETE_FLAGS.equals(columns.get(2))) {
+                    return columns.get(3).toLowerCase(Locale.ENGLISH);
+                }
+            }
+        } catch (final IOException e) {
+            LOG.debug("Could not read ARP table.", e);
+        }
+        return null;
+    }
+}
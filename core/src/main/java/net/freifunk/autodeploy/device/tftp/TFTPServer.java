@@ -0,0 +1,311 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.device.tftp;
+
+import static com.google.common.base.Charsets.US_ASCII;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.primitives.Ints;
+
+/**
+ * Minimal read-only TFTP server (RFC 1350) supporting the block size option (RFC 2348). Each transfer is served
+ * from a separate socket as required by the protocol.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public class TFTPServer implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TFTPServer.class);
+
+    private static final short OPCODE_RRQ = 1;
+    private static final short OPCODE_DATA = 3;
+    private static final short OPCODE_ACK = 4;
+    private static final short OPCODE_ERROR = 5;
+    private static final short OPCODE_OACK = 6;
+
+    private static final short ERROR_NOT_DEFINED = 0;
+    private static final short ERROR_ILLEGAL_OPERATION = 4;
+    private static final short ERROR_UNKNOWN_TRANSFER_ID = 5;
+
+    private static final String BLOCK_SIZE_OPTION = "blksize";
+    private static final int DEFAULT_BLOCK_SIZE = 512;
+    private static final int MIN_BLOCK_SIZE = 8;
+    private static final int MAX_BLOCK_SIZE = 1468; // fits into an ethernet frame
+
+    private static final int MAX_PACKET_SIZE = 4 + MAX_BLOCK_SIZE;
+    private static final int ACK_TIMEOUT_MS = 1000;
+    private static final int MAX_RETRIES = 5;
+
+    private final InetSocketAddress _address;
+    private final int _ackTimeoutMs;
+    private final DatagramSocket _socket;
+
+    /**
+     * Starts listening for requests on the given address.
+     */
+    public TFTPServer(final InetSocketAddress address) throws IOException {
+        this(address, ACK_TIMEOUT_MS);
+    }
+
+    /**
+     * Starts listening for requests on the given address, retransmitting after the given timeout.
+     */
+    TFTPServer(final InetSocketAddress address, final int ackTimeoutMs) throws IOException {
+        _address = address;
+        _ackTimeoutMs = ackTimeoutMs;
+        _socket = new DatagramSocket(address);
+    }
+
+    /**
+     * @return the address the server listens on, with the port actually bound.
+     */
+    InetSocketAddress getLocalAddress() {
+        return (InetSocketAddress) _socket.getLocalSocketAddress();
+    }
+
+    /**
+     * Waits for the next read request. Write requests and malformed packets are answered with an error.
+     *
+     * @return the request or <code>null</code> if no request was received within the timeout.
+     */
+    public TFTPReadRequest awaitReadRequest(final int timeout, final TimeUnit unit) throws IOException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        final byte[] buffer = new byte[MAX_PACKET_SIZE];
+
+        while (true) {
+            final long remainingMs = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remainingMs <= 0) {
+                return null;
+            }
+
+            final DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            _socket.setSoTimeout((int) remainingMs);
+            try {
+                _socket.receive(packet);
+            } catch (final SocketTimeoutException e) {
+                return null;
+            }
+
+            final TFTPReadRequest request = parseReadRequest(packet);
+            if (request != null) {
+                LOG.debug("Received read request: {}", request);
+                return request;
+            }
+
+            LOG.debug("Ignoring unexpected packet from: {}", packet.getSocketAddress());
+            sendError(_socket, packet.getSocketAddress(), ERROR_ILLEGAL_OPERATION, "Only read requests are supported.");
+        }
+    }
+
+    /**
+     * Answers the given request with the given data.
+     */
+    public TFTPTransfer send(final TFTPReadRequest request, final ByteBuffer data) throws IOException {
+        final long start = System.nanoTime();
+        final InetSocketAddress client = request.getClient();
+
+        try (final DatagramSocket transferSocket = new DatagramSocket(new InetSocketAddress(_address.getAddress(), 0))) {
+            transferSocket.setSoTimeout(_ackTimeoutMs);
+
+            int retransmissions = 0;
+            final int blockSize = getBlockSize(request);
+            if (blockSize != DEFAULT_BLOCK_SIZE) {
+                final byte[] oack = toOptionAcknowledgement(ImmutableMap.of(BLOCK_SIZE_OPTION, String.valueOf(blockSize)));
+                retransmissions += sendAndAwaitAck(transferSocket, client, oack, 0);
+            }
+
+            final ByteBuffer source = data.duplicate();
+            source.rewind();
+            final long bytes = source.remaining();
+
+            int block = 1;
+            while (true) {
+                final int length = Math.min(blockSize, source.remaining());
+                final ByteBuffer packet = ByteBuffer.allocate(4 + length);
+                packet.putShort(OPCODE_DATA);
+                packet.putShort((short) block);
+                final ByteBuffer chunk = source.slice();
+                chunk.limit(length);
+                packet.put(chunk);
+                source.position(source.position() + length);
+
+                retransmissions += sendAndAwaitAck(transferSocket, client, packet.array(), block & 0xFFFF);
+
+                if (length < blockSize) {
+                    break;
+                }
+                block = (block + 1) & 0xFFFF;
+            }
+
+            final TFTPTransfer transfer = new TFTPTransfer(bytes, blockSize, retransmissions, System.nanoTime() - start);
+            LOG.debug("Transfer done: {} => {}", request, transfer);
+            return transfer;
+        }
+    }
+
+    /**
+     * Answers the given request with an error.
+     */
+    public void sendError(final TFTPReadRequest request, final String message) throws IOException {
+        sendError(_socket, request.getClient(), ERROR_NOT_DEFINED, message);
+    }
+
+    @Override
+    public void close() {
+        _socket.close();
+    }
+
+    private static int sendAndAwaitAck(
+        final DatagramSocket socket,
+        final InetSocketAddress client,
+        final byte[] data,
+        final int block
+    ) throws IOException {
+        final DatagramPacket packet = new DatagramPacket(data, data.length, client);
+        final byte[] buffer = new byte[MAX_PACKET_SIZE];
+
+        for (int attempt = 0; attempt <= MAX_RETRIES; attempt++) {
+            socket.send(packet);
+
+            try {
+                while (true) {
+                    final DatagramPacket response = new DatagramPacket(buffer, buffer.length);
+                    socket.receive(response);
+
+                    if (!client.equals(response.getSocketAddress())) {
+                        sendError(socket, response.getSocketAddress(), ERROR_UNKNOWN_TRANSFER_ID, "Unknown transfer ID.");
+                        continue;
+                    }
+
+                    final ByteBuffer received = ByteBuffer.wrap(response.getData(), 0, response.getLength());
+                    final short opcode = received.remaining() >= 2 ? received.getShort() : -1;
+                    if (opcode == OPCODE_ERROR && received.remaining() >= 2) {
+                        received.getShort(); // error code
+                        throw new IOException("Transfer aborted by client: " + readString(received));
+                    }
+
+                    // duplicate ACKs of earlier blocks are ignored to avoid the "Sorcerer's Apprentice" bug
+                    if (opcode == OPCODE_ACK && received.remaining() >= 2 && (received.getShort() & 0xFFFF) == block) {
+                        return attempt;
+                    }
+                }
+            } catch (final SocketTimeoutException e) {
+                LOG.trace("Timeout waiting for ACK of block {}, attempt {}.", block, attempt);
+            }
+        }
+
+        throw new IOException("No ACK for block " + block + " after " + MAX_RETRIES + " retries.");
+    }
+
+    private static void sendError(
+        final DatagramSocket socket,
+        final SocketAddress address,
+        final short code,
+        final String message
+    ) throws IOException {
+        final byte[] messageBytes = message.getBytes(US_ASCII);
+        final ByteBuffer buffer = ByteBuffer.allocate(4 + messageBytes.length + 1);
+        buffer.putShort(OPCODE_ERROR);
+        buffer.putShort(code);
+        buffer.put(messageBytes);
+        buffer.put((byte) 0);
+        socket.send(new DatagramPacket(buffer.array(), buffer.capacity(), address));
+    }
+
+    private static TFTPReadRequest parseReadRequest(final DatagramPacket packet) {
+        final ByteBuffer buffer = ByteBuffer.wrap(packet.getData(), 0, packet.getLength());
+        if (buffer.remaining() < 2 || buffer.getShort() != OPCODE_RRQ) {
+            return null;
+        }
+
+        final String fileName = readString(buffer);
+        final String mode = readString(buffer);
+        if (fileName == null || mode == null) {
+            return null;
+        }
+
+        final ImmutableMap.Builder<String, String> options = ImmutableMap.builder();
+        while (buffer.hasRemaining()) {
+            final String name = readString(buffer);
+            final String value = readString(buffer);
+            if (name == null || value == null) {
+                return null;
+            }
+            options.put(name.toLowerCase(Locale.ENGLISH), value);
+        }
+
+        return new TFTPReadRequest(
+            (InetSocketAddress) packet.getSocketAddress(),
+            fileName,
+            mode.toLowerCase(Locale.ENGLISH),
+            options.build()
+        );
+    }
+
+    private static String readString(final ByteBuffer bytes) {
+        final int start = bytes.position();
+        while (bytes.hasRemaining()) {
+            if (bytes.get() == 0) {
+                return new String(bytes.array(), bytes.arrayOffset() + start, bytes.position() - start - 1, US_ASCII);
+            }
+        }
+        return null;
+    }
+
+    private static int getBlockSize(final TFTPReadRequest request) {
+        final String requested = request.getOptions().get(BLOCK_SIZE_OPTION);
+        final Integer blockSize = requested == null ? null : Ints.tryParse(requested);
+        if (blockSize == null || blockSize < MIN_BLOCK_SIZE) {
+            return DEFAULT_BLOCK_SIZE;
+        }
+        return Math.min(blockSize, MAX_BLOCK_SIZE);
+    }
+
+    private static byte[] toOptionAcknowledgement(final Map<String, String> options) {
+        final ByteBuffer buffer = ByteBuffer.allocate(MAX_PACKET_SIZE);
+        buffer.putShort(OPCODE_OACK);
+        for (final Map.Entry<String, String> option: options.entrySet()) {
+            buffer.put(option.getKey().getBytes(US_ASCII));
+            buffer.put((byte) 0);
+            buffer.put(option.getValue().getBytes(US_ASCII));
+            buffer.put((byte) 0);
+        }
+        final byte[] result = new byte[buffer.position()];
+        System.arraycopy(buffer.array(), 0, result, 0, result.length);
+        return result;
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.device.tftp;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Objects;
+
+/**
+ * Statistics of a completed transfer of the {@link TFTPServer}.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public class TFTPTransfer {
+
+    private final long _bytes;
+    private final int _blockSize;
+    private final int _retransmissions;
+    private final long _durationNanos;
+
+    public TFTPTransfer(final long bytes, final int blockSize, final int retransmissions, final long durationNanos) {
+        _bytes = bytes;
+        _blockSize = blockSize;
+        _retransmissions = retransmissions;
+        _durationNanos = durationNanos;
+    }
+
+    public long getBytes() {
+        return _bytes;
+    }
+
+    public int getBlockSize() {
+        return _blockSize;
+    }
+
+    public int getRetransmissions() {
+        return _retransmissions;
+    }
+
+    public long getDuration(final TimeUnit unit) {
+        return unit.convert(_durationNanos, NANOSECONDS);
+    }
+
+    /**
+     * @return the throughput in bytes per second.
+     */
+    public long getThroughput() {
+        return _durationNanos == 0 ? _bytes : _bytes * TimeUnit.SECONDS.toNanos(1) / _durationNanos;
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+            .add("bytes", _bytes)
+            .add("blockSize", _blockSize)
+            .add("retransmissions", _retransmissions)
+            .add("durationMs", getDuration(MILLISECONDS))
+            .add("kibPerSecond", getThroughput() / 1024)
+        .toString();
+    }
+}
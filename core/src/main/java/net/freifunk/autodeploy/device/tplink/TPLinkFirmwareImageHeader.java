@@ -0,0 +1,223 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.device.tplink;
+
+import static com.google.common.base.Charsets.US_ASCII;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import net.freifunk.autodeploy.device.InvalidFirmwareImageException;
+
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Objects;
+
+/**
+ * Header of a TP-Link factory firmware image (header version 1).
+ *
+ * @see <a href="https://dev.openwrt.org/browser/trunk/tools/firmware-utils/src/mktplinkfw.c">mktplinkfw.c</a>
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public class TPLinkFirmwareImageHeader {
+
+    static final int HEADER_LENGTH = 0x200;
+
+    private static final int HEADER_VERSION_V1 = 0x01000000;
+
+    private static final int OFFSET_VERSION = 0x00;
+    private static final int OFFSET_VENDOR_NAME = 0x04;
+    private static final int LENGTH_VENDOR_NAME = 24;
+    private static final int OFFSET_FIRMWARE_VERSION = 0x1C;
+    private static final int LENGTH_FIRMWARE_VERSION = 36;
+    private static final int OFFSET_HARDWARE_ID = 0x40;
+    private static final int OFFSET_HARDWARE_REVISION = 0x44;
+    private static final int OFFSET_MD5 = 0x4C;
+    private static final int LENGTH_MD5 = 16;
+    private static final int OFFSET_FIRMWARE_LENGTH = 0x7C;
+    private static final int OFFSET_BOOT_LENGTH = 0x94;
+
+    // the MD5 sum is calculated with these salts in place of the checksum
+    private static final byte[] MD5_SALT_NORMAL = toBytes(
+        0xdc, 0xd7, 0x3a, 0xa5, 0xc3, 0x95, 0x98, 0xfb, 0xdd, 0xf9, 0xe7, 0xf4, 0x0e, 0xae, 0x47, 0x38
+    );
+    private static final byte[] MD5_SALT_BOOT = toBytes(
+        0x8c, 0xef, 0x33, 0x5b, 0xd5, 0xc5, 0xce, 0xfa, 0xa7, 0x9c, 0x28, 0xda, 0xb2, 0xe9, 0x0f, 0x42
+    );
+
+    private final String _vendorName;
+    private final String _firmwareVersion;
+    private final long _hardwareId;
+    private final long _hardwareRevision;
+    private final long _firmwareLength;
+    private final long _fileLength;
+    private final boolean _bootImage;
+    private final byte[] _md5;
+
+    private TPLinkFirmwareImageHeader(
+        final String vendorName,
+        final String firmwareVersion,
+        final long hardwareId,
+        final long hardwareRevision,
+        final long firmwareLength,
+        final long fileLength,
+        final boolean bootImage,
+        final byte[] md5
+    ) {
+        _vendorName = vendorName;
+        _firmwareVersion = firmwareVersion;
+        _hardwareId = hardwareId;
+        _hardwareRevision = hardwareRevision;
+        _firmwareLength = firmwareLength;
+        _fileLength = fileLength;
+        _bootImage = bootImage;
+        _md5 = md5;
+    }
+
+    /**
+     * Parses the header of an image. The buffer only needs to contain the header, the checksum is verified separately
+     * by {@link #isChecksumValid(ByteBuffer)}.
+     *
+     * @param fileLength the length of the whole image file.
+     */
+    public static TPLinkFirmwareImageHeader parse(final ByteBuffer header, final long fileLength) throws InvalidFirmwareImageException {
+        final ByteBuffer buffer = header.duplicate().order(ByteOrder.BIG_ENDIAN);
+
+        if (fileLength < HEADER_LENGTH || buffer.limit() < HEADER_LENGTH) {
+            throw new InvalidFirmwareImageException("Image is too small to contain a TP-Link header: " + fileLength + " bytes");
+        }
+
+        final int version = buffer.getInt(OFFSET_VERSION);
+        if (version != HEADER_VERSION_V1) {
+            throw new InvalidFirmwareImageException("Unsupported TP-Link header version: 0x" + Integer.toHexString(version));
+        }
+
+        final byte[] md5 = new byte[LENGTH_MD5];
+        ((ByteBuffer) buffer.duplicate().position(OFFSET_MD5)).get(md5);
+
+        return new TPLinkFirmwareImageHeader(
+            getString(buffer, OFFSET_VENDOR_NAME, LENGTH_VENDOR_NAME),
+            getString(buffer, OFFSET_FIRMWARE_VERSION, LENGTH_FIRMWARE_VERSION),
+            toUnsigned(buffer.getInt(OFFSET_HARDWARE_ID)),
+            toUnsigned(buffer.getInt(OFFSET_HARDWARE_REVISION)),
+            toUnsigned(buffer.getInt(OFFSET_FIRMWARE_LENGTH)),
+            fileLength,
+            buffer.getInt(OFFSET_BOOT_LENGTH) != 0,
+            md5
+        );
+    }
+
+    /**
+     * Verifies the checksum stated in the header against the given image, which must contain the whole image the
+     * header was read from.
+     */
+    public boolean isChecksumValid(final ByteBuffer image) {
+        if (_firmwareLength < HEADER_LENGTH || _firmwareLength > image.limit()) {
+            return false;
+        }
+
+        final MessageDigest md5;
+        try {
+            md5 = MessageDigest.getInstance("MD5");
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 not available.", e);
+        }
+
+        final ByteBuffer buffer = image.duplicate();
+        md5.update(slice(buffer, 0, OFFSET_MD5));
+        md5.update(_bootImage ? MD5_SALT_BOOT : MD5_SALT_NORMAL);
+        md5.update(slice(buffer, OFFSET_MD5 + LENGTH_MD5, (int) _firmwareLength));
+
+        return Arrays.equals(_md5, md5.digest());
+    }
+
+    private static ByteBuffer slice(final ByteBuffer buffer, final int from, final int to) {
+        final ByteBuffer slice = buffer.duplicate();
+        slice.limit(to);
+        slice.position(from);
+        return slice;
+    }
+
+    private static String getString(final ByteBuffer buffer, final int offset, final int length) {
+        final byte[] bytes = new byte[length];
+        ((ByteBuffer) buffer.duplicate().position(offset)).get(bytes);
+        return CharMatcher.is('\0').trimTrailingFrom(new String(bytes, US_ASCII));
+    }
+
+    private static long toUnsigned(final int value) {
+        return value & 0xFFFFFFFFL;
+    }
+
+    private static byte[] toBytes(final int... values) {
+        final byte[] result = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            result[i] = (byte) values[i];
+        }
+        return result;
+    }
+
+    public String getVendorName() {
+        return _vendorName;
+    }
+
+    public String getFirmwareVersion() {
+        return _firmwareVersion;
+    }
+
+    public long getHardwareId() {
+        return _hardwareId;
+    }
+
+    public long getHardwareRevision() {
+        return _hardwareRevision;
+    }
+
+    /**
+     * @return the length of the firmware as stated in the header.
+     */
+    public long getFirmwareLength() {
+        return _firmwareLength;
+    }
+
+    /**
+     * @return the actual length of the image file.
+     */
+    public long getFileLength() {
+        return _fileLength;
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+            .add("vendorName", _vendorName)
+            .add("firmwareVersion", _firmwareVersion)
+            .add("hardwareId", String.format("0x%08x", _hardwareId))
+            .add("hardwareRevision", _hardwareRevision)
+            .add("firmwareLength", _firmwareLength)
+            .add("fileLength", _fileLength)
+            .add("bootImage", _bootImage)
+        .toString();
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.device.tplink;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ConcurrentMap;
+
+import net.freifunk.autodeploy.device.InvalidFirmwareImageException;
+import net.freifunk.autodeploy.firmware.image.FirmwareImageCache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Maps;
+import com.google.inject.Inject;
+
+/**
+ * Validates TP-Link factory images before they get uploaded to a device. Parsed headers and checksum results are
+ * cached per file and only computed again if the modification time or size of the file changes. Reading the header
+ * only reads its first bytes; the checksum takes the whole image, which is taken from the {@link FirmwareImageCache}.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public class TPLinkFirmwareImageValidator {
+
+    private static final class CachedHeader {
+        private final long _lastModified;
+        private final long _length;
+        private final TPLinkFirmwareImageHeader _header;
+        // verified on first validation only, as it takes reading the whole image
+        private volatile Boolean _checksumValid;
+
+        private CachedHeader(final long lastModified, final long length, final TPLinkFirmwareImageHeader header) {
+            _lastModified = lastModified;
+            _length = length;
+            _header = header;
+        }
+
+        private boolean isUpToDate(final long lastModified, final long length) {
+            return _lastModified == lastModified && _length == length;
+        }
+    }
+
+    private static final Logger LOG = LoggerFactory.getLogger(TPLinkFirmwareImageValidator.class);
+
+    private final ConcurrentMap<File, CachedHeader> _cache = Maps.newConcurrentMap();
+    private final FirmwareImageCache _imageCache;
+
+    @Inject
+    public TPLinkFirmwareImageValidator(
+        final FirmwareImageCache imageCache
+    ) {
+        _imageCache = imageCache;
+    }
+
+    /**
+     * Checks the given image is a complete TP-Link factory image with the given hardware ID. The header is checked
+     * first, so the whole image is only read for the checksum if it is meant for the device at all.
+     */
+    public void validate(
+        final File firmwareImage,
+        final long expectedHardwareId
+    ) throws FileNotFoundException, InvalidFirmwareImageException {
+        final CachedHeader cached = readCachedHeader(firmwareImage);
+        final TPLinkFirmwareImageHeader header = cached._header;
+
+        if (header.getHardwareId() != expectedHardwareId) {
+            throw new InvalidFirmwareImageException(String.format(
+                "Firmware image is for the wrong device: %s (expected hardware ID 0x%08x, got 0x%08x)",
+                firmwareImage,
+                expectedHardwareId,
+                header.getHardwareId()
+            ));
+        }
+
+        if (header.getFirmwareLength() != header.getFileLength()) {
+            throw new InvalidFirmwareImageException(
+                "Firmware image is truncated or padded: " + firmwareImage +
+                " (expected " + header.getFirmwareLength() + " bytes, got " + header.getFileLength() + ")"
+            );
+        }
+
+        if (!isChecksumValid(firmwareImage, cached)) {
+            throw new InvalidFirmwareImageException("Checksum mismatch for firmware image: " + firmwareImage);
+        }
+    }
+
+    /**
+     * Reads the header of the given image, without reading the rest of it. The result will be cached until the file
+     * changes.
+     */
+    public TPLinkFirmwareImageHeader readHeader(final File firmwareImage) throws FileNotFoundException, InvalidFirmwareImageException {
+        return readCachedHeader(firmwareImage)._header;
+    }
+
+    private CachedHeader readCachedHeader(final File firmwareImage) throws FileNotFoundException, InvalidFirmwareImageException {
+        if (!firmwareImage.exists()) {
+            throw new FileNotFoundException("The given firmware image file does not exist: " + firmwareImage);
+        }
+
+        if (!firmwareImage.isFile()) {
+            throw new FileNotFoundException("The given firmware image file is a directory: " + firmwareImage);
+        }
+
+        final File key = firmwareImage.getAbsoluteFile();
+        final long lastModified = key.lastModified();
+        final long length = key.length();
+
+        final CachedHeader cached = _cache.get(key);
+        if (cached != null && cached.isUpToDate(lastModified, length)) {
+            LOG.trace("readHeader cached: {} => {}", key, cached._header);
+            return cached;
+        }
+
+        final TPLinkFirmwareImageHeader header;
+        try {
+            header = TPLinkFirmwareImageHeader.parse(readHeaderBytes(key), length);
+        } catch (final IOException e) {
+            throw new InvalidFirmwareImageException("Could not read firmware image: " + key, e);
+        }
+        LOG.debug("Read firmware image header: {} => {}", key, header);
+
+        final CachedHeader read = new CachedHeader(lastModified, length, header);
+        _cache.put(key, read);
+        return read;
+    }
+
+    private static ByteBuffer readHeaderBytes(final File image) throws IOException {
+        final ByteBuffer header = ByteBuffer.allocate(TPLinkFirmwareImageHeader.HEADER_LENGTH);
+        try (final FileChannel channel = new FileInputStream(image).getChannel()) {
+            while (header.hasRemaining() && channel.read(header) != -1) {
+            }
+        }
+        header.flip();
+        return header;
+    }
+
+    private boolean isChecksumValid(final File firmwareImage, final CachedHeader cached) throws InvalidFirmwareImageException {
+        Boolean checksumValid = cached._checksumValid;
+        if (checksumValid == null) {
+            try {
+                // the image is usually preloaded into the cache once the release to deploy is picked
+                checksumValid = cached._header.isChecksumValid(_imageCache.get(firmwareImage));
+            } catch (final IOException e) {
+                throw new InvalidFirmwareImageException("Could not read firmware image: " + firmwareImage, e);
+            }
+            cached._checksumValid = checksumValid;
+        }
+        return checksumValid;
+    }
+}
@@ -21,23 +21,35 @@
  */
 package net.freifunk.autodeploy.firmware;
 
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 import static java.util.concurrent.TimeUnit.SECONDS;
 
+import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.URI;
-import java.util.Set;
+import java.util.List;
+import java.util.regex.Pattern;
 
 import net.freifunk.autodeploy.device.DetailedDevice;
 import net.freifunk.autodeploy.device.Device;
+import net.freifunk.autodeploy.firmware.community.Community;
+import net.freifunk.autodeploy.http.UnexpectedPageException;
+import net.freifunk.autodeploy.lifecycle.RebootStage;
+import net.freifunk.autodeploy.lifecycle.RebootTracker;
+import net.freifunk.autodeploy.network.ReadinessDetector;
 import net.freifunk.autodeploy.selenium.Actor;
+import net.freifunk.autodeploy.selenium.ErrorSignature;
 
+import org.apache.http.client.HttpClient;
 import org.openqa.selenium.By;
+import org.openqa.selenium.TimeoutException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableList;
 
 /**
- * Configures the Freifunk Nord firmware.
+ * Configures the Freifunk Nord firmware of a {@link Community}.
  *
  * @author Andreas Baldeau <andreas@baldeau.net>
  */
@@ -50,6 +62,12 @@ public abstract class AbstractFreifunkNordConfigurator implements FirmwareConfig
     private static final int CONFIG_MODE_PORT = 80;
     private static final String CONFIG_MODE_URL = "http://" + CONFIG_MODE_IP + ":" + CONFIG_MODE_PORT;
     private static final String CONFIG_MODE_TITLE = "LuCI";
+    private static final int CONFIG_MODE_TIMEOUT_SECONDS = 180;
+    private static final int CONFIG_MODE_CHECK_SECONDS = 5;
+
+    private static final String BACKEND_PROPERTY = "configurator.backend";
+    private static final String HTTP_BACKEND = "http";
+    private static final String BROWSER_BACKEND = "browser";
 
     private static final By START_CONFIGURATION_LINK = By.cssSelector(".actions .btn.primary");
     private static final By NEXT_BUTTON = By.cssSelector(".actions .btn.primary");
@@ -61,38 +79,131 @@ public abstract class AbstractFreifunkNordConfigurator implements FirmwareConfig
     private static final By CONFIGURATION_HEADLINE = By.cssSelector("#maincontent h2");
     private static final By REBOOT_BUTTON = By.cssSelector(".btn.primary");
     private static final String CONFIGURATION_DONE_HEADLINE = "Konfiguration abgeschlossen";
-
-    private static final Set<Device> DEVICES_REQUIRING_REWIRING = ImmutableSet.of(
-        new Device("WR841N", "v8"),
-        new Device("WR841ND", "v8")
+    // LuCI marks invalid values and failed actions with these, templates may contain them empty
+    private static final List<ErrorSignature> ERROR_SIGNATURES = ImmutableList.of(
+        new ErrorSignature("error", By.cssSelector(".error"), Pattern.compile("\\S")),
+        new ErrorSignature("cbi-value-error", By.cssSelector(".cbi-value-error"), Pattern.compile("\\S"))
     );
 
+    private final Community _community;
     private final Actor _actor;
+    private final RebootTracker _rebootTracker;
+    private final ReadinessDetector _readinessDetector;
+    private final HttpFreifunkNordWizard _httpWizard;
+
+    public AbstractFreifunkNordConfigurator(
+        final Community community,
+        final Actor actor,
+        final RebootTracker rebootTracker,
+        final ReadinessDetector readinessDetector,
+        final HttpClient httpClient
+    ) {
+        this(
+            community,
+            actor,
+            rebootTracker,
+            readinessDetector,
+            httpClient,
+            System.getProperty(BACKEND_PROPERTY, HTTP_BACKEND)
+        );
+    }
 
+    /**
+     * @param backend how to drive the config mode wizard: <code>http</code> posts the forms directly and falls back to
+     *            the browser for pages it does not understand, <code>browser</code> always renders the pages in the
+     *            browser of the {@link Actor}, i.e. HtmlUnit or Firefox.
+     */
     public AbstractFreifunkNordConfigurator(
-        final Actor actor
+        final Community community,
+        final Actor actor,
+        final RebootTracker rebootTracker,
+        final ReadinessDetector readinessDetector,
+        final HttpClient httpClient,
+        final String backend
     ) {
+        _community = community;
         _actor = actor;
+        _rebootTracker = rebootTracker;
+        _readinessDetector = readinessDetector;
+
+        if (HTTP_BACKEND.equals(backend)) {
+            _httpWizard = new HttpFreifunkNordWizard(
+                httpClient,
+                URI.create(CONFIG_MODE_URL),
+                CONFIG_MODE_TITLE,
+                CONFIGURATION_DONE_HEADLINE
+            );
+        } else if (BROWSER_BACKEND.equals(backend)) {
+            _httpWizard = null;
+        } else {
+            throw new IllegalArgumentException("Unknown configurator backend: " + backend);
+        }
     }
 
     @Override
     public boolean requiresRewiring(final Device device) {
-        return DEVICES_REQUIRING_REWIRING.contains(device);
+        return _community.getDevicesRequiringRewiring().contains(device);
+    }
+
+    @Override
+    public InetSocketAddress getConfigModeAddress() {
+        return new InetSocketAddress(CONFIG_MODE_IP, CONFIG_MODE_PORT);
+    }
+
+    @Override
+    public URI getRegularModeUri() {
+        return _community.getNextNodeUri();
     }
 
     @Override
     public FirmwareConfiguration configure(final String password, final String nodename) {
         LOG.debug("Starting firmware configuration.");
-        _actor.waitForWebserverBeingAvailable(CONFIG_MODE_IP, CONFIG_MODE_PORT, 180, SECONDS);
+        final long start = System.nanoTime();
+        final long heapBefore = getUsedHeap();
+
+        waitForConfigMode();
+        // TODO: Allow to disable VPN meshing.
+        final String vpnKey = _httpWizard == null
+            ? configureInBrowser(password, nodename)
+            : configureViaHttp(password, nodename);
+
+        LOG.info(
+            "Configuration took {} ms, heap used before / after: {} / {} KiB",
+            NANOSECONDS.toMillis(System.nanoTime() - start),
+            heapBefore / 1024,
+            getUsedHeap() / 1024
+        );
+        return new FreifunkNordFirmwareConfiguration(nodename, password, vpnKey);
+    }
+
+    private static long getUsedHeap() {
+        final Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private String configureViaHttp(final String password, final String nodename) {
+        try {
+            _httpWizard.open();
+            _rebootTracker.stageReached(RebootStage.CONFIG_MODE_READY);
+            return _httpWizard.complete(password, nodename);
+        } catch (final UnexpectedPageException e) {
+            // the wizard steps only set values, so running it again from the start is harmless
+            LOG.warn("Config mode page not understood, falling back to browser.", e);
+            return configureInBrowser(password, nodename);
+        } catch (final IOException e) {
+            throw new IllegalStateException("Configuration via HTTP failed.", e);
+        }
+    }
+
+    private String configureInBrowser(final String password, final String nodename) {
+        _actor.setErrorSignatures(ERROR_SIGNATURES);
         goToConfigMode();
         startConfiguration();
         setPassword(password);
         setHostName(nodename);
-        // TODO: Allow to disable VPN meshing.
         final String vpnKey = activateVPN();
         bootIntoRegularMode();
-
-        return new FreifunkNordFirmwareConfiguration(nodename, password, vpnKey);
+        return vpnKey;
     }
 
     @Override
@@ -101,7 +212,7 @@ public abstract class AbstractFreifunkNordConfigurator implements FirmwareConfig
     }
 
     @Override
-    public String registerNode(final FirmwareConfiguration configuration, final DetailedDevice device) {
+    public String registerNode(final FirmwareConfiguration configuration, final DetailedDevice device) throws IOException {
         throw new UnsupportedOperationException("Node registration not supported: " + this.getClass().getName());
     }
 
@@ -110,10 +221,30 @@ public abstract class AbstractFreifunkNordConfigurator implements FirmwareConfig
         return null;
     }
 
+    private void waitForConfigMode() {
+        // wait in small steps to notice devices hanging during the reboot early
+        final long deadline = System.nanoTime() + SECONDS.toNanos(CONFIG_MODE_TIMEOUT_SECONDS);
+        try {
+            while (!_readinessDetector.awaitReady(URI.create(CONFIG_MODE_URL), CONFIG_MODE_CHECK_SECONDS, SECONDS)) {
+                _rebootTracker.checkNotStalled();
+                if (System.nanoTime() > deadline) {
+                    throw new TimeoutException(
+                        "Config mode not available after " + CONFIG_MODE_TIMEOUT_SECONDS + " seconds: " + CONFIG_MODE_URL
+                    );
+                }
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for config mode.", e);
+        }
+        _rebootTracker.stageReached(RebootStage.CONFIG_MODE_AVAILABLE);
+    }
+
     private void goToConfigMode() {
         _actor.switchToWindow();
         _actor.navigateTo(CONFIG_MODE_URL);
         _actor.waitForTitleContaining(CONFIG_MODE_TITLE);
+        _rebootTracker.stageReached(RebootStage.CONFIG_MODE_READY);
     }
 
     private void startConfiguration() {
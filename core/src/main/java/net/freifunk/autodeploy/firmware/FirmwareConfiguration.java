@@ -21,11 +21,15 @@
  */
 package net.freifunk.autodeploy.firmware;
 
+import org.codehaus.jackson.annotate.JsonTypeInfo;
+
 /**
- * Tagging interface for a firmware configuration returned by a {@link FirmwareConfigurator}.
+ * Tagging interface for a firmware configuration returned by a {@link FirmwareConfigurator}. Configurations get
+ * journaled as JSON, so implementations must be deserializable by Jackson.
  *
  * @author Andreas Baldeau <andreas@baldeau.net>
  */
+@JsonTypeInfo(use = JsonTypeInfo.Id.CLASS, property = "@class")
 public interface FirmwareConfiguration {
 
 }
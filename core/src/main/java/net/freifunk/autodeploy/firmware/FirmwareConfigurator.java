@@ -21,6 +21,8 @@
  */
 package net.freifunk.autodeploy.firmware;
 
+import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.URI;
 
 import net.freifunk.autodeploy.device.DetailedDevice;
@@ -38,6 +40,16 @@ public interface FirmwareConfigurator {
      */
     boolean requiresRewiring(Device device);
 
+    /**
+     * @return the address of the web interface used for configuration, reachable once the device is wired correctly.
+     */
+    InetSocketAddress getConfigModeAddress();
+
+    /**
+     * @return a page answering once the configured node runs in regular mode, or <code>null</code> if unknown.
+     */
+    URI getRegularModeUri();
+
     /**
      * Configures the Freifunk firmware. The given password will be set for the root user on the device.
      */
@@ -51,9 +63,11 @@ public interface FirmwareConfigurator {
     /**
      * Register a node via the given configuration.
      *
-     * @return An update token or <code>null</code> in case of an error or no token being available.
+     * @return An update token or <code>null</code> in case of the registration being rejected or no token being
+     *         available.
+     * @throws IOException if the registration failed, but may succeed when being retried.
      */
-    String registerNode(FirmwareConfiguration configuration, DetailedDevice device);
+    String registerNode(FirmwareConfiguration configuration, DetailedDevice device) throws IOException;
 
     /**
      * @return The {@link URI} for updating a nodes data. May be null if not supported.
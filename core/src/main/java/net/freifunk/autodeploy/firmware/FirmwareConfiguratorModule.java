@@ -23,40 +23,62 @@ package net.freifunk.autodeploy.firmware;
 
 import static com.google.inject.Scopes.SINGLETON;
 
+import java.util.IdentityHashMap;
 import java.util.Map;
-import java.util.Set;
+import java.util.ServiceLoader;
 
+import net.freifunk.autodeploy.plugin.FirmwareConfiguratorPlugin;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.inject.Key;
 import com.google.inject.Module;
 import com.google.inject.PrivateModule;
+import com.google.inject.Provider;
 import com.google.inject.TypeLiteral;
 import com.google.inject.multibindings.MapBinder;
+import com.google.inject.name.Names;
 
 /**
- * {@link Module} to bind a {@link FirmwareConfigurator}.
+ * {@link Module} to bind the {@link FirmwareConfigurator}s of all {@link FirmwareConfiguratorPlugin}s found on the
+ * classpath.
  *
  * @author Andreas Baldeau <andreas@baldeau.net>
  */
 public class FirmwareConfiguratorModule extends PrivateModule {
 
+    private static final Logger LOG = LoggerFactory.getLogger(FirmwareConfiguratorModule.class);
+
     @Override
     protected final void configure() {
-        bindConfigurator(FreifunkHamburgConfigurator.class);
-        bindConfigurator(FreifunkKielConfigurator.class);
-        bindConfigurator(FreifunkLuebeckConfigurator.class);
-        bindConfigurator(FreifunkLueneburgConfigurator.class);
+        final MapBinder<Firmware, FirmwareConfigurator> configuratorBinder =
+            MapBinder.newMapBinder(binder(), Firmware.class, FirmwareConfigurator.class);
 
-        expose(new TypeLiteral<Map<Firmware, FirmwareConfigurator>>() {});
+        for (final FirmwareConfiguratorPlugin plugin: ServiceLoader.load(FirmwareConfiguratorPlugin.class)) {
+            LOG.debug("Binding configurators of plugin: {}", plugin.getClass().getSimpleName());
+            bindPlugin(plugin, configuratorBinder);
+        }
+
+        expose(new TypeLiteral<Map<Firmware, Provider<FirmwareConfigurator>>>() {});
     }
 
-    @SuppressWarnings("unchecked")
-    private void bindConfigurator(final Class<? extends FirmwareConfigurator> cls) {
-        final MapBinder<Firmware, FirmwareConfigurator> configuratorBinder = MapBinder.newMapBinder(binder(), Firmware.class, FirmwareConfigurator.class);
-        try {
-            for (final Firmware firmware: (Set<Firmware>) cls.getField("SUPPORTED_FIRMWARES").get(null)) {
-                configuratorBinder.addBinding(firmware).to(cls).in(SINGLETON);
+    private void bindPlugin(
+        final FirmwareConfiguratorPlugin plugin,
+        final MapBinder<Firmware, FirmwareConfigurator> configuratorBinder
+    ) {
+        // each provider gets its own singleton key, so firmwares sharing a provider share the configurator instance
+        final Map<Provider<? extends FirmwareConfigurator>, Key<FirmwareConfigurator>> keysByProvider = new IdentityHashMap<>();
+
+        for (final Firmware firmware: plugin.getSupportedFirmwares()) {
+            final Provider<? extends FirmwareConfigurator> provider = plugin.getConfiguratorProvider(firmware);
+            Key<FirmwareConfigurator> key = keysByProvider.get(provider);
+            if (key == null) {
+                key = Key.get(FirmwareConfigurator.class, Names.named(plugin.getClass().getName() + "#" + keysByProvider.size()));
+                bind(key).toProvider(provider).in(SINGLETON);
+                keysByProvider.put(provider, key);
             }
-        } catch (IllegalArgumentException | IllegalAccessException | NoSuchFieldException | SecurityException e) {
-            throw new IllegalStateException("Could not bind configurator: " + cls, e);
+            configuratorBinder.addBinding(firmware).to(key);
         }
     }
 }
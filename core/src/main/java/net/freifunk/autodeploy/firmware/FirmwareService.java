@@ -22,9 +22,13 @@
 package net.freifunk.autodeploy.firmware;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.List;
 import java.util.Set;
 
+import net.freifunk.autodeploy.device.DeploymentMode;
 import net.freifunk.autodeploy.device.Device;
+import net.freifunk.autodeploy.firmware.image.FirmwareRelease;
 
 import com.google.common.collect.Multimap;
 
@@ -60,4 +64,28 @@ public interface FirmwareService {
      * Get the firmware file.
      */
     File findFirmwareImage(File firmwareImageDirectory, Device device, Firmware firmware);
+
+    /**
+     * Get the firmware file to deploy in the given mode. For {@link DeploymentMode#SYSUPGRADE} this is the sysupgrade
+     * image, otherwise the factory image.
+     */
+    File findFirmwareImage(File firmwareImageDirectory, Device device, Firmware firmware, DeploymentMode mode);
+
+    /**
+     * @return all releases of the firmware for the device found in the given directory, newest first.
+     */
+    List<FirmwareRelease> getReleases(File firmwareImageDirectory, Device device, Firmware firmware, DeploymentMode mode);
+
+    /**
+     * @return the release to deploy in the given mode: the newest release of the preferred branch, or the newest
+     *         release at all if the branch has none. An image named explicitly is always preferred. Returns
+     *         <code>null</code> if there is no release.
+     */
+    FirmwareRelease findLatestRelease(File firmwareImageDirectory, Device device, Firmware firmware, DeploymentMode mode);
+
+    /**
+     * @return whether the image of the given release matches the SHA-256 checksum of its manifest. Releases without
+     *         such a checksum are considered intact.
+     */
+    boolean isIntact(FirmwareRelease release) throws IOException;
 }
@@ -22,32 +22,116 @@
 package net.freifunk.autodeploy.firmware;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Pattern;
 
+import net.freifunk.autodeploy.device.DeploymentMode;
 import net.freifunk.autodeploy.device.Device;
 import net.freifunk.autodeploy.device.DeviceService;
+import net.freifunk.autodeploy.device.profile.DeviceProfileService;
+import net.freifunk.autodeploy.firmware.image.FirmwareImageCatalog;
+import net.freifunk.autodeploy.firmware.image.FirmwareImageHashIndex;
+import net.freifunk.autodeploy.firmware.image.FirmwareImageSnapshot;
+import net.freifunk.autodeploy.firmware.image.FirmwareRelease;
+import net.freifunk.autodeploy.firmware.image.FirmwareReleaseIndex;
+import net.freifunk.autodeploy.firmware.image.GluonImageNameParser;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMultimap;
 import com.google.common.collect.ImmutableMultimap.Builder;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Multimap;
+import com.google.common.collect.Sets;
 import com.google.inject.Inject;
+import com.google.inject.Provider;
 
 public class FirmwareServiceImpl implements FirmwareService {
 
-    private final Map<Firmware, FirmwareConfigurator> _configurators;
+    private static final Logger LOG = LoggerFactory.getLogger(FirmwareServiceImpl.class);
+
+    private static final String BRANCH_PROPERTY = "firmware.branch";
+    private static final String DEFAULT_BRANCH = "stable";
+
+    private static final Pattern SHA256_CHECKSUM = Pattern.compile("[0-9a-fA-F]{64}");
+
+    // subdirectories of a Gluon release directory holding the images
+    private static final List<String> GLUON_IMAGE_DIRECTORIES = ImmutableList.of("factory", "sysupgrade");
+
+    // configurators are created on first use, so only the ones actually needed get instantiated
+    private final Map<Firmware, Provider<FirmwareConfigurator>> _configurators;
     private final DeviceService _deviceService;
+    private final FirmwareImageCatalog _catalog;
+    private final FirmwareImageHashIndex _hashIndex;
+    private final GluonImageNameParser _gluonImageNameParser;
+    private final String _branch;
+
+    /**
+     * A release index together with the mappings built from it, published as a whole so lookups need no locking.
+     *
+     * @author Andreas Baldeau <andreas@baldeau.net>
+     */
+    private static final class IndexedReleases {
+
+        private final FirmwareReleaseIndex _releaseIndex;
+        private final Multimap<Device, Firmware> _mappings;
+
+        private IndexedReleases(final FirmwareReleaseIndex releaseIndex, final Multimap<Device, Firmware> mappings) {
+            _releaseIndex = releaseIndex;
+            _mappings = mappings;
+        }
+    }
+
+    // the index and mappings only change with the snapshots they were built from
+    private final AtomicReference<IndexedReleases> _indexedReleases = new AtomicReference<>();
 
     @Inject
     public FirmwareServiceImpl(
-        final Map<Firmware, FirmwareConfigurator> configurators,
-        final DeviceService deviceService
+        final Map<Firmware, Provider<FirmwareConfigurator>> configurators,
+        final DeviceService deviceService,
+        final DeviceProfileService deviceProfileService,
+        final FirmwareImageCatalog catalog,
+        final FirmwareImageHashIndex hashIndex
+    ) {
+        this(
+            configurators,
+            deviceService,
+            deviceProfileService,
+            catalog,
+            hashIndex,
+            System.getProperty(BRANCH_PROPERTY, DEFAULT_BRANCH)
+        );
+    }
+
+    /**
+     * @param branch the branch to prefer releases from.
+     */
+    public FirmwareServiceImpl(
+        final Map<Firmware, Provider<FirmwareConfigurator>> configurators,
+        final DeviceService deviceService,
+        final DeviceProfileService deviceProfileService,
+        final FirmwareImageCatalog catalog,
+        final FirmwareImageHashIndex hashIndex,
+        final String branch
     ) {
         _configurators = configurators;
         _deviceService = deviceService;
+        _catalog = catalog;
+        _hashIndex = hashIndex;
+        _branch = branch;
+
+        final Set<String> sites = Sets.newHashSet();
+        for (final Firmware firmware: configurators.keySet()) {
+            sites.add(firmware.getName());
+        }
+        _gluonImageNameParser = new GluonImageNameParser(sites, deviceProfileService.getDevicesByGluonImage());
     }
 
     @Override
@@ -68,11 +152,11 @@ public class FirmwareServiceImpl implements FirmwareService {
 
     @Override
     public FirmwareConfigurator getConfigurator(final Firmware firmware) {
-        final FirmwareConfigurator configurator = _configurators.get(firmware);
+        final Provider<FirmwareConfigurator> configurator = _configurators.get(firmware);
         if (configurator == null) {
             throw new IllegalArgumentException("No configurator found for firmware: " + firmware);
         }
-        return configurator;
+        return configurator.get();
     }
 
     @Override
@@ -82,34 +166,101 @@ public class FirmwareServiceImpl implements FirmwareService {
 
     @Override
     public Multimap<Device, Firmware> getAvailableDeviceFirmwareMappings(final File firmwareImageDirectory) {
-        Preconditions.checkState(firmwareImageDirectory.exists(), "Directory not found: " + firmwareImageDirectory);
-        Preconditions.checkState(firmwareImageDirectory.isDirectory(), "Not a directory: " + firmwareImageDirectory);
-
-        final Builder<Device, Firmware> builder = ImmutableMultimap.builder();
+        return getIndexedReleases(firmwareImageDirectory)._mappings;
+    }
 
-        for (final Firmware firmware: getSupportedFirmwares()) {
-            for (final Device device: _deviceService.getSupportedDevices()) {
-                final File image = toFirmwareImageFile(firmwareImageDirectory, firmware, device);
-                if (image.exists() && image.isFile()) {
-                    builder.put(device, firmware);
-                }
-            }
-        }
+    @Override
+    public File findFirmwareImage(final File firmwareImageDirectory, final Device device, final Firmware firmware) {
+        return findFirmwareImage(firmwareImageDirectory, device, firmware, DeploymentMode.FACTORY);
+    }
 
-        return builder.build();
+    @Override
+    public File findFirmwareImage(
+        final File firmwareImageDirectory,
+        final Device device,
+        final Firmware firmware,
+        final DeploymentMode mode
+    ) {
+        final FirmwareRelease release = findLatestRelease(firmwareImageDirectory, device, firmware, mode);
+        return release == null ? null : release.getFile();
     }
 
     @Override
-    public File findFirmwareImage(final File firmwareImageDirectory, final Device device, final Firmware firmware) {
-        final File firmwareImageFile = toFirmwareImageFile(firmwareImageDirectory, firmware, device);
-        return firmwareImageFile.exists() ? firmwareImageFile : null;
+    public List<FirmwareRelease> getReleases(
+        final File firmwareImageDirectory,
+        final Device device,
+        final Firmware firmware,
+        final DeploymentMode mode
+    ) {
+        return getReleaseIndex(firmwareImageDirectory).getReleases(toImageName(device, firmware, mode));
     }
 
-    private File toFirmwareImageFile(
+    @Override
+    public FirmwareRelease findLatestRelease(
         final File firmwareImageDirectory,
+        final Device device,
         final Firmware firmware,
-        final Device device
+        final DeploymentMode mode
     ) {
-        return new File(firmwareImageDirectory, (firmware.getName() + "_" + device.getModel() + "_" + device.getVersion()).toLowerCase());
+        return getReleaseIndex(firmwareImageDirectory).findLatestRelease(toImageName(device, firmware, mode), _branch);
+    }
+
+    @Override
+    public boolean isIntact(final FirmwareRelease release) throws IOException {
+        final String checksum = release.getChecksum();
+        if (checksum == null || !SHA256_CHECKSUM.matcher(checksum).matches()) {
+            return true;
+        }
+        return checksum.equalsIgnoreCase(_hashIndex.getSha256(release.getFile()));
+    }
+
+    private static String toImageName(final Device device, final Firmware firmware, final DeploymentMode mode) {
+        return FirmwareReleaseIndex.toImageName(firmware.getName(), device, mode == DeploymentMode.SYSUPGRADE);
+    }
+
+    private FirmwareReleaseIndex getReleaseIndex(final File firmwareImageDirectory) {
+        return getIndexedReleases(firmwareImageDirectory)._releaseIndex;
+    }
+
+    private IndexedReleases getIndexedReleases(final File firmwareImageDirectory) {
+        final FirmwareImageSnapshot root = _catalog.getSnapshot(firmwareImageDirectory);
+        final ImmutableList.Builder<FirmwareImageSnapshot> snapshots = ImmutableList.builder();
+        snapshots.add(root);
+        for (final String name: GLUON_IMAGE_DIRECTORIES) {
+            if (root.containsDirectory(name)) {
+                snapshots.add(_catalog.getSnapshot(new File(firmwareImageDirectory, name)));
+            }
+        }
+
+        final List<FirmwareImageSnapshot> currentSnapshots = snapshots.build();
+        final IndexedReleases indexedReleases = _indexedReleases.get();
+        if (indexedReleases != null && indexedReleases._releaseIndex.isBuiltFrom(currentSnapshots)) {
+            return indexedReleases;
+        }
+
+        final FirmwareReleaseIndex releaseIndex = FirmwareReleaseIndex.build(currentSnapshots, _gluonImageNameParser);
+        final IndexedReleases rebuilt = new IndexedReleases(releaseIndex, buildMappings(releaseIndex));
+        // only the thread publishing the index starts hashing, concurrent builders just use their own copy
+        if (_indexedReleases.compareAndSet(indexedReleases, rebuilt)) {
+            LOG.debug("Indexed firmware releases from: {}", currentSnapshots);
+
+            // hashes new or changed images in the background, so checking them before flashing is cheap
+            for (final FirmwareImageSnapshot snapshot: currentSnapshots) {
+                _hashIndex.update(snapshot);
+            }
+        }
+        return rebuilt;
+    }
+
+    private Multimap<Device, Firmware> buildMappings(final FirmwareReleaseIndex releaseIndex) {
+        final Builder<Device, Firmware> mappings = ImmutableMultimap.builder();
+        for (final Firmware firmware: getSupportedFirmwares()) {
+            for (final Device device: _deviceService.getSupportedDevices()) {
+                if (releaseIndex.hasReleases(toImageName(device, firmware, DeploymentMode.FACTORY))) {
+                    mappings.put(device, firmware);
+                }
+            }
+        }
+        return mappings.build();
     }
 }
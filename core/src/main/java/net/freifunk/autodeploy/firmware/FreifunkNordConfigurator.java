@@ -21,29 +21,27 @@
  */
 package net.freifunk.autodeploy.firmware;
 
-import java.net.URI;
-import java.util.Set;
-
+import net.freifunk.autodeploy.firmware.community.Community;
+import net.freifunk.autodeploy.lifecycle.RebootTracker;
+import net.freifunk.autodeploy.network.ReadinessDetector;
 import net.freifunk.autodeploy.selenium.Actor;
 
-import com.google.common.collect.ImmutableSet;
-import com.google.inject.Inject;
+import org.apache.http.client.HttpClient;
 
 /**
- * Configures the Freifunk Kiel firmware.
+ * Configures the Freifunk Nord firmware of communities not registering their nodes.
  *
  * @author Andreas Baldeau <andreas@baldeau.net>
  */
-public class FreifunkKielConfigurator extends AbstractFreifunkNordConfigurator {
-
-    public static final Set<Firmware> SUPPORTED_FIRMWARES = ImmutableSet.of(
-        new Firmware("ffki", "Freifunk Kiel", URI.create("http://freifunk.in-kiel.de/mitmachen.html"))
-    );
+public class FreifunkNordConfigurator extends AbstractFreifunkNordConfigurator {
 
-    @Inject
-    public FreifunkKielConfigurator(
-        final Actor actor
+    public FreifunkNordConfigurator(
+        final Community community,
+        final Actor actor,
+        final RebootTracker rebootTracker,
+        final ReadinessDetector readinessDetector,
+        final HttpClient httpClient
     ) {
-        super(actor);
+        super(community, actor, rebootTracker, readinessDetector, httpClient);
     }
 }
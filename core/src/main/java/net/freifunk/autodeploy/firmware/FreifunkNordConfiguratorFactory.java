@@ -0,0 +1,93 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.firmware;
+
+import java.net.URI;
+
+import net.freifunk.autodeploy.firmware.community.Community;
+import net.freifunk.autodeploy.lifecycle.RebootTracker;
+import net.freifunk.autodeploy.network.ReadinessDetector;
+import net.freifunk.autodeploy.registry.NodeRegistry;
+import net.freifunk.autodeploy.selenium.Actor;
+
+import org.apache.http.client.HttpClient;
+import org.codehaus.jackson.map.ObjectMapper;
+
+import com.google.inject.Inject;
+
+/**
+ * Creates the {@link FirmwareConfigurator}s for the {@link Community}s of the Freifunk Nord firmware.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public class FreifunkNordConfiguratorFactory {
+
+    // e.g. ffhh.registration.uri, to register against a local stand-in for the registration server
+    private static final String NODE_REGISTRATION_URI_PROPERTY_PATTERN = "%s.registration.uri";
+
+    private final Actor _actor;
+    private final RebootTracker _rebootTracker;
+    private final ReadinessDetector _readinessDetector;
+    private final HttpClient _httpClient;
+    private final ObjectMapper _objectMapper;
+    private final NodeRegistry _nodeRegistry;
+
+    @Inject
+    public FreifunkNordConfiguratorFactory(
+        final Actor actor,
+        final RebootTracker rebootTracker,
+        final ReadinessDetector readinessDetector,
+        final HttpClient httpClient,
+        final ObjectMapper objectMapper,
+        final NodeRegistry nodeRegistry
+    ) {
+        _actor = actor;
+        _rebootTracker = rebootTracker;
+        _readinessDetector = readinessDetector;
+        _httpClient = httpClient;
+        _objectMapper = objectMapper;
+        _nodeRegistry = nodeRegistry;
+    }
+
+    /**
+     * Creates the configurator for the given community.
+     */
+    public FirmwareConfigurator create(final Community community) {
+        if (community.getRegistration() == null) {
+            return new FreifunkNordConfigurator(community, _actor, _rebootTracker, _readinessDetector, _httpClient);
+        }
+
+        final String nodeRegistrationUri = System.getProperty(
+            String.format(NODE_REGISTRATION_URI_PROPERTY_PATTERN, community.getName())
+        );
+        return new RegisteringFreifunkNordConfigurator(
+            community,
+            _actor,
+            _rebootTracker,
+            _readinessDetector,
+            _httpClient,
+            _objectMapper,
+            _nodeRegistry,
+            nodeRegistrationUri == null ? community.getRegistration().getUri() : URI.create(nodeRegistrationUri)
+        );
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.firmware;
+
+import java.util.Map;
+import java.util.Set;
+
+import net.freifunk.autodeploy.firmware.community.Community;
+import net.freifunk.autodeploy.firmware.community.CommunityIndex;
+import net.freifunk.autodeploy.plugin.FirmwareConfiguratorPlugin;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+
+/**
+ * Plugin providing the configurators for the firmwares of the Freifunk communities in the {@link CommunityIndex}.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public class FreifunkNordConfiguratorPlugin implements FirmwareConfiguratorPlugin {
+
+    /**
+     * Creates the configurator of a community on first use.
+     *
+     * @author Andreas Baldeau <andreas@baldeau.net>
+     */
+    private static final class FreifunkNordConfiguratorProvider implements Provider<FirmwareConfigurator> {
+
+        private final Community _community;
+
+        @Inject
+        private FreifunkNordConfiguratorFactory _factory;
+
+        private FreifunkNordConfiguratorProvider(final Community community) {
+            _community = community;
+        }
+
+        @Override
+        public FirmwareConfigurator get() {
+            return _factory.create(_community);
+        }
+    }
+
+    private final Map<Firmware, FreifunkNordConfiguratorProvider> _providersByFirmware;
+
+    public FreifunkNordConfiguratorPlugin() {
+        // the providers are cheap, the configurators themselves are only created when used
+        final ImmutableMap.Builder<Firmware, FreifunkNordConfiguratorProvider> builder = ImmutableMap.builder();
+        for (final Community community: CommunityIndex.getDefault().getCommunities()) {
+            builder.put(community.getFirmware(), new FreifunkNordConfiguratorProvider(community));
+        }
+        _providersByFirmware = builder.build();
+    }
+
+    @Override
+    public Set<Firmware> getSupportedFirmwares() {
+        return _providersByFirmware.keySet();
+    }
+
+    @Override
+    public Provider<? extends FirmwareConfigurator> getConfiguratorProvider(final Firmware firmware) {
+        final Provider<? extends FirmwareConfigurator> provider = _providersByFirmware.get(firmware);
+        Preconditions.checkArgument(provider != null, "Unsupported firmware: " + firmware);
+        return provider;
+    }
+}
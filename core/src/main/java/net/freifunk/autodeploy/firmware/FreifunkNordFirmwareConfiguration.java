@@ -21,6 +21,9 @@
  */
 package net.freifunk.autodeploy.firmware;
 
+import org.codehaus.jackson.annotate.JsonCreator;
+import org.codehaus.jackson.annotate.JsonProperty;
+
 /**
  * Configuration of a Freifunk Nord router.
  *
@@ -32,10 +35,11 @@ public class FreifunkNordFirmwareConfiguration implements FirmwareConfiguration
     private final String _password;
     private final String _vpnKey;
 
+    @JsonCreator
     public FreifunkNordFirmwareConfiguration(
-        final String nodename,
-        final String password,
-        final String vpnKey
+        @JsonProperty("nodename") final String nodename,
+        @JsonProperty("password") final String password,
+        @JsonProperty("vpnKey") final String vpnKey
     ) {
         _nodename = nodename;
         _password = password;
@@ -0,0 +1,239 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.firmware;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.List;
+
+import net.freifunk.autodeploy.http.HtmlForm;
+import net.freifunk.autodeploy.http.HtmlPage;
+import net.freifunk.autodeploy.http.UnexpectedPageException;
+import net.freifunk.autodeploy.selenium.ErrorPageException;
+
+import org.apache.http.Consts;
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Drives the config mode wizard of the Freifunk Nord firmware by posting its forms directly, without rendering the
+ * pages in a browser. Pages not looking like expected are reported with an {@link UnexpectedPageException}.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+class HttpFreifunkNordWizard {
+
+    private static final Logger LOG = LoggerFactory.getLogger(HttpFreifunkNordWizard.class);
+
+    private static final int TIMEOUT_MS = 30000;
+    // the device may reboot without answering, the boot is verified in the background anyways
+    private static final int REBOOT_TIMEOUT_MS = 5000;
+    private static final int MAX_REDIRECTS = 5;
+
+    private static final String PRIMARY_CLASS = "primary";
+    private static final String PASSWORD_FIELD1 = "cbid.password.1.pw1";
+    private static final String PASSWORD_FIELD2 = "cbid.password.1.pw2";
+    private static final String HOSTNAME_FIELD = "cbid.hostname.1.hostname";
+    private static final String MESH_VIA_VPN_CHECKBOX = "cbid.meshvpn.1.meshvpn";
+    private static final String MAIN_CONTENT_ID = "maincontent";
+    // LuCI marks invalid values and failed actions with these
+    private static final List<String> ERROR_CLASSES = ImmutableList.of("error", "cbi-value-error");
+
+    private final HttpClient _httpClient;
+    private final URI _configModeUri;
+    private final String _configModeTitle;
+    private final String _configurationDoneHeadline;
+
+    private HtmlPage _page;
+
+    HttpFreifunkNordWizard(
+        final HttpClient httpClient,
+        final URI configModeUri,
+        final String configModeTitle,
+        final String configurationDoneHeadline
+    ) {
+        _httpClient = httpClient;
+        _configModeUri = configModeUri;
+        _configModeTitle = configModeTitle;
+        _configurationDoneHeadline = configurationDoneHeadline;
+    }
+
+    /**
+     * Loads the start page of the config mode.
+     */
+    void open() throws IOException {
+        _page = get(_configModeUri);
+        if (!_page.getTitle().contains(_configModeTitle)) {
+            throw new UnexpectedPageException("Not in config mode: " + _page);
+        }
+    }
+
+    /**
+     * Walks through the wizard and finally reboots the device into regular mode.
+     *
+     * @return the VPN key of the node.
+     */
+    String complete(final String password, final String nodename) throws IOException {
+        startConfiguration();
+        setPassword(password);
+        setHostName(nodename);
+        final String vpnKey = activateVPN();
+        bootIntoRegularMode();
+        return vpnKey;
+    }
+
+    private void startConfiguration() throws IOException {
+        final URI start = _page.findLink(PRIMARY_CLASS);
+        if (start == null) {
+            throw new UnexpectedPageException("No link to start the configuration: " + _page);
+        }
+        _page = get(start);
+    }
+
+    private void setPassword(final String password) throws IOException {
+        LOG.debug("Setting password.");
+        final HtmlForm form = getForm();
+        form.setValue(PASSWORD_FIELD1, password);
+        form.setValue(PASSWORD_FIELD2, password);
+        _page = submit(form);
+    }
+
+    private void setHostName(final String hostname) throws IOException {
+        LOG.debug("Setting hostname.");
+        final HtmlForm form = getForm();
+        form.setValue(HOSTNAME_FIELD, hostname);
+        _page = submit(form);
+    }
+
+    private String activateVPN() throws IOException {
+        LOG.debug("Activating VPN meshing.");
+        final HtmlForm form = getForm();
+        form.setChecked(MESH_VIA_VPN_CHECKBOX, true);
+        _page = submit(form);
+
+        final String vpnKey = _page.findText(MAIN_CONTENT_ID, "div");
+        if (Strings.isNullOrEmpty(vpnKey)) {
+            throw new UnexpectedPageException("No VPN key found: " + _page);
+        }
+        LOG.info("VPN key: {}", vpnKey);
+
+        _page = submit(getForm());
+        return vpnKey;
+    }
+
+    private void bootIntoRegularMode() throws IOException {
+        LOG.debug("Configuration done. Booting into regular mode.");
+        if (!_page.containsText(_configurationDoneHeadline)) {
+            throw new UnexpectedPageException("Configuration not done: " + _page);
+        }
+
+        final HtmlForm form = _page.findForm();
+        final URI link = _page.findLink(PRIMARY_CLASS);
+        try {
+            if (form != null) {
+                submit(form, REBOOT_TIMEOUT_MS);
+            } else if (link != null) {
+                execute(new HttpGet(link), REBOOT_TIMEOUT_MS);
+            } else {
+                throw new UnexpectedPageException("No way to reboot: " + _page);
+            }
+        } catch (final IOException e) {
+            // the device may go down before answering
+            LOG.debug("Connection lost while rebooting.", e);
+        }
+    }
+
+    private HtmlForm getForm() {
+        final HtmlForm form = _page.findForm();
+        if (form == null) {
+            throw new UnexpectedPageException("No form found: " + _page);
+        }
+        return form;
+    }
+
+    private HtmlPage get(final URI uri) throws IOException {
+        return execute(new HttpGet(uri), TIMEOUT_MS);
+    }
+
+    private HtmlPage submit(final HtmlForm form) throws IOException {
+        return submit(form, TIMEOUT_MS);
+    }
+
+    private HtmlPage submit(final HtmlForm form, final int socketTimeoutMs) throws IOException {
+        final List<NameValuePair> data = form.toFormData(PRIMARY_CLASS);
+        final HttpPost request = new HttpPost(form.getAction());
+        request.setEntity(new UrlEncodedFormEntity(data, Consts.UTF_8));
+        return execute(request, socketTimeoutMs);
+    }
+
+    private static HtmlPage checkNoError(final HtmlPage page) {
+        for (final String errorClass: ERROR_CLASSES) {
+            final String text = page.findTextWithClass(errorClass);
+            if (text != null) {
+                throw new ErrorPageException(errorClass, "Error page shown at " + page.getUri() + ": " + text);
+            }
+        }
+        return page;
+    }
+
+    private HtmlPage execute(final HttpRequestBase initialRequest, final int socketTimeoutMs) throws IOException {
+        HttpRequestBase request = initialRequest;
+        for (int redirects = 0; redirects <= MAX_REDIRECTS; redirects++) {
+            request.setConfig(
+                RequestConfig.custom()
+                    .setConnectTimeout(TIMEOUT_MS)
+                    .setSocketTimeout(socketTimeoutMs)
+                    .setConnectionRequestTimeout(TIMEOUT_MS)
+                    // followed below, as form posts are answered with redirects that would not be followed otherwise
+                    .setRedirectsEnabled(false)
+                .build()
+            );
+
+            final HttpResponse response = _httpClient.execute(request);
+            final int status = response.getStatusLine().getStatusCode();
+            final String body = response.getEntity() == null ? "" : EntityUtils.toString(response.getEntity(), Consts.UTF_8);
+            final Header location = response.getFirstHeader("Location");
+
+            if (status >= 300 && status < 400 && location != null) {
+                request = new HttpGet(request.getURI().resolve(location.getValue()));
+            } else if (status >= 200 && status < 300) {
+                return checkNoError(new HtmlPage(request.getURI(), body));
+            } else {
+                throw new IOException("Unexpected response to " + request + ": " + response.getStatusLine());
+            }
+        }
+        throw new IOException("Too many redirects: " + initialRequest);
+    }
+}
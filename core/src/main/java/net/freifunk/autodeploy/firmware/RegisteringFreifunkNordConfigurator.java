@@ -0,0 +1,242 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.firmware;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Map;
+import java.util.Set;
+
+import net.freifunk.autodeploy.device.DetailedDevice;
+import net.freifunk.autodeploy.firmware.community.Community;
+import net.freifunk.autodeploy.lifecycle.RebootTracker;
+import net.freifunk.autodeploy.network.ReadinessDetector;
+import net.freifunk.autodeploy.registry.NodeRegistry;
+import net.freifunk.autodeploy.registry.NodeRegistryEntry;
+import net.freifunk.autodeploy.selenium.Actor;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.util.EntityUtils;
+import org.codehaus.jackson.JsonParseException;
+import org.codehaus.jackson.map.JsonMappingException;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.type.TypeReference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Configures the Freifunk Nord firmware of communities registering their nodes, using the node registration API of
+ * Freifunk Hamburg.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public class RegisteringFreifunkNordConfigurator extends AbstractFreifunkNordConfigurator {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RegisteringFreifunkNordConfigurator.class);
+
+    // the node is gone, or the registration server does not support updating nodes at all
+    private static final Set<Integer> REGISTER_AGAIN_STATUSES = ImmutableSet.of(400, 404, 405, 410, 501);
+
+    private final Community.Registration _registration;
+    private final HttpClient _httpClient;
+    private final ObjectMapper _objectMapper;
+    private final NodeRegistry _nodeRegistry;
+    private final URI _nodeRegistrationUri;
+
+    /**
+     * @param nodeRegistrationUri where to register nodes, e.g. a local stand-in for the registration server.
+     */
+    public RegisteringFreifunkNordConfigurator(
+        final Community community,
+        final Actor actor,
+        final RebootTracker rebootTracker,
+        final ReadinessDetector readinessDetector,
+        final HttpClient httpClient,
+        final ObjectMapper objectMapper,
+        final NodeRegistry nodeRegistry,
+        final URI nodeRegistrationUri
+    ) {
+        super(community, actor, rebootTracker, readinessDetector, httpClient);
+        Preconditions.checkArgument(community.getRegistration() != null, "No node registration: " + community);
+
+        _registration = community.getRegistration();
+        _httpClient = httpClient;
+        _objectMapper = objectMapper;
+        _nodeRegistry = nodeRegistry;
+        _nodeRegistrationUri = nodeRegistrationUri;
+    }
+
+    @Override
+    public boolean supportsNodeRegistration() {
+        return true;
+    }
+
+    @Override
+    public String registerNode(final FirmwareConfiguration configuration, final DetailedDevice device) throws IOException {
+        if (!(configuration instanceof FreifunkNordFirmwareConfiguration)) {
+            throw new IllegalArgumentException("Invalid firmware configuration: " + configuration.getClass().getName());
+        }
+        Preconditions.checkArgument(NodeRegistryEntry.isValidMac(device.getMac()), "Invalid MAC address: " + device.getMac());
+        final FreifunkNordFirmwareConfiguration freifunkNordConfiguration = (FreifunkNordFirmwareConfiguration) configuration;
+        final String nodename = freifunkNordConfiguration.getNodename();
+        final String vpnKey = freifunkNordConfiguration.getVpnKey();
+        final Map<String, String> postData = toPostData(freifunkNordConfiguration, device);
+
+        // devices flashed again must not end up registered twice
+        final NodeRegistryEntry known = _nodeRegistry.find(device.getMac());
+        if (known != null && known.getToken() != null) {
+            if (known.matches(nodename, vpnKey)) {
+                LOG.debug("Node already registered: {}", known);
+                return known.getToken();
+            }
+
+            if (isRegisteredUpstream(known)) {
+                final HttpResponse response = doRequest(new HttpPut(_nodeRegistrationUri + "/" + known.getToken()), postData);
+                final int status = response.getStatusLine().getStatusCode();
+                if (!REGISTER_AGAIN_STATUSES.contains(status)) {
+                    final String token = getToken(response, "update", known.getToken());
+                    if (token != null) {
+                        _nodeRegistry.put(known.updated(nodename, vpnKey, token));
+                    }
+                    return token;
+                }
+                EntityUtils.consume(response.getEntity());
+                LOG.debug("Could not update node (HTTP {}), registering again: {}", status, known);
+            }
+        }
+
+        final String token = getToken(doRequest(new HttpPost(_nodeRegistrationUri), postData), "register", null);
+        if (token != null) {
+            _nodeRegistry.put(
+                known == null
+                    ? NodeRegistryEntry.registered(device.getMac(), nodename, vpnKey, token)
+                    : known.updated(nodename, vpnKey, token)
+            );
+        }
+        return token;
+    }
+
+    /**
+     * @return whether the token of the given entry still belongs to that node upstream, so it may be updated.
+     */
+    private boolean isRegisteredUpstream(final NodeRegistryEntry known) throws IOException {
+        final HttpResponse response = _httpClient.execute(new HttpGet(_nodeRegistrationUri + "/" + known.getToken()));
+        final int status = response.getStatusLine().getStatusCode();
+
+        if (status >= 200 && status < 300) {
+            final Map<String, String> node = getResponseData(response);
+            final String mac = node.get("mac");
+            if (mac != null && NodeRegistryEntry.normalizeMac(mac).equals(known.getMac())
+                && known.matches(node.get("hostname"), node.get("key"))) {
+                return true;
+            }
+            LOG.warn("Token belongs to another node upstream, registering again: {}", known);
+            return false;
+        } else if (status >= 500 && !REGISTER_AGAIN_STATUSES.contains(status)) {
+            final String data = EntityUtils.toString(response.getEntity());
+            throw new IOException("Could not look up node.\n  HTTP response: " + response + "\n  Data: " + data);
+        }
+
+        // without knowing whose token it is, it must not be used to overwrite anything
+        EntityUtils.consume(response.getEntity());
+        LOG.debug("Could not look up node (HTTP {}), registering again: {}", status, known);
+        return false;
+    }
+
+    /**
+     * @param action what was requested, for logging.
+     * @param defaultToken the token to use if the response does not contain one.
+     */
+    private String getToken(final HttpResponse response, final String action, final String defaultToken) throws IOException {
+        final int status = response.getStatusLine().getStatusCode();
+
+        if (status >= 200 && status < 300) {
+            final Map<String, String> result = getResponseData(response);
+            final String token = result.get("token");
+            if (!Strings.isNullOrEmpty(token)) {
+                return token;
+            } else if (defaultToken != null) {
+                return defaultToken;
+            } else {
+                LOG.warn("Registration successful, but got no token!?");
+                return null;
+            }
+        } else if (status >= 500) {
+            final String data = EntityUtils.toString(response.getEntity());
+            throw new IOException("Could not " + action + " node.\n  HTTP response: " + response + "\n  Data: " + data);
+        } else {
+            LOG.warn("Could not " + action + " node.\n  HTTP response: " + response + "\n  Data: " + EntityUtils.toString(response.getEntity()));
+            return null;
+        }
+    }
+
+    @Override
+    public URI getNodeUpdateUri() {
+        return _registration.getUpdateUri();
+    }
+
+    private HttpResponse doRequest(final HttpEntityEnclosingRequestBase request, final Map<String, String> postData) throws IOException {
+        request.setEntity(
+            new StringEntity(
+                _objectMapper.writeValueAsString(postData),
+                ContentType.APPLICATION_JSON
+            )
+        );
+
+        return _httpClient.execute(request);
+    }
+
+    private Map<String, String> toPostData(
+            final FreifunkNordFirmwareConfiguration configuration,
+            final DetailedDevice device) {
+        return ImmutableMap.<String, String>builder()
+            .put("hostname", configuration.getNodename())
+            .put("mac", device.getMac())
+            .put("key", configuration.getVpnKey())
+            .put("email", Strings.nullToEmpty(_registration.getContactEmail()))
+            .put("nickname", Strings.nullToEmpty(_registration.getContactNick()))
+            .put("coords", "")
+        .build();
+    }
+
+    private Map<String, String> getResponseData(final HttpResponse response)
+            throws IOException, JsonParseException, JsonMappingException {
+        final String data = response.getEntity() == null ? "" : EntityUtils.toString(response.getEntity());
+        if (data.trim().isEmpty()) {
+            // e.g. updates answered with "204 No Content"
+            return ImmutableMap.of();
+        }
+        return _objectMapper.readValue(data, new TypeReference<Map<String, String>>() {});
+    }
+}
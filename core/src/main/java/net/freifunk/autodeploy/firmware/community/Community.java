@@ -0,0 +1,154 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.firmware.community;
+
+import java.net.URI;
+import java.util.Set;
+
+import net.freifunk.autodeploy.device.Device;
+import net.freifunk.autodeploy.firmware.Firmware;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Definition of a Freifunk community whose firmware can be configured, read from the {@link CommunityIndex}.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public class Community {
+
+    /**
+     * Where and how to register the nodes of a community.
+     *
+     * @author Andreas Baldeau <andreas@baldeau.net>
+     */
+    public static class Registration {
+
+        private final URI _uri;
+        private final URI _updateUri;
+        private final String _contactEmail;
+        private final String _contactNick;
+
+        public Registration(final URI uri, final URI updateUri, final String contactEmail, final String contactNick) {
+            _uri = uri;
+            _updateUri = updateUri;
+            _contactEmail = contactEmail;
+            _contactNick = contactNick;
+        }
+
+        /**
+         * @return the {@link URI} of the node registration API.
+         */
+        public URI getUri() {
+            return _uri;
+        }
+
+        /**
+         * @return the {@link URI} printed on the label for updating a node's data.
+         */
+        public URI getUpdateUri() {
+            return _updateUri;
+        }
+
+        public String getContactEmail() {
+            return _contactEmail;
+        }
+
+        public String getContactNick() {
+            return _contactNick;
+        }
+
+        @Override
+        public String toString() {
+            return Objects.toStringHelper(this)
+                .add("uri", _uri)
+                .add("updateUri", _updateUri)
+            .toString();
+        }
+    }
+
+    private final Firmware _firmware;
+    private final String _labelTemplate;
+    private final Registration _registration;
+    private final Set<Device> _devicesRequiringRewiring;
+    private final URI _nextNodeUri;
+
+    public Community(
+        final Firmware firmware,
+        final String labelTemplate,
+        final Registration registration,
+        final Set<Device> devicesRequiringRewiring,
+        final URI nextNodeUri
+    ) {
+        _firmware = firmware;
+        _labelTemplate = labelTemplate;
+        _registration = registration;
+        _devicesRequiringRewiring = ImmutableSet.copyOf(devicesRequiringRewiring);
+        _nextNodeUri = nextNodeUri;
+    }
+
+    public String getName() {
+        return _firmware.getName();
+    }
+
+    public Firmware getFirmware() {
+        return _firmware;
+    }
+
+    /**
+     * @return the name of the SVG resource used for printing labels.
+     */
+    public String getLabelTemplate() {
+        return _labelTemplate;
+    }
+
+    /**
+     * @return where to register nodes or <code>null</code> if the community does not support node registration.
+     */
+    public Registration getRegistration() {
+        return _registration;
+    }
+
+    /**
+     * @return the devices whose cable needs to be moved to another port before the configuration.
+     */
+    public Set<Device> getDevicesRequiringRewiring() {
+        return _devicesRequiringRewiring;
+    }
+
+    /**
+     * @return the status page of the node the station is connected to, answering once a router is running the
+     *         community's firmware in regular mode, or <code>null</code> if unknown.
+     */
+    public URI getNextNodeUri() {
+        return _nextNodeUri;
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+            .add("name", getName())
+            .add("registration", _registration)
+        .toString();
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.firmware.community;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URL;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import net.freifunk.autodeploy.device.Device;
+import net.freifunk.autodeploy.firmware.Firmware;
+
+import org.codehaus.jackson.annotate.JsonCreator;
+import org.codehaus.jackson.annotate.JsonProperty;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.type.TypeReference;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.io.Resources;
+
+/**
+ * Index of the {@link Community} definitions, read from <code>communities/index.json</code>. Adding a community only
+ * takes an entry in the index, the configurators are created when a community's firmware is used for the first time.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public class CommunityIndex {
+
+    private static final String INDEX_RESOURCE = "communities/index.json";
+
+    static final class DeviceEntry {
+        private final Device _device;
+
+        @JsonCreator
+        DeviceEntry(
+            @JsonProperty("model") final String model,
+            @JsonProperty("version") final String version
+        ) {
+            Preconditions.checkArgument(model != null && version != null, "Model and version must be set.");
+            _device = new Device(model, version);
+        }
+    }
+
+    static final class RegistrationEntry {
+        private final Community.Registration _registration;
+
+        @JsonCreator
+        RegistrationEntry(
+            @JsonProperty("uri") final String uri,
+            @JsonProperty("updateUri") final String updateUri,
+            @JsonProperty("contactEmail") final String contactEmail,
+            @JsonProperty("contactNick") final String contactNick
+        ) {
+            Preconditions.checkArgument(uri != null, "Registration URI must be set.");
+            _registration = new Community.Registration(
+                URI.create(uri),
+                updateUri == null ? null : URI.create(updateUri),
+                contactEmail,
+                contactNick
+            );
+        }
+    }
+
+    static final class Entry {
+        private final String _displayName;
+        private final URI _firmwareUri;
+        private final String _label;
+        private final RegistrationEntry _registration;
+        private final List<DeviceEntry> _rewiring;
+        private final URI _nextNodeUri;
+
+        @JsonCreator
+        Entry(
+            @JsonProperty("displayName") final String displayName,
+            @JsonProperty("firmwareUri") final String firmwareUri,
+            @JsonProperty("label") final String label,
+            @JsonProperty("registration") final RegistrationEntry registration,
+            @JsonProperty("rewiring") final List<DeviceEntry> rewiring,
+            @JsonProperty("nextNodeUri") final String nextNodeUri
+        ) {
+            Preconditions.checkArgument(displayName != null, "Display name must be set.");
+            _displayName = displayName;
+            _firmwareUri = firmwareUri == null ? null : URI.create(firmwareUri);
+            _label = label;
+            _registration = registration;
+            _rewiring = rewiring == null ? ImmutableList.<DeviceEntry>of() : rewiring;
+            _nextNodeUri = nextNodeUri == null ? null : URI.create(nextNodeUri);
+        }
+    }
+
+    private static final class DefaultHolder {
+        private static final CommunityIndex INSTANCE = load(new ObjectMapper());
+    }
+
+    private final Map<String, Community> _communitiesByName;
+
+    private CommunityIndex(final Map<String, Entry> entriesByName) {
+        final ImmutableSortedMap.Builder<String, Community> communitiesByName = ImmutableSortedMap.naturalOrder();
+        for (final Map.Entry<String, Entry> nameEntry: entriesByName.entrySet()) {
+            final String name = nameEntry.getKey();
+            final Entry entry = nameEntry.getValue();
+
+            final ImmutableSet.Builder<Device> devicesRequiringRewiring = ImmutableSet.builder();
+            for (final DeviceEntry deviceEntry: entry._rewiring) {
+                devicesRequiringRewiring.add(deviceEntry._device);
+            }
+
+            communitiesByName.put(name, new Community(
+                new Firmware(name, entry._displayName, entry._firmwareUri),
+                entry._label,
+                entry._registration == null ? null : entry._registration._registration,
+                devicesRequiringRewiring.build(),
+                entry._nextNodeUri
+            ));
+        }
+        _communitiesByName = communitiesByName.build();
+    }
+
+    /**
+     * @return the index read from <code>communities/index.json</code>. It is only read once, so plugins and services
+     *         can share it.
+     */
+    public static CommunityIndex getDefault() {
+        return DefaultHolder.INSTANCE;
+    }
+
+    /**
+     * Reads the index from <code>communities/index.json</code>.
+     */
+    public static CommunityIndex load(final ObjectMapper objectMapper) {
+        return load(objectMapper, Resources.getResource(INDEX_RESOURCE));
+    }
+
+    /**
+     * Reads the index from the given resource.
+     */
+    public static CommunityIndex load(final ObjectMapper objectMapper, final URL resource) {
+        try {
+            final Map<String, Entry> entriesByName = objectMapper.readValue(
+                resource,
+                new TypeReference<Map<String, Entry>>() {}
+            );
+            return new CommunityIndex(entriesByName);
+        } catch (final IOException e) {
+            throw new IllegalStateException("Could not read community index: " + resource, e);
+        }
+    }
+
+    /**
+     * @return all communities, ordered by name.
+     */
+    public Collection<Community> getCommunities() {
+        return _communitiesByName.values();
+    }
+
+    /**
+     * @return the community of the given name or <code>null</code> if the community is unknown.
+     */
+    public Community getCommunity(final String name) {
+        return _communitiesByName.get(name);
+    }
+}
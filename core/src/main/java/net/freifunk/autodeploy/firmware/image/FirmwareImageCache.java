@@ -0,0 +1,46 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.firmware.image;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Process-wide cache of firmware image contents, so validating an image and uploading it through TFTP repeatedly does
+ * not read it from disk again. Uploads through a browser read the file themselves and do not use the cache.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public interface FirmwareImageCache {
+
+    /**
+     * @return the contents of the given image as a read-only buffer positioned at the start. Each call returns a
+     *         buffer of its own, sharing the cached contents. A changed file is read again.
+     */
+    ByteBuffer get(File image) throws IOException;
+
+    /**
+     * Starts reading the given image into the cache in the background, e.g. once the firmware to flash is known.
+     */
+    void preload(File image);
+}
@@ -0,0 +1,199 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.firmware.image;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Throwables;
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Default implementation of {@link FirmwareImageCache}. Images are copied into direct buffers, so unlike memory
+ * mapped files their pages cannot be dropped by the OS and re-read later. Entries are keyed by path and validated
+ * against modification time and length. The least recently used images are evicted once the budget set by
+ * <code>image.cache.bytes</code> is exceeded; images larger than the budget are mapped on each access instead.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public class FirmwareImageCacheImpl implements FirmwareImageCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FirmwareImageCacheImpl.class);
+
+    private static final String BUDGET_PROPERTY = "image.cache.bytes";
+    private static final long DEFAULT_BUDGET = 64L * 1024 * 1024;
+
+    private static final class Entry {
+        private final long _lastModified;
+        private final long _length;
+        private final FutureTask<ByteBuffer> _contents;
+
+        private Entry(final long lastModified, final long length, final FutureTask<ByteBuffer> contents) {
+            _lastModified = lastModified;
+            _length = length;
+            _contents = contents;
+        }
+
+        private boolean isUpToDate(final long lastModified, final long length) {
+            return _lastModified == lastModified && _length == length;
+        }
+    }
+
+    private final long _budget;
+    private final ExecutorService _executor;
+
+    // access ordered, so iteration starts with the least recently used entry
+    private final LinkedHashMap<File, Entry> _entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long _size;
+
+    public FirmwareImageCacheImpl() {
+        this(Long.getLong(BUDGET_PROPERTY, DEFAULT_BUDGET));
+    }
+
+    /**
+     * @param budget the maximum number of bytes to keep in memory.
+     */
+    public FirmwareImageCacheImpl(final long budget) {
+        _budget = budget;
+        _executor = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setNameFormat("firmware-image-cache-%d").setDaemon(true).build()
+        );
+    }
+
+    @Override
+    public ByteBuffer get(final File image) throws IOException {
+        final File key = image.getAbsoluteFile();
+        final long lastModified = key.lastModified();
+        final long length = key.length();
+
+        if (length > _budget) {
+            LOG.debug("Image exceeds the cache budget, mapping it: {}", key);
+            return Files.map(key).asReadOnlyBuffer();
+        }
+
+        final Entry entry = lookup(key, lastModified, length);
+        // whoever inserted the entry may still be reading it, so running it again just waits for the result
+        entry._contents.run();
+        try {
+            return entry._contents.get().duplicate();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading: " + key);
+        } catch (final ExecutionException e) {
+            invalidate(key, entry);
+            Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    @Override
+    public void preload(final File image) {
+        _executor.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    get(image);
+                } catch (final IOException e) {
+                    LOG.warn("Could not preload firmware image: " + image, e);
+                }
+            }
+        });
+    }
+
+    private synchronized Entry lookup(final File key, final long lastModified, final long length) {
+        final Entry cached = _entries.get(key);
+        if (cached != null && cached.isUpToDate(lastModified, length)) {
+            LOG.trace("Cache hit: {}", key);
+            return cached;
+        }
+
+        if (cached != null) {
+            remove(key);
+        }
+
+        final Entry entry = new Entry(lastModified, length, new FutureTask<>(new Callable<ByteBuffer>() {
+
+            @Override
+            public ByteBuffer call() throws IOException {
+                return read(key, length);
+            }
+        }));
+        _entries.put(key, entry);
+        _size += length;
+
+        final Iterator<Map.Entry<File, Entry>> iterator = _entries.entrySet().iterator();
+        while (_size > _budget && iterator.hasNext()) {
+            final Map.Entry<File, Entry> eldest = iterator.next();
+            if (eldest.getValue() != entry) {
+                LOG.debug("Evicting: {}", eldest.getKey());
+                _size -= eldest.getValue()._length;
+                iterator.remove();
+            }
+        }
+        return entry;
+    }
+
+    private synchronized void invalidate(final File key, final Entry entry) {
+        if (_entries.get(key) == entry) {
+            remove(key);
+        }
+    }
+
+    private void remove(final File key) {
+        final Entry removed = _entries.remove(key);
+        if (removed != null) {
+            _size -= removed._length;
+        }
+    }
+
+    private static ByteBuffer read(final File image, final long length) throws IOException {
+        final long start = System.nanoTime();
+        final ByteBuffer contents = ByteBuffer.allocateDirect((int) length);
+        try (final FileChannel channel = new FileInputStream(image).getChannel()) {
+            while (contents.hasRemaining()) {
+                if (channel.read(contents) == -1) {
+                    throw new IOException("Firmware image changed while reading: " + image);
+                }
+            }
+        }
+        contents.flip();
+        LOG.debug("Cached {} bytes in {} ms: {}", length, (System.nanoTime() - start) / 1000000, image);
+        return contents.asReadOnlyBuffer();
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.firmware.image;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Index of the SHA-256 hashes of firmware images, persisted next to the images. Hashes are computed once per image
+ * version, so checking the integrity of an image before flashing it is a lookup.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public interface FirmwareImageHashIndex {
+
+    /**
+     * Hashes the images of the given snapshot which are new or changed since they were indexed. Returns immediately,
+     * hashing happens in the background.
+     */
+    void update(FirmwareImageSnapshot snapshot);
+
+    /**
+     * @return the hex encoded SHA-256 hash of the given image. Taken from the index if the image did not change,
+     *         otherwise computed and indexed right away.
+     */
+    String getSha256(File image) throws IOException;
+}
@@ -0,0 +1,89 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.firmware.image;
+
+import java.io.File;
+import java.util.Set;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Immutable view of the firmware images in a directory at some point in time. Snapshots are replaced as a whole when
+ * the directory changes, so they can be shared between threads without locking.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public class FirmwareImageSnapshot {
+
+    private final File _directory;
+    private final Set<String> _fileNames;
+    private final Set<String> _directoryNames;
+
+    public FirmwareImageSnapshot(final File directory, final Set<String> fileNames, final Set<String> directoryNames) {
+        _directory = directory;
+        _fileNames = ImmutableSet.copyOf(fileNames);
+        _directoryNames = ImmutableSet.copyOf(directoryNames);
+    }
+
+    public File getDirectory() {
+        return _directory;
+    }
+
+    /**
+     * @return the names of the regular files in the directory.
+     */
+    public Set<String> getFileNames() {
+        return _fileNames;
+    }
+
+    public boolean contains(final String fileName) {
+        return _fileNames.contains(fileName);
+    }
+
+    /**
+     * @return the names of the subdirectories, e.g. for looking up their snapshots without checking the file system.
+     */
+    public Set<String> getDirectoryNames() {
+        return _directoryNames;
+    }
+
+    public boolean containsDirectory(final String directoryName) {
+        return _directoryNames.contains(directoryName);
+    }
+
+    /**
+     * @return the file with the given name or <code>null</code> if there is no such file.
+     */
+    public File getFile(final String fileName) {
+        return contains(fileName) ? new File(_directory, fileName) : null;
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+            .add("directory", _directory)
+            .add("files", _fileNames.size())
+            .add("directories", _directoryNames)
+        .toString();
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.firmware.image;
+
+import java.io.File;
+import java.util.Set;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Ordering;
+
+/**
+ * A firmware image file together with the release metadata known about it.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public class FirmwareRelease {
+
+    /**
+     * Orders releases newest first. Images without a version are named explicitly and come before all others, so
+     * the reversed version ordering has to put them last.
+     */
+    public static final Ordering<FirmwareRelease> NEWEST_FIRST = new Ordering<FirmwareRelease>() {
+
+        @Override
+        public int compare(final FirmwareRelease left, final FirmwareRelease right) {
+            return ReleaseVersionOrdering.INSTANCE.nullsLast().reverse().compare(left._version, right._version);
+        }
+    }.compound(new Ordering<FirmwareRelease>() {
+
+        @Override
+        public int compare(final FirmwareRelease left, final FirmwareRelease right) {
+            return left._file.compareTo(right._file);
+        }
+    });
+
+    private final String _version;
+    private final Set<String> _branches;
+    private final boolean _sysupgrade;
+    private final long _size;
+    private final String _checksum;
+    private final File _file;
+
+    public FirmwareRelease(
+        final String version,
+        final Set<String> branches,
+        final boolean sysupgrade,
+        final long size,
+        final String checksum,
+        final File file
+    ) {
+        _version = version;
+        _branches = ImmutableSet.copyOf(branches);
+        _sysupgrade = sysupgrade;
+        _size = size;
+        _checksum = checksum;
+        _file = file;
+    }
+
+    /**
+     * @return the version or <code>null</code> if the image does not carry one in its name.
+     */
+    public String getVersion() {
+        return _version;
+    }
+
+    /**
+     * @return the branches (e.g. <code>stable</code>) the release is published in according to the manifests.
+     */
+    public Set<String> getBranches() {
+        return _branches;
+    }
+
+    public boolean isSysupgrade() {
+        return _sysupgrade;
+    }
+
+    public long getSize() {
+        return _size;
+    }
+
+    /**
+     * @return the checksum from the manifest or <code>null</code> if none is known.
+     */
+    public String getChecksum() {
+        return _checksum;
+    }
+
+    public File getFile() {
+        return _file;
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+            .add("version", _version)
+            .add("branches", _branches)
+            .add("sysupgrade", _sysupgrade)
+            .add("size", _size)
+            .add("file", _file)
+        .toString();
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.firmware.image;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import net.freifunk.autodeploy.device.Device;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableTable;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Maps;
+import com.google.common.collect.SetMultimap;
+import com.google.common.collect.Table;
+import com.google.common.io.Files;
+
+/**
+ * Index of the {@link FirmwareRelease}s found in a set of {@link FirmwareImageSnapshot}s. Releases are looked up by
+ * the image name <code>&lt;firmware&gt;_&lt;model&gt;_&lt;version&gt;</code>, with the suffix
+ * <code>_sysupgrade</code> for sysupgrade images. The newest release per branch is determined when building the
+ * index, so looking it up does not depend on the number of releases.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public class FirmwareReleaseIndex {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FirmwareReleaseIndex.class);
+
+    public static final String SYSUPGRADE_IMAGE_SUFFIX = "_sysupgrade";
+
+    private final List<FirmwareImageSnapshot> _snapshots;
+    private final ListMultimap<String, FirmwareRelease> _releases;
+    private final Table<String, String, FirmwareRelease> _latestByBranch;
+
+    private FirmwareReleaseIndex(
+        final List<FirmwareImageSnapshot> snapshots,
+        final ListMultimap<String, FirmwareRelease> releases,
+        final Table<String, String, FirmwareRelease> latestByBranch
+    ) {
+        _snapshots = snapshots;
+        _releases = releases;
+        _latestByBranch = latestByBranch;
+    }
+
+    /**
+     * Builds the index, reading the {@link GluonManifest}s contained in the snapshots for branches and checksums.
+     */
+    public static FirmwareReleaseIndex build(
+        final List<FirmwareImageSnapshot> snapshots,
+        final GluonImageNameParser gluonImageNameParser
+    ) {
+        final SetMultimap<String, String> branchesByVersion = HashMultimap.create();
+        final Map<String, String> checksumsByFileName = Maps.newHashMap();
+        for (final FirmwareImageSnapshot snapshot: snapshots) {
+            for (final String fileName: snapshot.getFileNames()) {
+                if (GluonManifest.isManifest(fileName)) {
+                    readManifest(snapshot.getFile(fileName), branchesByVersion, checksumsByFileName);
+                }
+            }
+        }
+
+        final ListMultimap<String, FirmwareRelease> releases = ArrayListMultimap.create();
+        for (final FirmwareImageSnapshot snapshot: snapshots) {
+            for (final String fileName: snapshot.getFileNames()) {
+                if (GluonManifest.isManifest(fileName)) {
+                    continue;
+                }
+
+                final File file = snapshot.getFile(fileName);
+                final GluonImageName gluonImageName = gluonImageNameParser.parse(fileName);
+                if (gluonImageName == null) {
+                    // named by us, so there is nothing known about the release
+                    releases.put(fileName, new FirmwareRelease(
+                        null,
+                        ImmutableSet.<String>of(),
+                        fileName.endsWith(SYSUPGRADE_IMAGE_SUFFIX),
+                        file.length(),
+                        null,
+                        file
+                    ));
+                    continue;
+                }
+
+                final String version = gluonImageName.getRelease();
+                final FirmwareRelease release = new FirmwareRelease(
+                    version,
+                    branchesByVersion.get(version),
+                    gluonImageName.isSysupgrade(),
+                    file.length(),
+                    checksumsByFileName.get(fileName),
+                    file
+                );
+                for (final Device device: gluonImageName.getDevices()) {
+                    releases.put(toImageName(gluonImageName.getSite(), device, gluonImageName.isSysupgrade()), release);
+                }
+            }
+        }
+
+        final ImmutableListMultimap.Builder<String, FirmwareRelease> sortedReleases = ImmutableListMultimap.builder();
+        final ImmutableTable.Builder<String, String, FirmwareRelease> latestByBranch = ImmutableTable.builder();
+        for (final Map.Entry<String, Collection<FirmwareRelease>> entry: releases.asMap().entrySet()) {
+            final String imageName = entry.getKey();
+            final List<FirmwareRelease> sorted = FirmwareRelease.NEWEST_FIRST.sortedCopy(entry.getValue());
+            sortedReleases.putAll(imageName, sorted);
+
+            final Map<String, FirmwareRelease> latest = Maps.newHashMap();
+            for (final FirmwareRelease release: sorted) {
+                for (final String branch: release.getBranches()) {
+                    if (!latest.containsKey(branch)) {
+                        latest.put(branch, release);
+                        latestByBranch.put(imageName, branch, release);
+                    }
+                }
+            }
+        }
+
+        return new FirmwareReleaseIndex(snapshots, sortedReleases.build(), latestByBranch.build());
+    }
+
+    private static void readManifest(
+        final File manifestFile,
+        final SetMultimap<String, String> branchesByVersion,
+        final Map<String, String> checksumsByFileName
+    ) {
+        final GluonManifest manifest;
+        try {
+            manifest = GluonManifest.parse(manifestFile.getName(), Files.readLines(manifestFile, Charsets.UTF_8));
+        } catch (final IOException e) {
+            LOG.warn("Could not read manifest: " + manifestFile, e);
+            return;
+        }
+
+        for (final GluonManifest.Entry entry: manifest.getEntries()) {
+            branchesByVersion.put(entry.getVersion(), manifest.getBranch());
+            if (!checksumsByFileName.containsKey(entry.getFileName())) {
+                checksumsByFileName.put(entry.getFileName(), entry.getChecksum());
+            }
+        }
+    }
+
+    /**
+     * @return the name images of the given firmware for the given device are indexed by.
+     */
+    public static String toImageName(final String firmwareName, final Device device, final boolean sysupgrade) {
+        final String imageName = (firmwareName + "_" + device.getModel() + "_" + device.getVersion()).toLowerCase();
+        return sysupgrade ? imageName + SYSUPGRADE_IMAGE_SUFFIX : imageName;
+    }
+
+    /**
+     * @return whether the index was built from exactly the given snapshot instances.
+     */
+    public boolean isBuiltFrom(final List<FirmwareImageSnapshot> snapshots) {
+        if (snapshots.size() != _snapshots.size()) {
+            return false;
+        }
+        for (int i = 0; i < snapshots.size(); i++) {
+            if (snapshots.get(i) != _snapshots.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the releases for the given image name, newest first.
+     */
+    public List<FirmwareRelease> getReleases(final String imageName) {
+        return _releases.get(imageName);
+    }
+
+    public boolean hasReleases(final String imageName) {
+        return _releases.containsKey(imageName);
+    }
+
+    /**
+     * @return the release to deploy for the given image name: an image named explicitly if there is one, otherwise the
+     *         newest release of the given branch, or the newest release at all if the branch has none. Returns
+     *         <code>null</code> if there is no release.
+     */
+    public FirmwareRelease findLatestRelease(final String imageName, final String branch) {
+        final FirmwareRelease newest = Iterables.getFirst(_releases.get(imageName), null);
+        if (newest == null || newest.getVersion() == null) {
+            return newest;
+        }
+
+        final FirmwareRelease newestOfBranch = _latestByBranch.get(imageName, branch);
+        return newestOfBranch != null ? newestOfBranch : newest;
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.firmware.image;
+
+import java.util.Set;
+
+import net.freifunk.autodeploy.device.Device;
+
+import com.google.common.base.Objects;
+
+/**
+ * A firmware image file name following the Gluon naming scheme, e.g.
+ * <code>gluon-ffhh-0.4-tp-link-tl-wr841n-nd-v8-sysupgrade.bin</code>.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public class GluonImageName {
+
+    private final String _site;
+    private final String _release;
+    private final Set<Device> _devices;
+    private final boolean _sysupgrade;
+
+    public GluonImageName(
+        final String site,
+        final String release,
+        final Set<Device> devices,
+        final boolean sysupgrade
+    ) {
+        _site = site;
+        _release = release;
+        _devices = devices;
+        _sysupgrade = sysupgrade;
+    }
+
+    /**
+     * @return the site code, which is the name of the {@link net.freifunk.autodeploy.firmware.Firmware}.
+     */
+    public String getSite() {
+        return _site;
+    }
+
+    public String getRelease() {
+        return _release;
+    }
+
+    /**
+     * @return the devices the image is built for.
+     */
+    public Set<Device> getDevices() {
+        return _devices;
+    }
+
+    public boolean isSysupgrade() {
+        return _sysupgrade;
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+            .add("site", _site)
+            .add("release", _release)
+            .add("devices", _devices)
+            .add("sysupgrade", _sysupgrade)
+        .toString();
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.firmware.image;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import net.freifunk.autodeploy.device.Device;
+
+import com.google.common.base.Function;
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Ordering;
+import com.google.common.collect.SetMultimap;
+
+/**
+ * Recognizes the file names of Gluon release images, so the images can be used without renaming them. All known
+ * sites and device names are compiled into a single pattern once.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public class GluonImageNameParser {
+
+    private static final Function<String, String> QUOTE = new Function<String, String>() {
+
+        @Override
+        public String apply(final String input) {
+            return Pattern.quote(input);
+        }
+    };
+
+    private final SetMultimap<String, Device> _devicesByImageName;
+    private final Pattern _pattern;
+
+    /**
+     * @param sites the known site codes, i.e. names of the supported firmwares.
+     * @param devicesByImageName the devices by the name Gluon uses for them in file names.
+     */
+    public GluonImageNameParser(final Set<String> sites, final SetMultimap<String, Device> devicesByImageName) {
+        _devicesByImageName = devicesByImageName;
+        _pattern = Pattern.compile(
+            "gluon-(" + alternatives(sites) + ")-(.+)-(" + alternatives(devicesByImageName.keySet()) + ")"
+            + "(-sysupgrade)?\\.bin"
+        );
+    }
+
+    private static String alternatives(final Set<String> names) {
+        // longest first, so a name being the prefix of another one does not shadow it
+        final List<String> sorted = Lists.newArrayList(names);
+        Collections.sort(sorted, Ordering.natural().onResultOf(new Function<String, Integer>() {
+
+            @Override
+            public Integer apply(final String input) {
+                return -input.length();
+            }
+        }));
+        return Joiner.on('|').join(Iterables.transform(sorted, QUOTE));
+    }
+
+    /**
+     * @return the parsed name or <code>null</code> if the file name is not the name of a known Gluon image.
+     */
+    public GluonImageName parse(final String fileName) {
+        final Matcher matcher = _pattern.matcher(fileName);
+        if (!matcher.matches()) {
+            return null;
+        }
+        return new GluonImageName(
+            matcher.group(1),
+            matcher.group(2),
+            ImmutableSet.copyOf(_devicesByImageName.get(matcher.group(3))),
+            matcher.group(4) != null
+        );
+    }
+}
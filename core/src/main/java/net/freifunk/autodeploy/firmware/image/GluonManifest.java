@@ -0,0 +1,141 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.firmware.image;
+
+import java.util.List;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+
+/**
+ * A Gluon release manifest (<code>&lt;branch&gt;.manifest</code>). After a header terminated by an empty line, each
+ * line reads <code>&lt;model&gt; &lt;version&gt; &lt;checksum&gt; [&lt;size&gt;] &lt;file name&gt;</code>.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public class GluonManifest {
+
+    public static final String SUFFIX = ".manifest";
+
+    private static final Splitter FIELD_SPLITTER = Splitter.on(' ').omitEmptyStrings().trimResults();
+
+    /**
+     * An image listed in a manifest.
+     *
+     * @author Andreas Baldeau <andreas@baldeau.net>
+     */
+    public static final class Entry {
+
+        private final String _model;
+        private final String _version;
+        private final String _checksum;
+        private final String _fileName;
+
+        private Entry(final String model, final String version, final String checksum, final String fileName) {
+            _model = model;
+            _version = version;
+            _checksum = checksum;
+            _fileName = fileName;
+        }
+
+        public String getModel() {
+            return _model;
+        }
+
+        public String getVersion() {
+            return _version;
+        }
+
+        /**
+         * @return the hex encoded checksum, its algorithm depends on the Gluon version.
+         */
+        public String getChecksum() {
+            return _checksum;
+        }
+
+        public String getFileName() {
+            return _fileName;
+        }
+
+        @Override
+        public String toString() {
+            return Objects.toStringHelper(this)
+                .add("model", _model)
+                .add("version", _version)
+                .add("fileName", _fileName)
+            .toString();
+        }
+    }
+
+    private final String _branch;
+    private final List<Entry> _entries;
+
+    private GluonManifest(final String branch, final List<Entry> entries) {
+        _branch = branch;
+        _entries = entries;
+    }
+
+    /**
+     * @return whether the given file name is the name of a manifest.
+     */
+    public static boolean isManifest(final String fileName) {
+        return fileName.endsWith(SUFFIX);
+    }
+
+    /**
+     * Parses the lines of the manifest with the given file name. Malformed lines are skipped.
+     */
+    public static GluonManifest parse(final String fileName, final List<String> lines) {
+        final String branch = isManifest(fileName) ? fileName.substring(0, fileName.length() - SUFFIX.length()) : fileName;
+        final ImmutableList.Builder<Entry> entries = ImmutableList.builder();
+
+        boolean header = true;
+        for (final String line: lines) {
+            if (header) {
+                header = !line.trim().isEmpty();
+                continue;
+            }
+
+            final List<String> fields = Lists.newArrayList(FIELD_SPLITTER.split(line));
+            if (fields.size() < 4) {
+                continue;
+            }
+            entries.add(new Entry(fields.get(0), fields.get(1), fields.get(2), Iterables.getLast(fields)));
+        }
+
+        return new GluonManifest(branch, entries.build());
+    }
+
+    public String getBranch() {
+        return _branch;
+    }
+
+    /**
+     * @return the entries in the order of the manifest. Newer manifests list each image once per checksum algorithm.
+     */
+    public List<Entry> getEntries() {
+        return _entries;
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.firmware.image;
+
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Ordering;
+
+/**
+ * Orders release versions like <code>0.4</code>, <code>0.4.1</code> or <code>0.5-rc1</code>. Numeric parts are
+ * compared as numbers, and a version followed by a textual part (e.g. <code>-rc1</code>) is older than the version
+ * alone.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public final class ReleaseVersionOrdering extends Ordering<String> {
+
+    public static final ReleaseVersionOrdering INSTANCE = new ReleaseVersionOrdering();
+
+    private static final Pattern TOKEN = Pattern.compile("\\d+|[a-zA-Z]+");
+
+    private ReleaseVersionOrdering() {
+    }
+
+    @Override
+    public int compare(final String left, final String right) {
+        final List<String> leftTokens = tokenize(left);
+        final List<String> rightTokens = tokenize(right);
+
+        final int commonTokens = Math.min(leftTokens.size(), rightTokens.size());
+        for (int i = 0; i < commonTokens; i++) {
+            final int result = compareTokens(leftTokens.get(i), rightTokens.get(i));
+            if (result != 0) {
+                return result;
+            }
+        }
+
+        if (leftTokens.size() == rightTokens.size()) {
+            return left.compareTo(right);
+        }
+        if (leftTokens.size() > rightTokens.size()) {
+            return isNumeric(leftTokens.get(commonTokens)) ? 1 : -1;
+        }
+        return isNumeric(rightTokens.get(commonTokens)) ? -1 : 1;
+    }
+
+    private static List<String> tokenize(final String version) {
+        final List<String> tokens = Lists.newArrayList();
+        final Matcher matcher = TOKEN.matcher(version);
+        while (matcher.find()) {
+            tokens.add(matcher.group());
+        }
+        return tokens;
+    }
+
+    private static boolean isNumeric(final String token) {
+        return Character.isDigit(token.charAt(0));
+    }
+
+    private static int compareTokens(final String left, final String right) {
+        final boolean leftNumeric = isNumeric(left);
+        final boolean rightNumeric = isNumeric(right);
+
+        if (leftNumeric && rightNumeric) {
+            final String leftNumber = stripLeadingZeros(left);
+            final String rightNumber = stripLeadingZeros(right);
+            if (leftNumber.length() != rightNumber.length()) {
+                return leftNumber.length() < rightNumber.length() ? -1 : 1;
+            }
+            return leftNumber.compareTo(rightNumber);
+        }
+        if (leftNumeric != rightNumeric) {
+            return leftNumeric ? 1 : -1;
+        }
+        return left.compareTo(right);
+    }
+
+    private static String stripLeadingZeros(final String number) {
+        int start = 0;
+        while (start < number.length() - 1 && number.charAt(start) == '0') {
+            start++;
+        }
+        return number.substring(start);
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.firmware.image;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RecursiveAction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Objects;
+import com.google.common.base.Splitter;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+/**
+ * {@link FirmwareImageHashIndex} keeping a sidecar file <code>.sha256-index</code> in each image directory. Each line
+ * reads <code>&lt;sha256&gt; &lt;size&gt; &lt;last modified&gt; &lt;file name&gt;</code>; an entry is valid as long
+ * as size and modification time of the image match. Images are hashed in parallel on a fork/join pool; an image being
+ * hashed already is not read again, but waited for.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public class SidecarFirmwareImageHashIndexImpl implements FirmwareImageHashIndex {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SidecarFirmwareImageHashIndexImpl.class);
+
+    private static final String SIDECAR_FILE_NAME = ".sha256-index";
+    private static final Splitter FIELD_SPLITTER = Splitter.on(' ').limit(4);
+
+    private static final class IndexedHash {
+        private final long _size;
+        private final long _lastModified;
+        private final String _sha256;
+
+        private IndexedHash(final long size, final long lastModified, final String sha256) {
+            _size = size;
+            _lastModified = lastModified;
+            _sha256 = sha256;
+        }
+
+        private boolean isUpToDate(final File image) {
+            return _size == image.length() && _lastModified == image.lastModified();
+        }
+    }
+
+    /**
+     * Hashes the given images, splitting the work until each task hashes a single image.
+     */
+    private final class HashAction extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<File> _images;
+
+        private HashAction(final List<File> images) {
+            _images = images;
+        }
+
+        @Override
+        protected void compute() {
+            if (_images.size() > 1) {
+                final int middle = _images.size() / 2;
+                invokeAll(new HashAction(_images.subList(0, middle)), new HashAction(_images.subList(middle, _images.size())));
+                return;
+            }
+
+            for (final File image: _images) {
+                try {
+                    hash(image);
+                } catch (final IOException e) {
+                    LOG.warn("Could not hash firmware image: " + image, e);
+                }
+            }
+        }
+    }
+
+    private final ForkJoinPool _pool;
+    private final ConcurrentMap<File, IndexedHash> _hashes = Maps.newConcurrentMap();
+    // hashes being computed, so an image requested while the background task hashes it is only read once
+    private final ConcurrentMap<File, FutureTask<IndexedHash>> _hashesInFlight = Maps.newConcurrentMap();
+    private final Set<File> _loadedDirectories = Sets.newHashSet();
+
+    public SidecarFirmwareImageHashIndexImpl() {
+        this(new ForkJoinPool());
+    }
+
+    /**
+     * Hashes on the given pool.
+     */
+    public SidecarFirmwareImageHashIndexImpl(final ForkJoinPool pool) {
+        _pool = pool;
+    }
+
+    @Override
+    public void update(final FirmwareImageSnapshot snapshot) {
+        final File directory = snapshot.getDirectory().getAbsoluteFile();
+        load(directory);
+
+        final List<File> changedImages = Lists.newArrayList();
+        for (final String fileName: snapshot.getFileNames()) {
+            final File image = new File(directory, fileName);
+            final IndexedHash indexed = _hashes.get(image);
+            if (!GluonManifest.isManifest(fileName) && (indexed == null || !indexed.isUpToDate(image))) {
+                changedImages.add(image);
+            }
+        }
+
+        if (changedImages.isEmpty()) {
+            return;
+        }
+
+        LOG.debug("Hashing {} new or changed images in: {}", changedImages.size(), directory);
+        _pool.execute(new RecursiveAction() {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected void compute() {
+                new HashAction(changedImages).invoke();
+                store(directory);
+            }
+        });
+    }
+
+    @Override
+    public String getSha256(final File image) throws IOException {
+        final File key = image.getAbsoluteFile();
+        load(key.getParentFile());
+
+        final IndexedHash indexed = _hashes.get(key);
+        if (indexed != null && indexed.isUpToDate(key)) {
+            return indexed._sha256;
+        }
+
+        final String sha256 = hash(key);
+        store(key.getParentFile());
+        return sha256;
+    }
+
+    private String hash(final File image) throws IOException {
+        while (true) {
+            final FutureTask<IndexedHash> task = new FutureTask<>(new Callable<IndexedHash>() {
+
+                @Override
+                public IndexedHash call() throws IOException {
+                    return computeHash(image);
+                }
+            });
+            final FutureTask<IndexedHash> inFlight = Objects.firstNonNull(_hashesInFlight.putIfAbsent(image, task), task);
+
+            // whoever started hashing the image may still be at it, so running it again just waits for the result
+            inFlight.run();
+            final IndexedHash indexed;
+            try {
+                indexed = inFlight.get();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while hashing: " + image);
+            } catch (final ExecutionException e) {
+                Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+                throw Throwables.propagate(e.getCause());
+            } finally {
+                _hashesInFlight.remove(image, inFlight);
+            }
+
+            // a hash started by someone else may be of the image before it changed
+            if (inFlight == task || indexed.isUpToDate(image)) {
+                return indexed._sha256;
+            }
+        }
+    }
+
+    private IndexedHash computeHash(final File image) throws IOException {
+        // taken before hashing, so a change while hashing invalidates the entry
+        final long size = image.length();
+        final long lastModified = image.lastModified();
+        final long start = System.nanoTime();
+        final String sha256 = Files.hash(image, Hashing.sha256()).toString();
+        LOG.debug("Hashed in {} ms: {}", (System.nanoTime() - start) / 1000000, image);
+
+        final IndexedHash indexed = new IndexedHash(size, lastModified, sha256);
+        _hashes.put(image, indexed);
+        return indexed;
+    }
+
+    private synchronized void load(final File directory) {
+        if (!_loadedDirectories.add(directory)) {
+            return;
+        }
+
+        final File sidecar = new File(directory, SIDECAR_FILE_NAME);
+        if (!sidecar.isFile()) {
+            return;
+        }
+
+        try {
+            for (final String line: Files.readLines(sidecar, Charsets.UTF_8)) {
+                final List<String> fields = Lists.newArrayList(FIELD_SPLITTER.split(line));
+                if (fields.size() != 4) {
+                    continue;
+                }
+                try {
+                    _hashes.put(
+                        new File(directory, fields.get(3)),
+                        new IndexedHash(Long.parseLong(fields.get(1)), Long.parseLong(fields.get(2)), fields.get(0))
+                    );
+                } catch (final NumberFormatException e) {
+                    LOG.debug("Skipping malformed line: {}", line);
+                }
+            }
+        } catch (final IOException e) {
+            LOG.warn("Could not read hash index: " + sidecar, e);
+        }
+    }
+
+    private synchronized void store(final File directory) {
+        final StringBuilder content = new StringBuilder();
+        for (final Map.Entry<File, IndexedHash> entry: _hashes.entrySet()) {
+            final File image = entry.getKey();
+            final IndexedHash indexed = entry.getValue();
+            if (directory.equals(image.getParentFile()) && image.exists()) {
+                content.append(indexed._sha256).append(' ')
+                    .append(indexed._size).append(' ')
+                    .append(indexed._lastModified).append(' ')
+                    .append(image.getName()).append('\n');
+            }
+        }
+
+        final File sidecar = new File(directory, SIDECAR_FILE_NAME);
+        final File tempFile = new File(directory, SIDECAR_FILE_NAME + ".tmp");
+        try {
+            Files.write(content, tempFile, Charsets.UTF_8);
+            java.nio.file.Files.move(tempFile.toPath(), sidecar.toPath(), ATOMIC_MOVE);
+        } catch (final IOException e) {
+            LOG.warn("Could not write hash index: " + sidecar, e);
+        }
+    }
+}
@@ -0,0 +1,297 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.firmware.image;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * {@link FirmwareImageCatalog} listing each directory once and keeping it current through a {@link WatchService}.
+ * Lookups never touch the file system. Hidden files are left out, subdirectories are listed but not watched until
+ * asked for.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public class WatchingFirmwareImageCatalogImpl implements FirmwareImageCatalog {
+
+    private static final Logger LOG = LoggerFactory.getLogger(WatchingFirmwareImageCatalogImpl.class);
+
+    // files being written are published once they stayed unchanged this long
+    private static final long QUIET_MILLIS = 2000;
+
+    // how often to look for a deleted directory to come back
+    private static final long RETRY_MILLIS = 1000;
+
+    /**
+     * A directory being watched, publishing a new snapshot on every change. Files created or modified are only
+     * published once they are quiet, so copying an image does not publish a snapshot per write. If events got lost
+     * or the directory was deleted, it is registered and listed again, being empty until it is created again.
+     *
+     * @author Andreas Baldeau <andreas@baldeau.net>
+     */
+    private static final class WatchedDirectory implements Runnable {
+
+        private final File _directory;
+        private final Path _path;
+        private final WatchService _watchService;
+        private volatile FirmwareImageSnapshot _snapshot;
+
+        // names of files being written by the time of their last change, only used by the watching thread
+        private final Map<String, Long> _changingFiles = Maps.newHashMap();
+
+        // whether the directory is registered, only used by the watching thread
+        private boolean _watching;
+
+        private WatchedDirectory(final File directory) throws IOException {
+            _directory = directory;
+            _path = directory.toPath();
+            _watchService = FileSystems.getDefault().newWatchService();
+            _watching = register();
+        }
+
+        /**
+         * Registers the directory with the watch service and lists it from scratch. Registering a directory already
+         * registered keeps its key.
+         *
+         * @return whether the directory is registered, <code>false</code> if it does not exist (anymore).
+         */
+        private boolean register() throws IOException {
+            _changingFiles.clear();
+            try {
+                // register before listing, so no change in between gets lost
+                _path.register(_watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+                rescan();
+                return true;
+            } catch (final NoSuchFileException | NotDirectoryException e) {
+                publish(ImmutableSet.<String>of(), ImmutableSet.<String>of());
+                return false;
+            }
+        }
+
+        private void rescan() throws IOException {
+            final ImmutableSet.Builder<String> fileNames = ImmutableSet.builder();
+            final ImmutableSet.Builder<String> directoryNames = ImmutableSet.builder();
+            try (final DirectoryStream<Path> stream = Files.newDirectoryStream(_path)) {
+                for (final Path file: stream) {
+                    if (isHidden(file.getFileName())) {
+                        continue;
+                    }
+                    if (Files.isRegularFile(file)) {
+                        fileNames.add(file.getFileName().toString());
+                    } else if (Files.isDirectory(file)) {
+                        directoryNames.add(file.getFileName().toString());
+                    }
+                }
+            }
+            publish(fileNames.build(), directoryNames.build());
+        }
+
+        private void update(final Path fileName, final boolean modified) {
+            if (isHidden(fileName)) {
+                return;
+            }
+
+            final Set<String> fileNames = _snapshot.getFileNames();
+            final Set<String> directoryNames = _snapshot.getDirectoryNames();
+            final String name = fileName.toString();
+            final Path path = _path.resolve(fileName);
+            final boolean isFile = Files.isRegularFile(path);
+            final boolean isDirectory = !isFile && Files.isDirectory(path);
+
+            if (isFile != fileNames.contains(name) || isDirectory != directoryNames.contains(name)) {
+                publish(withName(fileNames, name, isFile), withName(directoryNames, name, isDirectory));
+            } else if (isFile && modified) {
+                // same files, but a new snapshot tells everyone caching per snapshot that contents changed
+                publish(fileNames, directoryNames);
+            }
+        }
+
+        private void handle(final Path fileName, final boolean deleted) {
+            if (isHidden(fileName)) {
+                return;
+            }
+
+            if (deleted || !Files.isRegularFile(_path.resolve(fileName))) {
+                _changingFiles.remove(fileName.toString());
+                update(fileName, false);
+            } else {
+                _changingFiles.put(fileName.toString(), System.nanoTime());
+            }
+        }
+
+        private void publishQuietFiles() {
+            final long now = System.nanoTime();
+            final Iterator<Map.Entry<String, Long>> changingFiles = _changingFiles.entrySet().iterator();
+            while (changingFiles.hasNext()) {
+                final Map.Entry<String, Long> changingFile = changingFiles.next();
+                if (NANOSECONDS.toMillis(now - changingFile.getValue()) >= QUIET_MILLIS) {
+                    changingFiles.remove();
+                    update(_path.getFileSystem().getPath(changingFile.getKey()), true);
+                }
+            }
+        }
+
+        private long getQuietWaitMillis() {
+            final long oldestChange = Collections.min(_changingFiles.values());
+            return Math.max(1, QUIET_MILLIS - NANOSECONDS.toMillis(System.nanoTime() - oldestChange));
+        }
+
+        private static Set<String> withName(final Set<String> names, final String name, final boolean present) {
+            if (present == names.contains(name)) {
+                return names;
+            }
+            return present
+                ? ImmutableSet.<String>builder().addAll(names).add(name).build()
+                : ImmutableSet.copyOf(Sets.difference(names, ImmutableSet.of(name)));
+        }
+
+        private static boolean isHidden(final Path fileName) {
+            // our own bookkeeping files, e.g. partial downloads or hash indexes
+            return fileName.toString().startsWith(".");
+        }
+
+        private void publish(final Set<String> fileNames, final Set<String> directoryNames) {
+            _snapshot = new FirmwareImageSnapshot(_directory, fileNames, directoryNames);
+            LOG.debug("Published: {}", _snapshot);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    if (!_watching) {
+                        // nothing to be notified about until the directory is created again
+                        MILLISECONDS.sleep(RETRY_MILLIS);
+                        _watching = register();
+                        if (_watching) {
+                            LOG.info("Directory accessible again: {}", _directory);
+                        }
+                        continue;
+                    }
+
+                    final WatchKey key = _changingFiles.isEmpty()
+                        ? _watchService.take()
+                        : _watchService.poll(getQuietWaitMillis(), MILLISECONDS);
+                    if (key != null) {
+                        boolean lost = false;
+                        for (final WatchEvent<?> event: key.pollEvents()) {
+                            if (event.kind() == OVERFLOW) {
+                                LOG.debug("Events lost, rescanning: {}", _directory);
+                                lost = true;
+                            } else {
+                                handle((Path) event.context(), event.kind() == ENTRY_DELETE);
+                            }
+                        }
+
+                        if (!key.reset()) {
+                            LOG.warn("Directory not accessible anymore: {}", _directory);
+                            lost = true;
+                        }
+                        if (lost) {
+                            // the directory may have been created again already, the old key stays invalid then
+                            _watching = register();
+                            continue;
+                        }
+                    }
+                    publishQuietFiles();
+                }
+            } catch (final InterruptedException | ClosedWatchServiceException e) {
+                LOG.debug("Stopped watching: {}", _directory);
+            } catch (final IOException e) {
+                LOG.warn("Watching failed: " + _directory, e);
+            }
+        }
+    }
+
+    private final ConcurrentMap<File, WatchedDirectory> _directories;
+    private final ExecutorService _executor;
+
+    public WatchingFirmwareImageCatalogImpl() {
+        _directories = Maps.newConcurrentMap();
+        _executor = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setNameFormat("firmware-image-catalog-%d").setDaemon(true).build()
+        );
+    }
+
+    @Override
+    public FirmwareImageSnapshot getSnapshot(final File directory) {
+        final File absoluteDirectory = directory.getAbsoluteFile();
+        WatchedDirectory watchedDirectory = _directories.get(absoluteDirectory);
+        if (watchedDirectory == null) {
+            watchedDirectory = watch(absoluteDirectory);
+        }
+        return watchedDirectory._snapshot;
+    }
+
+    private synchronized WatchedDirectory watch(final File directory) {
+        final WatchedDirectory existing = _directories.get(directory);
+        if (existing != null) {
+            return existing;
+        }
+
+        Preconditions.checkState(directory.exists(), "Directory not found: " + directory);
+        Preconditions.checkState(directory.isDirectory(), "Not a directory: " + directory);
+
+        LOG.debug("Start watching: {}", directory);
+        try {
+            final WatchedDirectory watchedDirectory = new WatchedDirectory(directory);
+            _executor.execute(watchedDirectory);
+            _directories.put(directory, watchedDirectory);
+            return watchedDirectory;
+        } catch (final IOException e) {
+            throw new IllegalStateException("Could not watch directory: " + directory, e);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.firmware.mirror;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+
+/**
+ * Keeps a local firmware image directory in sync with a remote release directory.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public interface FirmwareMirror {
+
+    /**
+     * Downloads the images listed by the given source which are missing or changed in the given directory. The source
+     * is either a Gluon manifest (<code>.../sysupgrade/stable.manifest</code>) or a directory index page listing
+     * <code>.bin</code> files. Every image appears in the directory atomically once it is complete and verified, a
+     * manifest is stored last, and only if all of its images are in place.
+     *
+     * @throws IOException if the source could not be read. Failing images are reported in the result.
+     */
+    MirrorSyncResult synchronize(URI source, File directory) throws IOException;
+}
@@ -0,0 +1,357 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.firmware.mirror;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import net.freifunk.autodeploy.firmware.image.GluonManifest;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.hash.Funnels;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Inject;
+
+/**
+ * Default implementation of {@link FirmwareMirror}. Images are downloaded in parallel into a <code>.partial</code>
+ * subdirectory and moved into place when complete. Interrupted downloads are resumed by range requests, images
+ * without a known checksum are only downloaded again if modified.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public class FirmwareMirrorImpl implements FirmwareMirror {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FirmwareMirrorImpl.class);
+
+    private static final String THREADS_PROPERTY = "mirror.threads";
+    public static final int DEFAULT_THREADS = 4;
+
+    private static final String PARTIAL_DIRECTORY = ".partial";
+    private static final String VALIDATOR_SUFFIX = ".validator";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final Pattern INDEX_LINK = Pattern.compile("href=\"([^\"?#]+\\.bin)\"", Pattern.CASE_INSENSITIVE);
+
+    // Gluon used different checksum algorithms over time, they can be told apart by length
+    private static final Map<Integer, HashFunction> HASH_FUNCTIONS_BY_LENGTH = ImmutableMap.of(
+        32, Hashing.md5(),
+        40, Hashing.sha1(),
+        64, Hashing.sha256(),
+        128, Hashing.sha512()
+    );
+
+    private static enum Outcome {
+        DOWNLOADED,
+        UNCHANGED,
+        ;
+    }
+
+    private static final class Download {
+        private final String _fileName;
+        private final URI _uri;
+        private final String _checksum;
+
+        private Download(final String fileName, final URI uri, final String checksum) {
+            _fileName = fileName;
+            _uri = uri;
+            _checksum = checksum;
+        }
+
+        private HashFunction getHashFunction() {
+            return _checksum == null ? null : HASH_FUNCTIONS_BY_LENGTH.get(_checksum.length());
+        }
+    }
+
+    private final HttpClient _httpClient;
+    private final ExecutorService _executor;
+
+    @Inject
+    public FirmwareMirrorImpl(final HttpClient httpClient) {
+        this(httpClient, Integer.getInteger(THREADS_PROPERTY, DEFAULT_THREADS));
+    }
+
+    /**
+     * @param threads the number of images to download in parallel.
+     */
+    public FirmwareMirrorImpl(final HttpClient httpClient, final int threads) {
+        _httpClient = httpClient;
+        _executor = Executors.newFixedThreadPool(
+            threads,
+            new ThreadFactoryBuilder().setNameFormat("firmware-mirror-%d").setDaemon(true).build()
+        );
+    }
+
+    @Override
+    public MirrorSyncResult synchronize(final URI source, final File directory) throws IOException {
+        final File partialDirectory = new File(directory, PARTIAL_DIRECTORY);
+        Preconditions.checkState(
+            partialDirectory.isDirectory() || partialDirectory.mkdirs(),
+            "Could not create directory: " + partialDirectory
+        );
+
+        final String listingName = new File(source.getPath()).getName();
+        final String listing = fetch(source);
+        final boolean manifest = GluonManifest.isManifest(listingName);
+        final List<Download> downloads = manifest
+            ? fromManifest(source, GluonManifest.parse(listingName, Lists.newArrayList(Splitter.on('\n').split(listing))))
+            : fromIndex(source, listing);
+
+        LOG.debug("Synchronizing {} images from: {}", downloads.size(), source);
+
+        final Map<String, Future<Outcome>> outcomes = Maps.newLinkedHashMap();
+        for (final Download download: downloads) {
+            outcomes.put(download._fileName, _executor.submit(new Callable<Outcome>() {
+
+                @Override
+                public Outcome call() throws IOException {
+                    return download(download, directory, partialDirectory);
+                }
+            }));
+        }
+
+        int downloaded = 0;
+        int unchanged = 0;
+        final List<String> failed = Lists.newArrayList();
+        for (final Map.Entry<String, Future<Outcome>> entry: outcomes.entrySet()) {
+            try {
+                if (entry.getValue().get() == Outcome.DOWNLOADED) {
+                    downloaded++;
+                } else {
+                    unchanged++;
+                }
+            } catch (final ExecutionException e) {
+                LOG.warn("Could not download: " + entry.getKey(), e.getCause());
+                failed.add(entry.getKey());
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while synchronizing: " + source);
+            }
+        }
+
+        if (manifest && failed.isEmpty()) {
+            // the manifest only gets visible once all images it lists are in place
+            final File partialManifest = new File(partialDirectory, listingName);
+            Files.write(listing, partialManifest, Charsets.UTF_8);
+            java.nio.file.Files.move(partialManifest.toPath(), new File(directory, listingName).toPath(), ATOMIC_MOVE);
+        }
+
+        return new MirrorSyncResult(downloaded, unchanged, failed);
+    }
+
+    private String fetch(final URI uri) throws IOException {
+        final HttpResponse response = _httpClient.execute(new HttpGet(uri));
+        final HttpEntity entity = response.getEntity();
+        try {
+            if (response.getStatusLine().getStatusCode() != HttpStatus.SC_OK) {
+                throw new IOException("Could not fetch " + uri + ": " + response.getStatusLine());
+            }
+            return EntityUtils.toString(entity, Charsets.UTF_8);
+        } finally {
+            EntityUtils.consume(entity);
+        }
+    }
+
+    private static List<Download> fromManifest(final URI source, final GluonManifest manifest) {
+        final Map<String, Download> downloads = Maps.newLinkedHashMap();
+        for (final GluonManifest.Entry entry: manifest.getEntries()) {
+            final String fileName = entry.getFileName();
+            final Download existing = downloads.get(fileName);
+            if (isValidFileName(fileName) && (existing == null || existing.getHashFunction() == null)) {
+                downloads.put(fileName, new Download(fileName, source.resolve(fileName), entry.getChecksum()));
+            }
+        }
+        return Lists.newArrayList(downloads.values());
+    }
+
+    private static List<Download> fromIndex(final URI source, final String index) {
+        final URI base = source.getPath().endsWith("/") ? source : URI.create(source + "/");
+        final Map<String, Download> downloads = Maps.newLinkedHashMap();
+        final Matcher matcher = INDEX_LINK.matcher(index);
+        while (matcher.find()) {
+            final URI uri = base.resolve(matcher.group(1));
+            final String fileName = new File(uri.getPath()).getName();
+            if (isValidFileName(fileName) && !downloads.containsKey(fileName)) {
+                downloads.put(fileName, new Download(fileName, uri, null));
+            }
+        }
+        return Lists.newArrayList(downloads.values());
+    }
+
+    private static boolean isValidFileName(final String fileName) {
+        // never write outside of the directory, or onto our own hidden files
+        return !fileName.isEmpty() && !fileName.startsWith(".") && !fileName.contains("/") && !fileName.contains("\\");
+    }
+
+    private Outcome download(
+        final Download download,
+        final File directory,
+        final File partialDirectory
+    ) throws IOException {
+        final File target = new File(directory, download._fileName);
+        final HashFunction hashFunction = download.getHashFunction();
+        if (hashFunction != null && target.isFile() && matches(Files.hash(target, hashFunction).toString(), download)) {
+            LOG.trace("Up to date: {}", target);
+            return Outcome.UNCHANGED;
+        }
+
+        final File partial = new File(partialDirectory, download._fileName);
+        final File validator = new File(partialDirectory, download._fileName + VALIDATOR_SUFFIX);
+        final long offset = partial.isFile() && validator.isFile() ? partial.length() : 0;
+
+        final HttpGet request = new HttpGet(download._uri);
+        if (offset > 0) {
+            request.setHeader(HttpHeaders.RANGE, "bytes=" + offset + "-");
+            // the server answers with the whole image if it changed meanwhile
+            request.setHeader(HttpHeaders.IF_RANGE, Files.toString(validator, Charsets.UTF_8));
+        } else if (hashFunction == null && target.isFile()) {
+            request.setHeader(HttpHeaders.IF_MODIFIED_SINCE, DateUtils.formatDate(new Date(target.lastModified())));
+        }
+
+        final HttpResponse response = _httpClient.execute(request);
+        final int status = response.getStatusLine().getStatusCode();
+        boolean completed = false;
+        try {
+            final boolean append;
+            if (status == HttpStatus.SC_NOT_MODIFIED) {
+                LOG.trace("Not modified: {}", target);
+                completed = true;
+                return Outcome.UNCHANGED;
+            } else if (status == HttpStatus.SC_PARTIAL_CONTENT && offset > 0) {
+                final Header contentRange = response.getFirstHeader(HttpHeaders.CONTENT_RANGE);
+                if (contentRange == null || !contentRange.getValue().startsWith("bytes " + offset + "-")) {
+                    throw new IOException("Unexpected content range for " + download._uri + ": " + contentRange);
+                }
+                LOG.debug("Resuming at {} bytes: {}", offset, download._uri);
+                append = true;
+            } else if (status == HttpStatus.SC_OK) {
+                append = false;
+                storeValidator(response, validator);
+            } else if (status == HttpStatus.SC_REQUESTED_RANGE_NOT_SATISFIABLE && offset > 0) {
+                LOG.debug("Discarding stale partial download: {}", partial);
+                EntityUtils.consume(response.getEntity());
+                completed = true;
+                partial.delete();
+                validator.delete();
+                return download(download, directory, partialDirectory);
+            } else {
+                throw new IOException("Unexpected response for " + download._uri + ": " + response.getStatusLine());
+            }
+
+            final Hasher hasher = hashFunction == null ? null : hashFunction.newHasher();
+            if (hasher != null && append) {
+                Files.copy(partial, Funnels.asOutputStream(hasher));
+            }
+
+            try (
+                final InputStream in = response.getEntity().getContent();
+                final OutputStream out = new FileOutputStream(partial, append)
+            ) {
+                final byte[] buffer = new byte[BUFFER_SIZE];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                    if (hasher != null) {
+                        hasher.putBytes(buffer, 0, read);
+                    }
+                }
+            }
+            completed = true;
+
+            if (hasher != null && !matches(hasher.hash().toString(), download)) {
+                partial.delete();
+                validator.delete();
+                throw new IOException("Checksum mismatch: " + download._uri);
+            }
+        } finally {
+            if (!completed) {
+                // keeps the connection from being reused with a half read response
+                request.abort();
+            }
+        }
+
+        final Header lastModified = response.getFirstHeader(HttpHeaders.LAST_MODIFIED);
+        final Date lastModifiedDate = lastModified == null ? null : DateUtils.parseDate(lastModified.getValue());
+        if (lastModifiedDate != null) {
+            partial.setLastModified(lastModifiedDate.getTime());
+        }
+
+        java.nio.file.Files.move(partial.toPath(), target.toPath(), ATOMIC_MOVE);
+        validator.delete();
+        LOG.debug("Downloaded: {}", target);
+        return Outcome.DOWNLOADED;
+    }
+
+    private static boolean matches(final String hash, final Download download) {
+        return hash.equalsIgnoreCase(download._checksum);
+    }
+
+    private static void storeValidator(final HttpResponse response, final File validator) throws IOException {
+        final Header etag = response.getFirstHeader(HttpHeaders.ETAG);
+        final Header lastModified = response.getFirstHeader(HttpHeaders.LAST_MODIFIED);
+        final Header strongValidator = etag != null && !etag.getValue().startsWith("W/") ? etag : lastModified;
+
+        if (strongValidator == null) {
+            // without a validator resuming could mix two versions of the image
+            validator.delete();
+        } else {
+            Files.write(strongValidator.getValue(), validator, Charsets.UTF_8);
+        }
+    }
+}
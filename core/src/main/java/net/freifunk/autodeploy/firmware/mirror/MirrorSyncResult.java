@@ -0,0 +1,73 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.firmware.mirror;
+
+import java.util.List;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Outcome of a {@link FirmwareMirror#synchronize(java.net.URI, java.io.File)} run.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public class MirrorSyncResult {
+
+    private final int _downloaded;
+    private final int _unchanged;
+    private final List<String> _failed;
+
+    public MirrorSyncResult(final int downloaded, final int unchanged, final List<String> failed) {
+        _downloaded = downloaded;
+        _unchanged = unchanged;
+        _failed = ImmutableList.copyOf(failed);
+    }
+
+    public int getDownloaded() {
+        return _downloaded;
+    }
+
+    public int getUnchanged() {
+        return _unchanged;
+    }
+
+    /**
+     * @return the names of the images which could not be downloaded.
+     */
+    public List<String> getFailed() {
+        return _failed;
+    }
+
+    public boolean isSuccessful() {
+        return _failed.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+            .add("downloaded", _downloaded)
+            .add("unchanged", _unchanged)
+            .add("failed", _failed)
+        .toString();
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.http;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * Keeps connections alive as long as the server allows, but never longer than a given maximum. Servers not telling
+ * how long they keep connections open would otherwise get them reused forever.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public class BoundedKeepAliveStrategy extends DefaultConnectionKeepAliveStrategy {
+
+    private final long _maxKeepAliveMs;
+
+    public BoundedKeepAliveStrategy(final long maxKeepAliveMs) {
+        _maxKeepAliveMs = maxKeepAliveMs;
+    }
+
+    @Override
+    public long getKeepAliveDuration(final HttpResponse response, final HttpContext context) {
+        final long keepAliveMs = super.getKeepAliveDuration(response, context);
+        return keepAliveMs < 0 ? _maxKeepAliveMs : Math.min(keepAliveMs, _maxKeepAliveMs);
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.http;
+
+import static net.freifunk.autodeploy.http.HtmlPage.getAttribute;
+import static net.freifunk.autodeploy.http.HtmlPage.getElements;
+import static net.freifunk.autodeploy.http.HtmlPage.getText;
+import static net.freifunk.autodeploy.http.HtmlPage.hasClass;
+
+import java.net.URI;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import org.apache.http.NameValuePair;
+import org.apache.http.message.BasicNameValuePair;
+import org.w3c.dom.Element;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+/**
+ * A form of an {@link HtmlPage}. Field values can be changed and then be submitted as URL encoded form data, like a
+ * browser would do when clicking the form's primary submit button. Checkboxes, radio buttons and the options of
+ * <code>select</code> elements are submitted only if checked or selected.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public class HtmlForm {
+
+    private static enum FieldType {
+
+        /**
+         * Submitted with its value.
+         */
+        VALUE,
+
+        /**
+         * A checkbox, submitted if checked.
+         */
+        CHECKBOX,
+
+        /**
+         * A radio button or an option of a single choice <code>select</code>, at most one per name being checked.
+         */
+        CHOICE,
+
+        /**
+         * An option of a multiple choice <code>select</code>, submitted if selected.
+         */
+        OPTION,
+        ;
+    }
+
+    /**
+     * A name/value pair the form may submit.
+     */
+    private static final class Field {
+        private final FieldType _type;
+        private final String _name;
+        private String _value;
+        private boolean _checked;
+
+        private Field(final FieldType type, final String name, final String value, final boolean checked) {
+            _type = type;
+            _name = name;
+            _value = value;
+            _checked = checked;
+        }
+
+        private boolean isSubmitted() {
+            return _type == FieldType.VALUE || _checked;
+        }
+    }
+
+    private static final Predicate<Field> IS_CHECKED = new Predicate<Field>() {
+
+        @Override
+        public boolean apply(final Field field) {
+            return field._checked;
+        }
+    };
+
+    private final URI _action;
+
+    // fields in document order, as browsers submit them
+    private final List<Field> _fields = Lists.newArrayList();
+    private final List<Element> _submits = Lists.newArrayList();
+
+    HtmlForm(final URI action, final Element form) {
+        _action = action;
+
+        for (final Element element: getElements(form, "*")) {
+            final String tagName = element.getTagName();
+            final String name = getAttribute(element, "name");
+            if (name == null || element.hasAttribute("disabled")) {
+                continue;
+            }
+
+            final String type = Objects.firstNonNull(getAttribute(element, "type"), "text").toLowerCase(Locale.ENGLISH);
+            if (tagName.equals("button") || (tagName.equals("input") && type.equals("submit"))) {
+                _submits.add(element);
+            } else if (tagName.equals("input") && type.equals("checkbox")) {
+                _fields.add(new Field(FieldType.CHECKBOX, name, getCheckableValue(element), element.hasAttribute("checked")));
+            } else if (tagName.equals("input") && type.equals("radio")) {
+                _fields.add(new Field(FieldType.CHOICE, name, getCheckableValue(element), element.hasAttribute("checked")));
+            } else if (tagName.equals("select")) {
+                addOptions(element, name);
+            } else if (tagName.equals("textarea")) {
+                _fields.add(new Field(FieldType.VALUE, name, element.getTextContent(), false));
+            } else if (tagName.equals("input") && !type.equals("button") && !type.equals("reset") && !type.equals("image")) {
+                _fields.add(new Field(FieldType.VALUE, name, element.getAttribute("value"), false));
+            }
+        }
+    }
+
+    private void addOptions(final Element select, final String name) {
+        final boolean multiple = select.hasAttribute("multiple");
+        final List<Field> options = Lists.newArrayList();
+        for (final Element option: getElements(select, "option")) {
+            if (!option.hasAttribute("disabled")) {
+                options.add(new Field(multiple ? FieldType.OPTION : FieldType.CHOICE, name, getOptionValue(option), option.hasAttribute("selected")));
+            }
+        }
+
+        // browsers select the first option of a single choice select if none is selected
+        if (!multiple && !options.isEmpty() && !Iterables.any(options, IS_CHECKED)) {
+            options.get(0)._checked = true;
+        }
+        _fields.addAll(options);
+    }
+
+    private static String getCheckableValue(final Element element) {
+        return Objects.firstNonNull(getAttribute(element, "value"), "on");
+    }
+
+    private static String getOptionValue(final Element option) {
+        // options without a value submit their text
+        return option.hasAttribute("value") ? option.getAttribute("value") : getText(option);
+    }
+
+    public URI getAction() {
+        return _action;
+    }
+
+    public boolean hasField(final String name) {
+        return !getFields(name).isEmpty();
+    }
+
+    /**
+     * Sets the value of a text, password or hidden field.
+     *
+     * @throws UnexpectedPageException if the form has no such field.
+     */
+    public void setValue(final String name, final String value) {
+        final List<Field> fields = getFields(name, FieldType.VALUE);
+        if (fields.isEmpty()) {
+            throw new UnexpectedPageException("No such field in form " + _action + ": " + name);
+        }
+        for (final Field field: fields) {
+            field._value = value;
+        }
+    }
+
+    /**
+     * Checks or unchecks a checkbox.
+     *
+     * @throws UnexpectedPageException if the form has no such checkbox.
+     */
+    public void setChecked(final String name, final boolean checked) {
+        final List<Field> fields = getFields(name, FieldType.CHECKBOX);
+        if (fields.isEmpty()) {
+            throw new UnexpectedPageException("No such checkbox in form " + _action + ": " + name);
+        }
+        for (final Field field: fields) {
+            field._checked = checked;
+        }
+    }
+
+    /**
+     * Checks the radio button or selects the option with the given value, unchecking the others of a single choice.
+     *
+     * @throws UnexpectedPageException if the form has no radio button or option with the given name and value.
+     */
+    public void select(final String name, final String value) {
+        Field selected = null;
+        for (final Field field: getFields(name)) {
+            if ((field._type == FieldType.CHOICE || field._type == FieldType.OPTION) && field._value.equals(value)) {
+                selected = field;
+            }
+        }
+        if (selected == null) {
+            throw new UnexpectedPageException("No such choice in form " + _action + ": " + name + " = " + value);
+        }
+
+        if (selected._type == FieldType.CHOICE) {
+            for (final Field field: getFields(name, FieldType.CHOICE)) {
+                field._checked = false;
+            }
+        }
+        selected._checked = true;
+    }
+
+    private List<Field> getFields(final String name) {
+        final ImmutableList.Builder<Field> fields = ImmutableList.builder();
+        for (final Field field: _fields) {
+            if (field._name.equals(name)) {
+                fields.add(field);
+            }
+        }
+        return fields.build();
+    }
+
+    private List<Field> getFields(final String name, final FieldType type) {
+        final ImmutableList.Builder<Field> fields = ImmutableList.builder();
+        for (final Field field: getFields(name)) {
+            if (field._type == type) {
+                fields.add(field);
+            }
+        }
+        return fields.build();
+    }
+
+    /**
+     * @param submitClass the CSS class of the button to submit with, or <code>null</code> for the first button.
+     * @return the data a browser would send when submitting the form with the given button.
+     */
+    public List<NameValuePair> toFormData(final String submitClass) {
+        final ImmutableList.Builder<NameValuePair> data = ImmutableList.builder();
+        for (final Field field: _fields) {
+            if (field.isSubmitted()) {
+                data.add(new BasicNameValuePair(field._name, field._value));
+            }
+        }
+
+        final Element submit = findSubmit(submitClass);
+        if (submit != null) {
+            data.add(new BasicNameValuePair(submit.getAttribute("name"), submit.getAttribute("value")));
+        }
+        return data.build();
+    }
+
+    private Element findSubmit(final String submitClass) {
+        for (final Element submit: _submits) {
+            if (submitClass == null || hasClass(submit, submitClass)) {
+                return submit;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        final Set<String> names = Sets.newLinkedHashSet();
+        for (final Field field: _fields) {
+            names.add(field._name);
+        }
+        return Objects.toStringHelper(this)
+            .add("action", _action)
+            .add("fields", names)
+        .toString();
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.http;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.URI;
+import java.util.List;
+
+import org.cyberneko.html.parsers.DOMParser;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * A fetched HTML page, giving access to the few elements needed to drive simple web interfaces without a browser.
+ * The markup is parsed with NekoHTML, which balances tags and decodes entities like browsers do.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public class HtmlPage {
+
+    private final URI _uri;
+    private final String _html;
+    private final Document _document;
+
+    public HtmlPage(final URI uri, final String html) {
+        _uri = uri;
+        _html = html;
+        _document = parse(html);
+    }
+
+    private static Document parse(final String html) {
+        final DOMParser parser = new DOMParser();
+        try {
+            // the HTML DOM of Xerces would upper case all element names
+            parser.setProperty("http://apache.org/xml/properties/dom/document-class-name", "org.apache.xerces.dom.DocumentImpl");
+            parser.setProperty("http://cyberneko.org/html/properties/names/elems", "lower");
+            parser.setFeature("http://xml.org/sax/features/namespaces", false);
+            parser.parse(new InputSource(new StringReader(html)));
+        } catch (final SAXException | IOException e) {
+            throw new IllegalArgumentException("Could not parse page.", e);
+        }
+        return parser.getDocument();
+    }
+
+    /**
+     * @return the elements with the given name below the given element, in document order.
+     */
+    static List<Element> getElements(final Element root, final String tagName) {
+        final NodeList nodes = root.getElementsByTagName(tagName);
+        final ImmutableList.Builder<Element> elements = ImmutableList.builder();
+        for (int i = 0; i < nodes.getLength(); i++) {
+            elements.add((Element) nodes.item(i));
+        }
+        return elements.build();
+    }
+
+    /**
+     * @return the value of the given attribute or <code>null</code> if the element does not have it.
+     */
+    static String getAttribute(final Element element, final String name) {
+        return element.hasAttribute(name) ? element.getAttribute(name) : null;
+    }
+
+    static boolean hasClass(final Element element, final String cssClass) {
+        for (final String candidate: Splitter.on(' ').omitEmptyStrings().split(element.getAttribute("class"))) {
+            if (candidate.equals(cssClass)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the text of the given element, nested markup stripped.
+     */
+    static String getText(final Element element) {
+        return element.getTextContent().trim();
+    }
+
+    public URI getUri() {
+        return _uri;
+    }
+
+    public String getHtml() {
+        return _html;
+    }
+
+    /**
+     * @return the contents of the <code>title</code> element or an empty string.
+     */
+    public String getTitle() {
+        final List<Element> titles = getElements(_document.getDocumentElement(), "title");
+        return titles.isEmpty() ? "" : getText(titles.get(0));
+    }
+
+    /**
+     * @return whether the given text is shown on the page, i.e. it is contained in the text without markup.
+     */
+    public boolean containsText(final String text) {
+        return _document.getDocumentElement().getTextContent().contains(text);
+    }
+
+    /**
+     * @return the resolved target of the first link having the given CSS class, or <code>null</code>.
+     */
+    public URI findLink(final String cssClass) {
+        for (final Element link: getElements(_document.getDocumentElement(), "a")) {
+            if (hasClass(link, cssClass) && link.hasAttribute("href")) {
+                return _uri.resolve(link.getAttribute("href"));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the first form or <code>null</code> if there is none.
+     */
+    public HtmlForm findForm() {
+        final List<Element> forms = getElements(_document.getDocumentElement(), "form");
+        if (forms.isEmpty()) {
+            return null;
+        }
+
+        // forms without an action are submitted to the page itself
+        final String action = forms.get(0).getAttribute("action");
+        final URI target = action.isEmpty() ? _uri : _uri.resolve(action);
+        return new HtmlForm(target, forms.get(0));
+    }
+
+    /**
+     * @return the text of the first element with the given tag name inside the element with the given ID, or
+     *         <code>null</code> if there is no such element. Nested markup is stripped.
+     */
+    public String findText(final String containerId, final String tagName) {
+        for (final Element container: getElements(_document.getDocumentElement(), "*")) {
+            if (containerId.equals(container.getAttribute("id"))) {
+                final List<Element> elements = getElements(container, tagName);
+                return elements.isEmpty() ? null : getText(elements.get(0));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the text of the first element having the given CSS class and any text at all, or <code>null</code> if
+     *         there is no such element. Nested markup is stripped.
+     */
+    public String findTextWithClass(final String cssClass) {
+        for (final Element element: getElements(_document.getDocumentElement(), "*")) {
+            if (hasClass(element, cssClass)) {
+                final String text = getText(element);
+                if (!text.isEmpty()) {
+                    return text;
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+            .add("uri", _uri)
+            .add("title", getTitle())
+        .toString();
+    }
+}
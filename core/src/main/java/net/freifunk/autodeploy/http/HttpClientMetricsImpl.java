@@ -0,0 +1,99 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.http;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.freifunk.autodeploy.metrics.DurationHistogram;
+
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.pool.ConnPoolControl;
+import org.apache.http.pool.PoolStats;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+
+/**
+ * {@link HttpClientMetrics} fed by the {@link InstrumentedConnectionManager} and the
+ * {@link InstrumentedRequestExecutor}, completed by the current statistics of the connection pool.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public class HttpClientMetricsImpl implements HttpClientMetrics {
+
+    private static final class RouteStats {
+        private final AtomicLong _leases = new AtomicLong();
+        private final DurationHistogram _waitTimes = new DurationHistogram();
+        private final DurationHistogram _latencies = new DurationHistogram();
+    }
+
+    private final ConnPoolControl<HttpRoute> _pool;
+    private final ConcurrentMap<HttpRoute, RouteStats> _statsByRoute;
+
+    public HttpClientMetricsImpl(final ConnPoolControl<HttpRoute> pool) {
+        _pool = pool;
+        _statsByRoute = Maps.newConcurrentMap();
+    }
+
+    void recordLease(final HttpRoute route, final long waitNanos) {
+        final RouteStats stats = getStats(route);
+        stats._leases.incrementAndGet();
+        stats._waitTimes.record(waitNanos, NANOSECONDS);
+    }
+
+    void recordLatency(final HttpRoute route, final long latencyNanos) {
+        getStats(route)._latencies.record(latencyNanos, NANOSECONDS);
+    }
+
+    private RouteStats getStats(final HttpRoute route) {
+        final RouteStats stats = _statsByRoute.get(route);
+        if (stats != null) {
+            return stats;
+        }
+        final RouteStats newStats = new RouteStats();
+        final RouteStats existingStats = _statsByRoute.putIfAbsent(route, newStats);
+        return existingStats == null ? newStats : existingStats;
+    }
+
+    @Override
+    public Map<HttpRoute, HttpRouteMetrics> getRouteMetrics() {
+        final ImmutableMap.Builder<HttpRoute, HttpRouteMetrics> metrics = ImmutableMap.builder();
+        for (final Map.Entry<HttpRoute, RouteStats> entry: _statsByRoute.entrySet()) {
+            final RouteStats stats = entry.getValue();
+            final PoolStats poolStats = _pool.getStats(entry.getKey());
+            metrics.put(entry.getKey(), new HttpRouteMetrics(
+                stats._leases.get(),
+                poolStats.getLeased(),
+                poolStats.getAvailable(),
+                poolStats.getPending(),
+                poolStats.getMax(),
+                stats._waitTimes.snapshot(),
+                stats._latencies.snapshot()
+            ));
+        }
+        return metrics.build();
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.http;
+
+import net.freifunk.autodeploy.metrics.DurationHistogram;
+
+import com.google.common.base.Objects;
+
+/**
+ * Snapshot of the connection pool usage of a single route.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public class HttpRouteMetrics {
+
+    private final long _leases;
+    private final int _leased;
+    private final int _available;
+    private final int _pending;
+    private final int _max;
+    private final DurationHistogram _waitTimes;
+    private final DurationHistogram _latencies;
+
+    public HttpRouteMetrics(
+        final long leases,
+        final int leased,
+        final int available,
+        final int pending,
+        final int max,
+        final DurationHistogram waitTimes,
+        final DurationHistogram latencies
+    ) {
+        _leases = leases;
+        _leased = leased;
+        _available = available;
+        _pending = pending;
+        _max = max;
+        _waitTimes = waitTimes;
+        _latencies = latencies;
+    }
+
+    /**
+     * @return the number of connections leased from the pool so far.
+     */
+    public long getLeases() {
+        return _leases;
+    }
+
+    /**
+     * @return the number of connections currently in use.
+     */
+    public int getLeased() {
+        return _leased;
+    }
+
+    /**
+     * @return the number of idle connections kept alive.
+     */
+    public int getAvailable() {
+        return _available;
+    }
+
+    /**
+     * @return the number of requests currently waiting for a connection.
+     */
+    public int getPending() {
+        return _pending;
+    }
+
+    public int getMax() {
+        return _max;
+    }
+
+    /**
+     * @return the time spent waiting for a connection from the pool.
+     */
+    public DurationHistogram getWaitTimes() {
+        return _waitTimes;
+    }
+
+    /**
+     * @return the time from sending a request until the response head was received.
+     */
+    public DurationHistogram getLatencies() {
+        return _latencies;
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+            .add("leases", _leases)
+            .add("leased", _leased)
+            .add("available", _available)
+            .add("pending", _pending)
+            .add("max", _max)
+            .add("waitTimes", _waitTimes)
+            .add("latencies", _latencies)
+        .toString();
+    }
+}
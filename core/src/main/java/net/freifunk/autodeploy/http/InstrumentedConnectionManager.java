@@ -0,0 +1,143 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.http;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpClientConnection;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ConnectionRequest;
+import org.apache.http.conn.HttpClientConnectionManager;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.protocol.HttpContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * {@link HttpClientConnectionManager} recording the connection leases of another one. It also closes expired
+ * connections and those idle for too long in the background, before the server does so at an inconvenient moment.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public class InstrumentedConnectionManager implements HttpClientConnectionManager {
+
+    private static final Logger LOG = LoggerFactory.getLogger(InstrumentedConnectionManager.class);
+
+    private final HttpClientConnectionManager _delegate;
+    private final HttpClientMetricsImpl _metrics;
+    private final ScheduledExecutorService _evictor;
+
+    /**
+     * @param maxIdleMs how long connections may stay unused before being closed.
+     */
+    public InstrumentedConnectionManager(
+        final HttpClientConnectionManager delegate,
+        final HttpClientMetricsImpl metrics,
+        final long maxIdleMs
+    ) {
+        _delegate = delegate;
+        _metrics = metrics;
+        _evictor = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("http-connection-evictor-%d").setDaemon(true).build()
+        );
+        _evictor.scheduleWithFixedDelay(
+            new Runnable() {
+
+                @Override
+                public void run() {
+                    _delegate.closeExpiredConnections();
+                    _delegate.closeIdleConnections(maxIdleMs, MILLISECONDS);
+                    LOG.trace("Evicted idle connections: {}", _metrics.getRouteMetrics());
+                }
+            },
+            maxIdleMs,
+            maxIdleMs,
+            MILLISECONDS
+        );
+    }
+
+    @Override
+    public ConnectionRequest requestConnection(final HttpRoute route, final Object state) {
+        final ConnectionRequest request = _delegate.requestConnection(route, state);
+        return new ConnectionRequest() {
+
+            @Override
+            public boolean cancel() {
+                return request.cancel();
+            }
+
+            @Override
+            public HttpClientConnection get(final long timeout, final TimeUnit unit)
+                    throws InterruptedException, ExecutionException, ConnectionPoolTimeoutException {
+                final long start = System.nanoTime();
+                final HttpClientConnection connection = request.get(timeout, unit);
+                _metrics.recordLease(route, System.nanoTime() - start);
+                return connection;
+            }
+        };
+    }
+
+    @Override
+    public void releaseConnection(final HttpClientConnection connection, final Object newState, final long validDuration, final TimeUnit unit) {
+        _delegate.releaseConnection(connection, newState, validDuration, unit);
+    }
+
+    @Override
+    public void connect(final HttpClientConnection connection, final HttpRoute route, final int connectTimeout, final HttpContext context)
+            throws IOException {
+        _delegate.connect(connection, route, connectTimeout, context);
+    }
+
+    @Override
+    public void upgrade(final HttpClientConnection connection, final HttpRoute route, final HttpContext context) throws IOException {
+        _delegate.upgrade(connection, route, context);
+    }
+
+    @Override
+    public void routeComplete(final HttpClientConnection connection, final HttpRoute route, final HttpContext context) throws IOException {
+        _delegate.routeComplete(connection, route, context);
+    }
+
+    @Override
+    public void closeIdleConnections(final long idleTime, final TimeUnit unit) {
+        _delegate.closeIdleConnections(idleTime, unit);
+    }
+
+    @Override
+    public void closeExpiredConnections() {
+        _delegate.closeExpiredConnections();
+    }
+
+    @Override
+    public void shutdown() {
+        _evictor.shutdownNow();
+        _delegate.shutdown();
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.http;
+
+import java.io.IOException;
+
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.routing.RouteInfo;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpRequestExecutor;
+
+/**
+ * {@link HttpRequestExecutor} recording the latency of each request by route.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public class InstrumentedRequestExecutor extends HttpRequestExecutor {
+
+    private final HttpClientMetricsImpl _metrics;
+
+    public InstrumentedRequestExecutor(final HttpClientMetricsImpl metrics) {
+        _metrics = metrics;
+    }
+
+    @Override
+    public HttpResponse execute(final HttpRequest request, final HttpClientConnection connection, final HttpContext context)
+            throws IOException, HttpException {
+        final long start = System.nanoTime();
+        try {
+            return super.execute(request, connection, context);
+        } finally {
+            final RouteInfo route = HttpClientContext.adapt(context).getHttpRoute();
+            if (route instanceof HttpRoute) {
+                _metrics.recordLatency((HttpRoute) route, System.nanoTime() - start);
+            }
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.journal;
+
+import net.freifunk.autodeploy.device.DetailedDevice;
+import net.freifunk.autodeploy.device.Device;
+import net.freifunk.autodeploy.firmware.Firmware;
+import net.freifunk.autodeploy.firmware.FirmwareConfiguration;
+
+import org.codehaus.jackson.annotate.JsonCreator;
+import org.codehaus.jackson.annotate.JsonIgnore;
+import org.codehaus.jackson.annotate.JsonProperty;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+
+/**
+ * Everything needed to resume the deployment of a device, keyed by its MAC address. Each record replaces the previous
+ * one for the same MAC address.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public class DeploymentRecord {
+
+    private final String _mac;
+    private final String _model;
+    private final String _version;
+    private final String _firmwareName;
+    private final DeploymentState _state;
+    private final String _password;
+    private final String _nodename;
+    private final FirmwareConfiguration _configuration;
+    private final String _updateToken;
+
+    @JsonCreator
+    public DeploymentRecord(
+        @JsonProperty("mac") final String mac,
+        @JsonProperty("model") final String model,
+        @JsonProperty("version") final String version,
+        @JsonProperty("firmwareName") final String firmwareName,
+        @JsonProperty("state") final DeploymentState state,
+        @JsonProperty("password") final String password,
+        @JsonProperty("nodename") final String nodename,
+        @JsonProperty("configuration") final FirmwareConfiguration configuration,
+        @JsonProperty("updateToken") final String updateToken
+    ) {
+        Preconditions.checkArgument(mac != null, "MAC must be set.");
+        Preconditions.checkArgument(state != null, "State must be set.");
+
+        _mac = mac;
+        _model = model;
+        _version = version;
+        _firmwareName = firmwareName;
+        _state = state;
+        _password = password;
+        _nodename = nodename;
+        _configuration = configuration;
+        _updateToken = updateToken;
+    }
+
+    /**
+     * @return the record for a device the given firmware was just deployed to.
+     */
+    public static DeploymentRecord deployed(
+        final DetailedDevice detailedDevice,
+        final Firmware firmware,
+        final String password,
+        final String nodename
+    ) {
+        final Device device = detailedDevice.getDevice();
+        return new DeploymentRecord(
+            detailedDevice.getMac(),
+            device.getModel(),
+            device.getVersion(),
+            firmware.getName(),
+            DeploymentState.DEPLOYED,
+            password,
+            nodename,
+            null,
+            null
+        );
+    }
+
+    /**
+     * @return the record after the firmware got configured.
+     */
+    public DeploymentRecord configured(final FirmwareConfiguration configuration) {
+        return new DeploymentRecord(_mac, _model, _version, _firmwareName, DeploymentState.CONFIGURED, _password, _nodename, configuration, null);
+    }
+
+    /**
+     * @return the record after the node got registered.
+     */
+    public DeploymentRecord registered(final String updateToken) {
+        return new DeploymentRecord(_mac, _model, _version, _firmwareName, DeploymentState.REGISTERED, _password, _nodename, _configuration, updateToken);
+    }
+
+    /**
+     * @return the record after the deployment was completed.
+     */
+    public DeploymentRecord completed() {
+        return new DeploymentRecord(_mac, _model, _version, _firmwareName, DeploymentState.COMPLETED, _password, _nodename, _configuration, _updateToken);
+    }
+
+    public String getMac() {
+        return _mac;
+    }
+
+    public String getModel() {
+        return _model;
+    }
+
+    public String getVersion() {
+        return _version;
+    }
+
+    @JsonIgnore
+    public DetailedDevice getDetailedDevice() {
+        return new DetailedDevice(new Device(_model, _version), _mac);
+    }
+
+    public String getFirmwareName() {
+        return _firmwareName;
+    }
+
+    public DeploymentState getState() {
+        return _state;
+    }
+
+    public String getPassword() {
+        return _password;
+    }
+
+    public String getNodename() {
+        return _nodename;
+    }
+
+    public FirmwareConfiguration getConfiguration() {
+        return _configuration;
+    }
+
+    public String getUpdateToken() {
+        return _updateToken;
+    }
+
+    @Override
+    public String toString() {
+        // leaving out the credentials on purpose
+        return Objects.toStringHelper(this)
+            .add("mac", _mac)
+            .add("model", _model)
+            .add("version", _version)
+            .add("firmwareName", _firmwareName)
+            .add("state", _state)
+            .add("nodename", _nodename)
+        .toString();
+    }
+}
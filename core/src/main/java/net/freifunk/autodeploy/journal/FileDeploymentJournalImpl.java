@@ -0,0 +1,136 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.journal;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import com.google.inject.Inject;
+
+/**
+ * {@link DeploymentJournal} writing a {@link SnapshottingLog} of {@link DeploymentRecord}s. The snapshot holds the
+ * in-flight deployments, it is written on startup and every {@link #SNAPSHOT_INTERVAL} records.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public class FileDeploymentJournalImpl implements DeploymentJournal {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FileDeploymentJournalImpl.class);
+
+    private static final String LOG_NAME = "journal";
+
+    private static final int SNAPSHOT_INTERVAL = 64;
+
+    // guarded by this
+    private final Map<String, DeploymentRecord> _inFlightRecordsByMac;
+
+    private final SnapshottingLog<DeploymentRecord> _log;
+
+    @Inject
+    public FileDeploymentJournalImpl(
+        @JournalDirectory final File directory,
+        final ObjectMapper objectMapper
+    ) {
+        this(directory, SNAPSHOT_INTERVAL, objectMapper);
+    }
+
+    /**
+     * Uses the given directory and snapshot interval, e.g. for running against a temporary directory.
+     */
+    public FileDeploymentJournalImpl(
+        final File directory,
+        final int snapshotInterval,
+        final ObjectMapper objectMapper
+    ) {
+        _inFlightRecordsByMac = Maps.newLinkedHashMap();
+
+        try {
+            _log = new SnapshottingLog<>(
+                directory,
+                LOG_NAME,
+                DeploymentRecord.class,
+                snapshotInterval,
+                objectMapper,
+                new SnapshottingLog.State<DeploymentRecord>() {
+
+                    @Override
+                    public void apply(final DeploymentRecord record) {
+                        FileDeploymentJournalImpl.this.apply(record);
+                    }
+
+                    @Override
+                    public Collection<DeploymentRecord> getEntries() {
+                        return _inFlightRecordsByMac.values();
+                    }
+                }
+            );
+        } catch (final IOException e) {
+            throw new IllegalStateException("Could not open deployment journal: " + directory, e);
+        }
+
+        LOG.debug("Deployment journal opened: directory = {}, in flight = {}", directory, _inFlightRecordsByMac.size());
+    }
+
+    private void apply(final DeploymentRecord record) {
+        if (record.getState() == DeploymentState.COMPLETED) {
+            _inFlightRecordsByMac.remove(record.getMac());
+        } else {
+            // re-inserting keeps the order of the records by last update
+            _inFlightRecordsByMac.remove(record.getMac());
+            _inFlightRecordsByMac.put(record.getMac(), record);
+        }
+    }
+
+    @Override
+    public void record(final DeploymentRecord record) {
+        LOG.trace("Recording: {}", record);
+        try {
+            final long position;
+            synchronized (this) {
+                position = _log.append(record);
+                apply(record);
+            }
+
+            _log.sync(position);
+
+            synchronized (this) {
+                _log.snapshotIfDue();
+            }
+        } catch (final IOException e) {
+            throw new IllegalStateException("Could not write deployment journal: " + record, e);
+        }
+    }
+
+    @Override
+    public synchronized List<DeploymentRecord> getInFlightRecords() {
+        return ImmutableList.copyOf(_inFlightRecordsByMac.values());
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.journal;
+
+import static com.google.common.base.Charsets.UTF_8;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.List;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.map.ObjectReader;
+import org.codehaus.jackson.type.JavaType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+
+/**
+ * Append-only log of JSON documents, one per line, compacted into a snapshot of the current state on startup and
+ * every given number of entries. Callers keep the state, the log only persists it.
+ * <p>
+ * Concurrent callers share a single fsync: whoever gets to sync first covers all entries written so far.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public class SnapshottingLog<T> {
+
+    /**
+     * The state persisted by the log.
+     */
+    public interface State<T> {
+
+        /**
+         * Applies an entry read back from the snapshot or the log while opening the log.
+         */
+        void apply(T entry);
+
+        /**
+         * @return the entries making up the current state, written to the snapshot.
+         */
+        Collection<T> getEntries();
+    }
+
+    private static final Logger LOG = LoggerFactory.getLogger(SnapshottingLog.class);
+
+    private static final String LOG_FILE_SUFFIX = ".log";
+    private static final String SNAPSHOT_FILE_SUFFIX = ".snapshot";
+    private static final String SNAPSHOT_TEMP_FILE_SUFFIX = ".snapshot.tmp";
+
+    private final ObjectMapper _objectMapper;
+    private final ObjectReader _entryReader;
+    private final JavaType _snapshotType;
+    private final File _logFile;
+    private final File _snapshotFile;
+    private final File _snapshotTempFile;
+    private final int _snapshotInterval;
+    private final State<T> _state;
+    private final FileChannel _logChannel;
+
+    private final Object _syncLock = new Object();
+
+    // guarded by the lock of the caller
+    private int _writtenSinceSnapshot;
+    private volatile long _written;
+
+    // guarded by _syncLock
+    private long _synced;
+
+    /**
+     * Opens the log <code>&lt;name&gt;.log</code> and its snapshot <code>&lt;name&gt;.snapshot</code> in the given
+     * directory, applying their entries to the given state.
+     *
+     * @param snapshotInterval the number of entries after which the log gets compacted.
+     */
+    public SnapshottingLog(
+        final File directory,
+        final String name,
+        final Class<T> entryType,
+        final int snapshotInterval,
+        final ObjectMapper objectMapper,
+        final State<T> state
+    ) throws IOException {
+        _objectMapper = objectMapper;
+        _entryReader = objectMapper.reader(entryType);
+        _snapshotType = objectMapper.getTypeFactory().constructCollectionType(List.class, entryType);
+        _logFile = new File(directory, name + LOG_FILE_SUFFIX);
+        _snapshotFile = new File(directory, name + SNAPSHOT_FILE_SUFFIX);
+        _snapshotTempFile = new File(directory, name + SNAPSHOT_TEMP_FILE_SUFFIX);
+        _snapshotInterval = snapshotInterval;
+        _state = state;
+
+        Files.createParentDirs(_logFile);
+        replay();
+        _logChannel = new FileOutputStream(_logFile, true).getChannel();
+        // start with a compact log, this also gets rid of a torn last line
+        if (_logFile.length() > 0) {
+            snapshot();
+        }
+    }
+
+    private void replay() throws IOException {
+        if (_snapshotFile.exists()) {
+            final List<T> entries = _objectMapper.readValue(_snapshotFile, _snapshotType);
+            for (final T entry: entries) {
+                _state.apply(entry);
+            }
+        }
+
+        if (!_logFile.exists()) {
+            return;
+        }
+
+        try (final BufferedReader reader = Files.newReader(_logFile, UTF_8)) {
+            int lineNumber = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isEmpty()) {
+                    continue;
+                }
+
+                final T entry;
+                try {
+                    entry = _entryReader.readValue(line);
+                } catch (final IOException e) {
+                    // only the last line can be torn by a crash, anything after an unreadable line is not trusted
+                    LOG.warn("Ignoring unreadable entries of " + _logFile + " from line " + lineNumber + " on.", e);
+                    break;
+                }
+                _state.apply(entry);
+            }
+        }
+    }
+
+    /**
+     * Appends the given entry to the log without syncing it. Must be called holding the lock guarding the state.
+     *
+     * @return the position to pass to {@link #sync(long)}.
+     */
+    public long append(final T entry) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.wrap((_objectMapper.writeValueAsString(entry) + "\n").getBytes(UTF_8));
+        while (buffer.hasRemaining()) {
+            _logChannel.write(buffer);
+        }
+        _writtenSinceSnapshot++;
+        _written++;
+        return _written;
+    }
+
+    /**
+     * Makes sure the entries up to the given position are on disk. Should be called without holding the lock guarding
+     * the state, so other callers can append meanwhile and share the fsync.
+     */
+    public void sync(final long position) throws IOException {
+        synchronized (_syncLock) {
+            if (_synced >= position) {
+                LOG.trace("Already synced by another writer.");
+                return;
+            }
+
+            final long target = _written;
+            _logChannel.force(false);
+            _synced = target;
+        }
+    }
+
+    /**
+     * Compacts the log if enough entries were appended since the last snapshot. Must be called holding the lock
+     * guarding the state.
+     */
+    public void snapshotIfDue() throws IOException {
+        if (_writtenSinceSnapshot >= _snapshotInterval) {
+            snapshot();
+        }
+    }
+
+    /**
+     * Writes the current state to the snapshot and truncates the log.
+     */
+    private void snapshot() throws IOException {
+        final List<T> entries = ImmutableList.copyOf(_state.getEntries());
+        LOG.trace("Writing snapshot: file = {}, entries = {}", _snapshotFile, entries.size());
+
+        try (final FileOutputStream out = new FileOutputStream(_snapshotTempFile)) {
+            out.write(_objectMapper.writeValueAsBytes(entries));
+            out.getFD().sync();
+        }
+        java.nio.file.Files.move(_snapshotTempFile.toPath(), _snapshotFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+
+        // the snapshot covers everything in the log, replaying both after a crash right here does no harm though
+        _logChannel.truncate(0);
+        _logChannel.force(false);
+        _writtenSinceSnapshot = 0;
+    }
+}
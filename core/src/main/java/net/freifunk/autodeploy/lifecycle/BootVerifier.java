@@ -0,0 +1,74 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.lifecycle;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+
+import net.freifunk.autodeploy.journal.DeploymentRecord;
+
+/**
+ * Verifies in the background that configured nodes boot into regular mode, so the station does not need to wait for
+ * it before going on with the next device.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public interface BootVerifier {
+
+    /**
+     * Gets notified about finished verifications.
+     */
+    interface Listener {
+
+        /**
+         * Called from the verifier's thread once the node is running in regular mode.
+         */
+        void verified(DeploymentRecord record);
+
+        /**
+         * Called from the verifier's thread if the node did not come up in regular mode.
+         *
+         * @param reason what went wrong, for logging and display.
+         */
+        void failed(DeploymentRecord record, String reason);
+    }
+
+    /**
+     * Starts verifying the nodes passed to {@link #verify(DeploymentRecord, InetSocketAddress, URI)}.
+     */
+    void start(Listener listener);
+
+    /**
+     * Starts watching the node configured as recorded boot into regular mode. Returns immediately.
+     *
+     * @param configModeAddress where the config mode was reachable, it must go away for good.
+     * @param regularModeUri a page answering once the node runs in regular mode or <code>null</code> if unknown. In
+     *            the latter case the config mode staying away while the link is up counts as success.
+     */
+    void verify(DeploymentRecord record, InetSocketAddress configModeAddress, URI regularModeUri);
+
+    /**
+     * Stops all verifications still running, as the station gets connected to another device. Their nodes are
+     * reported neither as verified nor as failed.
+     */
+    void abandon();
+}
@@ -0,0 +1,262 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.lifecycle;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+
+import net.freifunk.autodeploy.journal.DeploymentRecord;
+import net.freifunk.autodeploy.network.LinkMonitor;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Inject;
+
+/**
+ * Default implementation of {@link BootVerifier}. A background thread polls the config mode, the link state of the
+ * station and the regular mode page of each node being verified.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public class BootVerifierImpl implements BootVerifier {
+
+    private final class Verification implements Runnable {
+        private final DeploymentRecord _record;
+        private final InetSocketAddress _configModeAddress;
+        private final URI _regularModeUri;
+        private final Set<String> _interfaces;
+        private final long _startNanos;
+        private ScheduledFuture<?> _future;
+        private boolean _configModeGone;
+        private Long _linkUpNanos;
+
+        private Verification(
+            final DeploymentRecord record,
+            final InetSocketAddress configModeAddress,
+            final URI regularModeUri
+        ) {
+            _record = record;
+            _configModeAddress = configModeAddress;
+            _regularModeUri = regularModeUri;
+            // an uplink on another interface must not count as the node's link
+            _interfaces = configModeAddress.getAddress() == null
+                ? _linkMonitor.getInterfaces()
+                : _linkMonitor.getInterfaces(configModeAddress.getAddress());
+            _startNanos = System.nanoTime();
+        }
+
+        @Override
+        public void run() {
+            try {
+                check();
+            } catch (final RuntimeException e) {
+                LOG.warn("Verifying boot of " + _record.getNodename() + " failed.", e);
+            }
+        }
+
+        private void check() {
+            final long now = System.nanoTime();
+            if (now - _startNanos > TIMEOUT_NANOS) {
+                finish(false, (_configModeGone ? "Regular mode" : "Reboot") + " not reached after " +
+                    NANOSECONDS.toSeconds(now - _startNanos) + " seconds.");
+                return;
+            }
+
+            final boolean configModeReachable = isReachable(_configModeAddress);
+            if (!_configModeGone) {
+                if (!configModeReachable) {
+                    LOG.debug("Config mode of {} gone.", _record.getNodename());
+                    _configModeGone = true;
+                }
+                return;
+            }
+            if (configModeReachable) {
+                // Gluon boots into config mode again if the configuration did not stick
+                finish(false, "Booted into config mode again.");
+                return;
+            }
+
+            if (!isLinkUp(_interfaces)) {
+                _linkUpNanos = null;
+                return;
+            }
+            if (_linkUpNanos == null) {
+                LOG.debug("Link up while verifying boot of {}.", _record.getNodename());
+                _linkUpNanos = now;
+            }
+
+            if (_regularModeUri != null) {
+                if (isAnswering(_regularModeUri)) {
+                    finish(true, "Regular mode reachable.");
+                }
+            } else if (now - _linkUpNanos > SETTLE_NANOS) {
+                finish(true, "Config mode stayed away.");
+            }
+        }
+
+        private void finish(final boolean success, final String reason) {
+            if (!remove(this)) {
+                // abandoned meanwhile
+                return;
+            }
+
+            final long elapsedMillis = NANOSECONDS.toMillis(System.nanoTime() - _startNanos);
+            if (success) {
+                LOG.info("Node {} booted into regular mode after {} ms: {}", _record.getNodename(), elapsedMillis, reason);
+                _listener.verified(_record);
+            } else {
+                LOG.warn("Node {} did not boot into regular mode after {} ms: {}", _record.getNodename(), elapsedMillis, reason);
+                _listener.failed(_record, reason);
+            }
+        }
+    }
+
+    private static final Logger LOG = LoggerFactory.getLogger(BootVerifierImpl.class);
+
+    private static final long POLL_INTERVAL_MS = 500;
+    private static final int PROBE_TIMEOUT_MS = 1000;
+    private static final long TIMEOUT_NANOS = MINUTES.toNanos(5);
+    private static final long SETTLE_NANOS = SECONDS.toNanos(30);
+
+    private static final RequestConfig PROBE_CONFIG = RequestConfig.custom()
+        .setConnectTimeout(PROBE_TIMEOUT_MS)
+        .setSocketTimeout(PROBE_TIMEOUT_MS)
+        .setConnectionRequestTimeout(PROBE_TIMEOUT_MS)
+        .setRedirectsEnabled(false)
+        .build();
+
+    private final LinkMonitor _linkMonitor;
+    private final HttpClient _httpClient;
+    private final ScheduledExecutorService _executor;
+    private final List<Verification> _verifications;
+
+    private volatile Listener _listener;
+
+    @Inject
+    public BootVerifierImpl(final LinkMonitor linkMonitor, final HttpClient httpClient) {
+        _linkMonitor = linkMonitor;
+        _httpClient = httpClient;
+        _executor = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("boot-verifier-%d").setDaemon(true).build()
+        );
+        _verifications = Lists.newArrayList();
+    }
+
+    @Override
+    public void start(final Listener listener) {
+        Preconditions.checkState(_listener == null, "Already started.");
+        _listener = listener;
+    }
+
+    @Override
+    public synchronized void verify(
+        final DeploymentRecord record,
+        final InetSocketAddress configModeAddress,
+        final URI regularModeUri
+    ) {
+        Preconditions.checkState(_listener != null, "Not started.");
+
+        LOG.debug("Verifying boot of {}: config mode = {}, regular mode = {}", record.getNodename(), configModeAddress, regularModeUri);
+        final Verification verification = new Verification(record, configModeAddress, regularModeUri);
+        _verifications.add(verification);
+        verification._future = _executor.scheduleWithFixedDelay(
+            verification,
+            POLL_INTERVAL_MS,
+            POLL_INTERVAL_MS,
+            MILLISECONDS
+        );
+    }
+
+    @Override
+    public synchronized void abandon() {
+        for (final Verification verification: _verifications) {
+            LOG.info("Boot of {} not verified, the station moved on.", verification._record.getNodename());
+            verification._future.cancel(false);
+        }
+        _verifications.clear();
+    }
+
+    /**
+     * @return <code>false</code> iff the verification was not running anymore.
+     */
+    private synchronized boolean remove(final Verification verification) {
+        verification._future.cancel(false);
+        return _verifications.remove(verification);
+    }
+
+    private boolean isLinkUp(final Set<String> interfaces) {
+        if (interfaces.isEmpty()) {
+            // nothing to tell from
+            return true;
+        }
+        for (final String interfaceName: interfaces) {
+            if (_linkMonitor.hasCarrier(interfaceName) && _linkMonitor.hasAddress(interfaceName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isReachable(final InetSocketAddress address) {
+        try (final Socket socket = new Socket()) {
+            socket.connect(address, PROBE_TIMEOUT_MS);
+            return true;
+        } catch (final IOException e) {
+            return false;
+        }
+    }
+
+    private boolean isAnswering(final URI uri) {
+        final HttpGet request = new HttpGet(uri);
+        request.setConfig(PROBE_CONFIG);
+        try {
+            final HttpResponse response = _httpClient.execute(request);
+            EntityUtils.consume(response.getEntity());
+            final int statusCode = response.getStatusLine().getStatusCode();
+            return statusCode >= 200 && statusCode < 400;
+        } catch (final IOException e) {
+            request.abort();
+            return false;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.lifecycle;
+
+/**
+ * Stage of the reboot of a device after the firmware upload.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public enum RebootStage {
+
+    /**
+     * The device accepted the uploaded firmware image.
+     */
+    UPLOAD_ACCEPTED,
+
+    /**
+     * The web server of the old firmware is not reachable anymore.
+     */
+    OLD_WEBSERVER_GONE,
+
+    /**
+     * The link to the station dropped as the device rebooted.
+     */
+    LINK_DROPPED,
+
+    /**
+     * The web server of the new firmware is reachable in config mode.
+     */
+    CONFIG_MODE_AVAILABLE,
+
+    /**
+     * The configuration web interface of the new firmware is ready.
+     */
+    CONFIG_MODE_READY,
+    ;
+}
@@ -0,0 +1,60 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.lifecycle;
+
+import net.freifunk.autodeploy.device.Device;
+import net.freifunk.autodeploy.metrics.DurationHistogram;
+
+import com.google.common.collect.Table;
+
+/**
+ * Tracks the reboot of a device after the firmware upload and records the time each {@link RebootStage} takes.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public interface RebootTracker {
+
+    /**
+     * Starts tracking the reboot of the given device. The old web server at the given host and port is watched
+     * until it disappears.
+     */
+    void uploadAccepted(Device device, String host, int port);
+
+    /**
+     * Records the given stage has been reached by the device currently being tracked. Does nothing if no device is
+     * being tracked.
+     */
+    void stageReached(RebootStage stage);
+
+    /**
+     * Checks the device currently being tracked is making progress.
+     *
+     * @throws IllegalStateException if the device seems to hang.
+     */
+    void checkNotStalled();
+
+    /**
+     * @return a snapshot of the histograms of the time from {@link RebootStage#UPLOAD_ACCEPTED} to each stage
+     *         by {@link Device}, including the reboots tracked before the station was restarted.
+     */
+    Table<Device, RebootStage, DurationHistogram> getDurationHistograms();
+}
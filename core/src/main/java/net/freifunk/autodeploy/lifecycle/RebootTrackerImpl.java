@@ -0,0 +1,461 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.lifecycle;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static net.freifunk.autodeploy.lifecycle.RebootStage.CONFIG_MODE_AVAILABLE;
+import static net.freifunk.autodeploy.lifecycle.RebootStage.CONFIG_MODE_READY;
+import static net.freifunk.autodeploy.lifecycle.RebootStage.LINK_DROPPED;
+import static net.freifunk.autodeploy.lifecycle.RebootStage.OLD_WEBSERVER_GONE;
+import static net.freifunk.autodeploy.lifecycle.RebootStage.UPLOAD_ACCEPTED;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.nio.file.StandardCopyOption;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+
+import net.freifunk.autodeploy.device.Device;
+import net.freifunk.autodeploy.journal.JournalDirectory;
+import net.freifunk.autodeploy.metrics.DurationHistogram;
+import net.freifunk.autodeploy.network.LinkMonitor;
+
+import org.codehaus.jackson.annotate.JsonCreator;
+import org.codehaus.jackson.annotate.JsonProperty;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.type.TypeReference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableTable;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Table;
+import com.google.common.collect.Table.Cell;
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Inject;
+
+/**
+ * Default implementation of {@link RebootTracker}. A background thread watches the old web server and the link
+ * state of the station while the device flashes the new firmware.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public class RebootTrackerImpl implements RebootTracker {
+
+    private static final class Lifecycle {
+        private final Device _device;
+        private final String _host;
+        private final int _port;
+        private final Set<String> _interfacesWithCarrier;
+        private final long _startNanos;
+        private final Map<RebootStage, Long> _elapsedNanosByStage;
+        private ScheduledFuture<?> _watcher;
+        private boolean _stallReported;
+
+        private Lifecycle(final Device device, final String host, final int port, final Set<String> interfacesWithCarrier) {
+            _device = device;
+            _host = host;
+            _port = port;
+            _interfacesWithCarrier = interfacesWithCarrier;
+            _startNanos = System.nanoTime();
+            _elapsedNanosByStage = new EnumMap<>(RebootStage.class);
+        }
+
+        private long getElapsedNanos() {
+            return System.nanoTime() - _startNanos;
+        }
+
+        private boolean hasReached(final RebootStage stage) {
+            return _elapsedNanosByStage.containsKey(stage);
+        }
+
+        private RebootStage getLatestStage() {
+            RebootStage latest = null;
+            for (final RebootStage stage: _elapsedNanosByStage.keySet()) {
+                latest = stage; // EnumMap iterates in natural order
+            }
+            return latest;
+        }
+
+        private void stopWatching() {
+            if (_watcher != null) {
+                _watcher.cancel(false);
+            }
+        }
+    }
+
+    private final class Watcher implements Runnable {
+        private final Lifecycle _lifecycle;
+
+        private Watcher(final Lifecycle lifecycle) {
+            _lifecycle = lifecycle;
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (!hasReached(_lifecycle, OLD_WEBSERVER_GONE) && !isReachable(_lifecycle._host, _lifecycle._port)) {
+                    stageReached(_lifecycle, OLD_WEBSERVER_GONE);
+                }
+
+                if (!hasReached(_lifecycle, LINK_DROPPED) && hasLinkDropped(_lifecycle)) {
+                    stageReached(_lifecycle, LINK_DROPPED);
+                }
+
+                checkForStall(_lifecycle);
+            } catch (final RuntimeException e) {
+                LOG.warn("Watching reboot failed.", e);
+            }
+        }
+    }
+
+    /**
+     * A histogram as stored in the durations file.
+     */
+    private static final class DurationsEntry {
+        private final String _model;
+        private final String _version;
+        private final RebootStage _stage;
+        private final DurationHistogram _histogram;
+
+        @JsonCreator
+        private DurationsEntry(
+            @JsonProperty("model") final String model,
+            @JsonProperty("version") final String version,
+            @JsonProperty("stage") final RebootStage stage,
+            @JsonProperty("histogram") final DurationHistogram histogram
+        ) {
+            _model = model;
+            _version = version;
+            _stage = stage;
+            _histogram = histogram;
+        }
+
+        @JsonProperty("model")
+        public String getModel() {
+            return _model;
+        }
+
+        @JsonProperty("version")
+        public String getVersion() {
+            return _version;
+        }
+
+        @JsonProperty("stage")
+        public RebootStage getStage() {
+            return _stage;
+        }
+
+        @JsonProperty("histogram")
+        public DurationHistogram getHistogram() {
+            return _histogram;
+        }
+    }
+
+    private static final Logger LOG = LoggerFactory.getLogger(RebootTrackerImpl.class);
+
+    // the durations of previous reboots are kept across restarts, so stage limits need not be learned again
+    private static final String DURATIONS_FILE = "reboot-durations.json";
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+
+    private static final long POLL_INTERVAL_MS = 500;
+    private static final int CONNECT_TIMEOUT_MS = 1000;
+    private static final long MAX_TRACKING_TIME_NANOS = MINUTES.toNanos(15);
+
+    // stage limits are derived from the histograms once there are enough samples
+    private static final int MIN_SAMPLES_FOR_LIMIT = 5;
+    private static final int LIMIT_PERCENTILE = 95;
+    private static final int LIMIT_FACTOR = 2;
+    private static final Map<RebootStage, Long> DEFAULT_LIMITS_NANOS = ImmutableMap.of(
+        OLD_WEBSERVER_GONE, SECONDS.toNanos(180)
+    );
+
+    private final LinkMonitor _linkMonitor;
+    private final File _durationsFile;
+    private final ObjectMapper _objectMapper;
+    private final ScheduledExecutorService _executor;
+    private final Table<Device, RebootStage, DurationHistogram> _histograms;
+
+    private Lifecycle _current;
+
+    @Inject
+    public RebootTrackerImpl(
+        final LinkMonitor linkMonitor,
+        @JournalDirectory final File journalDirectory,
+        final ObjectMapper objectMapper
+    ) {
+        _linkMonitor = linkMonitor;
+        _durationsFile = new File(journalDirectory, DURATIONS_FILE);
+        _objectMapper = objectMapper;
+        _executor = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("reboot-tracker-%d").setDaemon(true).build()
+        );
+        _histograms = HashBasedTable.create();
+
+        loadDurations();
+        for (final Map.Entry<Device, Map<RebootStage, DurationHistogram>> row: _histograms.rowMap().entrySet()) {
+            LOG.info("Reboot durations of {} so far: {}", row.getKey().asString(), row.getValue());
+        }
+    }
+
+    private void loadDurations() {
+        if (!_durationsFile.exists()) {
+            return;
+        }
+
+        try {
+            final List<DurationsEntry> entries = _objectMapper.readValue(
+                _durationsFile,
+                new TypeReference<List<DurationsEntry>>() {}
+            );
+            for (final DurationsEntry entry: entries) {
+                _histograms.put(new Device(entry.getModel(), entry.getVersion()), entry.getStage(), entry.getHistogram());
+            }
+        } catch (final IOException e) {
+            // the limits are learned again
+            LOG.warn("Ignoring unreadable reboot durations: " + _durationsFile, e);
+            _histograms.clear();
+        }
+    }
+
+    /**
+     * Must be called holding the lock on this.
+     */
+    private void saveDurations() {
+        final List<DurationsEntry> entries = Lists.newArrayList();
+        for (final Cell<Device, RebootStage, DurationHistogram> cell: _histograms.cellSet()) {
+            final Device device = cell.getRowKey();
+            entries.add(new DurationsEntry(device.getModel(), device.getVersion(), cell.getColumnKey(), cell.getValue().snapshot()));
+        }
+
+        final File tempFile = new File(_durationsFile.getPath() + TEMP_FILE_SUFFIX);
+        try {
+            Files.createParentDirs(tempFile);
+            try (final FileOutputStream out = new FileOutputStream(tempFile)) {
+                out.write(_objectMapper.writeValueAsBytes(entries));
+                out.getFD().sync();
+            }
+            java.nio.file.Files.move(tempFile.toPath(), _durationsFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (final IOException e) {
+            LOG.warn("Could not save reboot durations: " + _durationsFile, e);
+        }
+    }
+
+    @Override
+    public synchronized void uploadAccepted(final Device device, final String host, final int port) {
+        if (_current != null) {
+            _current.stopWatching();
+        }
+
+        _current = new Lifecycle(device, host, port, getInterfacesWithCarrier(host));
+        stageReached(_current, UPLOAD_ACCEPTED);
+        _current._watcher = _executor.scheduleWithFixedDelay(
+            new Watcher(_current),
+            POLL_INTERVAL_MS,
+            POLL_INTERVAL_MS,
+            MILLISECONDS
+        );
+    }
+
+    @Override
+    public synchronized void stageReached(final RebootStage stage) {
+        if (_current != null) {
+            stageReached(_current, stage);
+        }
+    }
+
+    @Override
+    public synchronized void checkNotStalled() {
+        if (_current == null) {
+            return;
+        }
+
+        final RebootStage stalledStage = findStalledStage(_current);
+        if (stalledStage != null) {
+            throw new IllegalStateException(
+                "Device " + _current._device.asString() + " seems to hang: " + stalledStage + " not reached after " +
+                NANOSECONDS.toSeconds(_current.getElapsedNanos()) + " seconds."
+            );
+        }
+    }
+
+    @Override
+    public synchronized Table<Device, RebootStage, DurationHistogram> getDurationHistograms() {
+        final ImmutableTable.Builder<Device, RebootStage, DurationHistogram> builder = ImmutableTable.builder();
+        for (final Cell<Device, RebootStage, DurationHistogram> cell: _histograms.cellSet()) {
+            builder.put(cell.getRowKey(), cell.getColumnKey(), cell.getValue().snapshot());
+        }
+        return builder.build();
+    }
+
+    private synchronized boolean hasReached(final Lifecycle lifecycle, final RebootStage stage) {
+        return lifecycle.hasReached(stage);
+    }
+
+    private synchronized void stageReached(final Lifecycle lifecycle, final RebootStage stage) {
+        if (lifecycle.hasReached(stage)) {
+            return;
+        }
+
+        final long elapsedNanos = lifecycle.getElapsedNanos();
+        lifecycle._elapsedNanosByStage.put(stage, elapsedNanos);
+        LOG.debug("Reboot of {}: {} after {} ms.", lifecycle._device.asString(), stage, NANOSECONDS.toMillis(elapsedNanos));
+
+        if (stage != UPLOAD_ACCEPTED) {
+            getHistogram(lifecycle._device, stage).record(elapsedNanos, NANOSECONDS);
+        }
+
+        if (stage == CONFIG_MODE_AVAILABLE) {
+            lifecycle.stopWatching();
+        }
+
+        if (stage == CONFIG_MODE_READY) {
+            lifecycle.stopWatching();
+            if (_current == lifecycle) {
+                _current = null;
+            }
+            LOG.info(
+                "Reboot of {} done after {} s, durations so far: {}",
+                lifecycle._device.asString(),
+                NANOSECONDS.toSeconds(elapsedNanos),
+                _histograms.row(lifecycle._device)
+            );
+            saveDurations();
+        }
+    }
+
+    private synchronized void checkForStall(final Lifecycle lifecycle) {
+        if (lifecycle.getElapsedNanos() > MAX_TRACKING_TIME_NANOS) {
+            LOG.debug("Giving up tracking reboot of {}.", lifecycle._device.asString());
+            lifecycle.stopWatching();
+            if (_current == lifecycle) {
+                _current = null;
+            }
+            return;
+        }
+
+        if (lifecycle._stallReported) {
+            return;
+        }
+
+        final RebootStage stalledStage = findStalledStage(lifecycle);
+        if (stalledStage != null) {
+            lifecycle._stallReported = true;
+            LOG.warn(
+                "Device {} seems to hang: {} not reached after {} seconds.",
+                lifecycle._device.asString(),
+                stalledStage,
+                NANOSECONDS.toSeconds(lifecycle.getElapsedNanos())
+            );
+        }
+    }
+
+    private RebootStage findStalledStage(final Lifecycle lifecycle) {
+        final RebootStage latestStage = lifecycle.getLatestStage();
+        final long elapsedNanos = lifecycle.getElapsedNanos();
+
+        for (final RebootStage stage: RebootStage.values()) {
+            if (stage.compareTo(latestStage) <= 0 || stage == LINK_DROPPED) {
+                // the link drop cannot be detected reliably, e.g. if no interface is being monitored
+                continue;
+            }
+
+            final Long limitNanos = getLimitNanos(lifecycle._device, stage);
+            if (limitNanos != null && elapsedNanos > limitNanos) {
+                return stage;
+            }
+        }
+        return null;
+    }
+
+    private Long getLimitNanos(final Device device, final RebootStage stage) {
+        final DurationHistogram histogram = _histograms.get(device, stage);
+        if (histogram != null && histogram.getCount() >= MIN_SAMPLES_FOR_LIMIT) {
+            return LIMIT_FACTOR * histogram.getPercentile(LIMIT_PERCENTILE, NANOSECONDS);
+        }
+        return DEFAULT_LIMITS_NANOS.get(stage);
+    }
+
+    private DurationHistogram getHistogram(final Device device, final RebootStage stage) {
+        DurationHistogram histogram = _histograms.get(device, stage);
+        if (histogram == null) {
+            histogram = new DurationHistogram();
+            _histograms.put(device, stage, histogram);
+        }
+        return histogram;
+    }
+
+    private Set<String> getInterfacesWithCarrier(final String host) {
+        final ImmutableSet.Builder<String> interfaces = ImmutableSet.builder();
+        for (final String interfaceName: getInterfaces(host)) {
+            if (_linkMonitor.hasCarrier(interfaceName)) {
+                interfaces.add(interfaceName);
+            }
+        }
+        return interfaces.build();
+    }
+
+    private Set<String> getInterfaces(final String host) {
+        try {
+            // devices are addressed by their IPs, so there is no name lookup
+            return _linkMonitor.getInterfaces(InetAddress.getByName(host));
+        } catch (final UnknownHostException e) {
+            LOG.debug("Could not resolve {}, watching all interfaces.", host);
+            return _linkMonitor.getInterfaces();
+        }
+    }
+
+    private boolean hasLinkDropped(final Lifecycle lifecycle) {
+        for (final String interfaceName: lifecycle._interfacesWithCarrier) {
+            if (!_linkMonitor.hasCarrier(interfaceName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isReachable(final String host, final int port) {
+        try (final Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MS);
+            return socket.isConnected();
+        } catch (final IOException e) {
+            return false;
+        }
+    }
+}
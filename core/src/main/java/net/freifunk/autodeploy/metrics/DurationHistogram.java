@@ -0,0 +1,163 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.metrics;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.codehaus.jackson.annotate.JsonCreator;
+import org.codehaus.jackson.annotate.JsonProperty;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+
+/**
+ * Thread-safe histogram of durations with fixed, roughly exponential buckets ranging from one millisecond up to ten
+ * minutes. Percentiles are approximated by the upper bound of the bucket they fall into. Snapshots can be stored as
+ * JSON.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public class DurationHistogram {
+
+    private static final long[] BUCKET_UPPER_BOUNDS_MS = {
+        1, 2, 5, 10, 20, 50, 100, 200, 500,
+        1000, 2000, 5000, 10000, 20000, 30000, 45000,
+        60000, 90000, 120000, 180000, 240000, 300000, 600000
+    };
+
+    @JsonProperty("counts") private final long[] _counts;
+    @JsonProperty("count") private long _count;
+    @JsonProperty("sumNanos") private long _sumNanos;
+    @JsonProperty("minNanos") private long _minNanos;
+    @JsonProperty("maxNanos") private long _maxNanos;
+
+    public DurationHistogram() {
+        _counts = new long[BUCKET_UPPER_BOUNDS_MS.length + 1];
+        _minNanos = Long.MAX_VALUE;
+        _maxNanos = 0;
+    }
+
+    @JsonCreator
+    private DurationHistogram(
+        @JsonProperty("counts") final long[] counts,
+        @JsonProperty("count") final long count,
+        @JsonProperty("sumNanos") final long sumNanos,
+        @JsonProperty("minNanos") final long minNanos,
+        @JsonProperty("maxNanos") final long maxNanos
+    ) {
+        Preconditions.checkArgument(counts != null && counts.length == BUCKET_UPPER_BOUNDS_MS.length + 1, "Buckets changed.");
+        _counts = counts;
+        _count = count;
+        _sumNanos = sumNanos;
+        _minNanos = minNanos;
+        _maxNanos = maxNanos;
+    }
+
+    private DurationHistogram(final DurationHistogram other) {
+        _counts = Arrays.copyOf(other._counts, other._counts.length);
+        _count = other._count;
+        _sumNanos = other._sumNanos;
+        _minNanos = other._minNanos;
+        _maxNanos = other._maxNanos;
+    }
+
+    /**
+     * Records the given duration.
+     */
+    public synchronized void record(final long duration, final TimeUnit unit) {
+        final long nanos = unit.toNanos(duration);
+        final long millis = NANOSECONDS.toMillis(nanos);
+
+        int bucket = Arrays.binarySearch(BUCKET_UPPER_BOUNDS_MS, millis);
+        if (bucket < 0) {
+            bucket = -bucket - 1;
+        }
+        _counts[bucket]++;
+
+        _count++;
+        _sumNanos += nanos;
+        _minNanos = Math.min(_minNanos, nanos);
+        _maxNanos = Math.max(_maxNanos, nanos);
+    }
+
+    public synchronized long getCount() {
+        return _count;
+    }
+
+    public synchronized long getMin(final TimeUnit unit) {
+        return _count == 0 ? 0 : unit.convert(_minNanos, NANOSECONDS);
+    }
+
+    public synchronized long getMax(final TimeUnit unit) {
+        return unit.convert(_maxNanos, NANOSECONDS);
+    }
+
+    public synchronized long getMean(final TimeUnit unit) {
+        return _count == 0 ? 0 : unit.convert(_sumNanos / _count, NANOSECONDS);
+    }
+
+    /**
+     * Approximates the given percentile (0 &lt; percentile &lt;= 100). The result never exceeds the maximum
+     * recorded duration.
+     */
+    public synchronized long getPercentile(final double percentile, final TimeUnit unit) {
+        Preconditions.checkArgument(percentile > 0 && percentile <= 100, "Invalid percentile: " + percentile);
+        if (_count == 0) {
+            return 0;
+        }
+
+        final long rank = (long) Math.ceil(_count * percentile / 100);
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKET_UPPER_BOUNDS_MS.length; bucket++) {
+            seen += _counts[bucket];
+            if (seen >= rank) {
+                final long upperBoundNanos = MILLISECONDS.toNanos(BUCKET_UPPER_BOUNDS_MS[bucket]);
+                return unit.convert(Math.min(upperBoundNanos, _maxNanos), NANOSECONDS);
+            }
+        }
+        return getMax(unit);
+    }
+
+    /**
+     * @return a copy of the current state of the histogram.
+     */
+    public synchronized DurationHistogram snapshot() {
+        return new DurationHistogram(this);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return Objects.toStringHelper(this)
+            .add("count", _count)
+            .add("minMs", getMin(MILLISECONDS))
+            .add("meanMs", getMean(MILLISECONDS))
+            .add("p50Ms", getPercentile(50, MILLISECONDS))
+            .add("p95Ms", getPercentile(95, MILLISECONDS))
+            .add("p99Ms", getPercentile(99, MILLISECONDS))
+            .add("maxMs", getMax(MILLISECONDS))
+        .toString();
+    }
+}
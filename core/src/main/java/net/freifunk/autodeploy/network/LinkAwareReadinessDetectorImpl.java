@@ -0,0 +1,150 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.network;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.inject.Inject;
+
+/**
+ * {@link ReadinessDetector} following the link state of the station's interfaces through the {@link LinkMonitor}.
+ * <p>
+ * While the device reboots the link is down, so only the cheap sysfs reads are done. As soon as an interface leading to
+ * the device has a carrier and an address again, the URI is probed with short timeouts in quick succession.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public class LinkAwareReadinessDetectorImpl implements ReadinessDetector {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LinkAwareReadinessDetectorImpl.class);
+
+    private static final long LINK_POLL_INTERVAL_MS = 50;
+    private static final long PROBE_INTERVAL_MS = 200;
+    private static final int PROBE_TIMEOUT_MS = 500;
+
+    private static final RequestConfig PROBE_CONFIG = RequestConfig.custom()
+        .setConnectTimeout(PROBE_TIMEOUT_MS)
+        .setSocketTimeout(PROBE_TIMEOUT_MS)
+        .setConnectionRequestTimeout(PROBE_TIMEOUT_MS)
+        .setRedirectsEnabled(false)
+        .build();
+
+    private final LinkMonitor _linkMonitor;
+    private final HttpClient _httpClient;
+
+    @Inject
+    public LinkAwareReadinessDetectorImpl(final LinkMonitor linkMonitor, final HttpClient httpClient) {
+        _linkMonitor = linkMonitor;
+        _httpClient = httpClient;
+    }
+
+    @Override
+    public boolean awaitReady(final URI uri, final long timeout, final TimeUnit unit) throws InterruptedException {
+        final long start = System.nanoTime();
+        final long deadline = start + unit.toNanos(timeout);
+
+        final Set<String> interfaces = getInterfaces(uri);
+        LOG.debug("Waiting for {} on interfaces: {}", uri, interfaces);
+
+        int probes = 0;
+        boolean linkUp = false;
+        while (true) {
+            final boolean wasLinkUp = linkUp;
+            linkUp = isLinkUp(interfaces);
+            if (linkUp != wasLinkUp) {
+                LOG.debug("Link {}.", linkUp ? "up, probing " + uri : "down");
+            }
+
+            if (linkUp) {
+                probes++;
+                if (isReady(uri)) {
+                    LOG.debug(
+                        "{} ready after {} ms and {} probes.",
+                        uri,
+                        NANOSECONDS.toMillis(System.nanoTime() - start),
+                        probes
+                    );
+                    return true;
+                }
+            }
+
+            if (System.nanoTime() > deadline) {
+                LOG.debug("{} not ready, link {}, {} probes.", uri, linkUp ? "up" : "down", probes);
+                return false;
+            }
+            MILLISECONDS.sleep(linkUp ? PROBE_INTERVAL_MS : LINK_POLL_INTERVAL_MS);
+        }
+    }
+
+    private Set<String> getInterfaces(final URI uri) {
+        try {
+            // the config mode is addressed by its IP, so there is no name lookup
+            return _linkMonitor.getInterfaces(InetAddress.getByName(uri.getHost()));
+        } catch (final UnknownHostException e) {
+            LOG.debug("Could not resolve {}, watching all interfaces.", uri.getHost());
+            return _linkMonitor.getInterfaces();
+        }
+    }
+
+    private boolean isLinkUp(final Set<String> interfaces) {
+        for (final String interfaceName: interfaces) {
+            if (_linkMonitor.hasCarrier(interfaceName) && _linkMonitor.hasAddress(interfaceName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isReady(final URI uri) {
+        final HttpGet request = new HttpGet(uri);
+        request.setConfig(PROBE_CONFIG);
+        try {
+            final HttpResponse response = _httpClient.execute(request);
+            EntityUtils.consume(response.getEntity());
+
+            // LuCI redirects to its start page
+            final int statusCode = response.getStatusLine().getStatusCode();
+            LOG.trace("Probed {}: {}", uri, statusCode);
+            return statusCode >= 200 && statusCode < 400;
+        } catch (final IOException e) {
+            LOG.trace("Probed {}: {}", uri, e.getClass().getSimpleName());
+            request.abort();
+            return false;
+        }
+    }
+}
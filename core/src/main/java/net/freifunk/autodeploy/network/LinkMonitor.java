@@ -0,0 +1,59 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.network;
+
+import java.net.InetAddress;
+import java.util.Set;
+
+/**
+ * Monitors the link state of the station's network interfaces.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public interface LinkMonitor {
+
+    /**
+     * @return the names of the monitored network interfaces.
+     */
+    Set<String> getInterfaces();
+
+    /**
+     * @return the monitored interfaces the given address is reached through, i.e. having an IPv4 subnet containing it,
+     *         so an uplink on another interface does not count as the device's link. Interfaces the operating system
+     *         does not know count as reaching any address. If no interface matches (e.g. because it lost its address
+     *         while the link is down), the interfaces found last time are returned, or all monitored interfaces if
+     *         there were none yet.
+     */
+    Set<String> getInterfaces(InetAddress address);
+
+    /**
+     * Whether the given interface has a carrier, i.e. a cable is plugged in and the device on the other end is up.
+     * Interfaces that are unknown or administratively down are reported as having no carrier.
+     */
+    boolean hasCarrier(String interfaceName);
+
+    /**
+     * Whether the given interface has an IPv4 address assigned. Interfaces the operating system does not know (e.g.
+     * when reading a fake sysfs tree) are reported as having an address, so the carrier alone decides.
+     */
+    boolean hasAddress(String interfaceName);
+}
@@ -19,31 +19,23 @@
  * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
  * See http://logback.qos.ch/license.html for details.
  */
-package net.freifunk.autodeploy.firmware;
+package net.freifunk.autodeploy.network;
 
 import java.net.URI;
-import java.util.Set;
-
-import net.freifunk.autodeploy.selenium.Actor;
-
-import com.google.common.collect.ImmutableSet;
-import com.google.inject.Inject;
+import java.util.concurrent.TimeUnit;
 
 /**
- * Configures the Freifunk Lüneburg firmware.
+ * Detects a web interface on the device becoming ready, e.g. the config mode after flashing.
  *
  * @author Andreas Baldeau <andreas@baldeau.net>
  */
-public class FreifunkLueneburgConfigurator extends AbstractFreifunkNordConfigurator {
-
-    public static final Set<Firmware> SUPPORTED_FIRMWARES = ImmutableSet.of(
-        new Firmware("fflg", "Freifunk Lüneburg", URI.create("http://freifunk-lueneburg.de/"))
-    );
+public interface ReadinessDetector {
 
-    @Inject
-    public FreifunkLueneburgConfigurator(
-        final Actor actor
-    ) {
-        super(actor);
-    }
+    /**
+     * Waits for the given URI answering an HTTP request successfully. While none of the station's interfaces has a
+     * link, no requests are sent at all.
+     *
+     * @return <code>false</code> iff the URI did not become ready within the given time.
+     */
+    boolean awaitReady(URI uri, long timeout, TimeUnit unit) throws InterruptedException;
 }
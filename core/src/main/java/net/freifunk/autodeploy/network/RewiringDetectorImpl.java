@@ -0,0 +1,142 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.network;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.inject.Inject;
+
+/**
+ * {@link RewiringDetector} polling the carrier of the station's interfaces through the {@link LinkMonitor}.
+ * <p>
+ * The reboot after flashing bounces the link as well, so a bounce alone is not taken as rewiring. Only the address
+ * becoming reachable afterwards, i.e. through the new port, completes the detection.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public class RewiringDetectorImpl implements RewiringDetector {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RewiringDetectorImpl.class);
+
+    private static final long POLL_INTERVAL_MS = 100;
+    private static final int CONNECT_TIMEOUT_MS = 1000;
+
+    private final LinkMonitor _linkMonitor;
+
+    @Inject
+    public RewiringDetectorImpl(final LinkMonitor linkMonitor) {
+        _linkMonitor = linkMonitor;
+    }
+
+    @Override
+    public boolean awaitRewiring(
+        final InetSocketAddress address,
+        final long timeout,
+        final TimeUnit unit
+    ) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+        // an uplink on another interface must not hide the device's cable
+        final Set<String> interfaces = address.getAddress() == null
+            ? _linkMonitor.getInterfaces()
+            : _linkMonitor.getInterfaces(address.getAddress());
+        final Set<String> initiallyConnected = getInterfacesWithCarrier(interfaces);
+        LOG.debug("Waiting for rewiring: interfaces = {}, connected = {}", interfaces, initiallyConnected);
+
+        // a cable unplugged before we started counts as well
+        if (!initiallyConnected.isEmpty()) {
+            while (getInterfacesWithCarrier(interfaces).containsAll(initiallyConnected)) {
+                if (!sleepUntil(deadline)) {
+                    LOG.debug("No cable unplugged.");
+                    return false;
+                }
+            }
+            LOG.debug("Cable unplugged.");
+        }
+
+        while (true) {
+            while (getInterfacesWithCarrier(interfaces).isEmpty()) {
+                if (!sleepUntil(deadline)) {
+                    LOG.debug("No cable plugged in.");
+                    return false;
+                }
+            }
+            LOG.debug("Cable plugged in. Probing {}.", address);
+
+            while (!isReachable(address)) {
+                if (getInterfacesWithCarrier(interfaces).isEmpty()) {
+                    LOG.debug("Cable unplugged again.");
+                    break;
+                }
+                if (!sleepUntil(deadline)) {
+                    LOG.debug("{} not reachable.", address);
+                    return false;
+                }
+            }
+
+            if (!getInterfacesWithCarrier(interfaces).isEmpty()) {
+                LOG.debug("Rewiring detected.");
+                return true;
+            }
+        }
+    }
+
+    private Set<String> getInterfacesWithCarrier(final Set<String> interfaces) {
+        final ImmutableSet.Builder<String> withCarrier = ImmutableSet.builder();
+        for (final String interfaceName: interfaces) {
+            if (_linkMonitor.hasCarrier(interfaceName)) {
+                withCarrier.add(interfaceName);
+            }
+        }
+        return withCarrier.build();
+    }
+
+    /**
+     * @return <code>false</code> iff the deadline has passed.
+     */
+    private boolean sleepUntil(final long deadline) throws InterruptedException {
+        if (System.nanoTime() > deadline) {
+            return false;
+        }
+        MILLISECONDS.sleep(POLL_INTERVAL_MS);
+        return true;
+    }
+
+    private boolean isReachable(final InetSocketAddress address) {
+        try (final Socket socket = new Socket()) {
+            socket.connect(address, CONNECT_TIMEOUT_MS);
+            return true;
+        } catch (final IOException e) {
+            return false;
+        }
+    }
+}
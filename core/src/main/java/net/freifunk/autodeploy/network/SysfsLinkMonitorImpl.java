@@ -0,0 +1,202 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.network;
+
+import static com.google.common.base.Charsets.US_ASCII;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InterfaceAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+import com.google.inject.Inject;
+
+/**
+ * Implementation of {@link LinkMonitor} reading the link state from sysfs (<code>/sys/class/net/*&#47;carrier</code>).
+ * Addresses are looked up through {@link NetworkInterface}.
+ *
+ * The interfaces to monitor can be set via the system property <code>station.interfaces</code> as a comma separated
+ * list. By default all interfaces except for the loopback interface are monitored. Which of them lead to a device is
+ * told by their subnets.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public class SysfsLinkMonitorImpl implements LinkMonitor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SysfsLinkMonitorImpl.class);
+
+    private static final File SYSFS_NET = new File("/sys/class/net");
+    private static final String INTERFACES_PROPERTY = "station.interfaces";
+    private static final String LOOPBACK_INTERFACE = "lo";
+
+    private final File _sysfsNet;
+    private final Set<String> _interfaces;
+    // the interfaces found last time for each address, for when they lose their addresses while the link is down
+    private final ConcurrentMap<InetAddress, Set<String>> _interfacesByAddress = Maps.newConcurrentMap();
+
+    @Inject
+    public SysfsLinkMonitorImpl() {
+        this(SYSFS_NET, parseInterfaces(System.getProperty(INTERFACES_PROPERTY)));
+    }
+
+    /**
+     * Monitors the given interfaces below the given sysfs directory (usually <code>/sys/class/net</code>). If
+     * <code>interfaces</code> is <code>null</code>, all interfaces found except for the loopback interface are
+     * monitored.
+     */
+    public SysfsLinkMonitorImpl(final File sysfsNet, final Set<String> interfaces) {
+        _sysfsNet = sysfsNet;
+        _interfaces = interfaces;
+    }
+
+    private static Set<String> parseInterfaces(final String interfaces) {
+        if (Strings.isNullOrEmpty(interfaces)) {
+            return null;
+        }
+        return ImmutableSet.copyOf(Splitter.on(',').trimResults().omitEmptyStrings().split(interfaces));
+    }
+
+    @Override
+    public Set<String> getInterfaces() {
+        if (_interfaces != null) {
+            return _interfaces;
+        }
+
+        final String[] names = _sysfsNet.list();
+        if (names == null) {
+            return ImmutableSet.of();
+        }
+
+        final ImmutableSortedSet.Builder<String> interfaces = ImmutableSortedSet.naturalOrder();
+        for (final String name: names) {
+            if (!LOOPBACK_INTERFACE.equals(name)) {
+                interfaces.add(name);
+            }
+        }
+        return interfaces.build();
+    }
+
+    @Override
+    public Set<String> getInterfaces(final InetAddress address) {
+        final Set<String> interfaces = getInterfaces();
+
+        final ImmutableSet.Builder<String> matching = ImmutableSet.builder();
+        for (final String interfaceName: interfaces) {
+            if (isOnSubnet(interfaceName, address)) {
+                matching.add(interfaceName);
+            }
+        }
+
+        final Set<String> found = matching.build();
+        if (!found.isEmpty()) {
+            _interfacesByAddress.put(address, found);
+            LOG.trace("getInterfaces: {} => {}", address, found);
+            return found;
+        }
+
+        final Set<String> foundBefore = _interfacesByAddress.get(address);
+        LOG.trace("getInterfaces: {} => none matching, found before: {}", address, foundBefore);
+        return foundBefore != null ? foundBefore : interfaces;
+    }
+
+    private static boolean isOnSubnet(final String interfaceName, final InetAddress address) {
+        try {
+            final NetworkInterface networkInterface = NetworkInterface.getByName(interfaceName);
+            if (networkInterface == null) {
+                return true;
+            }
+            for (final InterfaceAddress interfaceAddress: networkInterface.getInterfaceAddresses()) {
+                final InetAddress ownAddress = interfaceAddress.getAddress();
+                if (ownAddress instanceof Inet4Address && address instanceof Inet4Address
+                    && hasSamePrefix(ownAddress, address, interfaceAddress.getNetworkPrefixLength())) {
+                    return true;
+                }
+            }
+            return false;
+        } catch (final SocketException e) {
+            LOG.trace("isOnSubnet: {} => false ({})", interfaceName, e.getClass().getSimpleName());
+            return false;
+        }
+    }
+
+    private static boolean hasSamePrefix(final InetAddress left, final InetAddress right, final int prefixLength) {
+        final int mask = prefixLength <= 0 ? 0 : -1 << (32 - Math.min(prefixLength, 32));
+        return (toInt(left) & mask) == (toInt(right) & mask);
+    }
+
+    private static int toInt(final InetAddress address) {
+        return ByteBuffer.wrap(address.getAddress()).getInt();
+    }
+
+    @Override
+    public boolean hasCarrier(final String interfaceName) {
+        final File carrierFile = new File(new File(_sysfsNet, interfaceName), "carrier");
+        try {
+            // reading fails with EINVAL for interfaces being down
+            final boolean carrier = "1".equals(Strings.nullToEmpty(Files.readFirstLine(carrierFile, US_ASCII)).trim());
+            LOG.trace("hasCarrier: {} => {}", interfaceName, carrier);
+            return carrier;
+        } catch (final IOException e) {
+            LOG.trace("hasCarrier: {} => false ({})", interfaceName, e.getClass().getSimpleName());
+            return false;
+        }
+    }
+
+    @Override
+    public boolean hasAddress(final String interfaceName) {
+        try {
+            // not part of sysfs, the kernel only exposes addresses via netlink
+            final NetworkInterface networkInterface = NetworkInterface.getByName(interfaceName);
+            if (networkInterface == null) {
+                LOG.trace("hasAddress: {} => true (unknown interface)", interfaceName);
+                return true;
+            }
+            for (final InetAddress address: Collections.list(networkInterface.getInetAddresses())) {
+                if (address instanceof Inet4Address) {
+                    LOG.trace("hasAddress: {} => true ({})", interfaceName, address);
+                    return true;
+                }
+            }
+            LOG.trace("hasAddress: {} => false", interfaceName);
+            return false;
+        } catch (final SocketException e) {
+            LOG.trace("hasAddress: {} => false ({})", interfaceName, e.getClass().getSimpleName());
+            return false;
+        }
+    }
+}
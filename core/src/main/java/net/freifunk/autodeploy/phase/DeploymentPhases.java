@@ -0,0 +1,61 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.phase;
+
+import java.util.Map;
+import java.util.Set;
+
+import net.freifunk.autodeploy.Phase;
+import net.freifunk.autodeploy.journal.DeploymentRecord;
+
+/**
+ * The handlers for the {@link Phase}s of deploying a device, shared by the user interfaces.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public interface DeploymentPhases {
+
+    /**
+     * Starts sending the node registrations queued by {@link Phase#REGISTER}, including the ones left over from a
+     * previous run. Must be called before running that phase.
+     */
+    void start();
+
+    /**
+     * @return the handlers of all phases but {@link Phase#PRINT}, as printing depends on the station. The
+     *         {@link Phase#DETECT} handler detects the device in the mode given by the context unless it already
+     *         knows the device.
+     */
+    Map<Phase, PhaseHandler> getHandlers(Operator operator);
+
+    /**
+     * Lets the given run configure a device found in config mode without deploying the firmware again: the device is
+     * inspected, journaled as deployed if the context asks for it, and the phases up to the configuration are skipped.
+     * To be called while detecting, once device, firmware, password and nodename of the context are known.
+     */
+    void skipDeployment(PhaseRun run);
+
+    /**
+     * @return the phases still to run for completing the given journaled deployment.
+     */
+    Set<Phase> getRemainingPhases(DeploymentRecord record);
+}
@@ -0,0 +1,398 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.phase;
+
+import static java.util.concurrent.TimeUnit.MINUTES;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+
+import net.freifunk.autodeploy.Phase;
+import net.freifunk.autodeploy.device.DeploymentMode;
+import net.freifunk.autodeploy.device.DetailedDevice;
+import net.freifunk.autodeploy.device.Device;
+import net.freifunk.autodeploy.device.DeviceDeployer;
+import net.freifunk.autodeploy.device.DeviceService;
+import net.freifunk.autodeploy.device.InspectingDeviceDeployer;
+import net.freifunk.autodeploy.device.InvalidFirmwareImageException;
+import net.freifunk.autodeploy.firmware.FirmwareConfiguration;
+import net.freifunk.autodeploy.firmware.FirmwareConfigurator;
+import net.freifunk.autodeploy.firmware.FirmwareService;
+import net.freifunk.autodeploy.firmware.image.FirmwareImageCache;
+import net.freifunk.autodeploy.firmware.image.FirmwareRelease;
+import net.freifunk.autodeploy.journal.DeploymentJournal;
+import net.freifunk.autodeploy.journal.DeploymentRecord;
+import net.freifunk.autodeploy.lifecycle.BootVerifier;
+import net.freifunk.autodeploy.network.RewiringDetector;
+import net.freifunk.autodeploy.registration.NodeRegistrationQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.inject.Inject;
+
+/**
+ * Runs the phases with the services of the core, journaling the deployment if its context asks for it.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public class DeploymentPhasesImpl implements DeploymentPhases {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DeploymentPhasesImpl.class);
+
+    private static final int REWIRING_TIMEOUT_MINUTES = 5;
+    private static final int REGISTRATION_TIMEOUT_MINUTES = 15;
+
+    private final DeviceService _deviceService;
+    private final FirmwareService _firmwareService;
+    private final FirmwareImageCache _firmwareImageCache;
+    private final DeploymentJournal _deploymentJournal;
+    private final RewiringDetector _rewiringDetector;
+    private final NodeRegistrationQueue _nodeRegistrationQueue;
+    private final BootVerifier _bootVerifier;
+
+    // guarded by _registrations: registrations waited for by a phase, by MAC address
+    private final Map<String, SettableFuture<DeploymentRecord>> _registrations = Maps.newHashMap();
+
+    // registrations done while no phase waited for them, e.g. left over from a previous run, by MAC address
+    private final Cache<String, DeploymentRecord> _unclaimedRegistrations = CacheBuilder.newBuilder()
+        .expireAfterWrite(REGISTRATION_TIMEOUT_MINUTES, MINUTES)
+    .build();
+
+    @Inject
+    public DeploymentPhasesImpl(
+        final DeviceService deviceService,
+        final FirmwareService firmwareService,
+        final FirmwareImageCache firmwareImageCache,
+        final DeploymentJournal deploymentJournal,
+        final RewiringDetector rewiringDetector,
+        final NodeRegistrationQueue nodeRegistrationQueue,
+        final BootVerifier bootVerifier
+    ) {
+        _deviceService = deviceService;
+        _firmwareService = firmwareService;
+        _firmwareImageCache = firmwareImageCache;
+        _deploymentJournal = deploymentJournal;
+        _rewiringDetector = rewiringDetector;
+        _nodeRegistrationQueue = nodeRegistrationQueue;
+        _bootVerifier = bootVerifier;
+    }
+
+    @Override
+    public void start() {
+        _nodeRegistrationQueue.start(new NodeRegistrationQueue.Listener() {
+
+            @Override
+            public void registered(final DeploymentRecord record) {
+                _deploymentJournal.record(record);
+                registered(record);
+            }
+
+            @Override
+            public void failed(final DeploymentRecord record, final Exception cause) {
+                // the deployment stays in flight, so the operator is asked about it on the next start
+                synchronized (_registrations) {
+                    final SettableFuture<DeploymentRecord> registration = _registrations.remove(record.getMac());
+                    if (registration != null) {
+                        registration.setException(cause);
+                    }
+                }
+            }
+        });
+    }
+
+    @Override
+    public Map<Phase, PhaseHandler> getHandlers(final Operator operator) {
+        return ImmutableMap.<Phase, PhaseHandler>builder()
+            .put(Phase.DETECT, new PhaseHandler() {
+
+                @Override
+                public void run(final PhaseRun run) {
+                    detect(run.getContext());
+                }
+            })
+            .put(Phase.VALIDATE, new PhaseHandler() {
+
+                @Override
+                public void run(final PhaseRun run) throws Exception {
+                    validate(run.getContext());
+                }
+            })
+            .put(Phase.DEPLOY, new PhaseHandler() {
+
+                @Override
+                public void run(final PhaseRun run) throws Exception {
+                    deploy(run);
+                }
+            })
+            .put(Phase.AWAIT_REBOOT, new PhaseHandler() {
+
+                @Override
+                public void run(final PhaseRun run) throws Exception {
+                    awaitReboot(run.getContext(), operator);
+                }
+            })
+            .put(Phase.CONFIGURE, new PhaseHandler() {
+
+                @Override
+                public void run(final PhaseRun run) {
+                    configure(run.getContext());
+                }
+            })
+            .put(Phase.REGISTER, new PhaseHandler() {
+
+                @Override
+                public void run(final PhaseRun run) throws Exception {
+                    register(run.getContext());
+                }
+            })
+            .put(Phase.VERIFY, new PhaseHandler() {
+
+                @Override
+                public void run(final PhaseRun run) {
+                    verify(run.getContext());
+                }
+            })
+        .build();
+    }
+
+    @Override
+    public void skipDeployment(final PhaseRun run) {
+        final PhaseContext context = run.getContext();
+        final DeviceDeployer deployer = _deviceService.getDeployer(context.getDevice(), DeploymentMode.SYSUPGRADE);
+        Preconditions.checkState(
+            deployer instanceof InspectingDeviceDeployer,
+            "Cannot inspect device without deploying: " + context.getDevice()
+        );
+
+        final DetailedDevice detailedDevice = ((InspectingDeviceDeployer) deployer).inspect();
+        context.setDetailedDevice(detailedDevice);
+        if (context.isJournaled()) {
+            record(context, DeploymentRecord.deployed(detailedDevice, context.getFirmware(), context.getPassword(), context.getNodename()));
+        }
+
+        // the device just answered in config mode, so there is no reboot to wait for
+        LOG.info("Device already in config mode. Skipping deployment.");
+        run.skip(Phase.VALIDATE, Phase.DEPLOY, Phase.AWAIT_REBOOT);
+    }
+
+    @Override
+    public Set<Phase> getRemainingPhases(final DeploymentRecord record) {
+        switch (record.getState()) {
+            case DEPLOYED:
+                return EnumSet.range(Phase.AWAIT_REBOOT, Phase.PRINT);
+            case CONFIGURED:
+                // the node rebooted long ago, so there is nothing to verify anymore
+                return EnumSet.of(Phase.REGISTER, Phase.PRINT);
+            case REGISTERED:
+                return EnumSet.of(Phase.PRINT);
+            default:
+                return EnumSet.noneOf(Phase.class);
+        }
+    }
+
+    private void detect(final PhaseContext context) {
+        if (context.getDevice() != null) {
+            LOG.debug("Device already known: {}", context.getDevice());
+            return;
+        }
+
+        final Device device = _deviceService.autodetectDevice(context.getMode());
+        Preconditions.checkState(device != null, "Could not detect any device.");
+        context.setDevice(device);
+    }
+
+    private void validate(final PhaseContext context) throws FileNotFoundException, InvalidFirmwareImageException {
+        if (context.getFirmwareImage() == null) {
+            final File directory = context.getFirmwareImageDirectory();
+            final FirmwareRelease release = _firmwareService.findLatestRelease(
+                directory,
+                context.getDevice(),
+                context.getFirmware(),
+                context.getMode()
+            );
+            if (release == null) {
+                throw new FileNotFoundException(
+                    "No image of " + context.getFirmware().getName() + " for " + context.getDevice().asString() + " found in: " + directory
+                );
+            }
+
+            if (!isIntact(release)) {
+                throw new InvalidFirmwareImageException("Firmware image does not match its checksum: " + release.getFile());
+            }
+
+            LOG.info("Using release " + Objects.firstNonNull(release.getVersion(), "(unversioned)") + ": " + release.getFile());
+            context.setFirmwareImage(release.getFile());
+        } else if (!context.getFirmwareImage().isFile()) {
+            throw new FileNotFoundException("The given firmware image file does not exist: " + context.getFirmwareImage());
+        }
+
+        // read the image into memory while the deployer connects, the next device of the model gets it from there
+        _firmwareImageCache.preload(context.getFirmwareImage());
+    }
+
+    private boolean isIntact(final FirmwareRelease release) {
+        try {
+            return _firmwareService.isIntact(release);
+        } catch (final IOException e) {
+            LOG.warn("Could not check firmware image: " + release.getFile(), e);
+            return false;
+        }
+    }
+
+    private void deploy(final PhaseRun run) throws FileNotFoundException, InvalidFirmwareImageException {
+        final PhaseContext context = run.getContext();
+        final DetailedDevice detailedDevice = _deviceService
+            .getDeployer(context.getDevice(), context.getMode())
+            .deploy(context.getFirmwareImage());
+        context.setDetailedDevice(detailedDevice);
+
+        if (detailedDevice.isConfigurationKept()) {
+            LOG.info("Device kept its configuration. Skipping configuration.");
+            run.skip(Phase.AWAIT_REBOOT, Phase.CONFIGURE, Phase.REGISTER, Phase.VERIFY, Phase.PRINT);
+            return;
+        }
+
+        if (context.isJournaled()) {
+            record(context, DeploymentRecord.deployed(detailedDevice, context.getFirmware(), context.getPassword(), context.getNodename()));
+        }
+    }
+
+    private void awaitReboot(final PhaseContext context, final Operator operator) throws InterruptedException {
+        final Device device = context.getDevice();
+        if (device == null) {
+            LOG.debug("Nothing deployed, the device is expected to be in config mode.");
+            return;
+        }
+
+        final FirmwareConfigurator configurator = getConfigurator(context);
+        if (!configurator.requiresRewiring(device)) {
+            return;
+        }
+
+        LOG.debug("Rewiring is required for device. Waiting for the cable being moved.");
+        operator.requestRewiring();
+        if (!_rewiringDetector.awaitRewiring(configurator.getConfigModeAddress(), REWIRING_TIMEOUT_MINUTES, MINUTES)
+            && !operator.continueWithoutRewiring()) {
+            throw new IllegalStateException("No rewiring detected.");
+        }
+    }
+
+    private void configure(final PhaseContext context) {
+        final FirmwareConfiguration configuration = getConfigurator(context).configure(context.getPassword(), context.getNodename());
+        context.setConfiguration(configuration);
+
+        if (context.getRecord() != null) {
+            record(context, context.getRecord().configured(configuration));
+        }
+    }
+
+    private void register(final PhaseContext context) throws InterruptedException, ExecutionException {
+        final DeploymentRecord record = context.getRecord();
+        if (record == null || !getConfigurator(context).supportsNodeRegistration()) {
+            LOG.debug("Not registering node: {}", context);
+            return;
+        }
+
+        final String mac = record.getMac();
+        final SettableFuture<DeploymentRecord> registration;
+        synchronized (_registrations) {
+            // left over registrations are still queued or even done already
+            final DeploymentRecord registered = _unclaimedRegistrations.getIfPresent(mac);
+            if (registered != null) {
+                _unclaimedRegistrations.invalidate(mac);
+                context.setRecord(registered);
+                return;
+            }
+
+            registration = SettableFuture.create();
+            _registrations.put(mac, registration);
+        }
+
+        try {
+            if (!_nodeRegistrationQueue.isPending(mac)) {
+                LOG.debug("Queueing node registration.");
+                _nodeRegistrationQueue.enqueue(record);
+            }
+            context.setRecord(registration.get(REGISTRATION_TIMEOUT_MINUTES, MINUTES));
+        } catch (final TimeoutException e) {
+            throw new IllegalStateException(
+                "Node not registered within " + REGISTRATION_TIMEOUT_MINUTES + " minutes, it stays queued: " + mac,
+                e
+            );
+        } finally {
+            synchronized (_registrations) {
+                // registrations done after giving up are kept as unclaimed until they expire
+                if (_registrations.get(mac) == registration) {
+                    _registrations.remove(mac);
+                }
+            }
+        }
+    }
+
+    /**
+     * Hands the registered node to the phase waiting for it, or keeps it for a while if no phase does (yet).
+     */
+    private void registered(final DeploymentRecord record) {
+        synchronized (_registrations) {
+            final SettableFuture<DeploymentRecord> registration = _registrations.remove(record.getMac());
+            if (registration != null) {
+                registration.set(record);
+            } else {
+                _unclaimedRegistrations.put(record.getMac(), record);
+            }
+        }
+    }
+
+    private void verify(final PhaseContext context) {
+        if (context.getRecord() == null) {
+            LOG.debug("Not verifying boot: {}", context);
+            return;
+        }
+
+        // the node reboots meanwhile, the verifier watches it in the background
+        final FirmwareConfigurator configurator = getConfigurator(context);
+        _bootVerifier.verify(context.getRecord(), configurator.getConfigModeAddress(), configurator.getRegularModeUri());
+    }
+
+    private FirmwareConfigurator getConfigurator(final PhaseContext context) {
+        return _firmwareService.getConfigurator(context.getFirmware());
+    }
+
+    private void record(final PhaseContext context, final DeploymentRecord record) {
+        _deploymentJournal.record(record);
+        context.setRecord(record);
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.phase;
+
+/**
+ * The person at the station, asked by the phases for what they cannot do on their own.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public interface Operator {
+
+    /**
+     * Asks for moving the cable to the WAN port of the device. Returns immediately, the cable being moved is detected
+     * by the phase.
+     */
+    void requestRewiring();
+
+    /**
+     * Called if the cable was not moved in time.
+     *
+     * @return whether to go on anyways, e.g. after the operator confirmed having moved the cable.
+     */
+    boolean continueWithoutRewiring();
+}
@@ -0,0 +1,202 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.phase;
+
+import java.io.File;
+
+import net.freifunk.autodeploy.device.DeploymentMode;
+import net.freifunk.autodeploy.device.DetailedDevice;
+import net.freifunk.autodeploy.device.Device;
+import net.freifunk.autodeploy.firmware.Firmware;
+import net.freifunk.autodeploy.firmware.FirmwareConfiguration;
+import net.freifunk.autodeploy.journal.DeploymentRecord;
+
+import com.google.common.base.Objects;
+
+/**
+ * What is known about a single deployment, filled in by its phases. The phases of a deployment run on different
+ * threads, one after the other or concurrently if they do not depend on each other.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public class PhaseContext {
+
+    private final boolean _journaled;
+
+    private volatile DeploymentMode _mode;
+    private volatile Device _device;
+    private volatile Firmware _firmware;
+    private volatile File _firmwareImageDirectory;
+    private volatile File _firmwareImage;
+    private volatile DetailedDevice _detailedDevice;
+    private volatile String _password;
+    private volatile String _nodename;
+    private volatile FirmwareConfiguration _configuration;
+    private volatile DeploymentRecord _record;
+
+    private PhaseContext(final boolean journaled) {
+        _journaled = journaled;
+    }
+
+    /**
+     * A deployment starting from scratch.
+     *
+     * @param journaled whether the deployment shall be recorded in the
+     *            {@link net.freifunk.autodeploy.journal.DeploymentJournal}, so it can be resumed after a restart.
+     */
+    public static PhaseContext forNewDeployment(final boolean journaled) {
+        return new PhaseContext(journaled);
+    }
+
+    /**
+     * A journaled deployment being resumed.
+     */
+    public static PhaseContext forRecord(final DeploymentRecord record, final Firmware firmware) {
+        final PhaseContext context = new PhaseContext(true);
+        context._device = record.getDetailedDevice().getDevice();
+        context._detailedDevice = record.getDetailedDevice();
+        context._firmware = firmware;
+        context._password = record.getPassword();
+        context._nodename = record.getNodename();
+        context._configuration = record.getConfiguration();
+        context._record = record;
+        return context;
+    }
+
+    public boolean isJournaled() {
+        return _journaled;
+    }
+
+    /**
+     * The mode the device is in.
+     */
+    public DeploymentMode getMode() {
+        return _mode;
+    }
+
+    public void setMode(final DeploymentMode mode) {
+        _mode = mode;
+    }
+
+    /**
+     * The device, <code>null</code> until detected.
+     */
+    public Device getDevice() {
+        return _device;
+    }
+
+    public void setDevice(final Device device) {
+        _device = device;
+    }
+
+    /**
+     * The firmware to deploy and configure.
+     */
+    public Firmware getFirmware() {
+        return _firmware;
+    }
+
+    public void setFirmware(final Firmware firmware) {
+        _firmware = firmware;
+    }
+
+    /**
+     * The directory to pick the newest release of {@link #getFirmware()} from.
+     */
+    public File getFirmwareImageDirectory() {
+        return _firmwareImageDirectory;
+    }
+
+    public void setFirmwareImageDirectory(final File firmwareImageDirectory) {
+        _firmwareImageDirectory = firmwareImageDirectory;
+    }
+
+    /**
+     * The firmware image to deploy, <code>null</code> until picked from {@link #getFirmwareImageDirectory()}.
+     */
+    public File getFirmwareImage() {
+        return _firmwareImage;
+    }
+
+    public void setFirmwareImage(final File firmwareImage) {
+        _firmwareImage = firmwareImage;
+    }
+
+    /**
+     * The device as reported by the deployer, <code>null</code> until deployed.
+     */
+    public DetailedDevice getDetailedDevice() {
+        return _detailedDevice;
+    }
+
+    public void setDetailedDevice(final DetailedDevice detailedDevice) {
+        _detailedDevice = detailedDevice;
+    }
+
+    public String getPassword() {
+        return _password;
+    }
+
+    public void setPassword(final String password) {
+        _password = password;
+    }
+
+    public String getNodename() {
+        return _nodename;
+    }
+
+    public void setNodename(final String nodename) {
+        _nodename = nodename;
+    }
+
+    /**
+     * The configuration, <code>null</code> until configured.
+     */
+    public FirmwareConfiguration getConfiguration() {
+        return _configuration;
+    }
+
+    public void setConfiguration(final FirmwareConfiguration configuration) {
+        _configuration = configuration;
+    }
+
+    /**
+     * The latest journaled state, <code>null</code> if the deployment is not journaled or not deployed yet.
+     */
+    public DeploymentRecord getRecord() {
+        return _record;
+    }
+
+    public void setRecord(final DeploymentRecord record) {
+        _record = record;
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+            .add("device", _device)
+            .add("mode", _mode)
+            .add("firmware", _firmware)
+            .add("nodename", _nodename)
+        .toString();
+    }
+}
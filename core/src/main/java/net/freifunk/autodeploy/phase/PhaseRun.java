@@ -0,0 +1,244 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.phase;
+
+import static net.freifunk.autodeploy.phase.PhaseRun.PhaseState.CANCELLED;
+import static net.freifunk.autodeploy.phase.PhaseRun.PhaseState.DONE;
+import static net.freifunk.autodeploy.phase.PhaseRun.PhaseState.FAILED;
+import static net.freifunk.autodeploy.phase.PhaseRun.PhaseState.PENDING;
+import static net.freifunk.autodeploy.phase.PhaseRun.PhaseState.RUNNING;
+import static net.freifunk.autodeploy.phase.PhaseRun.PhaseState.SKIPPED;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.freifunk.autodeploy.Phase;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+
+/**
+ * A deployment being run by the {@link PhaseScheduler}.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public class PhaseRun {
+
+    /**
+     * State of a phase within a run.
+     *
+     * @author Andreas Baldeau <andreas@baldeau.net>
+     */
+    public static enum PhaseState {
+
+        /**
+         * Waiting for the phases it depends on or for its resources.
+         */
+        PENDING,
+
+        RUNNING,
+
+        DONE,
+
+        /**
+         * Not to be run, as there is no handler or a previous phase found it does not apply.
+         */
+        SKIPPED,
+
+        FAILED,
+
+        /**
+         * Not run anymore, as a phase it (indirectly) depends on failed.
+         */
+        CANCELLED,
+        ;
+    }
+
+    private final PhaseContext _context;
+
+    // guarded by this
+    private final Map<Phase, PhaseState> _states;
+    private Phase _failedPhase;
+    private Throwable _failure;
+
+    /**
+     * @param phases the phases to run, all others are skipped.
+     */
+    PhaseRun(final PhaseContext context, final Set<Phase> phases) {
+        _context = context;
+        _states = Maps.newEnumMap(Phase.class);
+        for (final Phase phase: Phase.values()) {
+            _states.put(phase, phases.contains(phase) ? PENDING : SKIPPED);
+        }
+    }
+
+    public PhaseContext getContext() {
+        return _context;
+    }
+
+    public synchronized PhaseState getState(final Phase phase) {
+        return _states.get(phase);
+    }
+
+    /**
+     * Skips the given phases if they did not start yet, e.g. as the device kept its configuration.
+     */
+    public synchronized void skip(final Phase... phases) {
+        for (final Phase phase: phases) {
+            if (_states.get(phase) == PENDING) {
+                _states.put(phase, SKIPPED);
+            }
+        }
+        notifyAll();
+    }
+
+    /**
+     * @return whether all phases are done, skipped, failed or cancelled.
+     */
+    public synchronized boolean isFinished() {
+        return !_states.containsValue(PENDING) && !_states.containsValue(RUNNING);
+    }
+
+    /**
+     * @return the first phase that failed or <code>null</code> if none did (yet).
+     */
+    public synchronized Phase getFailedPhase() {
+        return _failedPhase;
+    }
+
+    /**
+     * @return why {@link #getFailedPhase()} failed or <code>null</code> if no phase did (yet).
+     */
+    public synchronized Throwable getFailure() {
+        return _failure;
+    }
+
+    /**
+     * Waits until no phase still to run needs the given resource, e.g. for connecting the next device once the run
+     * is done with the {@link Resource#NIC}.
+     */
+    public synchronized void awaitDoneWith(final Resource resource) throws InterruptedException {
+        while (needs(resource)) {
+            wait();
+        }
+    }
+
+    /**
+     * Waits until the run is finished.
+     */
+    public synchronized void await() throws InterruptedException {
+        while (!isFinished()) {
+            wait();
+        }
+    }
+
+    /**
+     * @return the pending phases whose dependencies are all done or skipped.
+     */
+    synchronized List<Phase> getReadyPhases() {
+        final ImmutableList.Builder<Phase> ready = ImmutableList.builder();
+        for (final Phase phase: Phase.values()) {
+            if (_states.get(phase) == PENDING && areSatisfied(phase.getDependencies())) {
+                ready.add(phase);
+            }
+        }
+        return ready.build();
+    }
+
+    private boolean areSatisfied(final Set<Phase> dependencies) {
+        for (final Phase dependency: dependencies) {
+            final PhaseState state = _states.get(dependency);
+            if (state != DONE && state != SKIPPED) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return whether a phase still pending or running needs the given resource.
+     */
+    synchronized boolean needs(final Resource resource) {
+        for (final Map.Entry<Phase, PhaseState> entry: _states.entrySet()) {
+            final PhaseState state = entry.getValue();
+            if ((state == PENDING || state == RUNNING) && entry.getKey().getResources().contains(resource)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    synchronized void started(final Phase phase) {
+        transition(phase, PENDING, RUNNING);
+    }
+
+    synchronized void done(final Phase phase) {
+        transition(phase, RUNNING, DONE);
+    }
+
+    /**
+     * Records the given phase failed, cancelling the pending phases depending on it directly or indirectly. Phases not
+     * depending on it go on, e.g. the verification of a node whose registration failed.
+     */
+    synchronized void failed(final Phase phase, final Throwable failure) {
+        transition(phase, RUNNING, FAILED);
+        if (_failedPhase == null) {
+            _failedPhase = phase;
+            _failure = failure;
+        }
+
+        // the phases are declared after the ones they depend on, so one pass finds all dependents
+        final Set<Phase> affected = EnumSet.of(phase);
+        for (final Phase dependent: Phase.values()) {
+            if (Collections.disjoint(dependent.getDependencies(), affected)) {
+                continue;
+            }
+            final PhaseState state = _states.get(dependent);
+            if (state == PENDING) {
+                _states.put(dependent, CANCELLED);
+                affected.add(dependent);
+            } else if (state == SKIPPED) {
+                // phases depending on a skipped phase must not run either, e.g. printing without registration
+                affected.add(dependent);
+            }
+        }
+        notifyAll();
+    }
+
+    private void transition(final Phase phase, final PhaseState from, final PhaseState to) {
+        Preconditions.checkState(_states.get(phase) == from, "Phase " + phase + " not " + from + ": " + _states.get(phase));
+        _states.put(phase, to);
+        notifyAll();
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+            .add("context", _context)
+        .toString();
+    }
+}
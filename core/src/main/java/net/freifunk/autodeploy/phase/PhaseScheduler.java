@@ -0,0 +1,59 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.phase;
+
+import java.util.Map;
+
+import net.freifunk.autodeploy.Phase;
+
+/**
+ * Runs the {@link Phase}s of deployments, starting each phase as soon as the phases it depends on are done and its
+ * resources and concurrency limit allow. Phases of different deployments run concurrently, e.g. registering and
+ * printing the label of a node while the next device gets deployed.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public interface PhaseScheduler {
+
+    /**
+     * Gets notified about the progress of a run.
+     */
+    interface Listener {
+
+        /**
+         * Called from the phase's thread before running its handler.
+         */
+        void phaseStarted(PhaseRun run, Phase phase);
+
+        /**
+         * Called from the phase's thread after the phase failed and the remaining phases of the run got cancelled.
+         */
+        void failed(PhaseRun run, Phase phase, Throwable cause);
+    }
+
+    /**
+     * Starts running the deployment described by the given context. Returns immediately.
+     *
+     * @param handlers the handlers of the phases to run, phases without handler are skipped.
+     */
+    PhaseRun submit(PhaseContext context, Map<Phase, PhaseHandler> handlers, Listener listener);
+}
@@ -0,0 +1,182 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.phase;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import net.freifunk.autodeploy.Phase;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.EnumMultiset;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multiset;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Runs each phase on a thread of its own. Runs get their phases started in the order they were submitted, so an older
+ * deployment gets a resource before a newer one.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public class PhaseSchedulerImpl implements PhaseScheduler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PhaseSchedulerImpl.class);
+
+    private static final class Submission {
+        private final PhaseRun _run;
+        private final Map<Phase, PhaseHandler> _handlers;
+        private final Listener _listener;
+
+        private Submission(final PhaseRun run, final Map<Phase, PhaseHandler> handlers, final Listener listener) {
+            _run = run;
+            _handlers = handlers;
+            _listener = listener;
+        }
+    }
+
+    private final ExecutorService _executor = Executors.newCachedThreadPool(
+        new ThreadFactoryBuilder().setNameFormat("phase-%d").setDaemon(true).build()
+    );
+
+    // guarded by this
+    private final List<Submission> _submissions = Lists.newLinkedList();
+    private final Multiset<Phase> _runningPhases = EnumMultiset.create(Phase.class);
+    private final Map<Resource, PhaseRun> _holders = Maps.newEnumMap(Resource.class);
+
+    @Override
+    public PhaseRun submit(final PhaseContext context, final Map<Phase, PhaseHandler> handlers, final Listener listener) {
+        final PhaseRun run = new PhaseRun(context, handlers.keySet());
+        LOG.debug("Submitting {} with phases: {}", run, handlers.keySet());
+        synchronized (this) {
+            _submissions.add(new Submission(run, ImmutableMap.copyOf(handlers), listener));
+            schedule();
+        }
+        return run;
+    }
+
+    /**
+     * Releases the resources no longer needed and starts all phases able to run.
+     */
+    private synchronized void schedule() {
+        release();
+
+        final Iterator<Submission> submissions = _submissions.iterator();
+        while (submissions.hasNext()) {
+            final Submission submission = submissions.next();
+            final PhaseRun run = submission._run;
+            if (run.isFinished()) {
+                LOG.debug("Finished: {}", run);
+                submissions.remove();
+                continue;
+            }
+
+            for (final Phase phase: run.getReadyPhases()) {
+                if (canStart(run, phase)) {
+                    start(submission, phase);
+                }
+            }
+        }
+    }
+
+    private void release() {
+        final Iterator<Map.Entry<Resource, PhaseRun>> holders = _holders.entrySet().iterator();
+        while (holders.hasNext()) {
+            final Map.Entry<Resource, PhaseRun> holder = holders.next();
+            final PhaseRun run = holder.getValue();
+            if (!run.needs(holder.getKey())) {
+                LOG.trace("Releasing {} held by {}", holder.getKey(), run);
+                holders.remove();
+            }
+        }
+    }
+
+    private boolean canStart(final PhaseRun run, final Phase phase) {
+        if (_runningPhases.count(phase) >= phase.getConcurrencyLimit()) {
+            return false;
+        }
+        for (final Resource resource: phase.getResources()) {
+            final PhaseRun holder = _holders.get(resource);
+            if (holder != null && holder != run) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void start(final Submission submission, final Phase phase) {
+        // resources stay with the run until none of its remaining phases needs them
+        for (final Resource resource: phase.getResources()) {
+            _holders.put(resource, submission._run);
+        }
+        _runningPhases.add(phase);
+        submission._run.started(phase);
+
+        _executor.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                execute(submission, phase);
+            }
+        });
+    }
+
+    private void execute(final Submission submission, final Phase phase) {
+        final PhaseRun run = submission._run;
+        final Stopwatch stopwatch = new Stopwatch().start();
+        LOG.debug("Starting phase {} of {}", phase, run);
+
+        Throwable failure = null;
+        try {
+            submission._listener.phaseStarted(run, phase);
+            submission._handlers.get(phase).run(run);
+            LOG.debug("Phase {} of {} done after {} ms.", phase, run, stopwatch.elapsed(MILLISECONDS));
+        } catch (final Throwable t) {
+            LOG.debug("Phase {} of {} failed after {} ms.", phase, run, stopwatch.elapsed(MILLISECONDS));
+            failure = t;
+        }
+
+        synchronized (this) {
+            _runningPhases.remove(phase);
+            if (failure == null) {
+                run.done(phase);
+            } else {
+                run.failed(phase, failure);
+            }
+            schedule();
+        }
+
+        if (failure != null) {
+            submission._listener.failed(run, phase, failure);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.plugin;
+
+import java.util.Set;
+
+import net.freifunk.autodeploy.device.Device;
+import net.freifunk.autodeploy.device.DeploymentMode;
+import net.freifunk.autodeploy.device.DeviceDeployer;
+
+import com.google.inject.Provider;
+
+/**
+ * Plugin contributing {@link DeviceDeployer}s. Plugins are discovered using {@link java.util.ServiceLoader}, so they
+ * need to be listed in <code>META-INF/services/net.freifunk.autodeploy.plugin.DeviceDeployerPlugin</code> and must
+ * have a public no-arg constructor.
+ * <p>
+ * The plugins are queried while the injector is created, thus they must not instantiate any deployers. The deployers
+ * are only created when their device is used for the first time.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public interface DeviceDeployerPlugin {
+
+    /**
+     * @return the devices supported by the plugin.
+     */
+    Set<Device> getSupportedDevices();
+
+    /**
+     * @return the mode the devices have to be in for the deployers of this plugin.
+     */
+    DeploymentMode getMode();
+
+    /**
+     * @return the provider for the deployer of the given device. Devices sharing a deployer must get the same provider.
+     *         The members of the provider get injected.
+     */
+    Provider<? extends DeviceDeployer> getDeployerProvider(Device device);
+}
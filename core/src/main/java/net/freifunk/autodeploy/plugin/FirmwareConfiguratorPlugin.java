@@ -0,0 +1,53 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.plugin;
+
+import java.util.Set;
+
+import net.freifunk.autodeploy.firmware.Firmware;
+import net.freifunk.autodeploy.firmware.FirmwareConfigurator;
+
+import com.google.inject.Provider;
+
+/**
+ * Plugin contributing {@link FirmwareConfigurator}s. Plugins are discovered using {@link java.util.ServiceLoader}, so
+ * they need to be listed in <code>META-INF/services/net.freifunk.autodeploy.plugin.FirmwareConfiguratorPlugin</code>
+ * and must have a public no-arg constructor.
+ * <p>
+ * The plugins are queried while the injector is created, thus they must not instantiate any configurators. The
+ * configurators are only created when their firmware is used for the first time.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public interface FirmwareConfiguratorPlugin {
+
+    /**
+     * @return the firmwares supported by the plugin.
+     */
+    Set<Firmware> getSupportedFirmwares();
+
+    /**
+     * @return the provider for the configurator of the given firmware. Firmwares sharing a configurator must get the
+     *         same provider. The members of the provider get injected.
+     */
+    Provider<? extends FirmwareConfigurator> getConfiguratorProvider(Firmware firmware);
+}
@@ -0,0 +1,57 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.plugin;
+
+import com.google.common.base.Objects;
+import com.google.inject.Inject;
+import com.google.inject.Injector;
+import com.google.inject.Provider;
+
+/**
+ * {@link Provider} creating an instance of the given class using the injector, for plugins whose implementations
+ * can be constructed by Guice directly.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public class InjectingProvider<T> implements Provider<T> {
+
+    private final Class<? extends T> _cls;
+
+    @Inject
+    private Injector _injector;
+
+    public InjectingProvider(final Class<? extends T> cls) {
+        _cls = cls;
+    }
+
+    @Override
+    public T get() {
+        return _injector.getInstance(_cls);
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+            .add("class", _cls.getSimpleName())
+        .toString();
+    }
+}
@@ -0,0 +1,387 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.registration;
+
+import static com.google.common.base.Charsets.UTF_8;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import net.freifunk.autodeploy.journal.DeploymentRecord;
+import net.freifunk.autodeploy.journal.DeploymentState;
+import net.freifunk.autodeploy.journal.JournalDirectory;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Inject;
+
+/**
+ * {@link NodeRegistrationQueue} keeping each pending registration in a JSON file of its own. A single worker thread
+ * regularly hands all registrations due to the {@link NodeRegistrationClient} together, retrying failed ones with
+ * exponential backoff. Registrations rejected or failing too often are moved to the <code>dead</code> subdirectory.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public class FileNodeRegistrationQueueImpl implements NodeRegistrationQueue {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FileNodeRegistrationQueueImpl.class);
+
+    private static final String QUEUE_DIRECTORY = "registrations";
+    private static final String DEAD_LETTER_DIRECTORY = "dead";
+
+    private static final String FILE_SUFFIX = ".json";
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+
+    // registrations queued within this interval are sent together
+    private static final long FLUSH_INTERVAL_MS = 1000;
+
+    private static final long INITIAL_BACKOFF_MS = 5000;
+    private static final long MAX_BACKOFF_MS = 300000;
+    // about an hour of retrying with the default backoff
+    private static final int MAX_ATTEMPTS = 16;
+
+    private final File _directory;
+    private final File _deadLetterDirectory;
+    private final NodeRegistrationClient _client;
+    private final ObjectMapper _objectMapper;
+    private final long _initialBackoffMs;
+    private final long _maxBackoffMs;
+    private final int _maxAttempts;
+    private final ScheduledExecutorService _executor;
+
+    // guarded by this
+    private final Map<String, DeploymentRecord> _pendingByMac;
+    private final Map<String, Integer> _attemptsByMac;
+    private final Map<String, Long> _dueNanosByMac;
+    private final Map<String, DeploymentRecord> _deadLettersByMac;
+    private Listener _listener;
+
+    @Inject
+    public FileNodeRegistrationQueueImpl(
+        @JournalDirectory final File journalDirectory,
+        final NodeRegistrationClient client,
+        final ObjectMapper objectMapper
+    ) {
+        this(
+            new File(journalDirectory, QUEUE_DIRECTORY),
+            INITIAL_BACKOFF_MS,
+            MAX_BACKOFF_MS,
+            MAX_ATTEMPTS,
+            client,
+            objectMapper
+        );
+    }
+
+    /**
+     * Uses the given directory and retry settings, e.g. for running against a temporary directory.
+     */
+    public FileNodeRegistrationQueueImpl(
+        final File directory,
+        final long initialBackoffMs,
+        final long maxBackoffMs,
+        final int maxAttempts,
+        final NodeRegistrationClient client,
+        final ObjectMapper objectMapper
+    ) {
+        _directory = directory;
+        _deadLetterDirectory = new File(directory, DEAD_LETTER_DIRECTORY);
+        _client = client;
+        _objectMapper = objectMapper;
+        _initialBackoffMs = initialBackoffMs;
+        _maxBackoffMs = maxBackoffMs;
+        _maxAttempts = maxAttempts;
+        _pendingByMac = Maps.newLinkedHashMap();
+        _attemptsByMac = Maps.newHashMap();
+        _dueNanosByMac = Maps.newHashMap();
+        _deadLettersByMac = Maps.newLinkedHashMap();
+        _executor = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("node-registration-%d").setDaemon(true).build()
+        );
+
+        if (!_deadLetterDirectory.isDirectory() && !_deadLetterDirectory.mkdirs()) {
+            throw new IllegalStateException("Could not create node registration queue: " + _directory);
+        }
+        for (final DeploymentRecord record: load(_directory)) {
+            add(record);
+        }
+        for (final DeploymentRecord record: load(_deadLetterDirectory)) {
+            _deadLettersByMac.put(record.getMac(), record);
+        }
+        LOG.debug(
+            "Node registration queue opened: directory = {}, pending = {}, dead letters = {}",
+            _directory,
+            _pendingByMac.size(),
+            _deadLettersByMac.size()
+        );
+    }
+
+    private List<DeploymentRecord> load(final File directory) {
+        final File[] files = directory.listFiles();
+        if (files == null) {
+            return ImmutableList.of();
+        }
+
+        final ImmutableList.Builder<DeploymentRecord> records = ImmutableList.builder();
+        for (final File file: files) {
+            if (!file.getName().endsWith(FILE_SUFFIX)) {
+                // left over from a crash while writing, the previous version (if any) is still in place
+                continue;
+            }
+            try {
+                records.add(_objectMapper.readValue(file, DeploymentRecord.class));
+            } catch (final IOException e) {
+                LOG.warn("Ignoring unreadable registration: " + file, e);
+            }
+        }
+        return records.build();
+    }
+
+    @Override
+    public synchronized void start(final Listener listener) {
+        Preconditions.checkState(_listener == null, "Already started.");
+        _listener = listener;
+        _executor.scheduleWithFixedDelay(
+            new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        flush();
+                    } catch (final RuntimeException e) {
+                        LOG.warn("Sending node registrations failed.", e);
+                    }
+                }
+            },
+            0,
+            FLUSH_INTERVAL_MS,
+            MILLISECONDS
+        );
+    }
+
+    @Override
+    public synchronized void enqueue(final DeploymentRecord record) {
+        Preconditions.checkState(_listener != null, "Not started.");
+        Preconditions.checkArgument(record.getState() == DeploymentState.CONFIGURED, "Node not configured: " + record);
+
+        try {
+            write(record);
+        } catch (final IOException e) {
+            throw new IllegalStateException("Could not queue node registration: " + record, e);
+        }
+        add(record);
+        discardDeadLetter(record.getMac());
+    }
+
+    /**
+     * Must be called holding the lock on this.
+     */
+    private void add(final DeploymentRecord record) {
+        _pendingByMac.put(record.getMac(), record);
+        _attemptsByMac.put(record.getMac(), 0);
+        _dueNanosByMac.put(record.getMac(), System.nanoTime());
+    }
+
+    @Override
+    public synchronized boolean isPending(final String mac) {
+        return _pendingByMac.containsKey(mac);
+    }
+
+    @Override
+    public synchronized List<DeploymentRecord> getPending() {
+        return ImmutableList.copyOf(_pendingByMac.values());
+    }
+
+    @Override
+    public synchronized boolean isDeadLetter(final String mac) {
+        return _deadLettersByMac.containsKey(mac);
+    }
+
+    @Override
+    public synchronized List<DeploymentRecord> getDeadLetters() {
+        return ImmutableList.copyOf(_deadLettersByMac.values());
+    }
+
+    @Override
+    public synchronized void discardDeadLetter(final String mac) {
+        final DeploymentRecord record = _deadLettersByMac.remove(mac);
+        if (record != null) {
+            final File file = getFile(_deadLetterDirectory, record);
+            if (!file.delete()) {
+                LOG.warn("Could not delete registration: {}", file);
+            }
+        }
+    }
+
+    private synchronized boolean isCurrent(final DeploymentRecord record) {
+        return _pendingByMac.get(record.getMac()) == record;
+    }
+
+    private synchronized List<DeploymentRecord> getDue() {
+        final long now = System.nanoTime();
+        final ImmutableList.Builder<DeploymentRecord> due = ImmutableList.builder();
+        for (final DeploymentRecord record: _pendingByMac.values()) {
+            if (_dueNanosByMac.get(record.getMac()) - now <= 0) {
+                due.add(record);
+            }
+        }
+        return due.build();
+    }
+
+    private void flush() {
+        final List<DeploymentRecord> due = getDue();
+        if (due.isEmpty()) {
+            return;
+        }
+
+        // pending registrations are kept by MAC address, so no node is registered twice at once
+        final List<NodeRegistrationResult> results = _client.registerAll(due);
+        for (int i = 0; i < due.size(); i++) {
+            final DeploymentRecord record = due.get(i);
+            final NodeRegistrationResult result = results.get(i);
+            if (result.isSuccessful() && result.getToken() != null) {
+                done(record, result.getToken());
+            } else if (result.isSuccessful()) {
+                // retrying does not help, but the operator may fix the node's data and queue it again
+                giveUp(record, new IllegalStateException("Registration rejected, got no update token: " + record.getMac()));
+            } else if (!retry(record, result.getFailure())) {
+                giveUp(record, result.getFailure());
+            }
+        }
+    }
+
+    /**
+     * @return whether the registration will be retried.
+     */
+    private synchronized boolean retry(final DeploymentRecord record, final Exception failure) {
+        if (!isCurrent(record)) {
+            // queued again meanwhile, the new record gets sent on its own
+            return true;
+        }
+
+        final int attempts = _attemptsByMac.get(record.getMac()) + 1;
+        if (attempts >= _maxAttempts) {
+            return false;
+        }
+
+        final long delayMs = Math.min(_initialBackoffMs << Math.min(attempts - 1, 30), _maxBackoffMs);
+        LOG.debug("Registering node failed, retrying in " + delayMs + " ms: " + record, failure);
+        _attemptsByMac.put(record.getMac(), attempts);
+        _dueNanosByMac.put(record.getMac(), System.nanoTime() + MILLISECONDS.toNanos(delayMs));
+        return true;
+    }
+
+    private void done(final DeploymentRecord record, final String token) {
+        final Listener listener;
+        synchronized (this) {
+            if (!isCurrent(record)) {
+                return;
+            }
+            listener = _listener;
+        }
+
+        LOG.debug("Node registration done: {}", record);
+        try {
+            listener.registered(record.registered(token));
+        } catch (final RuntimeException e) {
+            LOG.warn("Listener failed: " + record, e);
+        }
+
+        // removed only now, so a crash before the token was taken care of registers the node again on restart
+        synchronized (this) {
+            if (isCurrent(record)) {
+                _pendingByMac.remove(record.getMac());
+                _attemptsByMac.remove(record.getMac());
+                _dueNanosByMac.remove(record.getMac());
+                if (!getFile(record).delete()) {
+                    LOG.warn("Could not delete registration: {}", getFile(record));
+                }
+            }
+        }
+    }
+
+    /**
+     * Keeps the registration as a dead letter and tells the listener.
+     */
+    private void giveUp(final DeploymentRecord record, final Exception failure) {
+        final Listener listener;
+        synchronized (this) {
+            if (!isCurrent(record)) {
+                return;
+            }
+            listener = _listener;
+
+            final int attempts = _attemptsByMac.get(record.getMac()) + 1;
+            LOG.warn("Giving up registering node after " + attempts + " attempts: " + record, failure);
+            try {
+                java.nio.file.Files.move(
+                    getFile(record).toPath(),
+                    getFile(_deadLetterDirectory, record).toPath(),
+                    StandardCopyOption.ATOMIC_MOVE
+                );
+            } catch (final IOException e) {
+                // the file stays in the queue, so the registration is retried after the next restart
+                LOG.warn("Could not move registration to the dead letters: " + getFile(record), e);
+            }
+            _pendingByMac.remove(record.getMac());
+            _attemptsByMac.remove(record.getMac());
+            _dueNanosByMac.remove(record.getMac());
+            _deadLettersByMac.put(record.getMac(), record);
+        }
+
+        try {
+            listener.failed(record, failure);
+        } catch (final RuntimeException e) {
+            LOG.warn("Listener failed: " + record, e);
+        }
+    }
+
+    private void write(final DeploymentRecord record) throws IOException {
+        final File file = getFile(record);
+        final File tempFile = new File(_directory, file.getName() + TEMP_FILE_SUFFIX);
+        try (final FileOutputStream out = new FileOutputStream(tempFile)) {
+            out.write(_objectMapper.writeValueAsString(record).getBytes(UTF_8));
+            out.getFD().sync();
+        }
+        java.nio.file.Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private File getFile(final DeploymentRecord record) {
+        return getFile(_directory, record);
+    }
+
+    private static File getFile(final File directory, final DeploymentRecord record) {
+        return new File(directory, record.getMac().replaceAll("[^0-9A-Za-z]", "-") + FILE_SUFFIX);
+    }
+}
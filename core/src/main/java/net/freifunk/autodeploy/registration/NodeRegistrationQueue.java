@@ -0,0 +1,96 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.registration;
+
+import java.util.List;
+
+import net.freifunk.autodeploy.journal.DeploymentRecord;
+
+/**
+ * Registers nodes in the background, so the station can go on with the next device while the registration server is
+ * slow or unreachable. Pending registrations survive a restart of the station, and so do registrations given up: they
+ * are kept as dead letters until the node is queued again or the operator discards them.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public interface NodeRegistrationQueue {
+
+    /**
+     * Gets notified about finished registrations.
+     */
+    interface Listener {
+
+        /**
+         * Called from the queue's worker thread once the node is registered.
+         *
+         * @param record the record in state {@link net.freifunk.autodeploy.journal.DeploymentState#REGISTERED}.
+         */
+        void registered(DeploymentRecord record);
+
+        /**
+         * Called from the queue's worker thread once the registration is given up, as the registration server rejected
+         * it or did not answer for too long. The registration is kept as a dead letter.
+         *
+         * @param record the record as queued.
+         */
+        void failed(DeploymentRecord record, Exception cause);
+    }
+
+    /**
+     * Starts sending the registrations, including the ones left over from a previous run.
+     */
+    void start(Listener listener);
+
+    /**
+     * Queues the registration of the node configured as recorded, replacing a dead letter of the node. The
+     * registration is persisted when this method returns.
+     *
+     * @param record the record in state {@link net.freifunk.autodeploy.journal.DeploymentState#CONFIGURED}.
+     */
+    void enqueue(DeploymentRecord record);
+
+    /**
+     * @return whether the registration of the device with the given MAC address is still pending.
+     */
+    boolean isPending(String mac);
+
+    /**
+     * @return the records of all pending registrations.
+     */
+    List<DeploymentRecord> getPending();
+
+    /**
+     * @return whether the registration of the device with the given MAC address was given up.
+     */
+    boolean isDeadLetter(String mac);
+
+    /**
+     * @return the records of all registrations given up.
+     */
+    List<DeploymentRecord> getDeadLetters();
+
+    /**
+     * Forgets the registration given up for the device with the given MAC address, e.g. as the operator discarded its
+     * deployment.
+     */
+    void discardDeadLetter(String mac);
+}
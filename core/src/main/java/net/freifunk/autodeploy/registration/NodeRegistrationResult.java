@@ -0,0 +1,76 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.registration;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+
+/**
+ * Outcome of a single node registration sent by a {@link NodeRegistrationClient}.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public class NodeRegistrationResult {
+
+    private final String _token;
+    private final Exception _failure;
+
+    private NodeRegistrationResult(final String token, final Exception failure) {
+        _token = token;
+        _failure = failure;
+    }
+
+    /**
+     * @param token the update token or <code>null</code> if the registration was rejected or returned no token.
+     */
+    public static NodeRegistrationResult succeeded(final String token) {
+        return new NodeRegistrationResult(token, null);
+    }
+
+    /**
+     * @param failure the reason of a registration that may succeed when being retried.
+     */
+    public static NodeRegistrationResult failed(final Exception failure) {
+        Preconditions.checkArgument(failure != null, "Failure must be set.");
+        return new NodeRegistrationResult(null, failure);
+    }
+
+    public boolean isSuccessful() {
+        return _failure == null;
+    }
+
+    public String getToken() {
+        return _token;
+    }
+
+    public Exception getFailure() {
+        return _failure;
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+            .add("successful", isSuccessful())
+            .add("failure", _failure)
+        .toString();
+    }
+}
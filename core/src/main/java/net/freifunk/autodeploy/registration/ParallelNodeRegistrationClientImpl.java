@@ -0,0 +1,172 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.registration;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import net.freifunk.autodeploy.firmware.Firmware;
+import net.freifunk.autodeploy.firmware.FirmwareConfigurator;
+import net.freifunk.autodeploy.firmware.FirmwareService;
+import net.freifunk.autodeploy.journal.DeploymentRecord;
+import net.freifunk.autodeploy.metrics.DurationHistogram;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Inject;
+
+/**
+ * {@link NodeRegistrationClient} sending the registrations through the firmware's {@link FirmwareConfigurator} on a
+ * fixed number of threads. The registration API knows no batch request, so each node is registered by requests of its
+ * own; the configurators share the pooled HTTP client, so the connections to the registration server are kept open
+ * between registrations.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public class ParallelNodeRegistrationClientImpl implements NodeRegistrationClient {
+
+    private final class Registration implements Callable<NodeRegistrationResult> {
+        private final DeploymentRecord _record;
+        private final DurationHistogram _batchLatencies;
+
+        private Registration(final DeploymentRecord record, final DurationHistogram batchLatencies) {
+            _record = record;
+            _batchLatencies = batchLatencies;
+        }
+
+        @Override
+        public NodeRegistrationResult call() {
+            final long start = System.nanoTime();
+            try {
+                final Firmware firmware = _firmwareService.findSupportedFirmware(_record.getFirmwareName());
+                Preconditions.checkState(firmware != null, "Firmware not supported anymore: " + _record.getFirmwareName());
+                final FirmwareConfigurator configurator = _firmwareService.getConfigurator(firmware);
+
+                LOG.debug("Registering node: {}", _record);
+                return NodeRegistrationResult.succeeded(configurator.registerNode(_record.getConfiguration(), _record.getDetailedDevice()));
+            } catch (final Exception e) {
+                return NodeRegistrationResult.failed(e);
+            } finally {
+                final long elapsed = System.nanoTime() - start;
+                _latencies.record(elapsed, NANOSECONDS);
+                _batchLatencies.record(elapsed, NANOSECONDS);
+            }
+        }
+    }
+
+    private static final Logger LOG = LoggerFactory.getLogger(ParallelNodeRegistrationClientImpl.class);
+
+    private static final String THREADS_PROPERTY = "registration.threads";
+    public static final int DEFAULT_THREADS = 4;
+
+    private final FirmwareService _firmwareService;
+    private final ExecutorService _executor;
+    private final DurationHistogram _latencies;
+
+    @Inject
+    public ParallelNodeRegistrationClientImpl(final FirmwareService firmwareService) {
+        this(firmwareService, Integer.getInteger(THREADS_PROPERTY, DEFAULT_THREADS));
+    }
+
+    /**
+     * @param threads the maximum number of registrations sent at once.
+     */
+    public ParallelNodeRegistrationClientImpl(final FirmwareService firmwareService, final int threads) {
+        _firmwareService = firmwareService;
+        _executor = Executors.newFixedThreadPool(
+            threads,
+            new ThreadFactoryBuilder().setNameFormat("node-registration-client-%d").setDaemon(true).build()
+        );
+        _latencies = new DurationHistogram();
+    }
+
+    @Override
+    public List<NodeRegistrationResult> registerAll(final List<DeploymentRecord> records) {
+        if (records.isEmpty()) {
+            return ImmutableList.of();
+        }
+
+        final long start = System.nanoTime();
+        final DurationHistogram batchLatencies = new DurationHistogram();
+        final List<Callable<NodeRegistrationResult>> registrations = Lists.newArrayList();
+        for (final DeploymentRecord record: records) {
+            registrations.add(new Registration(record, batchLatencies));
+        }
+
+        final List<Future<NodeRegistrationResult>> futures;
+        try {
+            futures = _executor.invokeAll(registrations);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while registering nodes.", e);
+        }
+
+        final ImmutableList.Builder<NodeRegistrationResult> results = ImmutableList.builder();
+        int successful = 0;
+        for (final Future<NodeRegistrationResult> future: futures) {
+            final NodeRegistrationResult result = getResult(future);
+            if (result.isSuccessful()) {
+                successful++;
+            }
+            results.add(result);
+        }
+
+        final long elapsedMs = Math.max(NANOSECONDS.toMillis(System.nanoTime() - start), 1);
+        LOG.info(
+            "Sent {} node registrations ({} successful) in {} ms: {} per second, latencies: {}",
+            records.size(),
+            successful,
+            elapsedMs,
+            records.size() * 1000 / elapsedMs,
+            batchLatencies
+        );
+        return results.build();
+    }
+
+    private static NodeRegistrationResult getResult(final Future<NodeRegistrationResult> future) {
+        try {
+            return future.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while registering nodes.", e);
+        } catch (final ExecutionException e) {
+            // the registrations catch everything themselves
+            throw new IllegalStateException("Registration failed unexpectedly.", e.getCause());
+        }
+    }
+
+    @Override
+    public DurationHistogram getLatencies() {
+        return _latencies.snapshot();
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.registry;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+
+import net.freifunk.autodeploy.journal.JournalDirectory;
+import net.freifunk.autodeploy.journal.SnapshottingLog;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Maps;
+import com.google.inject.Inject;
+
+/**
+ * {@link NodeRegistry} keeping all entries in memory, backed by a {@link SnapshottingLog}. The snapshot is written on
+ * startup and every {@link #SNAPSHOT_INTERVAL} entries, so startup only has to read each node once plus the few
+ * changes since.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public class FileNodeRegistryImpl implements NodeRegistry {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FileNodeRegistryImpl.class);
+
+    private static final String LOG_NAME = "nodes";
+
+    private static final int SNAPSHOT_INTERVAL = 1024;
+
+    // guarded by this
+    private final Map<String, NodeRegistryEntry> _entriesByMac;
+
+    private final SnapshottingLog<NodeRegistryEntry> _log;
+
+    @Inject
+    public FileNodeRegistryImpl(
+        @JournalDirectory final File directory,
+        final ObjectMapper objectMapper
+    ) {
+        this(directory, SNAPSHOT_INTERVAL, objectMapper);
+    }
+
+    /**
+     * Uses the given directory and snapshot interval, e.g. for running against a temporary directory.
+     */
+    public FileNodeRegistryImpl(
+        final File directory,
+        final int snapshotInterval,
+        final ObjectMapper objectMapper
+    ) {
+        _entriesByMac = Maps.newHashMap();
+
+        final long start = System.nanoTime();
+        try {
+            _log = new SnapshottingLog<>(
+                directory,
+                LOG_NAME,
+                NodeRegistryEntry.class,
+                snapshotInterval,
+                objectMapper,
+                new SnapshottingLog.State<NodeRegistryEntry>() {
+
+                    @Override
+                    public void apply(final NodeRegistryEntry entry) {
+                        _entriesByMac.put(entry.getMac(), entry);
+                    }
+
+                    @Override
+                    public Collection<NodeRegistryEntry> getEntries() {
+                        return _entriesByMac.values();
+                    }
+                }
+            );
+        } catch (final IOException e) {
+            throw new IllegalStateException("Could not open node registry: " + directory, e);
+        }
+
+        LOG.debug("Node registry opened in {} ms: directory = {}, nodes = {}", (System.nanoTime() - start) / 1000000, directory, _entriesByMac.size());
+    }
+
+    @Override
+    public synchronized NodeRegistryEntry find(final String mac) {
+        return _entriesByMac.get(NodeRegistryEntry.normalizeMac(mac));
+    }
+
+    @Override
+    public void put(final NodeRegistryEntry entry) {
+        LOG.trace("Registering: {}", entry);
+        try {
+            final long position;
+            synchronized (this) {
+                position = _log.append(entry);
+                _entriesByMac.put(entry.getMac(), entry);
+            }
+
+            _log.sync(position);
+
+            synchronized (this) {
+                _log.snapshotIfDue();
+            }
+        } catch (final IOException e) {
+            throw new IllegalStateException("Could not write node registry: " + entry, e);
+        }
+    }
+
+    @Override
+    public synchronized int size() {
+        return _entriesByMac.size();
+    }
+}
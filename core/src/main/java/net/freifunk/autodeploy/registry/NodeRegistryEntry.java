@@ -0,0 +1,150 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.registry;
+
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+import org.codehaus.jackson.annotate.JsonCreator;
+import org.codehaus.jackson.annotate.JsonProperty;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+
+/**
+ * A node registered upstream, as remembered by the {@link NodeRegistry}.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public class NodeRegistryEntry {
+
+    private static final Pattern MAC_PATTERN = Pattern.compile("[0-9a-f]{2}(:[0-9a-f]{2}){5}");
+    private static final String NULL_MAC = "00:00:00:00:00:00";
+
+    private final String _mac;
+    private final String _nodename;
+    private final String _vpnKey;
+    private final String _token;
+    private final long _registeredAt;
+    private final long _updatedAt;
+
+    @JsonCreator
+    public NodeRegistryEntry(
+        @JsonProperty("mac") final String mac,
+        @JsonProperty("nodename") final String nodename,
+        @JsonProperty("vpnKey") final String vpnKey,
+        @JsonProperty("token") final String token,
+        @JsonProperty("registeredAt") final long registeredAt,
+        @JsonProperty("updatedAt") final long updatedAt
+    ) {
+        Preconditions.checkArgument(mac != null, "MAC must be set.");
+
+        _mac = normalizeMac(mac);
+        _nodename = nodename;
+        _vpnKey = vpnKey;
+        _token = token;
+        _registeredAt = registeredAt;
+        _updatedAt = updatedAt;
+    }
+
+    /**
+     * @return the MAC address in the form used as key by the {@link NodeRegistry}.
+     */
+    public static String normalizeMac(final String mac) {
+        return mac.toLowerCase(Locale.ENGLISH).replace('-', ':');
+    }
+
+    /**
+     * @return whether the given MAC address identifies a device, i.e. it is well-formed and not all zeros as listed
+     *         for incomplete ARP entries.
+     */
+    public static boolean isValidMac(final String mac) {
+        if (mac == null) {
+            return false;
+        }
+        final String normalized = normalizeMac(mac);
+        return MAC_PATTERN.matcher(normalized).matches() && !NULL_MAC.equals(normalized);
+    }
+
+    /**
+     * @return the entry for a node registered for the first time.
+     */
+    public static NodeRegistryEntry registered(final String mac, final String nodename, final String vpnKey, final String token) {
+        final long now = System.currentTimeMillis();
+        return new NodeRegistryEntry(mac, nodename, vpnKey, token, now, now);
+    }
+
+    /**
+     * @return the entry after the registration was updated.
+     */
+    public NodeRegistryEntry updated(final String nodename, final String vpnKey, final String token) {
+        return new NodeRegistryEntry(_mac, nodename, vpnKey, token, _registeredAt, System.currentTimeMillis());
+    }
+
+    /**
+     * @return whether the node is registered with the given data.
+     */
+    public boolean matches(final String nodename, final String vpnKey) {
+        return Objects.equal(_nodename, nodename) && Objects.equal(_vpnKey, vpnKey);
+    }
+
+    public String getMac() {
+        return _mac;
+    }
+
+    public String getNodename() {
+        return _nodename;
+    }
+
+    public String getVpnKey() {
+        return _vpnKey;
+    }
+
+    public String getToken() {
+        return _token;
+    }
+
+    /**
+     * @return when the node was registered first, in milliseconds since the epoch.
+     */
+    public long getRegisteredAt() {
+        return _registeredAt;
+    }
+
+    /**
+     * @return when the registration was last changed, in milliseconds since the epoch.
+     */
+    public long getUpdatedAt() {
+        return _updatedAt;
+    }
+
+    @Override
+    public String toString() {
+        // leaving out the token on purpose
+        return Objects.toStringHelper(this)
+            .add("mac", _mac)
+            .add("nodename", _nodename)
+            .add("registeredAt", _registeredAt)
+            .add("updatedAt", _updatedAt)
+        .toString();
+    }
+}
@@ -22,6 +22,7 @@
 package net.freifunk.autodeploy.selenium;
 
 import java.io.File;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 import org.openqa.selenium.By;
@@ -40,6 +41,19 @@ public interface Actor {
      */
     boolean usesHtmlUnitDriver();
 
+    /**
+     * Sets the error pages to look for while waiting for pages. Waits fail with an {@link ErrorPageException} as soon
+     * as one of them shows up, instead of running into their timeout. Replaces the signatures set before.
+     */
+    void setErrorSignatures(List<ErrorSignature> signatures);
+
+    /**
+     * Checks the current page against the error signatures, e.g. after a submit nothing waits for anymore.
+     *
+     * @throws ErrorPageException if one of them matches.
+     */
+    void checkForErrorPage();
+
     /**
      * Waits for the webserver to be available.
      */
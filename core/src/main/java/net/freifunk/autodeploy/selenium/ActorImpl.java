@@ -33,20 +33,24 @@ import java.io.File;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 import org.openqa.selenium.Alert;
 import org.openqa.selenium.By;
 import org.openqa.selenium.JavascriptExecutor;
 import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
 import org.openqa.selenium.WebElement;
 import org.openqa.selenium.htmlunit.HtmlUnitDriver;
 import org.openqa.selenium.support.ui.WebDriverWait;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableList;
 import com.google.inject.Inject;
 
 /**
@@ -87,6 +91,8 @@ public class ActorImpl implements Actor {
     private final WebDriverWait _wait;
     private final String _window;
 
+    private volatile List<ErrorSignature> _errorSignatures = ImmutableList.of();
+
     @Inject
     public ActorImpl(
         final WebDriver webDriver,
@@ -103,10 +109,22 @@ public class ActorImpl implements Actor {
         return _webDriver instanceof HtmlUnitDriver;
     }
 
+    @Override
+    public void setErrorSignatures(final List<ErrorSignature> signatures) {
+        LOG.trace("setErrorSignatures: {}", signatures);
+        _errorSignatures = ImmutableList.copyOf(signatures);
+    }
+
+    @Override
+    public void checkForErrorPage() {
+        LOG.debug("checkForErrorPage");
+        checkErrorSignatures(_webDriver, _errorSignatures);
+    }
+
     @Override
     public void waitForWebserverBeingAvailable(final String host, final int port, final int timeout, final TimeUnit unit) {
         LOG.trace("waitForWebserverBeingAvailable: {}, {}, {}, {}", host, port, timeout, unit);
-        _wait.withTimeout(timeout, unit).until(new IsWebserverAvailable(port, host));
+        waitWithTimeout(timeout, unit).until(new IsWebserverAvailable(port, host));
         LOG.trace("waitForWebserverBeingAvailable done: {}, {}, {}, {}", host, port, timeout, unit);
     }
 
@@ -129,28 +147,28 @@ public class ActorImpl implements Actor {
     public void selectFrame(final String frameName) {
         LOG.trace("selectFrame: {}", frameName);
         switchToWindow();
-        _wait.until(frameToBeAvailableAndSwitchToIt(frameName));
+        waitUntil(_wait, frameToBeAvailableAndSwitchToIt(frameName));
         LOG.trace("selectFrame done: {}", frameName);
     }
 
     @Override
     public void waitForElement(final By by) {
         LOG.trace("waitForElement: {}", by);
-        _wait.until(presenceOfElementLocated(by));
+        waitUntil(_wait, presenceOfElementLocated(by));
         LOG.trace("waitForElement done: {}", by);
     }
 
     @Override
     public void waitForClickableElement(final By by) {
         LOG.trace("waitForClickableElement: {}", by);
-        _wait.until(elementToBeClickable(by));
+        waitUntil(_wait, elementToBeClickable(by));
         LOG.trace("waitForClickableElement done: {}", by);
     }
 
     @Override
     public void waitForTitleContaining(final String substring) {
         LOG.trace("waitForTitleContaining: {}", substring);
-        _wait.until(titleContains(substring));
+        waitUntil(_wait, titleContains(substring));
         LOG.trace("waitForTitleContaining done: {}", substring);
     }
 
@@ -235,7 +253,7 @@ public class ActorImpl implements Actor {
         if (checkbox.isSelected() != checked) {
             checkbox.click();
         }
-        _wait.until(elementSelectionStateToBe(by, checked));
+        waitUntil(_wait, elementSelectionStateToBe(by, checked));
         LOG.trace("updateCheckbox done: {}, {}", by, checked);
     }
 
@@ -250,14 +268,14 @@ public class ActorImpl implements Actor {
     @Override
     public void waitForElementContainingText(final By by, final String text) {
         LOG.trace("waitForElementContainingText: {}, {}", by, text);
-        _wait.until(textToBePresentInElement(by, text));
+        waitUntil(_wait, textToBePresentInElement(by, text));
         LOG.trace("waitForElementContainingText done: {}, {}", by, text);
     }
 
     @Override
     public void waitForElementContainingText(final By by, final String text, final int timeout, final TimeUnit unit) {
         LOG.trace("waitForElementContainingText: {}, {}, {}, {}", by, text, timeout, unit);
-        _wait.withTimeout(timeout, unit).until(textToBePresentInElement(by, text));
+        waitUntil(waitWithTimeout(timeout, unit), textToBePresentInElement(by, text));
         LOG.trace("waitForElementContainingText done: {}, {}, {}, {}", by, text, timeout, unit);
     }
 
@@ -270,6 +288,51 @@ public class ActorImpl implements Actor {
         LOG.trace("confirmPrompt done");
     }
 
+    private WebDriverWait waitWithTimeout(final int timeout, final TimeUnit unit) {
+        // don't alter the timeout of the shared wait
+        return new WebDriverWait(_webDriver, unit.toSeconds(timeout));
+    }
+
+    private <T> T waitUntil(final WebDriverWait wait, final Function<? super WebDriver, T> condition) {
+        final List<ErrorSignature> signatures = _errorSignatures;
+        if (signatures.isEmpty()) {
+            return wait.until(condition);
+        }
+
+        return wait.until(new Function<WebDriver, T>() {
+
+            @Override
+            public T apply(final WebDriver driver) {
+                checkErrorSignatures(driver, signatures);
+                return condition.apply(driver);
+            }
+
+            @Override
+            public String toString() {
+                return condition.toString();
+            }
+        });
+    }
+
+    private void checkErrorSignatures(final WebDriver driver, final List<ErrorSignature> signatures) {
+        for (final ErrorSignature signature: signatures) {
+            final String text;
+            try {
+                text = signature.find(driver);
+            } catch (final WebDriverException e) {
+                // e.g. while the page is being replaced, the next poll will tell
+                LOG.trace("Checking {} failed: {}", signature.getName(), e.getClass().getSimpleName());
+                continue;
+            }
+            if (text != null) {
+                throw new ErrorPageException(
+                    signature.getName(),
+                    "Error page " + signature.getName() + " shown at " + driver.getCurrentUrl() + ": " + text
+                );
+            }
+        }
+    }
+
     private void waitForAlert() {
         LOG.trace("waitForAlert");
         _wait.until(alertIsPresent());
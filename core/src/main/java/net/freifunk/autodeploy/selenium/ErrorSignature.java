@@ -0,0 +1,79 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.selenium;
+
+import java.util.regex.Pattern;
+
+import org.openqa.selenium.By;
+import org.openqa.selenium.SearchContext;
+import org.openqa.selenium.WebElement;
+
+import com.google.common.base.Objects;
+
+/**
+ * Recognizes an error page of a device, e.g. the vendor's web interface rejecting a firmware image or LuCI showing a
+ * validation error.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public class ErrorSignature {
+
+    private final String _name;
+    private final By _selector;
+    private final Pattern _textPattern;
+
+    /**
+     * @param textPattern the pattern the text of the selected element must contain or <code>null</code> if the
+     *            element being present is enough.
+     */
+    public ErrorSignature(final String name, final By selector, final Pattern textPattern) {
+        _name = name;
+        _selector = selector;
+        _textPattern = textPattern;
+    }
+
+    public String getName() {
+        return _name;
+    }
+
+    /**
+     * @return the text of the first element matching the signature or <code>null</code> if there is none.
+     */
+    public String find(final SearchContext context) {
+        for (final WebElement element: context.findElements(_selector)) {
+            final String text = element.getText();
+            if (_textPattern == null || _textPattern.matcher(text).find()) {
+                return text;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+            .add("name", _name)
+            .add("selector", _selector)
+            .add("textPattern", _textPattern)
+        .toString();
+    }
+}
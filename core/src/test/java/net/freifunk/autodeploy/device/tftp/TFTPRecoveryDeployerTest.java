@@ -0,0 +1,112 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.device.tftp;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import net.freifunk.autodeploy.device.Device;
+import net.freifunk.autodeploy.device.profile.DeviceProfileServiceImpl;
+import net.freifunk.autodeploy.device.tplink.TPLinkFirmwareImageValidator;
+import net.freifunk.autodeploy.firmware.image.FirmwareImageCache;
+import net.freifunk.autodeploy.firmware.image.FirmwareImageCacheImpl;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Tests the detection of {@link TFTPRecoveryDeployer} with a local client standing in for the bootloader.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public class TFTPRecoveryDeployerTest {
+
+    private InetSocketAddress _serverAddress;
+    private TFTPRecoveryDeployer _deployer;
+    private TFTPTestClient _client;
+    private ExecutorService _executor;
+
+    @Before
+    public void setUp() throws IOException {
+        try (final DatagramSocket socket = new DatagramSocket(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0))) {
+            _serverAddress = (InetSocketAddress) socket.getLocalSocketAddress();
+        }
+
+        final FirmwareImageCache imageCache = new FirmwareImageCacheImpl(0);
+        _deployer = new TFTPRecoveryDeployer(
+            _serverAddress,
+            new DeviceProfileServiceImpl(new ObjectMapper()),
+            new TPLinkFirmwareImageValidator(imageCache),
+            imageCache
+        );
+        _client = new TFTPTestClient(1000);
+        _executor = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        _executor.shutdownNow();
+        _client.close();
+    }
+
+    @Test
+    public void detectsDeviceByRequestedRecoveryImage() throws Exception {
+        assertEquals(new Device("WR841N", "v8"), autodetect("wr841nv8_tp_recovery.bin"));
+    }
+
+    @Test
+    public void ignoresUnknownRecoveryImages() throws Exception {
+        assertNull(autodetect("unknown_tp_recovery.bin"));
+    }
+
+    private Device autodetect(final String fileName) throws Exception {
+        final Future<Device> detected = _executor.submit(new Callable<Device>() {
+
+            @Override
+            public Device call() {
+                return _deployer.autodetect();
+            }
+        });
+
+        // the bootloader repeats its request until it gets an answer, the server might not be listening yet
+        while (!detected.isDone()) {
+            _client.sendReadRequest(_serverAddress, fileName, ImmutableMap.<String, String>of());
+            MILLISECONDS.sleep(100);
+        }
+        return detected.get(1, SECONDS);
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.device.tftp;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import net.freifunk.autodeploy.device.tftp.TFTPTestClient.Packet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Tests {@link TFTPServer} with real read requests over the loopback interface.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public class TFTPServerTest {
+
+    private static final int ACK_TIMEOUT_MS = 100;
+    private static final int CLIENT_TIMEOUT_MS = 2000;
+    private static final String FILE_NAME = "wr841nv8_tp_recovery.bin";
+
+    private TFTPServer _server;
+    private TFTPTestClient _client;
+    private ExecutorService _executor;
+
+    @Before
+    public void setUp() throws IOException {
+        _server = new TFTPServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), ACK_TIMEOUT_MS);
+        _client = new TFTPTestClient(CLIENT_TIMEOUT_MS);
+        _executor = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        _executor.shutdownNow();
+        _client.close();
+        _server.close();
+    }
+
+    @Test
+    public void transfersAcrossBlockNumberRollover() throws Exception {
+        // the smallest block size needs the least data to get past block 65535
+        final int blockSize = 8;
+        final byte[] data = randomBytes(65536 * blockSize + 3);
+
+        final Future<TFTPTransfer> transfer = serve(ImmutableMap.of("blksize", String.valueOf(blockSize)), data);
+
+        final Packet oack = _client.receive();
+        assertEquals(TFTPTestClient.OPCODE_OACK, oack.getOpcode());
+        _client.acknowledge(oack, 0);
+
+        final ByteArrayOutputStream received = new ByteArrayOutputStream();
+        int block = 1;
+        while (true) {
+            final Packet packet = _client.receive();
+            assertEquals(TFTPTestClient.OPCODE_DATA, packet.getOpcode());
+            if (packet.getBlock() == ((block - 1) & 0xFFFF)) {
+                // retransmitted as the ACK came late, e.g. due to a GC pause
+                _client.acknowledge(packet, packet.getBlock());
+                continue;
+            }
+
+            assertEquals(block, packet.getBlock());
+            received.write(packet.getPayload());
+            _client.acknowledge(packet, block);
+
+            if (packet.getPayload().length < blockSize) {
+                break;
+            }
+            block = (block + 1) & 0xFFFF;
+        }
+
+        assertEquals("last block number after wrapping around", 1, block);
+        assertArrayEquals(data, received.toByteArray());
+
+        final TFTPTransfer result = transfer.get(5, SECONDS);
+        assertEquals(data.length, result.getBytes());
+        assertEquals(blockSize, result.getBlockSize());
+    }
+
+    @Test
+    public void retransmitsUnacknowledgedBlocks() throws Exception {
+        final byte[] data = randomBytes(1000);
+        final Future<TFTPTransfer> transfer = serve(ImmutableMap.<String, String>of(), data);
+
+        final Packet dropped = _client.receive();
+        assertEquals(1, dropped.getBlock());
+
+        final Packet first = _client.receive();
+        assertEquals(1, first.getBlock());
+        _client.acknowledge(first, 1);
+
+        final Packet second = _client.receive();
+        assertEquals(2, second.getBlock());
+        _client.acknowledge(second, 2);
+
+        final ByteArrayOutputStream received = new ByteArrayOutputStream();
+        received.write(first.getPayload());
+        received.write(second.getPayload());
+        assertArrayEquals(data, received.toByteArray());
+
+        assertEquals(1, transfer.get(5, SECONDS).getRetransmissions());
+    }
+
+    @Test
+    public void ignoresDuplicateAcknowledgements() throws Exception {
+        final byte[] data = randomBytes(1024 + 10);
+        final Future<TFTPTransfer> transfer = serve(ImmutableMap.<String, String>of(), data);
+
+        final Packet first = _client.receive();
+        _client.acknowledge(first, 1);
+        final Packet second = _client.receive();
+        assertEquals(2, second.getBlock());
+
+        // an old ACK must not be taken for the current block
+        _client.acknowledge(first, 1);
+        assertEquals(2, _client.receive().getBlock());
+        _client.acknowledge(second, 2);
+
+        final Packet third = _client.receive();
+        assertEquals(3, third.getBlock());
+        assertEquals(10, third.getPayload().length);
+        _client.acknowledge(third, 3);
+
+        assertEquals(data.length, transfer.get(5, SECONDS).getBytes());
+    }
+
+    @Test
+    public void failsIfTheClientStopsAcknowledging() throws Exception {
+        final Future<TFTPTransfer> transfer = serve(ImmutableMap.<String, String>of(), randomBytes(2000));
+
+        int attempts = 0;
+        try {
+            while (true) {
+                assertEquals(1, _client.receive().getBlock());
+                attempts++;
+            }
+        } catch (final SocketTimeoutException e) {
+            // the server gave up
+        }
+        assertTrue("block was not retransmitted", attempts > 1);
+
+        try {
+            transfer.get(5, SECONDS);
+            fail("transfer succeeded without any ACK");
+        } catch (final ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+    private Future<TFTPTransfer> serve(final Map<String, String> options, final byte[] data) throws IOException {
+        _client.sendReadRequest(_server.getLocalAddress(), FILE_NAME, options);
+        final TFTPReadRequest request = _server.awaitReadRequest(1, SECONDS);
+        assertEquals(FILE_NAME, request.getFileName());
+        assertEquals("octet", request.getMode());
+
+        return _executor.submit(new Callable<TFTPTransfer>() {
+
+            @Override
+            public TFTPTransfer call() throws IOException {
+                return _server.send(request, ByteBuffer.wrap(data));
+            }
+        });
+    }
+
+    private static byte[] randomBytes(final int length) {
+        final byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.device.tftp;
+
+import static com.google.common.base.Charsets.US_ASCII;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+/**
+ * Stands in for the TFTP client of a bootloader in recovery mode, sending packets over the loopback interface.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public class TFTPTestClient implements Closeable {
+
+    static final short OPCODE_RRQ = 1;
+    static final short OPCODE_DATA = 3;
+    static final short OPCODE_ACK = 4;
+    static final short OPCODE_OACK = 6;
+
+    /**
+     * A packet received from the server.
+     */
+    public static final class Packet {
+        private final SocketAddress _sender;
+        private final short _opcode;
+        private final int _block;
+        private final byte[] _payload;
+
+        private Packet(final DatagramPacket packet) {
+            final ByteBuffer buffer = ByteBuffer.wrap(packet.getData(), packet.getOffset(), packet.getLength());
+            _sender = packet.getSocketAddress();
+            _opcode = buffer.getShort();
+            _block = _opcode == OPCODE_DATA ? buffer.getShort() & 0xFFFF : -1;
+            _payload = new byte[buffer.remaining()];
+            buffer.get(_payload);
+        }
+
+        public short getOpcode() {
+            return _opcode;
+        }
+
+        /**
+         * @return the block number of a DATA packet.
+         */
+        public int getBlock() {
+            return _block;
+        }
+
+        /**
+         * @return the data of a DATA packet or the options of an OACK packet.
+         */
+        public byte[] getPayload() {
+            return _payload;
+        }
+    }
+
+    private final DatagramSocket _socket;
+
+    public TFTPTestClient(final int timeoutMs) throws IOException {
+        _socket = new DatagramSocket(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        _socket.setSoTimeout(timeoutMs);
+    }
+
+    /**
+     * Sends a read request in octet mode with the given options.
+     */
+    public void sendReadRequest(
+        final InetSocketAddress server,
+        final String fileName,
+        final Map<String, String> options
+    ) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(512);
+        buffer.putShort(OPCODE_RRQ);
+        putString(buffer, fileName);
+        putString(buffer, "octet");
+        for (final Map.Entry<String, String> option: options.entrySet()) {
+            putString(buffer, option.getKey());
+            putString(buffer, option.getValue());
+        }
+        _socket.send(new DatagramPacket(buffer.array(), buffer.position(), server));
+    }
+
+    /**
+     * Waits for the next packet.
+     *
+     * @throws java.net.SocketTimeoutException if nothing was received within the timeout.
+     */
+    public Packet receive() throws IOException {
+        final byte[] buffer = new byte[2048];
+        final DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+        _socket.receive(packet);
+        return new Packet(packet);
+    }
+
+    /**
+     * Acknowledges the given block to the sender of the given packet, i.e. the transfer ID of the server.
+     */
+    public void acknowledge(final Packet packet, final int block) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(4);
+        buffer.putShort(OPCODE_ACK);
+        buffer.putShort((short) block);
+        _socket.send(new DatagramPacket(buffer.array(), buffer.capacity(), packet._sender));
+    }
+
+    @Override
+    public void close() {
+        _socket.close();
+    }
+
+    private static void putString(final ByteBuffer buffer, final String value) {
+        buffer.put(value.getBytes(US_ASCII));
+        buffer.put((byte) 0);
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.device.tplink;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.freifunk.autodeploy.device.InvalidFirmwareImageException;
+import net.freifunk.autodeploy.firmware.image.FirmwareImageCache;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.io.Files;
+
+/**
+ * Tests the order of the checks of the {@link TPLinkFirmwareImageValidator}, the whole image being read for the
+ * checksum only once the header matches.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public class TPLinkFirmwareImageValidatorTest {
+
+    private static final long HARDWARE_ID = 0x08410008L;
+    private static final int IMAGE_LENGTH = 0x2000;
+
+    // the MD5 sum of normal images is calculated with this salt in place of the checksum
+    private static final byte[] MD5_SALT_NORMAL = {
+        (byte) 0xdc, (byte) 0xd7, (byte) 0x3a, (byte) 0xa5, (byte) 0xc3, (byte) 0x95, (byte) 0x98, (byte) 0xfb,
+        (byte) 0xdd, (byte) 0xf9, (byte) 0xe7, (byte) 0xf4, (byte) 0x0e, (byte) 0xae, (byte) 0x47, (byte) 0x38
+    };
+
+    /**
+     * Reads images from disk, counting the reads.
+     */
+    private static final class CountingImageCache implements FirmwareImageCache {
+        private final AtomicInteger _reads = new AtomicInteger();
+
+        @Override
+        public ByteBuffer get(final File image) throws IOException {
+            _reads.incrementAndGet();
+            return ByteBuffer.wrap(Files.toByteArray(image)).asReadOnlyBuffer();
+        }
+
+        @Override
+        public void preload(final File image) {
+        }
+    }
+
+    @Rule
+    public final TemporaryFolder _folder = new TemporaryFolder();
+
+    private CountingImageCache _imageCache;
+    private TPLinkFirmwareImageValidator _validator;
+
+    @Before
+    public void setUp() {
+        _imageCache = new CountingImageCache();
+        _validator = new TPLinkFirmwareImageValidator(_imageCache);
+    }
+
+    @Test
+    public void acceptsIntactImage() throws IOException, InvalidFirmwareImageException {
+        final File image = write("intact.bin", createImage(HARDWARE_ID, IMAGE_LENGTH));
+
+        _validator.validate(image, HARDWARE_ID);
+        _validator.validate(image, HARDWARE_ID);
+
+        // the checksum result is cached until the file changes
+        assertEquals(1, _imageCache._reads.get());
+    }
+
+    @Test
+    public void rejectsImageForOtherDeviceWithoutReadingIt() throws IOException {
+        final File image = write("other.bin", createImage(0x07410009L, IMAGE_LENGTH));
+
+        assertRejected(image, "wrong device");
+        assertEquals(0, _imageCache._reads.get());
+    }
+
+    @Test
+    public void rejectsTruncatedImageWithoutReadingIt() throws IOException {
+        final byte[] intact = createImage(HARDWARE_ID, IMAGE_LENGTH);
+        final File image = write("truncated.bin", Arrays.copyOf(intact, IMAGE_LENGTH / 2));
+
+        assertRejected(image, "truncated");
+        assertEquals(0, _imageCache._reads.get());
+    }
+
+    @Test
+    public void rejectsCorruptImage() throws IOException {
+        final byte[] corrupt = createImage(HARDWARE_ID, IMAGE_LENGTH);
+        corrupt[IMAGE_LENGTH - 1]++;
+        final File image = write("corrupt.bin", corrupt);
+
+        assertRejected(image, "Checksum mismatch");
+        assertEquals(1, _imageCache._reads.get());
+    }
+
+    private void assertRejected(final File image, final String reason) throws IOException {
+        try {
+            _validator.validate(image, HARDWARE_ID);
+            fail("Image accepted: " + image);
+        } catch (final InvalidFirmwareImageException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(reason));
+        }
+    }
+
+    private File write(final String name, final byte[] image) throws IOException {
+        final File file = new File(_folder.getRoot(), name);
+        Files.write(image, file);
+        return file;
+    }
+
+    /**
+     * @return a version 1 image with random contents and a valid checksum.
+     */
+    private static byte[] createImage(final long hardwareId, final int length) {
+        final byte[] image = new byte[length];
+        new Random(length).nextBytes(image);
+
+        final ByteBuffer buffer = ByteBuffer.wrap(image);
+        buffer.putInt(0x00, 0x01000000);
+        buffer.putInt(0x40, (int) hardwareId);
+        buffer.putInt(0x7C, length);
+        buffer.putInt(0x94, 0);
+
+        final MessageDigest md5;
+        try {
+            md5 = MessageDigest.getInstance("MD5");
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 not available.", e);
+        }
+        md5.update(image, 0, 0x4C);
+        md5.update(MD5_SALT_NORMAL);
+        md5.update(image, 0x5C, length - 0x5C);
+        System.arraycopy(md5.digest(), 0, image, 0x4C, 16);
+        return image;
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.firmware.image;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Files;
+
+/**
+ * Tests the {@link WatchingFirmwareImageCatalogImpl} using a temporary directory.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public class WatchingFirmwareImageCatalogImplTest {
+
+    private static final String IMAGE_1 = "ffhh_wr841n_v8";
+    private static final String IMAGE_2 = "ffhh_wr841n_v9";
+
+    @Rule
+    public final TemporaryFolder _folder = new TemporaryFolder();
+
+    private File _directory;
+    private WatchingFirmwareImageCatalogImpl _catalog;
+
+    @Before
+    public void setUp() throws IOException {
+        _directory = _folder.newFolder("firmware");
+        _catalog = new WatchingFirmwareImageCatalogImpl();
+    }
+
+    @Test
+    public void listsDirectory() throws IOException {
+        writeImage(IMAGE_1);
+        Files.write(new byte[0], new File(_directory, ".sha256-index"));
+        new File(_directory, "factory").mkdir();
+
+        final FirmwareImageSnapshot snapshot = _catalog.getSnapshot(_directory);
+        assertEquals(ImmutableSet.of(IMAGE_1), snapshot.getFileNames());
+        assertEquals(ImmutableSet.of("factory"), snapshot.getDirectoryNames());
+        assertTrue(snapshot == _catalog.getSnapshot(_directory));
+    }
+
+    @Test
+    public void picksUpDeletedFile() throws IOException, InterruptedException {
+        writeImage(IMAGE_1);
+        writeImage(IMAGE_2);
+        assertEquals(ImmutableSet.of(IMAGE_1, IMAGE_2), _catalog.getSnapshot(_directory).getFileNames());
+
+        new File(_directory, IMAGE_1).delete();
+        awaitFileNames(ImmutableSet.of(IMAGE_2));
+    }
+
+    @Test
+    public void watchesDirectoryCreatedAgain() throws IOException, InterruptedException {
+        writeImage(IMAGE_1);
+        assertEquals(ImmutableSet.of(IMAGE_1), _catalog.getSnapshot(_directory).getFileNames());
+
+        new File(_directory, IMAGE_1).delete();
+        _directory.delete();
+        awaitFileNames(ImmutableSet.<String>of());
+
+        _directory.mkdir();
+        writeImage(IMAGE_2);
+        awaitFileNames(ImmutableSet.of(IMAGE_2));
+
+        // watched again, not just listed once
+        new File(_directory, IMAGE_2).delete();
+        awaitFileNames(ImmutableSet.<String>of());
+    }
+
+    private void writeImage(final String name) throws IOException {
+        Files.write(new byte[] { 1, 2, 3 }, new File(_directory, name));
+    }
+
+    private void awaitFileNames(final Set<String> fileNames) throws InterruptedException {
+        for (int i = 0; i < 1000 && !fileNames.equals(_catalog.getSnapshot(_directory).getFileNames()); i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(fileNames, _catalog.getSnapshot(_directory).getFileNames());
+    }
+}
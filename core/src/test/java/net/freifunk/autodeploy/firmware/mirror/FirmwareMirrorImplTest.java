@@ -0,0 +1,294 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.firmware.mirror;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Tests the {@link FirmwareMirrorImpl} against a release server on the loopback interface.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public class FirmwareMirrorImplTest {
+
+    private static final String MANIFEST = "stable.manifest";
+    private static final String IMAGE_1 = "gluon-ffhh-0.6-tp-link-tl-wr841n-nd-v8.bin";
+    private static final String IMAGE_2 = "gluon-ffhh-0.6-tp-link-tl-wr841n-nd-v9.bin";
+    private static final int IMAGE_SIZE = 256 * 1024;
+
+    /**
+     * Serves files with strong ETags, answering range requests like a release server.
+     */
+    private static final class ReleaseServer implements HttpHandler {
+
+        // guarded by this
+        private final Map<String, byte[]> _files = Maps.newHashMap();
+        private final Map<String, String> _etags = Maps.newHashMap();
+        private final List<String> _requests = Lists.newArrayList();
+        private String _truncated;
+        private int _version;
+
+        private synchronized void put(final String fileName, final byte[] content) {
+            _files.put(fileName, content);
+            _etags.put(fileName, "\"" + fileName + "-" + ++_version + "\"");
+        }
+
+        /**
+         * Lets the next response for the given file break off after half of its content.
+         */
+        private synchronized void truncateNext(final String fileName) {
+            _truncated = fileName;
+        }
+
+        /**
+         * @return the requests received, as file name and range if any.
+         */
+        private synchronized List<String> getRequests() {
+            return ImmutableList.copyOf(_requests);
+        }
+
+        @Override
+        public void handle(final HttpExchange exchange) throws IOException {
+            final String fileName = exchange.getRequestURI().getPath().substring(1);
+            final String range = exchange.getRequestHeaders().getFirst("Range");
+            final String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+
+            final byte[] content;
+            final String etag;
+            final boolean truncated;
+            synchronized (this) {
+                _requests.add(range == null ? fileName : fileName + " " + range);
+                content = _files.get(fileName);
+                etag = _etags.get(fileName);
+                truncated = fileName.equals(_truncated);
+                if (truncated) {
+                    _truncated = null;
+                }
+            }
+
+            try (final OutputStream out = exchange.getResponseBody()) {
+                if (content == null) {
+                    exchange.sendResponseHeaders(404, -1);
+                    return;
+                }
+
+                int offset = 0;
+                exchange.getResponseHeaders().set("ETag", etag);
+                if (range != null && (ifRange == null || ifRange.equals(etag))) {
+                    offset = Integer.parseInt(range.substring("bytes=".length(), range.length() - 1));
+                    exchange.getResponseHeaders().set("Content-Range", "bytes " + offset + "-" + (content.length - 1) + "/" + content.length);
+                    exchange.sendResponseHeaders(206, content.length - offset);
+                } else {
+                    exchange.sendResponseHeaders(200, content.length);
+                }
+
+                if (truncated) {
+                    out.write(content, offset, (content.length - offset) / 2);
+                    out.flush();
+                    // the server closes the connection of a failing exchange, breaking off the response
+                    throw new IOException("Breaking off response: " + fileName);
+                }
+                out.write(content, offset, content.length - offset);
+            }
+        }
+    }
+
+    @Rule
+    public final TemporaryFolder _folder = new TemporaryFolder();
+
+    private final Random _random = new Random(42);
+    private ReleaseServer _releaseServer;
+    private HttpServer _server;
+    private CloseableHttpClient _httpClient;
+    private FirmwareMirrorImpl _mirror;
+    private File _directory;
+
+    @Before
+    public void setUp() throws IOException {
+        _releaseServer = new ReleaseServer();
+        _server = startServer();
+        _httpClient = HttpClientBuilder.create().build();
+        _mirror = new FirmwareMirrorImpl(_httpClient, 2);
+        _directory = _folder.getRoot();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        _httpClient.close();
+        _server.stop(0);
+    }
+
+    @Test
+    public void downloadsManifestAndImages() throws IOException {
+        final byte[] image1 = randomImage();
+        final byte[] image2 = randomImage();
+        publish(image1, image2);
+
+        final MirrorSyncResult result = _mirror.synchronize(getManifestUri(), _directory);
+
+        assertTrue(result.isSuccessful());
+        assertEquals(2, result.getDownloaded());
+        assertArrayEquals(image1, Files.toByteArray(new File(_directory, IMAGE_1)));
+        assertArrayEquals(image2, Files.toByteArray(new File(_directory, IMAGE_2)));
+        assertTrue(new File(_directory, MANIFEST).isFile());
+    }
+
+    @Test
+    public void secondSynchronizationDownloadsNothing() throws IOException {
+        publish(randomImage(), randomImage());
+        _mirror.synchronize(getManifestUri(), _directory);
+        final int requests = _releaseServer.getRequests().size();
+
+        final MirrorSyncResult result = _mirror.synchronize(getManifestUri(), _directory);
+
+        assertTrue(result.isSuccessful());
+        assertEquals(0, result.getDownloaded());
+        assertEquals(2, result.getUnchanged());
+        // only the manifest is fetched again
+        assertEquals(ImmutableList.of(MANIFEST), _releaseServer.getRequests().subList(requests, requests + 1));
+        assertEquals(requests + 1, _releaseServer.getRequests().size());
+    }
+
+    @Test
+    public void rejectsImageNotMatchingChecksum() throws IOException {
+        final byte[] image1 = randomImage();
+        final byte[] image2 = randomImage();
+        _releaseServer.put(IMAGE_1, image1);
+        _releaseServer.put(IMAGE_2, image2);
+        _releaseServer.put(MANIFEST, manifest(image1, randomImage()));
+
+        final MirrorSyncResult result = _mirror.synchronize(getManifestUri(), _directory);
+
+        assertEquals(ImmutableList.of(IMAGE_2), result.getFailed());
+        assertEquals(1, result.getDownloaded());
+        assertFalse(new File(_directory, IMAGE_2).exists());
+        assertFalse(new File(_directory, ".partial/" + IMAGE_2).exists());
+        // the manifest must not list images not in place
+        assertFalse(new File(_directory, MANIFEST).exists());
+    }
+
+    @Test
+    public void resumesInterruptedDownload() throws IOException {
+        final byte[] image1 = randomImage();
+        final byte[] image2 = randomImage();
+        publish(image1, image2);
+        _releaseServer.truncateNext(IMAGE_1);
+
+        final MirrorSyncResult interrupted = _mirror.synchronize(getManifestUri(), _directory);
+        assertEquals(ImmutableList.of(IMAGE_1), interrupted.getFailed());
+        final long partialLength = new File(_directory, ".partial/" + IMAGE_1).length();
+        assertTrue(partialLength > 0);
+        assertFalse(new File(_directory, IMAGE_1).exists());
+
+        final MirrorSyncResult resumed = _mirror.synchronize(getManifestUri(), _directory);
+
+        assertTrue(resumed.isSuccessful());
+        assertEquals(1, resumed.getDownloaded());
+        assertTrue(_releaseServer.getRequests().contains(IMAGE_1 + " bytes=" + partialLength + "-"));
+        assertArrayEquals(image1, Files.toByteArray(new File(_directory, IMAGE_1)));
+        assertFalse(new File(_directory, ".partial/" + IMAGE_1).exists());
+    }
+
+    @Test
+    public void discardsPartialDownloadOfChangedImage() throws IOException {
+        publish(randomImage(), randomImage());
+        _releaseServer.truncateNext(IMAGE_1);
+        assertFalse(_mirror.synchronize(getManifestUri(), _directory).isSuccessful());
+        final long partialLength = new File(_directory, ".partial/" + IMAGE_1).length();
+
+        // a new release replaces the image, so the validator of the partial download does not match anymore
+        final byte[] changed = randomImage();
+        _releaseServer.put(IMAGE_1, changed);
+        _releaseServer.put(MANIFEST, manifest(changed, Files.toByteArray(new File(_directory, IMAGE_2))));
+        final MirrorSyncResult result = _mirror.synchronize(getManifestUri(), _directory);
+
+        assertTrue(result.isSuccessful());
+        assertEquals(1, result.getDownloaded());
+        assertEquals(1, result.getUnchanged());
+        // the range was asked for, but the whole new image was sent
+        assertTrue(_releaseServer.getRequests().contains(IMAGE_1 + " bytes=" + partialLength + "-"));
+        assertArrayEquals(changed, Files.toByteArray(new File(_directory, IMAGE_1)));
+    }
+
+    private void publish(final byte[] image1, final byte[] image2) {
+        _releaseServer.put(IMAGE_1, image1);
+        _releaseServer.put(IMAGE_2, image2);
+        _releaseServer.put(MANIFEST, manifest(image1, image2));
+    }
+
+    private static byte[] manifest(final byte[] image1, final byte[] image2) {
+        final String manifest = "BRANCH=stable\n"
+            + "\n"
+            + "tp-link-tl-wr841n-nd-v8 0.6 " + Hashing.sha256().hashBytes(image1) + " " + IMAGE_1 + "\n"
+            + "tp-link-tl-wr841n-nd-v9 0.6 " + Hashing.sha256().hashBytes(image2) + " " + IMAGE_2 + "\n"
+            + "---\n";
+        return manifest.getBytes(Charsets.UTF_8);
+    }
+
+    private byte[] randomImage() {
+        final byte[] image = new byte[IMAGE_SIZE];
+        _random.nextBytes(image);
+        return image;
+    }
+
+    private URI getManifestUri() {
+        return URI.create("http://127.0.0.1:" + _server.getAddress().getPort() + "/" + MANIFEST);
+    }
+
+    private HttpServer startServer() throws IOException {
+        final HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", _releaseServer);
+        server.start();
+        return server;
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.http;
+
+import static net.freifunk.autodeploy.http.HtmlPageTest.load;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.List;
+
+import org.apache.http.NameValuePair;
+import org.apache.http.message.BasicNameValuePair;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Tests the data {@link HtmlForm} submits for forms modelled after the config mode wizard of the Freifunk Nord
+ * firmware.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public class HtmlFormTest {
+
+    @Test
+    public void submitsValuesWithPrimaryButton() throws IOException {
+        final HtmlForm form = load("wizard-password.html").findForm();
+        assertEquals(URI.create("http://192.168.1.1/cgi-bin/luci/wizard"), form.getAction());
+
+        form.setValue("cbid.password.1.pw1", "s3cr&t");
+        form.setValue("cbid.password.1.pw2", "s3cr&t");
+
+        assertEquals(
+            ImmutableList.of(
+                pair("cbi.submit", "1"),
+                pair("cbid.password.1.pw1", "s3cr&t"),
+                pair("cbid.password.1.pw2", "s3cr&t"),
+                pair("cbi.wizard.next", "Weiter")
+            ),
+            form.toFormData("primary")
+        );
+    }
+
+    @Test
+    public void submitsWithFirstNamedButtonByDefault() throws IOException {
+        final List<NameValuePair> data = load("wizard-password.html").findForm().toFormData(null);
+        assertEquals(pair("cbi.wizard.back", "Zurück"), data.get(data.size() - 1));
+    }
+
+    @Test
+    public void submitsDefaultsLikeBrowsers() throws IOException {
+        final HtmlForm form = load("wizard-meshvpn.html").findForm();
+
+        assertEquals(
+            ImmutableList.of(
+                pair("cbi.submit", "1"),
+                pair("cbi.cbe.meshvpn.1.meshvpn", "1"),
+                pair("cbid.meshvpn.1.limit_enabled", "1"),
+                pair("cbid.meshvpn.1.limit_egress", "200"),
+                pair("cbid.meshvpn.1.mode", "auto"),
+                pair("cbid.meshvpn.1.branch", "stable"),
+                pair("cbid.meshvpn.1.peers", "gw1"),
+                pair("cbid.meshvpn.1.peers", "gw3"),
+                pair("cbid.meshvpn.1.comment", "Knoten <Hamburg>"),
+                pair("cbi.wizard.next", "1")
+            ),
+            form.toFormData("primary")
+        );
+    }
+
+    @Test
+    public void submitsChangedChoices() throws IOException {
+        final HtmlForm form = load("wizard-meshvpn.html").findForm();
+        form.setChecked("cbid.meshvpn.1.meshvpn", true);
+        form.setChecked("cbid.meshvpn.1.limit_enabled", false);
+        form.select("cbid.meshvpn.1.mode", "manual");
+        form.select("cbid.meshvpn.1.branch", "experimentell & ungetestet");
+
+        final List<NameValuePair> data = form.toFormData("primary");
+        assertTrue(data.contains(pair("cbid.meshvpn.1.meshvpn", "1")));
+        assertFalse(data.contains(pair("cbid.meshvpn.1.limit_enabled", "1")));
+        assertTrue(data.contains(pair("cbid.meshvpn.1.mode", "manual")));
+        assertFalse(data.contains(pair("cbid.meshvpn.1.mode", "auto")));
+        assertTrue(data.contains(pair("cbid.meshvpn.1.branch", "experimentell & ungetestet")));
+        assertFalse(data.contains(pair("cbid.meshvpn.1.branch", "stable")));
+    }
+
+    @Test
+    public void ignoresDisabledFields() throws IOException {
+        final HtmlForm form = load("wizard-meshvpn.html").findForm();
+        assertFalse(form.hasField("cbid.meshvpn.1.limit_ingress"));
+        assertTrue(form.hasField("cbid.meshvpn.1.limit_egress"));
+    }
+
+    @Test(expected = UnexpectedPageException.class)
+    public void rejectsUnknownFields() throws IOException {
+        load("wizard-password.html").findForm().setValue("cbid.hostname.1.hostname", "ffhh-1234");
+    }
+
+    @Test(expected = UnexpectedPageException.class)
+    public void rejectsUnknownChoices() throws IOException {
+        load("wizard-meshvpn.html").findForm().select("cbid.meshvpn.1.peers", "gw2");
+    }
+
+    private static NameValuePair pair(final String name, final String value) {
+        return new BasicNameValuePair(name, value);
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.http;
+
+import static com.google.common.base.Charsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.URI;
+
+import org.junit.Test;
+
+import com.google.common.io.Resources;
+
+/**
+ * Tests {@link HtmlPage} against pages modelled after the config mode wizard of the Freifunk Nord firmware.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public class HtmlPageTest {
+
+    private static final URI BASE_URI = URI.create("http://192.168.1.1/cgi-bin/luci/");
+
+    @Test
+    public void readsTitleAndText() throws IOException {
+        final HtmlPage page = load("config-mode-start.html");
+        assertEquals("freifunk - LuCI", page.getTitle());
+        assertTrue(page.containsText("Einrichtungsassistenten für deinen neuen Freifunk-Knoten"));
+        assertTrue(page.containsText("aus & klicke auf „Weiter“."));
+    }
+
+    @Test
+    public void resolvesLinksByClass() throws IOException {
+        final HtmlPage page = load("config-mode-start.html");
+        assertEquals(URI.create("http://192.168.1.1/cgi-bin/luci/wizard?step=1&lang=de"), page.findLink("primary"));
+        assertEquals(URI.create("http://192.168.1.1/cgi-bin/luci/admin"), page.findLink("btn"));
+        assertNull(page.findLink("secondary"));
+        assertNull(page.findForm());
+    }
+
+    @Test
+    public void findsTextInsideContainer() throws IOException {
+        final HtmlPage page = load("wizard-vpnkey.html");
+        assertEquals("3f0b1b4c9a2c4e8e5a3c0f6e1d8b9a7c6e5d4c3b2a190817f6e5d4c3b2a19081", page.findText("maincontent", "div"));
+        assertEquals("Dein Mesh-VPN-Schlüssel", page.findText("maincontent", "h2"));
+        assertNull(page.findText("maincontent", "table"));
+        assertNull(page.findText("sidebar", "div"));
+    }
+
+    @Test
+    public void submitsFormsWithoutActionToThePageItself() throws IOException {
+        final HtmlPage page = load("wizard-vpnkey.html");
+        assertEquals(URI.create("http://192.168.1.1/cgi-bin/luci/wizard-vpnkey.html"), page.findForm().getAction());
+    }
+
+    @Test
+    public void findsFirstNonEmptyElementWithClass() throws IOException {
+        final HtmlPage page = load("wizard-error.html");
+        assertNull(page.findTextWithClass("error"));
+        assertEquals("Ungültiger Knotenname", page.findTextWithClass("cbi-value-error"));
+
+        assertNull(load("wizard-password.html").findTextWithClass("cbi-value-error"));
+        assertFalse(load("wizard-password.html").containsText("Ungültig"));
+    }
+
+    static HtmlPage load(final String name) throws IOException {
+        final String html = Resources.toString(Resources.getResource(HtmlPageTest.class, name), UTF_8);
+        return new HtmlPage(BASE_URI.resolve(name), html);
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.journal;
+
+import static com.google.common.base.Charsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import net.freifunk.autodeploy.device.DetailedDevice;
+import net.freifunk.autodeploy.device.Device;
+import net.freifunk.autodeploy.firmware.Firmware;
+import net.freifunk.autodeploy.firmware.FreifunkNordFirmwareConfiguration;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.io.Files;
+
+/**
+ * Tests replaying the {@link FileDeploymentJournalImpl} after crashes, using a temporary directory.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public class FileDeploymentJournalImplTest {
+
+    private static final Firmware FIRMWARE = new Firmware("ffhh", "Freifunk Hamburg", null);
+    private static final int SNAPSHOT_INTERVAL = 1000;
+
+    @Rule
+    public final TemporaryFolder _folder = new TemporaryFolder();
+
+    private File _directory;
+    private ObjectMapper _objectMapper;
+
+    @Before
+    public void setUp() {
+        _directory = _folder.getRoot();
+        _objectMapper = new ObjectMapper();
+    }
+
+    @Test
+    public void resumesInFlightDeploymentsInOrderOfLastUpdate() {
+        final DeploymentJournal journal = open();
+        final DeploymentRecord first = deployed("aa:bb:cc:dd:ee:01");
+        final DeploymentRecord second = deployed("aa:bb:cc:dd:ee:02");
+        final DeploymentRecord third = deployed("aa:bb:cc:dd:ee:03");
+        journal.record(first);
+        journal.record(second);
+        journal.record(third);
+        journal.record(first.configured(new FreifunkNordFirmwareConfiguration("node1", "secret", "key1")));
+        journal.record(second.completed());
+
+        final List<DeploymentRecord> inFlight = open().getInFlightRecords();
+        assertEquals(2, inFlight.size());
+        assertEquals(third.getMac(), inFlight.get(0).getMac());
+        assertEquals(first.getMac(), inFlight.get(1).getMac());
+        assertEquals(DeploymentState.CONFIGURED, inFlight.get(1).getState());
+        assertEquals("key1", ((FreifunkNordFirmwareConfiguration) inFlight.get(1).getConfiguration()).getVpnKey());
+    }
+
+    @Test
+    public void ignoresTornLastLine() throws IOException {
+        final DeploymentJournal journal = open();
+        journal.record(deployed("aa:bb:cc:dd:ee:01"));
+        journal.record(deployed("aa:bb:cc:dd:ee:02"));
+
+        // a crash while appending the next record
+        Files.append("{\"mac\":\"aa:bb:cc:dd:ee:03\",\"sta", new File(_directory, "journal.log"), UTF_8);
+
+        final DeploymentJournal reopened = open();
+        assertEquals(2, reopened.getInFlightRecords().size());
+
+        // the torn line is gone, so records written after it are read again
+        reopened.record(deployed("aa:bb:cc:dd:ee:04"));
+        assertEquals(3, open().getInFlightRecords().size());
+    }
+
+    @Test
+    public void replaysLogLeftOverFromCrashAfterSnapshot() throws IOException {
+        final DeploymentJournal journal = open();
+        final DeploymentRecord first = deployed("aa:bb:cc:dd:ee:01");
+        final DeploymentRecord second = deployed("aa:bb:cc:dd:ee:02");
+        journal.record(first);
+        journal.record(second);
+        journal.record(first.completed());
+        journal.record(second.configured(new FreifunkNordFirmwareConfiguration("node2", "secret", "key2")));
+
+        final File logFile = new File(_directory, "journal.log");
+        final byte[] log = Files.toByteArray(logFile);
+
+        // reopening writes the snapshot, a crash before the log was truncated leaves it behind
+        open();
+        Files.write(log, logFile);
+
+        final List<DeploymentRecord> inFlight = open().getInFlightRecords();
+        assertEquals(1, inFlight.size());
+        assertEquals(second.getMac(), inFlight.get(0).getMac());
+        assertEquals(DeploymentState.CONFIGURED, inFlight.get(0).getState());
+    }
+
+    @Test
+    public void compactsLogIntoSnapshot() {
+        final DeploymentJournal journal = new FileDeploymentJournalImpl(_directory, 2, _objectMapper);
+        final DeploymentRecord first = deployed("aa:bb:cc:dd:ee:01");
+        journal.record(first);
+        journal.record(deployed("aa:bb:cc:dd:ee:02"));
+        journal.record(first.completed());
+
+        assertEquals(1, new FileDeploymentJournalImpl(_directory, 2, _objectMapper).getInFlightRecords().size());
+    }
+
+    private DeploymentJournal open() {
+        return new FileDeploymentJournalImpl(_directory, SNAPSHOT_INTERVAL, _objectMapper);
+    }
+
+    private static DeploymentRecord deployed(final String mac) {
+        return DeploymentRecord.deployed(new DetailedDevice(new Device("WR841N", "v8"), mac), FIRMWARE, "secret", "node");
+    }
+}
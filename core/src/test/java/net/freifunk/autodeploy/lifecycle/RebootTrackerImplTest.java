@@ -0,0 +1,129 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.lifecycle;
+
+import static com.google.common.base.Charsets.UTF_8;
+import static net.freifunk.autodeploy.lifecycle.RebootStage.CONFIG_MODE_AVAILABLE;
+import static net.freifunk.autodeploy.lifecycle.RebootStage.CONFIG_MODE_READY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.Set;
+
+import net.freifunk.autodeploy.device.Device;
+import net.freifunk.autodeploy.network.LinkMonitor;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Files;
+
+/**
+ * Tests the {@link RebootTrackerImpl} keeping the reboot durations across restarts, using a temporary directory.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public class RebootTrackerImplTest {
+
+    private static final Device DEVICE = new Device("WR841N", "v8");
+
+    /**
+     * A station without network interfaces, so only the stages reported explicitly are reached.
+     */
+    private static final LinkMonitor NO_LINKS = new LinkMonitor() {
+
+        @Override
+        public Set<String> getInterfaces() {
+            return ImmutableSet.of();
+        }
+
+        @Override
+        public Set<String> getInterfaces(final InetAddress address) {
+            return ImmutableSet.of();
+        }
+
+        @Override
+        public boolean hasCarrier(final String interfaceName) {
+            return false;
+        }
+
+        @Override
+        public boolean hasAddress(final String interfaceName) {
+            return false;
+        }
+    };
+
+    @Rule
+    public final TemporaryFolder _folder = new TemporaryFolder();
+
+    private File _directory;
+
+    @Before
+    public void setUp() {
+        _directory = _folder.getRoot();
+    }
+
+    @Test
+    public void keepsDurationsAcrossRestarts() {
+        final RebootTracker tracker = open();
+        reboot(tracker);
+        reboot(tracker);
+
+        final RebootTracker reopened = open();
+
+        assertEquals(2, reopened.getDurationHistograms().get(DEVICE, CONFIG_MODE_READY).getCount());
+        assertEquals(2, reopened.getDurationHistograms().get(DEVICE, CONFIG_MODE_AVAILABLE).getCount());
+
+        // new reboots add to the loaded durations
+        reboot(reopened);
+        assertEquals(3, open().getDurationHistograms().get(DEVICE, CONFIG_MODE_READY).getCount());
+    }
+
+    @Test
+    public void startsOverWithUnreadableDurations() throws IOException {
+        Files.write("[{\"model\":\"WR841N\",\"vers", new File(_directory, "reboot-durations.json"), UTF_8);
+
+        final RebootTracker tracker = open();
+
+        assertTrue(tracker.getDurationHistograms().isEmpty());
+        reboot(tracker);
+        assertEquals(1, open().getDurationHistograms().get(DEVICE, CONFIG_MODE_READY).getCount());
+    }
+
+    private static void reboot(final RebootTracker tracker) {
+        // nothing listens on the discard port, so the old web server is gone right away
+        tracker.uploadAccepted(DEVICE, "127.0.0.1", 9);
+        tracker.stageReached(CONFIG_MODE_AVAILABLE);
+        tracker.stageReached(CONFIG_MODE_READY);
+    }
+
+    private RebootTracker open() {
+        return new RebootTrackerImpl(NO_LINKS, _directory, new ObjectMapper());
+    }
+}
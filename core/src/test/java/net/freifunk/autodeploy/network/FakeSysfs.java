@@ -0,0 +1,77 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.network;
+
+import static com.google.common.base.Charsets.US_ASCII;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Files;
+
+/**
+ * A sysfs tree below a temporary directory, with interfaces the operating system does not know. Such interfaces
+ * count as having an address and as reaching any address, so the carrier alone decides.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+final class FakeSysfs {
+
+    private final File _root;
+    private final ScheduledExecutorService _executor = Executors.newSingleThreadScheduledExecutor();
+
+    FakeSysfs(final File root) {
+        _root = root;
+    }
+
+    LinkMonitor createLinkMonitor(final String... interfaces) {
+        return new SysfsLinkMonitorImpl(_root, ImmutableSet.copyOf(interfaces));
+    }
+
+    void setCarrier(final String interfaceName, final boolean carrier) {
+        final File directory = new File(_root, interfaceName);
+        directory.mkdirs();
+        try {
+            Files.write(carrier ? "1\n" : "0\n", new File(directory, "carrier"), US_ASCII);
+        } catch (final IOException e) {
+            throw new IllegalStateException("Could not write carrier of " + interfaceName, e);
+        }
+    }
+
+    void setCarrierLater(final String interfaceName, final boolean carrier, final long delayMillis) {
+        _executor.schedule(new Runnable() {
+
+            @Override
+            public void run() {
+                setCarrier(interfaceName, carrier);
+            }
+        }, delayMillis, MILLISECONDS);
+    }
+
+    void shutdown() {
+        _executor.shutdownNow();
+    }
+}
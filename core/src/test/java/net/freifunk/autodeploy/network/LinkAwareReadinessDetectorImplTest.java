@@ -0,0 +1,140 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.network;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.client.HttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Tests {@link LinkAwareReadinessDetectorImpl} against a fake sysfs tree, with a local HTTP server standing in for the
+ * config mode of the device.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public class LinkAwareReadinessDetectorImplTest {
+
+    private static final String INTERFACE = "fake0";
+
+    @Rule
+    public final TemporaryFolder _folder = new TemporaryFolder();
+
+    private FakeSysfs _sysfs;
+    private HttpServer _configMode;
+    private URI _configModeUri;
+    private ReadinessDetector _detector;
+
+    // answers with 503 until this many requests were made
+    private final AtomicInteger _requestsUntilReady = new AtomicInteger();
+    private final AtomicInteger _requests = new AtomicInteger();
+    private final AtomicLong _firstRequestNanos = new AtomicLong();
+
+    @Before
+    public void setUp() throws IOException {
+        _sysfs = new FakeSysfs(_folder.getRoot());
+
+        _configMode = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        _configMode.createContext("/", new HttpHandler() {
+
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                _firstRequestNanos.compareAndSet(0, System.nanoTime());
+                final int request = _requests.incrementAndGet();
+                exchange.sendResponseHeaders(request > _requestsUntilReady.get() ? 200 : 503, -1);
+                exchange.close();
+            }
+        });
+        _configMode.start();
+        _configModeUri = URI.create("http://127.0.0.1:" + _configMode.getAddress().getPort() + "/");
+
+        final HttpClient httpClient = HttpClients.createDefault();
+        _detector = new LinkAwareReadinessDetectorImpl(_sysfs.createLinkMonitor(INTERFACE), httpClient);
+    }
+
+    @After
+    public void tearDown() {
+        _sysfs.shutdown();
+        _configMode.stop(0);
+    }
+
+    @Test
+    public void doesNotProbeWhileTheLinkIsDown() throws InterruptedException {
+        _sysfs.setCarrier(INTERFACE, false);
+
+        assertFalse(_detector.awaitReady(_configModeUri, 500, MILLISECONDS));
+        assertEquals(0, _requests.get());
+    }
+
+    @Test
+    public void probesOnceTheLinkIsUp() throws InterruptedException {
+        _sysfs.setCarrier(INTERFACE, false);
+        _sysfs.setCarrierLater(INTERFACE, true, 300);
+
+        final long start = System.nanoTime();
+        assertTrue(_detector.awaitReady(_configModeUri, 5, SECONDS));
+        assertTrue("probed before the link was up", NANOSECONDS.toMillis(_firstRequestNanos.get() - start) >= 300);
+    }
+
+    @Test
+    public void keepsProbingUntilTheConfigModeAnswers() throws InterruptedException {
+        _sysfs.setCarrier(INTERFACE, true);
+        _requestsUntilReady.set(3);
+
+        assertTrue(_detector.awaitReady(_configModeUri, 5, SECONDS));
+        assertEquals(4, _requests.get());
+    }
+
+    @Test
+    public void stopsProbingWhenTheLinkGoesDownAgain() throws InterruptedException {
+        _sysfs.setCarrier(INTERFACE, true);
+        _sysfs.setCarrierLater(INTERFACE, false, 300);
+        _requestsUntilReady.set(Integer.MAX_VALUE);
+
+        assertFalse(_detector.awaitReady(_configModeUri, 1500, MILLISECONDS));
+        final int requests = _requests.get();
+        assertTrue("not probed while the link was up", requests > 0);
+        // at most one probe per 200 ms while the link was up
+        assertTrue("probed while the link was down: " + requests, requests <= 3);
+    }
+}
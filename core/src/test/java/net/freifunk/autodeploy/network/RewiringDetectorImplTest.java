@@ -0,0 +1,142 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.network;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests {@link RewiringDetectorImpl} against a fake sysfs tree, with a local server socket standing in for the
+ * config mode of the device.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public class RewiringDetectorImplTest {
+
+    private static final String INTERFACE = "fake0";
+
+    @Rule
+    public final TemporaryFolder _folder = new TemporaryFolder();
+
+    private FakeSysfs _sysfs;
+    private RewiringDetector _detector;
+    private volatile ServerSocket _configMode;
+    private InetSocketAddress _configModeAddress;
+
+    @Before
+    public void setUp() throws IOException {
+        _sysfs = new FakeSysfs(_folder.getRoot());
+        _detector = new RewiringDetectorImpl(_sysfs.createLinkMonitor(INTERFACE));
+        _configMode = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        _configModeAddress = new InetSocketAddress(InetAddress.getLoopbackAddress(), _configMode.getLocalPort());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        _sysfs.shutdown();
+        _configMode.close();
+    }
+
+    @Test
+    public void detectsCableMovedToAnotherPort() throws InterruptedException {
+        _sysfs.setCarrier(INTERFACE, true);
+        _sysfs.setCarrierLater(INTERFACE, false, 200);
+        _sysfs.setCarrierLater(INTERFACE, true, 500);
+
+        final long start = System.nanoTime();
+        assertTrue(_detector.awaitRewiring(_configModeAddress, 5, SECONDS));
+        assertTrue("returned before the cable was plugged in again", elapsedMillis(start) >= 500);
+    }
+
+    @Test
+    public void detectsCableUnpluggedBeforeWaiting() throws InterruptedException {
+        _sysfs.setCarrier(INTERFACE, false);
+        _sysfs.setCarrierLater(INTERFACE, true, 300);
+
+        assertTrue(_detector.awaitRewiring(_configModeAddress, 5, SECONDS));
+    }
+
+    @Test
+    public void waitsForAnotherReplugIfTheDeviceIsNotReachable() throws IOException, InterruptedException {
+        // plugged into the wrong port first: link, but no config mode
+        final int port = _configMode.getLocalPort();
+        _configMode.close();
+
+        _sysfs.setCarrier(INTERFACE, true);
+        _sysfs.setCarrierLater(INTERFACE, false, 200);
+        _sysfs.setCarrierLater(INTERFACE, true, 400);
+        _sysfs.setCarrierLater(INTERFACE, false, 800);
+        _sysfs.setCarrierLater(INTERFACE, true, 1200);
+
+        final Thread reopen = new Thread() {
+
+            @Override
+            public void run() {
+                try {
+                    MILLISECONDS.sleep(1000);
+                    _configMode = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+                } catch (final InterruptedException | IOException e) {
+                    throw new IllegalStateException("Could not reopen config mode.", e);
+                }
+            }
+        };
+
+        final long start = System.nanoTime();
+        reopen.start();
+        assertTrue(_detector.awaitRewiring(_configModeAddress, 5, SECONDS));
+        assertTrue("returned before the cable was plugged in again", elapsedMillis(start) >= 1200);
+        reopen.join();
+    }
+
+    @Test
+    public void failsIfTheCableStaysPluggedIn() throws InterruptedException {
+        _sysfs.setCarrier(INTERFACE, true);
+
+        assertFalse(_detector.awaitRewiring(_configModeAddress, 500, MILLISECONDS));
+    }
+
+    @Test
+    public void failsIfTheCableIsNotPluggedInAgain() throws InterruptedException {
+        _sysfs.setCarrier(INTERFACE, true);
+        _sysfs.setCarrierLater(INTERFACE, false, 100);
+
+        assertFalse(_detector.awaitRewiring(_configModeAddress, 800, MILLISECONDS));
+    }
+
+    private static long elapsedMillis(final long startNanos) {
+        return NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+}
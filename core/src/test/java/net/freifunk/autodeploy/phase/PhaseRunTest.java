@@ -0,0 +1,148 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.phase;
+
+import static net.freifunk.autodeploy.Phase.AWAIT_REBOOT;
+import static net.freifunk.autodeploy.Phase.CONFIGURE;
+import static net.freifunk.autodeploy.Phase.DEPLOY;
+import static net.freifunk.autodeploy.Phase.DETECT;
+import static net.freifunk.autodeploy.Phase.PRINT;
+import static net.freifunk.autodeploy.Phase.REGISTER;
+import static net.freifunk.autodeploy.Phase.VALIDATE;
+import static net.freifunk.autodeploy.Phase.VERIFY;
+import static net.freifunk.autodeploy.phase.PhaseRun.PhaseState.CANCELLED;
+import static net.freifunk.autodeploy.phase.PhaseRun.PhaseState.DONE;
+import static net.freifunk.autodeploy.phase.PhaseRun.PhaseState.FAILED;
+import static net.freifunk.autodeploy.phase.PhaseRun.PhaseState.PENDING;
+import static net.freifunk.autodeploy.phase.PhaseRun.PhaseState.RUNNING;
+import static net.freifunk.autodeploy.phase.PhaseRun.PhaseState.SKIPPED;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.EnumSet;
+
+import net.freifunk.autodeploy.Phase;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Tests which phases of a {@link PhaseRun} get cancelled when a phase fails.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public class PhaseRunTest {
+
+    @Test
+    public void failedRegistrationCancelsPrintingOnly() {
+        final PhaseRun run = runUpTo(CONFIGURE);
+        run.started(REGISTER);
+        run.started(VERIFY);
+
+        final Exception failure = new IllegalStateException("registration failed");
+        run.failed(REGISTER, failure);
+
+        assertEquals(CANCELLED, run.getState(PRINT));
+        assertEquals(RUNNING, run.getState(VERIFY));
+        assertFalse(run.isFinished());
+        assertSame(REGISTER, run.getFailedPhase());
+        assertSame(failure, run.getFailure());
+
+        run.done(VERIFY);
+        assertEquals(DONE, run.getState(VERIFY));
+        assertTrue(run.isFinished());
+    }
+
+    @Test
+    public void failedVerificationCancelsNothing() {
+        final PhaseRun run = runUpTo(CONFIGURE);
+        run.started(REGISTER);
+        run.started(VERIFY);
+
+        run.failed(VERIFY, new IllegalStateException("config mode came back"));
+
+        assertEquals(FAILED, run.getState(VERIFY));
+        assertEquals(ImmutableList.of(), run.getReadyPhases());
+        run.done(REGISTER);
+        assertEquals(ImmutableList.of(PRINT), run.getReadyPhases());
+    }
+
+    @Test
+    public void failedConfigurationCancelsAllDependents() {
+        final PhaseRun run = runUpTo(AWAIT_REBOOT);
+        run.started(CONFIGURE);
+
+        run.failed(CONFIGURE, new IllegalStateException("wizard failed"));
+
+        assertEquals(CANCELLED, run.getState(REGISTER));
+        assertEquals(CANCELLED, run.getState(VERIFY));
+        assertEquals(CANCELLED, run.getState(PRINT));
+        assertTrue(run.isFinished());
+    }
+
+    @Test
+    public void cancelsDependentsOfSkippedPhases() {
+        final PhaseRun run = runUpTo(AWAIT_REBOOT);
+        run.skip(REGISTER);
+        run.started(CONFIGURE);
+
+        run.failed(CONFIGURE, new IllegalStateException("wizard failed"));
+
+        assertEquals(SKIPPED, run.getState(REGISTER));
+        assertEquals(CANCELLED, run.getState(PRINT));
+        assertTrue(run.isFinished());
+    }
+
+    @Test
+    public void keepsFirstFailure() {
+        final PhaseRun run = runUpTo(CONFIGURE);
+        run.started(REGISTER);
+        run.started(VERIFY);
+
+        final Exception first = new IllegalStateException("registration failed");
+        run.failed(REGISTER, first);
+        run.failed(VERIFY, new IllegalStateException("config mode came back"));
+
+        assertSame(REGISTER, run.getFailedPhase());
+        assertSame(first, run.getFailure());
+        assertTrue(run.isFinished());
+    }
+
+    /**
+     * @return a run of all phases, the ones up to the given phase being done.
+     */
+    private static PhaseRun runUpTo(final Phase last) {
+        final PhaseRun run = new PhaseRun(PhaseContext.forNewDeployment(false), EnumSet.allOf(Phase.class));
+        for (final Phase phase: ImmutableList.of(DETECT, VALIDATE, DEPLOY, AWAIT_REBOOT, CONFIGURE)) {
+            assertEquals(PENDING, run.getState(phase));
+            run.started(phase);
+            run.done(phase);
+            if (phase == last) {
+                break;
+            }
+        }
+        return run;
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.registration;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import net.freifunk.autodeploy.device.DetailedDevice;
+import net.freifunk.autodeploy.device.Device;
+import net.freifunk.autodeploy.firmware.Firmware;
+import net.freifunk.autodeploy.firmware.FreifunkNordFirmwareConfiguration;
+import net.freifunk.autodeploy.journal.DeploymentRecord;
+import net.freifunk.autodeploy.journal.DeploymentState;
+import net.freifunk.autodeploy.metrics.DurationHistogram;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+
+/**
+ * Tests the {@link FileNodeRegistrationQueueImpl} keeping registrations given up as dead letters, using a temporary
+ * directory.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public class FileNodeRegistrationQueueImplTest {
+
+    private static final Firmware FIRMWARE = new Firmware("ffhh", "Freifunk Hamburg", null);
+    private static final String MAC = "aa:bb:cc:dd:ee:01";
+    private static final int MAX_ATTEMPTS = 2;
+
+    /**
+     * Answers each registration with the result set for its MAC address.
+     */
+    private static final class ScriptedClient implements NodeRegistrationClient {
+
+        // guarded by this
+        private final Map<String, NodeRegistrationResult> _resultsByMac = Maps.newHashMap();
+
+        private synchronized void answer(final String mac, final NodeRegistrationResult result) {
+            _resultsByMac.put(mac, result);
+        }
+
+        @Override
+        public synchronized List<NodeRegistrationResult> registerAll(final List<DeploymentRecord> records) {
+            final ImmutableList.Builder<NodeRegistrationResult> results = ImmutableList.builder();
+            for (final DeploymentRecord record: records) {
+                results.add(_resultsByMac.get(record.getMac()));
+            }
+            return results.build();
+        }
+
+        @Override
+        public DurationHistogram getLatencies() {
+            return new DurationHistogram();
+        }
+    }
+
+    /**
+     * Collects the records the queue is done with.
+     */
+    private static final class CollectingListener implements NodeRegistrationQueue.Listener {
+        private final BlockingQueue<DeploymentRecord> _registered = new LinkedBlockingQueue<>();
+        private final BlockingQueue<DeploymentRecord> _failed = new LinkedBlockingQueue<>();
+
+        @Override
+        public void registered(final DeploymentRecord record) {
+            _registered.add(record);
+        }
+
+        @Override
+        public void failed(final DeploymentRecord record, final Exception cause) {
+            _failed.add(record);
+        }
+    }
+
+    @Rule
+    public final TemporaryFolder _folder = new TemporaryFolder();
+
+    private File _directory;
+    private ScriptedClient _client;
+    private CollectingListener _listener;
+
+    @Before
+    public void setUp() {
+        _directory = _folder.getRoot();
+        _client = new ScriptedClient();
+        _listener = new CollectingListener();
+    }
+
+    @Test
+    public void sendsRegistration() throws InterruptedException {
+        _client.answer(MAC, NodeRegistrationResult.succeeded("token"));
+        final NodeRegistrationQueue queue = start();
+
+        queue.enqueue(configured());
+
+        final DeploymentRecord registered = _listener._registered.poll(10, SECONDS);
+        assertEquals(DeploymentState.REGISTERED, registered.getState());
+        assertEquals("token", registered.getUpdateToken());
+        awaitNotPending(queue);
+        assertTrue(open().getPending().isEmpty());
+    }
+
+    @Test
+    public void keepsRejectedRegistrationAsDeadLetter() throws InterruptedException {
+        // e.g. HTTP 400, the configurator returns no token
+        _client.answer(MAC, NodeRegistrationResult.succeeded(null));
+        final NodeRegistrationQueue queue = start();
+
+        queue.enqueue(configured());
+
+        assertNotNull(_listener._failed.poll(10, SECONDS));
+        assertTrue(_listener._registered.isEmpty());
+        assertFalse(queue.isPending(MAC));
+        assertTrue(queue.isDeadLetter(MAC));
+
+        // survives a restart, without being sent again
+        final NodeRegistrationQueue reopened = open();
+        assertTrue(reopened.getPending().isEmpty());
+        assertEquals(MAC, reopened.getDeadLetters().get(0).getMac());
+    }
+
+    @Test
+    public void keepsRegistrationFailingTooOftenAsDeadLetter() throws InterruptedException {
+        _client.answer(MAC, NodeRegistrationResult.failed(new IOException("HTTP 503")));
+        final NodeRegistrationQueue queue = start();
+
+        queue.enqueue(configured());
+
+        assertNotNull(_listener._failed.poll(10, SECONDS));
+        assertTrue(queue.isDeadLetter(MAC));
+        assertEquals(1, open().getDeadLetters().size());
+    }
+
+    @Test
+    public void queueingAgainReplacesDeadLetter() throws InterruptedException {
+        _client.answer(MAC, NodeRegistrationResult.succeeded(null));
+        final NodeRegistrationQueue queue = start();
+        queue.enqueue(configured());
+        assertNotNull(_listener._failed.poll(10, SECONDS));
+
+        _client.answer(MAC, NodeRegistrationResult.succeeded("token"));
+        queue.enqueue(configured());
+
+        assertEquals("token", _listener._registered.poll(10, SECONDS).getUpdateToken());
+        awaitNotPending(queue);
+        assertFalse(queue.isDeadLetter(MAC));
+        assertTrue(open().getDeadLetters().isEmpty());
+    }
+
+    @Test
+    public void discardsDeadLetter() throws InterruptedException {
+        _client.answer(MAC, NodeRegistrationResult.succeeded(null));
+        final NodeRegistrationQueue queue = start();
+        queue.enqueue(configured());
+        assertNotNull(_listener._failed.poll(10, SECONDS));
+
+        queue.discardDeadLetter(MAC);
+
+        assertFalse(queue.isDeadLetter(MAC));
+        assertTrue(open().getDeadLetters().isEmpty());
+    }
+
+    /**
+     * Waits for a registration to be removed, which happens only after the listener took care of it.
+     */
+    private static void awaitNotPending(final NodeRegistrationQueue queue) throws InterruptedException {
+        for (int i = 0; i < 1000 && queue.isPending(MAC); i++) {
+            Thread.sleep(10);
+        }
+        assertFalse(queue.isPending(MAC));
+    }
+
+    private NodeRegistrationQueue start() {
+        final NodeRegistrationQueue queue = open();
+        queue.start(_listener);
+        return queue;
+    }
+
+    private FileNodeRegistrationQueueImpl open() {
+        return new FileNodeRegistrationQueueImpl(_directory, 1, 1, MAX_ATTEMPTS, _client, new ObjectMapper());
+    }
+
+    private static DeploymentRecord configured() {
+        return DeploymentRecord
+            .deployed(new DetailedDevice(new Device("WR841N", "v8"), MAC), FIRMWARE, "secret", "node")
+            .configured(new FreifunkNordFirmwareConfiguration("node", "secret", "key"));
+    }
+}
@@ -0,0 +1,306 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.registration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.freifunk.autodeploy.device.DeploymentMode;
+import net.freifunk.autodeploy.device.DetailedDevice;
+import net.freifunk.autodeploy.device.Device;
+import net.freifunk.autodeploy.firmware.Firmware;
+import net.freifunk.autodeploy.firmware.FirmwareConfigurator;
+import net.freifunk.autodeploy.firmware.FirmwareService;
+import net.freifunk.autodeploy.firmware.FreifunkNordConfiguratorFactory;
+import net.freifunk.autodeploy.firmware.FreifunkNordFirmwareConfiguration;
+import net.freifunk.autodeploy.firmware.community.Community;
+import net.freifunk.autodeploy.firmware.community.CommunityIndex;
+import net.freifunk.autodeploy.firmware.image.FirmwareRelease;
+import net.freifunk.autodeploy.journal.DeploymentRecord;
+import net.freifunk.autodeploy.registry.FileNodeRegistryImpl;
+
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.type.TypeReference;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Tests the {@link ParallelNodeRegistrationClientImpl} against a local stand-in for the registration server, set with
+ * <code>-Dffhh.registration.uri</code>.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public class ParallelNodeRegistrationClientImplTest {
+
+    private static final String COMMUNITY = "ffhh";
+    private static final String REGISTRATION_URI_PROPERTY = COMMUNITY + ".registration.uri";
+    private static final String REGISTRATION_PATH = "/api/node";
+
+    /**
+     * Registers nodes like the registration server, answering with the status set for a MAC address instead.
+     */
+    private final class RegistrationServer implements HttpHandler {
+
+        // guarded by this
+        private final List<Map<String, String>> _registered = Lists.newArrayList();
+        private final Map<String, Integer> _statusesByMac = Maps.newHashMap();
+
+        private synchronized void failWith(final String mac, final int status) {
+            _statusesByMac.put(mac, status);
+        }
+
+        private synchronized List<Map<String, String>> getRegistered() {
+            return ImmutableList.copyOf(_registered);
+        }
+
+        @Override
+        public void handle(final HttpExchange exchange) throws IOException {
+            if (!exchange.getRequestMethod().equals("POST")) {
+                exchange.sendResponseHeaders(405, -1);
+                exchange.close();
+                return;
+            }
+
+            final Map<String, String> node;
+            try (final InputStream in = exchange.getRequestBody()) {
+                node = _objectMapper.readValue(in, new TypeReference<Map<String, String>>() {});
+            }
+
+            final Integer status;
+            final String token;
+            synchronized (this) {
+                status = _statusesByMac.get(node.get("mac"));
+                if (status == null) {
+                    _registered.add(node);
+                }
+                token = "token-" + node.get("hostname");
+            }
+
+            final byte[] response = status == null
+                ? _objectMapper.writeValueAsBytes(ImmutableMap.of("token", token))
+                : "{}".getBytes(Charsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(status == null ? 201 : status, response.length);
+            try (final OutputStream out = exchange.getResponseBody()) {
+                out.write(response);
+            }
+        }
+    }
+
+    /**
+     * Knows the community with registration only.
+     */
+    private static final class SingleFirmwareService implements FirmwareService {
+
+        private final Firmware _firmware;
+        private final FirmwareConfigurator _configurator;
+
+        private SingleFirmwareService(final Firmware firmware, final FirmwareConfigurator configurator) {
+            _firmware = firmware;
+            _configurator = configurator;
+        }
+
+        @Override
+        public Firmware findSupportedFirmware(final String firmwareString) {
+            return _firmware.getName().equals(firmwareString) ? _firmware : null;
+        }
+
+        @Override
+        public Set<Firmware> getSupportedFirmwares() {
+            return ImmutableSet.of(_firmware);
+        }
+
+        @Override
+        public FirmwareConfigurator getConfigurator(final Firmware firmware) {
+            return _configurator;
+        }
+
+        @Override
+        public Multimap<Device, Firmware> getAvailableDeviceFirmwareMappings(final File firmwareImageDirectory) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public File findFirmwareImage(final File firmwareImageDirectory, final Device device, final Firmware firmware) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public File findFirmwareImage(
+            final File firmwareImageDirectory,
+            final Device device,
+            final Firmware firmware,
+            final DeploymentMode mode
+        ) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<FirmwareRelease> getReleases(
+            final File firmwareImageDirectory,
+            final Device device,
+            final Firmware firmware,
+            final DeploymentMode mode
+        ) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public FirmwareRelease findLatestRelease(
+            final File firmwareImageDirectory,
+            final Device device,
+            final Firmware firmware,
+            final DeploymentMode mode
+        ) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean isIntact(final FirmwareRelease release) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    @Rule
+    public final TemporaryFolder _folder = new TemporaryFolder();
+
+    private final ObjectMapper _objectMapper = new ObjectMapper();
+    private RegistrationServer _registrationServer;
+    private HttpServer _server;
+    private CloseableHttpClient _httpClient;
+    private Firmware _firmware;
+    private NodeRegistrationClient _client;
+
+    @Before
+    public void setUp() throws IOException {
+        _registrationServer = new RegistrationServer();
+        _server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        _server.createContext(REGISTRATION_PATH, _registrationServer);
+        _server.start();
+        System.setProperty(
+            REGISTRATION_URI_PROPERTY,
+            "http://127.0.0.1:" + _server.getAddress().getPort() + REGISTRATION_PATH
+        );
+
+        _httpClient = HttpClientBuilder.create().build();
+        final Community community = CommunityIndex.load(_objectMapper).getCommunity(COMMUNITY);
+        final FreifunkNordConfiguratorFactory factory = new FreifunkNordConfiguratorFactory(
+            null,
+            null,
+            null,
+            _httpClient,
+            _objectMapper,
+            new FileNodeRegistryImpl(_folder.getRoot(), _objectMapper)
+        );
+        _firmware = community.getFirmware();
+        _client = new ParallelNodeRegistrationClientImpl(new SingleFirmwareService(_firmware, factory.create(community)), 2);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        System.clearProperty(REGISTRATION_URI_PROPERTY);
+        _httpClient.close();
+        _server.stop(0);
+    }
+
+    @Test
+    public void registersEachNodeOnItsOwn() {
+        final List<DeploymentRecord> records = ImmutableList.of(
+            configured("aa:bb:cc:dd:ee:01", "node1"),
+            configured("aa:bb:cc:dd:ee:02", "node2"),
+            configured("aa:bb:cc:dd:ee:03", "node3")
+        );
+
+        final List<NodeRegistrationResult> results = _client.registerAll(records);
+
+        assertEquals(3, results.size());
+        for (int i = 0; i < records.size(); i++) {
+            assertTrue(results.get(i).isSuccessful());
+            assertEquals("token-" + records.get(i).getNodename(), results.get(i).getToken());
+        }
+        assertEquals(3, _registrationServer.getRegistered().size());
+        assertEquals(3, _client.getLatencies().getCount());
+    }
+
+    @Test
+    public void reportsEachResultOnItsOwn() {
+        _registrationServer.failWith("aa:bb:cc:dd:ee:02", 503);
+        _registrationServer.failWith("aa:bb:cc:dd:ee:03", 400);
+
+        final List<NodeRegistrationResult> results = _client.registerAll(ImmutableList.of(
+            configured("aa:bb:cc:dd:ee:01", "node1"),
+            configured("aa:bb:cc:dd:ee:02", "node2"),
+            configured("aa:bb:cc:dd:ee:03", "node3")
+        ));
+
+        assertEquals("token-node1", results.get(0).getToken());
+        // server errors are retried, rejected registrations are not
+        assertFalse(results.get(1).isSuccessful());
+        assertTrue(results.get(2).isSuccessful());
+        assertNull(results.get(2).getToken());
+        assertEquals(1, _registrationServer.getRegistered().size());
+    }
+
+    @Test
+    public void registersNodeFlashedAgainOnlyOnce() {
+        final DeploymentRecord record = configured("aa:bb:cc:dd:ee:01", "node1");
+        assertEquals("token-node1", _client.registerAll(ImmutableList.of(record)).get(0).getToken());
+
+        // the registry remembers the token, so the unchanged node is not sent again
+        assertEquals("token-node1", _client.registerAll(ImmutableList.of(record)).get(0).getToken());
+        assertEquals(1, _registrationServer.getRegistered().size());
+    }
+
+    private DeploymentRecord configured(final String mac, final String nodename) {
+        return DeploymentRecord
+            .deployed(new DetailedDevice(new Device("WR841N", "v8"), mac), _firmware, "secret", nodename)
+            .configured(new FreifunkNordFirmwareConfiguration(nodename, "secret", "key-" + nodename));
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Freifunk Auto Deployer
+ * Copyright (C) 2013, 2014 by Andreas Baldeau <andreas@baldeau.net>
+ *
+ *
+ * For contributers see file CONTRIB.
+ *
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ *
+ *
+ * Uses Logback (http://logback.qos.ch/) which is dual licensed under EPL v1.0 and LGPL v2.1.
+ * See http://logback.qos.ch/license.html for details.
+ */
+package net.freifunk.autodeploy.registry;
+
+import static com.google.common.base.Charsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.io.Files;
+
+/**
+ * Tests replaying the {@link FileNodeRegistryImpl} after crashes, using a temporary directory.
+ *
+ * @author Andreas Baldeau <andreas@baldeau.net>
+ */
+public class FileNodeRegistryImplTest {
+
+    private static final int SNAPSHOT_INTERVAL = 1000;
+
+    @Rule
+    public final TemporaryFolder _folder = new TemporaryFolder();
+
+    private File _directory;
+    private ObjectMapper _objectMapper;
+
+    @Before
+    public void setUp() {
+        _directory = _folder.getRoot();
+        _objectMapper = new ObjectMapper();
+    }
+
+    @Test
+    public void findsNodesByNormalizedMac() {
+        open().put(NodeRegistryEntry.registered("AA-BB-CC-DD-EE-01", "node1", "key1", "token1"));
+
+        final NodeRegistry registry = open();
+        assertEquals("token1", registry.find("aa:bb:cc:dd:ee:01").getToken());
+        assertEquals("token1", registry.find("AA:BB:CC:DD:EE:01").getToken());
+        assertNull(registry.find("aa:bb:cc:dd:ee:02"));
+    }
+
+    @Test
+    public void ignoresTornLastLine() throws IOException {
+        final NodeRegistry registry = open();
+        registry.put(NodeRegistryEntry.registered("aa:bb:cc:dd:ee:01", "node1", "key1", "token1"));
+
+        Files.append("{\"mac\":\"aa:bb:cc:dd:ee:02\",\"node", new File(_directory, "nodes.log"), UTF_8);
+
+        final NodeRegistry reopened = open();
+        assertEquals(1, reopened.size());
+
+        reopened.put(NodeRegistryEntry.registered("aa:bb:cc:dd:ee:03", "node3", "key3", "token3"));
+        assertEquals(2, open().size());
+    }
+
+    @Test
+    public void replaysLogLeftOverFromCrashAfterSnapshot() throws IOException {
+        final NodeRegistry registry = open();
+        final NodeRegistryEntry entry = NodeRegistryEntry.registered("aa:bb:cc:dd:ee:01", "node1", "key1", "token1");
+        registry.put(entry);
+        registry.put(entry.updated("node2", "key2", "token2"));
+
+        final File logFile = new File(_directory, "nodes.log");
+        final byte[] log = Files.toByteArray(logFile);
+        open();
+        Files.write(log, logFile);
+
+        final NodeRegistry reopened = open();
+        assertEquals(1, reopened.size());
+        assertEquals("token2", reopened.find("aa:bb:cc:dd:ee:01").getToken());
+    }
+
+    private NodeRegistry open() {
+        return new FileNodeRegistryImpl(_directory, SNAPSHOT_INTERVAL, _objectMapper);
+    }
+}
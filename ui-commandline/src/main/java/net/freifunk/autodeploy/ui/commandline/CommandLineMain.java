@@ -21,34 +21,49 @@
  */
 package net.freifunk.autodeploy.ui.commandline;
 
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static net.freifunk.autodeploy.AutoDeployOptions.Command.RUN_PHASES;
 import static net.freifunk.autodeploy.AutoDeployOptions.Command.SHOW_FIRMWARE_LIST;
 import static net.freifunk.autodeploy.AutoDeployOptions.Command.SHOW_HELP;
 import static net.freifunk.autodeploy.AutoDeployOptions.Command.SHOW_MODEL_LIST;
+import static net.freifunk.autodeploy.AutoDeployOptions.Command.SYNC_MIRROR;
 import static net.freifunk.autodeploy.Phase.CONFIGURE;
 import static net.freifunk.autodeploy.Phase.DEPLOY;
 
 import java.io.FileNotFoundException;
+import java.net.URI;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import net.freifunk.autodeploy.AutoDeployOptions;
+import net.freifunk.autodeploy.Phase;
 import net.freifunk.autodeploy.PhaseOptions;
 import net.freifunk.autodeploy.PhaseOptions.ConfigurePhaseOptions;
 import net.freifunk.autodeploy.PhaseOptions.DeployPhaseOptions;
 import net.freifunk.autodeploy.device.Device;
-import net.freifunk.autodeploy.device.DeviceDeployer;
 import net.freifunk.autodeploy.device.DeviceService;
+import net.freifunk.autodeploy.device.InvalidFirmwareImageException;
 import net.freifunk.autodeploy.firmware.Firmware;
-import net.freifunk.autodeploy.firmware.FirmwareConfigurator;
 import net.freifunk.autodeploy.firmware.FirmwareService;
+import net.freifunk.autodeploy.firmware.mirror.FirmwareMirror;
+import net.freifunk.autodeploy.firmware.mirror.MirrorSyncResult;
+import net.freifunk.autodeploy.phase.DeploymentPhases;
+import net.freifunk.autodeploy.phase.Operator;
+import net.freifunk.autodeploy.phase.PhaseContext;
+import net.freifunk.autodeploy.phase.PhaseHandler;
+import net.freifunk.autodeploy.phase.PhaseRun;
+import net.freifunk.autodeploy.phase.PhaseScheduler;
 
 import org.apache.commons.lang3.RandomStringUtils;
 import org.openqa.selenium.WebDriver;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.base.Preconditions;
+import com.google.common.base.Predicates;
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Ordering;
 import com.google.inject.Guice;
 import com.google.inject.Inject;
@@ -66,9 +81,15 @@ public class CommandLineMain {
     @Inject private FirmwareService _firmwareService;
     @Inject private DeviceService _deviceService;
     @Inject private WebDriver _webDriver;
+    @Inject private FirmwareMirror _firmwareMirror;
+    @Inject private PhaseScheduler _phaseScheduler;
+    @Inject private DeploymentPhases _deploymentPhases;
 
     public CommandLineMain() {
+        final Stopwatch stopwatch = new Stopwatch().start();
         Guice.createInjector(new CommandLineUIModule()).injectMembers(this);
+        // deployers and configurators are created lazily, so this should not grow with the number of plugins
+        LOG.info("Injector created in {} ms.", stopwatch.elapsed(MILLISECONDS));
     }
 
     /**
@@ -94,52 +115,46 @@ public class CommandLineMain {
                 LOG.info(formatModelList());
             }
 
+            if (options.shallPerform(SYNC_MIRROR)) {
+                boolean successful = true;
+                for (final URI source: options.getMirrorSources()) {
+                    final MirrorSyncResult result = _firmwareMirror.synchronize(source, options.getMirrorDirectory());
+                    LOG.info("Synchronized " + source + ": " + result.getDownloaded() + " downloaded, " + result.getUnchanged() + " unchanged.");
+                    if (!result.isSuccessful()) {
+                        LOG.error("Could not download: " + result.getFailed());
+                        successful = false;
+                    }
+                }
+                if (!successful) {
+                    System.exit(1);
+                }
+            }
+
             if (options.shallPerform(RUN_PHASES)) {
                 if (!options.arePhasesSpecified()) {
                     throw new IllegalArgumentException("No actions specified.");
                 }
 
-                if (options.hasPhase(DEPLOY)) {
-                    final PhaseOptions phaseOptions = options.getPhaseOptions(DEPLOY);
-                    if (!(phaseOptions instanceof DeployPhaseOptions)) {
-                        throw new IllegalStateException("Options of deploy phase have wrong class: " + phaseOptions.getClass());
-                    }
-                    final DeployPhaseOptions deployOptions = (DeployPhaseOptions) phaseOptions;
-
-                    final Device device;
-                    if (deployOptions.shallAutodetectDevice()) {
-                        device = _deviceService.autodetectDevice();
-                        Preconditions.checkState(device != null, "Could not detect any device.");
-                    } else {
-                        device = deployOptions.getDevice();
-                    }
-                    Preconditions.checkState(device != null, "Device should not be null.");
-                    final DeviceDeployer deployer = _deviceService.getDeployer(device);
-                    deployer.deploy(deployOptions.getFirmwareImage());
-                }
+                final PhaseRun run = _phaseScheduler.submit(createContext(options), selectHandlers(options), new PhaseScheduler.Listener() {
 
-                if (options.hasPhase(CONFIGURE)) {
-                    final PhaseOptions phaseOptions = options.getPhaseOptions(CONFIGURE);
-                    if (!(phaseOptions instanceof ConfigurePhaseOptions)) {
-                        throw new IllegalStateException("Options of configure phase have wrong class: " + phaseOptions.getClass());
+                    @Override
+                    public void phaseStarted(final PhaseRun run, final Phase phase) {
+                        LOG.debug("Running phase: " + phase);
                     }
-                    final ConfigurePhaseOptions configureOptions = (ConfigurePhaseOptions) phaseOptions;
-                    final FirmwareConfigurator configurator = _firmwareService.getConfigurator(configureOptions.getFirmware());
-
-                    final String password;
-                    if (configureOptions.shallGeneratePassword()) {
-                        password = generatePassword();
-                    } else {
-                        password = configureOptions.getPassword();
+
+                    @Override
+                    public void failed(final PhaseRun run, final Phase phase, final Throwable cause) {
+                        LOG.debug("Phase failed: " + phase);
                     }
+                });
+                run.await();
 
-                    configurator.configure(
-                        password,
-                        configureOptions.getNodeName()
-                    );
+                final Throwable failure = run.getFailure();
+                if (failure != null) {
+                    throw failure;
                 }
             }
-        } catch (final CommandLineParsingException | FileNotFoundException e) {
+        } catch (final CommandLineParsingException | FileNotFoundException | InvalidFirmwareImageException e) {
             LOG.error(e.getMessage());
             System.exit(1);
         } catch (final Throwable e) {
@@ -151,6 +166,72 @@ public class CommandLineMain {
         }
     }
 
+    private static PhaseContext createContext(final AutoDeployOptions options) {
+        final PhaseContext context = PhaseContext.forNewDeployment(false);
+
+        if (options.hasPhase(DEPLOY)) {
+            final PhaseOptions phaseOptions = options.getPhaseOptions(DEPLOY);
+            if (!(phaseOptions instanceof DeployPhaseOptions)) {
+                throw new IllegalStateException("Options of deploy phase have wrong class: " + phaseOptions.getClass());
+            }
+            final DeployPhaseOptions deployOptions = (DeployPhaseOptions) phaseOptions;
+
+            context.setMode(deployOptions.getMode());
+            if (!deployOptions.shallAutodetectDevice()) {
+                context.setDevice(deployOptions.getDevice());
+            }
+            if (deployOptions.getFirmware() == null) {
+                context.setFirmwareImage(deployOptions.getFirmwareImage());
+            } else {
+                context.setFirmwareImageDirectory(deployOptions.getFirmwareImage());
+                context.setFirmware(deployOptions.getFirmware());
+            }
+        }
+
+        if (options.hasPhase(CONFIGURE)) {
+            final PhaseOptions phaseOptions = options.getPhaseOptions(CONFIGURE);
+            if (!(phaseOptions instanceof ConfigurePhaseOptions)) {
+                throw new IllegalStateException("Options of configure phase have wrong class: " + phaseOptions.getClass());
+            }
+            final ConfigurePhaseOptions configureOptions = (ConfigurePhaseOptions) phaseOptions;
+
+            context.setFirmware(configureOptions.getFirmware());
+            context.setNodename(configureOptions.getNodeName());
+            if (configureOptions.shallGeneratePassword()) {
+                context.setPassword(generatePassword());
+            } else {
+                context.setPassword(configureOptions.getPassword());
+            }
+        }
+
+        return context;
+    }
+
+    private Map<Phase, PhaseHandler> selectHandlers(final AutoDeployOptions options) {
+        final Set<Phase> phases = EnumSet.noneOf(Phase.class);
+        if (options.hasPhase(DEPLOY)) {
+            phases.addAll(EnumSet.of(Phase.DETECT, Phase.VALIDATE, Phase.DEPLOY));
+        }
+        if (options.hasPhase(CONFIGURE)) {
+            phases.addAll(EnumSet.of(Phase.AWAIT_REBOOT, Phase.CONFIGURE));
+        }
+
+        final Map<Phase, PhaseHandler> handlers = _deploymentPhases.getHandlers(new Operator() {
+
+            @Override
+            public void requestRewiring() {
+                LOG.info("Please move the cable to the WAN port of the device.");
+            }
+
+            @Override
+            public boolean continueWithoutRewiring() {
+                return false;
+            }
+        });
+        // registering nodes and printing labels is left to the station
+        return Maps.filterKeys(handlers, Predicates.in(phases));
+    }
+
     private static String generatePassword() {
         return RandomStringUtils.randomAlphanumeric(12);
     }
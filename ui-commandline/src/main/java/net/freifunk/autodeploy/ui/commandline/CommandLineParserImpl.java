@@ -24,9 +24,12 @@ package net.freifunk.autodeploy.ui.commandline;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.PrintWriter;
+import java.net.URI;
+import java.net.URISyntaxException;
 
 import net.freifunk.autodeploy.AutoDeployOptions;
 import net.freifunk.autodeploy.PhaseOptions;
+import net.freifunk.autodeploy.device.DeploymentMode;
 import net.freifunk.autodeploy.device.Device;
 import net.freifunk.autodeploy.device.DeviceService;
 import net.freifunk.autodeploy.firmware.Firmware;
@@ -41,6 +44,7 @@ import org.apache.commons.cli.PosixParser;
 
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.inject.Inject;
 
@@ -63,6 +67,9 @@ public class CommandLineParserImpl implements CommandLineParser {
     private static final String NODENAME_OPTION = "n";
     private static final String MODEL_OPTION = "m";
     private static final String AUTODETECT_MODEL_OPTION = "a";
+    private static final String RECOVERY_OPTION = "r";
+    private static final String SYSUPGRADE_OPTION = "u";
+    private static final String SYNC_OPTION = "s";
 
     private final DeviceService _deviceService;
     private final FirmwareService _firmwareService;
@@ -83,13 +90,16 @@ public class CommandLineParserImpl implements CommandLineParser {
         options.addOption(new Option(LIST_FIRMWARES_OPTION, "list-firmwares", false, "List supported firmwares."));
         options.addOption(new Option(DEPLOY_OPTION, "deploy", false, "Deploy the firmware to the device."));
         options.addOption(new Option(CONFIGURE_OPTION, "configure", false, "Configure the firmware on the device."));
-        options.addOption(new Option(FIRMWARE_OPTION, "firmware", true, "The firmware to configure."));
-        options.addOption(new Option(FIRMWARE_IMAGE_OPTION, "image", true, "The firmware image."));
+        options.addOption(new Option(FIRMWARE_OPTION, "firmware", true, "The firmware to configure or to pick the image of."));
+        options.addOption(new Option(FIRMWARE_IMAGE_OPTION, "image", true, "The firmware image or a directory to pick the newest release of --firmware from."));
         options.addOption(new Option(PASSWORD_OPTION, "password", true, "The new root password for the device."));
         options.addOption(new Option(GENERATE_PASSWORD_OPTION, "gen-password", false, "The root password for the device will be generated."));
         options.addOption(new Option(NODENAME_OPTION, "nodename", true, "The name for the node. Will also be the hostname."));
         options.addOption(new Option(MODEL_OPTION, "model", true, "The model."));
         options.addOption(new Option(AUTODETECT_MODEL_OPTION, "autodetect-model", false, "Autodetect the model."));
+        options.addOption(new Option(RECOVERY_OPTION, "recovery", false, "Deploy via TFTP to a device in bootloader recovery mode."));
+        options.addOption(new Option(SYSUPGRADE_OPTION, "sysupgrade", false, "Deploy a sysupgrade image to a device running Gluon in config mode."));
+        options.addOption(new Option(SYNC_OPTION, "sync", true, "Download new images listed by a Gluon manifest or directory index URL into the --image directory."));
 
         return options;
     }
@@ -115,6 +125,21 @@ public class CommandLineParserImpl implements CommandLineParser {
         return value;
     }
 
+    private Firmware parseFirmware(final CommandLine commandLine) throws CommandLineParsingException {
+        final String firmwareString = getArgValue(
+            commandLine,
+            FIRMWARE_OPTION,
+            "No firmware specified."
+        );
+        final Firmware firmware = _firmwareService.findSupportedFirmware(firmwareString);
+
+        if (firmware == null) {
+            throw new CommandLineParsingException("Unknown firmware: " + firmwareString);
+        }
+
+        return firmware;
+    }
+
     @Override
     public AutoDeployOptions parse(final String[] args) throws CommandLineParsingException {
         final Options options = createOptions();
@@ -138,6 +163,24 @@ public class CommandLineParserImpl implements CommandLineParser {
             return AutoDeployOptions.forListings(listFirmwares, listModels);
         }
 
+        if (commandLine.hasOption(SYNC_OPTION)) {
+            final ImmutableList.Builder<URI> sources = ImmutableList.builder();
+            for (final String sourceString: commandLine.getOptionValues(SYNC_OPTION)) {
+                try {
+                    sources.add(new URI(sourceString.trim()));
+                } catch (final URISyntaxException e) {
+                    throw new CommandLineParsingException("Invalid URL: " + sourceString, e);
+                }
+            }
+
+            final String directoryString = getArgValue(
+                commandLine,
+                FIRMWARE_IMAGE_OPTION,
+                "No firmware image directory specified."
+            );
+            return AutoDeployOptions.forMirrorSync(sources.build(), new File(directoryString));
+        }
+
         final ImmutableSet.Builder<PhaseOptions> phases = ImmutableSet.builder();
 
         final boolean deploy = commandLine.hasOption(DEPLOY_OPTION);
@@ -183,26 +226,48 @@ public class CommandLineParserImpl implements CommandLineParser {
                 "No firmware image specified."
             );
 
+            final boolean recovery = commandLine.hasOption(RECOVERY_OPTION);
+            final boolean sysupgrade = commandLine.hasOption(SYSUPGRADE_OPTION);
+
+            if (recovery && sysupgrade) {
+                throw new CommandLineParsingException(
+                    "Specifying both --" + getLongOption(options, RECOVERY_OPTION) +
+                    " and --" + getLongOption(options, SYSUPGRADE_OPTION) + " is not supported."
+                );
+            }
+
+            final DeploymentMode mode;
+            if (recovery) {
+                mode = DeploymentMode.RECOVERY;
+            } else if (sysupgrade) {
+                mode = DeploymentMode.SYSUPGRADE;
+            } else {
+                mode = DeploymentMode.FACTORY;
+            }
+
             final File firmwareImage = new File(firmwareFileString);
-            phases.add(PhaseOptions.forDeployPhase(
-                device,
-                autodetectDevice,
-                firmwareImage
-            ));
+            if (firmwareImage.isDirectory()) {
+                // the newest release of the firmware gets picked from the directory
+                phases.add(PhaseOptions.forDeployPhase(
+                    device,
+                    autodetectDevice,
+                    mode,
+                    firmwareImage,
+                    parseFirmware(commandLine)
+                ));
+            } else {
+                phases.add(PhaseOptions.forDeployPhase(
+                    device,
+                    autodetectDevice,
+                    mode,
+                    firmwareImage
+                ));
+            }
         }
 
         final boolean configure = commandLine.hasOption(CONFIGURE_OPTION);
         if (configure) {
-            final String firmwareString = getArgValue(
-                commandLine,
-                FIRMWARE_OPTION,
-                "No firmware specified."
-            );
-            final Firmware firmware = _firmwareService.findSupportedFirmware(firmwareString);
-
-            if (firmware == null) {
-                throw new CommandLineParsingException("Unknown firmware: " + firmwareString);
-            }
+            final Firmware firmware = parseFirmware(commandLine);
 
             final String nodename = getArgValue(
                 commandLine,
@@ -46,6 +46,8 @@ import net.freifunk.autodeploy.device.DetailedDevice;
 import net.freifunk.autodeploy.firmware.Firmware;
 import net.freifunk.autodeploy.firmware.FirmwareConfiguration;
 import net.freifunk.autodeploy.firmware.FreifunkNordFirmwareConfiguration;
+import net.freifunk.autodeploy.firmware.community.Community;
+import net.freifunk.autodeploy.firmware.community.CommunityIndex;
 
 import org.apache.batik.transcoder.TranscoderException;
 import org.apache.batik.transcoder.TranscoderInput;
@@ -59,6 +61,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.common.io.CharSource;
 import com.google.common.io.Resources;
+import com.google.inject.Inject;
 
 /**
  * Default implementation of {@link LabelPrintingService}.
@@ -69,6 +72,14 @@ public class LabelPrintingServiceImpl implements LabelPrintingService {
 
     private static final Logger LOG = LoggerFactory.getLogger(LabelPrintingServiceImpl.class);
     private static final String LABLE_PRINTER = "DYMO_LabelWriter_450";
+    private static final String DEFAULT_LABEL_TEMPLATE = "ffnord-label.svg";
+
+    private final CommunityIndex _communityIndex;
+
+    @Inject
+    public LabelPrintingServiceImpl(final CommunityIndex communityIndex) {
+        _communityIndex = communityIndex;
+    }
 
     @Override
     public void printLabel(
@@ -129,12 +140,11 @@ public class LabelPrintingServiceImpl implements LabelPrintingService {
     }
 
     private String getSVGFilename(final Firmware firmware) {
-        switch (firmware.getName()) {
-            case "ffhh":
-                return "ffhh-label.svg";
-            default:
-                return "ffnord-label.svg";
+        final Community community = _communityIndex.getCommunity(firmware.getName());
+        if (community == null || community.getLabelTemplate() == null) {
+            return DEFAULT_LABEL_TEMPLATE;
         }
+        return community.getLabelTemplate();
     }
 
     private File toPng(final String svg) {
@@ -21,25 +21,43 @@
  */
 package net.freifunk.autodeploy.ui.pi;
 
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static net.freifunk.autodeploy.ui.pi.peripherals.JoystickDriver.JoystickEvent.BUTTON;
 import static net.freifunk.autodeploy.ui.pi.peripherals.JoystickDriver.JoystickEvent.LEFT;
 import static net.freifunk.autodeploy.ui.pi.peripherals.JoystickDriver.JoystickEvent.RIGHT;
 
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.net.URI;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
-import net.freifunk.autodeploy.device.DetailedDevice;
+import net.freifunk.autodeploy.Phase;
+import net.freifunk.autodeploy.device.DeploymentMode;
 import net.freifunk.autodeploy.device.Device;
-import net.freifunk.autodeploy.device.DeviceDeployer;
 import net.freifunk.autodeploy.device.DeviceService;
+import net.freifunk.autodeploy.device.DeviceState;
+import net.freifunk.autodeploy.device.DeviceStateProbe;
+import net.freifunk.autodeploy.device.InvalidFirmwareImageException;
 import net.freifunk.autodeploy.firmware.Firmware;
-import net.freifunk.autodeploy.firmware.FirmwareConfiguration;
 import net.freifunk.autodeploy.firmware.FirmwareConfigurator;
 import net.freifunk.autodeploy.firmware.FirmwareService;
+import net.freifunk.autodeploy.journal.DeploymentJournal;
+import net.freifunk.autodeploy.journal.DeploymentRecord;
+import net.freifunk.autodeploy.lifecycle.BootVerifier;
+import net.freifunk.autodeploy.phase.DeploymentPhases;
+import net.freifunk.autodeploy.phase.Operator;
+import net.freifunk.autodeploy.phase.PhaseContext;
+import net.freifunk.autodeploy.phase.PhaseHandler;
+import net.freifunk.autodeploy.phase.PhaseRun;
+import net.freifunk.autodeploy.phase.PhaseScheduler;
+import net.freifunk.autodeploy.phase.Resource;
 import net.freifunk.autodeploy.printing.LabelPrintingService;
+import net.freifunk.autodeploy.registration.NodeRegistrationQueue;
 import net.freifunk.autodeploy.ui.pi.peripherals.JoystickDriver;
 import net.freifunk.autodeploy.ui.pi.peripherals.JoystickDriver.JoystickEvent;
 import net.freifunk.autodeploy.ui.pi.peripherals.LCDDriver;
@@ -50,8 +68,13 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Preconditions;
+import com.google.common.base.Predicates;
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Ordering;
+import com.google.common.collect.Sets;
 import com.google.inject.Guice;
 import com.google.inject.Inject;
 
@@ -62,16 +85,82 @@ import com.google.inject.Inject;
  */
 public class RaspberryPiMain {
 
+    private static final class DetectedDevice {
+        private final Device _device;
+        private final DeploymentMode _mode;
+
+        private DetectedDevice(final Device device, final DeploymentMode mode) {
+            _device = device;
+            _mode = mode;
+        }
+    }
+
+    private static final class PhaseFailure {
+        private final String _nodename;
+        private final Phase _phase;
+
+        private PhaseFailure(final String nodename, final Phase phase) {
+            _nodename = nodename;
+            _phase = phase;
+        }
+    }
+
     private static final Logger LOG = LoggerFactory.getLogger(RaspberryPiMain.class);
 
+    // phases going on in the background once the device is done with, their failures are reported before the next one
+    private static final Set<Phase> BACKGROUND_PHASES = Sets.immutableEnumSet(Phase.REGISTER, Phase.VERIFY, Phase.PRINT);
+
     @Inject private JoystickDriver _joystickDriver;
     @Inject private LCDDriver _lcdDriver;
     @Inject private DeviceService _deviceService;
+    @Inject private DeviceStateProbe _deviceStateProbe;
     @Inject private FirmwareService _firmwareService;
     @Inject private LabelPrintingService _labelPrintingService;
+    @Inject private DeploymentJournal _deploymentJournal;
+    @Inject private NodeRegistrationQueue _nodeRegistrationQueue;
+    @Inject private BootVerifier _bootVerifier;
+    @Inject private PhaseScheduler _phaseScheduler;
+    @Inject private DeploymentPhases _deploymentPhases;
+
+    // nodenames of nodes not booting into regular mode, reported before detecting the next device
+    private final Queue<String> _bootFailures = new ConcurrentLinkedQueue<>();
+
+    // background phases failed, reported before detecting the next device
+    private final Queue<PhaseFailure> _phaseFailures = new ConcurrentLinkedQueue<>();
+
+    private final PhaseScheduler.Listener _phaseListener = new PhaseScheduler.Listener() {
+
+        @Override
+        public void phaseStarted(final PhaseRun run, final Phase phase) {
+            switch (phase) {
+                case DEPLOY:
+                    LOG.debug("Starting installation.");
+                    _lcdDriver.writeLines("Installing...", "Please wait...");
+                    break;
+                case CONFIGURE:
+                    LOG.debug("Starting configuration.");
+                    _lcdDriver.writeLines("Configuring...", "Please wait...");
+                    break;
+                default:
+                    LOG.debug("Starting phase " + phase + ": " + run);
+                    break;
+            }
+        }
+
+        @Override
+        public void failed(final PhaseRun run, final Phase phase, final Throwable cause) {
+            LOG.warn("Phase " + phase + " failed: " + run, cause);
+            if (BACKGROUND_PHASES.contains(phase)) {
+                _phaseFailures.add(new PhaseFailure(run.getContext().getNodename(), phase));
+            }
+        }
+    };
 
     public RaspberryPiMain() {
+        final Stopwatch stopwatch = new Stopwatch().start();
         Guice.createInjector(new RaspberryPiUIModule()).injectMembers(this);
+        // deployers and configurators are created lazily, so this should not grow with the number of plugins
+        LOG.info("Injector created in {} ms.", stopwatch.elapsed(MILLISECONDS));
     }
 
     public static void main(final String args[]) throws InterruptedException {
@@ -80,7 +169,7 @@ public class RaspberryPiMain {
         new RaspberryPiMain().run(args);
     }
 
-    private void run(final String[] args) {
+    private void run(final String[] args) throws InterruptedException {
         LOG.debug("Application context bound.");
 
         if (args == null || args.length != 1) {
@@ -96,134 +185,299 @@ public class RaspberryPiMain {
 
             LOG.debug("Initialization done.");
 
-            while (true) {
-                final Device device = detectDevice();
+            _deploymentPhases.start();
+            _bootVerifier.start(new BootVerifier.Listener() {
 
-                LOG.debug("Checking available firmware images.");
+                @Override
+                public void verified(final DeploymentRecord record) {
+                    LOG.debug("Boot verified: " + record);
+                }
 
-                final Multimap<Device, Firmware> availableFirmwares = _firmwareService.getAvailableDeviceFirmwareMappings(firmwareImageDirectory);
-                final Collection<Firmware> deviceFirmwares = availableFirmwares.get(device);
+                @Override
+                public void failed(final DeploymentRecord record, final String reason) {
+                    _bootFailures.add(record.getNodename());
+                }
+            });
+
+            final Map<Phase, PhaseHandler> handlers = createHandlers();
+            resumeDeployments(handlers);
 
-                if (deviceFirmwares == null || deviceFirmwares.isEmpty()) {
-                    LOG.debug("No matching image found. Waiting for confirmation.");
+            // indexes the available images, hashing new ones in the background
+            _firmwareService.getAvailableDeviceFirmwareMappings(firmwareImageDirectory);
 
-                    _lcdDriver.writeLines("No firmware", "found. :-(  [OK]");
-                    waitForButton();
-                } else {
-                    final Firmware firmware = chooseFirmware(deviceFirmwares);
+            while (true) {
+                final PhaseContext context = PhaseContext.forNewDeployment(true);
+                context.setFirmwareImageDirectory(firmwareImageDirectory);
+                runDeployment(context, prepareDeployment(context) ? handlers : withoutDeployment(handlers));
+            }
+        }
+        finally {
+            LOG.debug("Shutting down.");
 
-                    if (firmware == null) {
-                        LOG.debug("No firmware selected. Aborting.");
-                        continue;
-                    }
+            try {
+                _joystickDriver.shutdown();
+            }
+            finally {
+                _lcdDriver.shutdown();
+            }
+        }
+    }
 
-                    LOG.debug("Firmware selected: " + firmware.getName());
+    private Map<Phase, PhaseHandler> createHandlers() {
+        final Map<Phase, PhaseHandler> handlers = Maps.newEnumMap(_deploymentPhases.getHandlers(new Operator() {
 
-                    final String password = generateRandomPassword();
-                    final String nodename = generateRandomNodename(firmware);
+            @Override
+            public void requestRewiring() {
+                _lcdDriver.writeLines("Connect WAN port", "Waiting...");
+            }
 
-                    LOG.debug("Password and nodename generated.");
+            @Override
+            public boolean continueWithoutRewiring() {
+                LOG.debug("No rewiring detected. Waiting for confirmation.");
+                _lcdDriver.writeLines("Connect WAN port", "            [OK]");
+                waitForButton();
+                return true;
+            }
+        }));
 
-                    final DeviceDeployer deployer = _deviceService.getDeployer(device);
-                    final FirmwareConfigurator configurator = _firmwareService.getConfigurator(firmware);
+        handlers.put(Phase.PRINT, new PhaseHandler() {
 
-                    LOG.debug("Deployer and configurator loaded.");
+            @Override
+            public void run(final PhaseRun run) {
+                printLabel(run.getContext());
+            }
+        });
+        return handlers;
+    }
 
-                    final File firmwareImage = _firmwareService.findFirmwareImage(firmwareImageDirectory, device, firmware);
+    /**
+     * @return the given handlers, skipping the deployment of the firmware to configure the device right away.
+     */
+    private Map<Phase, PhaseHandler> withoutDeployment(final Map<Phase, PhaseHandler> handlers) {
+        final Map<Phase, PhaseHandler> configureOnly = Maps.newEnumMap(handlers);
+        configureOnly.put(Phase.DETECT, new PhaseHandler() {
+
+            @Override
+            public void run(final PhaseRun run) {
+                LOG.debug("Configuring device without flashing it again.");
+                _deploymentPhases.skipDeployment(run);
+            }
+        });
+        return configureOnly;
+    }
 
-                    if (firmwareImage == null) {
-                        LOG.debug("No firmware image found. Waiting for confirmation.");
+    private void resumeDeployments(final Map<Phase, PhaseHandler> handlers) throws InterruptedException {
+        for (final DeploymentRecord record: _deploymentJournal.getInFlightRecords()) {
+            final Firmware firmware = _firmwareService.findSupportedFirmware(record.getFirmwareName());
+            Preconditions.checkState(firmware != null, "Firmware not supported anymore: " + record.getFirmwareName());
+
+            final PhaseContext context = PhaseContext.forRecord(record, firmware);
+            final Map<Phase, PhaseHandler> remainingHandlers = Maps.filterKeys(
+                handlers,
+                Predicates.in(_deploymentPhases.getRemainingPhases(record))
+            );
+
+            if (_nodeRegistrationQueue.isPending(record.getMac())) {
+                // the label gets printed once the node is registered, there is no need to wait for it
+                LOG.debug("Node registration still queued: " + record);
+                _phaseScheduler.submit(context, remainingHandlers, _phaseListener);
+                continue;
+            }
 
-                        _lcdDriver.writeLines("No firmware", "found. :-(  [OK]");
-                        waitForButton();
-                        continue;
-                    }
+            LOG.debug("Found unfinished deployment: " + record);
 
-                    LOG.debug("Matching firmware image: " + firmwareImage);
+            if (_nodeRegistrationQueue.isDeadLetter(record.getMac())) {
+                // resuming queues the registration again
+                LOG.warn("Node registration was given up. Waiting for confirmation: " + record);
 
-                    final DetailedDevice detailedDevice;
-                    try {
-                        LOG.debug("Starting installation.");
+                _lcdDriver.writeLines("Not registered", record.getNodename());
+                waitForButton();
+            }
 
-                        _lcdDriver.writeLines("Installing...", "Please wait...");
-                        detailedDevice = deployer.deploy(firmwareImage);
+            if (chooseResume(record)) {
+                LOG.debug("Resuming deployment.");
+                runDeployment(context, remainingHandlers);
+            } else {
+                LOG.debug("Discarding deployment.");
+                _nodeRegistrationQueue.discardDeadLetter(record.getMac());
+                _deploymentJournal.record(record.completed());
+            }
+        }
+    }
 
-                        LOG.debug("Installation done.");
-                    } catch (final FileNotFoundException e) {
-                        throw new IllegalStateException("Could not deploy firmware.", e);
-                    }
+    private boolean chooseResume(final DeploymentRecord record) {
+        boolean resume = true;
+        JoystickEvent event = null;
 
-                    if (configurator.requiresRewiring(device)) {
-                        LOG.debug("Rewiring is required for device. Waiting for confirmation.");
-                        _lcdDriver.writeLines("Connect WAN port", "            [OK]");
-                        waitForButton();
-                    }
+        while (event != BUTTON) {
+            Sleeper.sleepTight(100);
 
-                    LOG.debug("Starting configuration.");
+            _lcdDriver.writeLines(record.getNodename(), resume ? "Resume      [OK]" : "Discard     [OK]");
 
-                    _lcdDriver.writeLines("Configuring...", "Please wait...");
-                    final FirmwareConfiguration configuration = configurator.configure(password, nodename);
+            _joystickDriver.flush();
+            event = _joystickDriver.read();
 
-                    LOG.debug("Configuration done.");
+            if (event == LEFT || event == RIGHT) {
+                resume = !resume;
+            }
+        }
 
-                    final String updateToken;
-                    final URI updateUri;
-                    if (configurator.supportsNodeRegistration()) {
-                        LOG.debug("Starting node registration.");
+        return resume;
+    }
 
-                        updateToken = configurator.registerNode(configuration, detailedDevice);
+    /**
+     * Runs the phases of a deployment up to the device not being needed anymore. Registering the node and printing its
+     * label go on in the background, while the next device gets connected.
+     */
+    private void runDeployment(final PhaseContext context, final Map<Phase, PhaseHandler> handlers) throws InterruptedException {
+        final PhaseRun run = _phaseScheduler.submit(context, handlers, _phaseListener);
+        run.awaitDoneWith(Resource.NIC);
+        reportOutcome(run);
+    }
 
-                        LOG.debug("Node registration done.");
+    private void reportOutcome(final PhaseRun run) {
+        final Phase failedPhase = run.getFailedPhase();
+        final Throwable failure = run.getFailure();
 
-                        updateUri = configurator.getNodeUpdateUri();
-                    } else {
-                        LOG.debug("Node registration not supported. Skipping.");
+        // failures of the phases still running in the background are reported before detecting the next device
+        if (failedPhase == null || BACKGROUND_PHASES.contains(failedPhase)) {
+            LOG.debug("We are done. Waiting for confirmation.");
 
-                        updateToken = null;
-                        updateUri = null;
-                    }
+            _lcdDriver.writeLines("We are done...", "            [OK]");
+        } else if (failure instanceof FileNotFoundException) {
+            LOG.debug("No firmware image found. Waiting for confirmation.");
 
-                    LOG.debug("Printing label.");
+            _lcdDriver.writeLines("No firmware", "found. :-(  [OK]");
+        } else if (failure instanceof InvalidFirmwareImageException && failedPhase == Phase.VALIDATE) {
+            LOG.warn("Firmware image does not match its checksum. Waiting for confirmation.");
 
-                    _labelPrintingService.printLabel(
-                        firmware,
-                        detailedDevice,
-                        configuration,
-                        updateToken,
-                        updateUri
-                    );
+            _lcdDriver.writeLines("Corrupt firmware", "image. :-(  [OK]");
+        } else if (failure instanceof InvalidFirmwareImageException) {
+            LOG.warn("Invalid firmware image. Waiting for confirmation.", failure);
 
-                    LOG.debug("We are done. Waiting for confirmation.");
+            _lcdDriver.writeLines("Invalid firmware", "image. :-(  [OK]");
+        } else {
+            LOG.warn("Phase " + failedPhase + " failed. Waiting for confirmation.", failure);
 
-                    _lcdDriver.writeLines("We are done...", "            [OK]");
-                    waitForButton();
-                }
-            }
+            _lcdDriver.writeLines("Error :-(   [OK]", failedPhase.name());
         }
-        finally {
-            LOG.debug("Shutting down.");
+        waitForButton();
+    }
 
-            try {
-                _joystickDriver.shutdown();
+    /**
+     * Detects the connected device and lets the operator choose the firmware for it, before the phases of the
+     * deployment are started. Devices found in config mode are configured right away unless the operator chooses to
+     * flash them again.
+     *
+     * @return whether to deploy the firmware, <code>false</code> if the device is to be configured only.
+     */
+    private boolean prepareDeployment(final PhaseContext context) {
+        while (true) {
+            final DetectedDevice detectedDevice = detectDevice();
+            final Device device = detectedDevice._device;
+
+            LOG.debug("Checking available firmware images.");
+
+            final Multimap<Device, Firmware> availableFirmwares = _firmwareService.getAvailableDeviceFirmwareMappings(
+                context.getFirmwareImageDirectory()
+            );
+            final Collection<Firmware> deviceFirmwares = availableFirmwares.get(device);
+
+            if (deviceFirmwares.isEmpty()) {
+                LOG.debug("No matching image found. Waiting for confirmation.");
+
+                _lcdDriver.writeLines("No firmware", "found. :-(  [OK]");
+                waitForButton();
+                continue;
             }
-            finally {
-                _lcdDriver.shutdown();
+
+            final Firmware firmware = chooseFirmware(deviceFirmwares);
+
+            if (firmware == null) {
+                LOG.debug("No firmware selected. Aborting.");
+                continue;
             }
+
+            LOG.debug("Firmware selected: " + firmware.getName());
+
+            context.setDevice(device);
+            context.setMode(detectedDevice._mode);
+            context.setFirmware(firmware);
+            context.setPassword(generateRandomPassword());
+            context.setNodename(generateRandomNodename(firmware));
+
+            LOG.debug("Password and nodename generated.");
+
+            return detectedDevice._mode != DeploymentMode.SYSUPGRADE || chooseReflash();
         }
     }
 
-    private Device detectDevice() {
+    /**
+     * Prints the label for a configured (and possibly registered) device and completes its deployment.
+     */
+    private void printLabel(final PhaseContext context) {
+        final DeploymentRecord record = context.getRecord();
+        final Firmware firmware = context.getFirmware();
+        final FirmwareConfigurator configurator = _firmwareService.getConfigurator(firmware);
+
+        LOG.debug("Printing label.");
+
+        _labelPrintingService.printLabel(
+            firmware,
+            record.getDetailedDevice(),
+            record.getConfiguration(),
+            record.getUpdateToken(),
+            configurator.supportsNodeRegistration() ? configurator.getNodeUpdateUri() : null
+        );
+
+        final DeploymentRecord completed = record.completed();
+        _deploymentJournal.record(completed);
+        context.setRecord(completed);
+    }
+
+    private DetectedDevice detectDevice() {
+        reportPhaseFailures();
+        reportBootFailures();
+
         LOG.debug("Waiting for confirmation before detecting device.");
 
         _lcdDriver.writeLines("Connect device", "            [OK]");
         waitForButton();
 
+        // whatever is still being verified got disconnected
+        _bootVerifier.abandon();
+
         Device device = null;
+        DeploymentMode mode = null;
         while (device == null) {
             LOG.debug("Starting detection.");
 
             _lcdDriver.writeLines("Detecting...", "Please wait...");
-            device = _deviceService.autodetectDevice();
+
+            final DeviceState state = _deviceStateProbe.probe();
+            LOG.debug("Device state: " + state);
+
+            if (state == DeviceState.GLUON_REGULAR_MODE) {
+                LOG.debug("Device runs Gluon in regular mode. Waiting for confirmation.");
+
+                _lcdDriver.writeLines("Gluon running", "Conf. mode? [OK]");
+                waitForButton();
+                continue;
+            }
+
+            // vendor firmware first, then devices already running Gluon and finally bootloader recovery
+            final List<DeploymentMode> candidates = state.getDeploymentMode() == null
+                ? Arrays.asList(DeploymentMode.values())
+                : ImmutableList.of(state.getDeploymentMode());
+            for (final DeploymentMode candidate: candidates) {
+                LOG.debug("Trying to detect device in mode: " + candidate);
+
+                device = _deviceService.autodetectDevice(candidate);
+                if (device != null) {
+                    mode = candidate;
+                    break;
+                }
+            }
 
             if (device == null) {
                 LOG.debug("No device found. Waiting for confirmation.");
@@ -233,12 +487,63 @@ public class RaspberryPiMain {
             }
         }
 
-        LOG.debug("Device detected: " + device.asString());
+        LOG.debug("Device detected: " + device.asString() + " (mode " + mode + ")");
 
-        _lcdDriver.writeLines(device.asString(), "          [Next]");
+        _lcdDriver.writeLines(device.asString(), getModeLine(mode));
         waitForButton();
 
-        return device;
+        return new DetectedDevice(device, mode);
+    }
+
+    private void reportPhaseFailures() {
+        PhaseFailure failure;
+        while ((failure = _phaseFailures.poll()) != null) {
+            LOG.debug("Reporting failed phase " + failure._phase + " of " + failure._nodename + ". Waiting for confirmation.");
+
+            _lcdDriver.writeLines("Failed: " + failure._phase.name(), failure._nodename);
+            waitForButton();
+        }
+    }
+
+    private void reportBootFailures() {
+        String nodename;
+        while ((nodename = _bootFailures.poll()) != null) {
+            LOG.debug("Reporting boot failure of " + nodename + ". Waiting for confirmation.");
+
+            _lcdDriver.writeLines("Boot failed [OK]", nodename);
+            waitForButton();
+        }
+    }
+
+    private boolean chooseReflash() {
+        boolean reflash = false;
+        JoystickEvent event = null;
+
+        while (event != BUTTON) {
+            Sleeper.sleepTight(100);
+
+            _lcdDriver.writeLines("In config mode", reflash ? "Reflash     [OK]" : "Configure   [OK]");
+
+            _joystickDriver.flush();
+            event = _joystickDriver.read();
+
+            if (event == LEFT || event == RIGHT) {
+                reflash = !reflash;
+            }
+        }
+
+        return reflash;
+    }
+
+    private String getModeLine(final DeploymentMode mode) {
+        switch (mode) {
+            case SYSUPGRADE:
+                return "Gluon     [Next]";
+            case RECOVERY:
+                return "Recovery  [Next]";
+            default:
+                return "          [Next]";
+        }
     }
 
     private Firmware chooseFirmware(final Collection<Firmware> deviceFirmwares) {